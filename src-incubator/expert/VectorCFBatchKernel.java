@@ -0,0 +1,116 @@
+package expert;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Batch kernel applying the MYCIN update to as many patients per instruction as the preferred SIMD width
+ * allows, using the (incubating) Java Vector API
+ *
+ * <p>All three cases of <code>confidenceFactor/3</code> are evaluated for every lane, and the result for
+ * each lane is selected with masks instead of branches. Lanes falling into a case other than the selected
+ * one may hold infinities or <code>NaN</code> in the intermediate results, but these are never blended into
+ * the output.</p>
+ */
+final class VectorCFBatchKernel extends CFBatchKernel {
+    /* Preferred (widest efficient) species of double vectors on this platform */
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Returns a short name identifying this kernel, including the number of lanes
+     *
+     * @return short name identifying this kernel
+     */
+    @Override
+    String name() {
+        return "vector-" + SPECIES.length();
+    }
+
+    /**
+     * Updates the certainty factors of one disease for the first <code>size</code> patients in the batch
+     *
+     * @param lane certainty factors of one disease, one entry per patient
+     * @param affirmative <code>true</code> at index <code>p</code> if patient <code>p</code> reported
+     *                    experiencing the symptom
+     * @param answered <code>true</code> at index <code>p</code> if patient <code>p</code> was asked about the
+     *                 symptom, or <code>null</code> if every patient in the batch was asked
+     * @param weight unsigned weight of the symptom
+     * @param size number of patients in the batch
+     */
+    @Override
+    void apply(double[] lane, boolean[] affirmative, boolean[] answered, double weight, int size) {
+        DoubleVector positive = DoubleVector.broadcast(SPECIES, weight);
+        DoubleVector negative = DoubleVector.broadcast(SPECIES, -1 * weight);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+
+        int bound = SPECIES.loopBound(size);
+        int p = 0;
+
+        for (; p < bound; p += SPECIES.length()) {
+            /* Select the signed weight per patient. A weight of zero leaves the certainty factor unchanged,
+            so patients who were not asked are masked out this way.
+             */
+            VectorMask<Double> yes = VectorMask.fromArray(SPECIES, affirmative, p);
+            DoubleVector trueWeight = negative.blend(positive, yes);
+
+            if (answered != null) {
+                trueWeight = zero.blend(trueWeight, VectorMask.fromArray(SPECIES, answered, p));
+            }
+
+            combine(DoubleVector.fromArray(SPECIES, lane, p), trueWeight).intoArray(lane, p);
+        }
+
+        /* Handle the patients that do not fill a whole vector. */
+        applyScalar(lane, affirmative, answered, weight, p, size);
+    }
+
+    /**
+     * Updates the certainty factors of one disease for the first <code>size</code> patients in the batch,
+     * given that all of them gave the same answer
+     *
+     * @param lane certainty factors of one disease, one entry per patient
+     * @param trueWeight signed weight of the symptom
+     * @param size number of patients in the batch
+     */
+    @Override
+    void apply(double[] lane, double trueWeight, int size) {
+        DoubleVector w = DoubleVector.broadcast(SPECIES, trueWeight);
+
+        int bound = SPECIES.loopBound(size);
+        int p = 0;
+
+        for (; p < bound; p += SPECIES.length()) {
+            combine(DoubleVector.fromArray(SPECIES, lane, p), w).intoArray(lane, p);
+        }
+
+        /* Handle the patients that do not fill a whole vector. */
+        for (; p < size; p++) {
+            lane[p] = CertaintyFactors.combine(lane[p], trueWeight);
+        }
+    }
+
+    /**
+     * Returns the updated certainty factors, lane by lane, following the three cases detailed in MYCIN
+     *
+     * @param cf current certainty factors
+     * @param trueWeight signed weights of the symptom
+     * @return updated certainty factors
+     */
+    private static DoubleVector combine(DoubleVector cf, DoubleVector trueWeight) {
+        VectorMask<Double> bothPositive = cf.compare(VectorOperators.GT, 0)
+                .and(trueWeight.compare(VectorOperators.GT, 0));
+        VectorMask<Double> bothNegative = cf.compare(VectorOperators.LT, 0)
+                .and(trueWeight.compare(VectorOperators.LT, 0));
+
+        DoubleVector sum = cf.add(trueWeight);
+        DoubleVector product = cf.mul(trueWeight);
+
+        /* Third case, computed for every lane and overridden by the first two cases where applicable */
+        DoubleVector mixed = sum.div(cf.abs().min(trueWeight.abs()).neg().add(1));
+
+        return mixed.blend(sum.sub(product), bothPositive)
+                .blend(sum.add(product), bothNegative);
+    }
+}
@@ -0,0 +1,826 @@
+package expert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class implementing an <b>off-heap store of paused consultations</b> (patients who walk away and come back),
+ * which holds millions of them on one node without burdening the garbage collector
+ *
+ * <p>Every consultation takes a fixed-size slot of native memory, laid out as follows (in native byte order):
+ * <code>int generation, int flags (in use, emergency, sex code), int i, int symptom, int numAnswers,
+ * int nextFree, double age, double lastCF</code>, then the certainty factors (<code>double</code>, indexed as in
+ * <code>mapping/2</code>), then the words of the bit set of the removed symptoms (<code>long</code>). The slots are
+ * carved out of chunks of {@link MemorySegment}s, allocated as the store fills up, either in memory or in a
+ * memory-mapped file. The free slots are chained into a free list through their <code>nextFree</code> field.
+ * The names of the patients are not stored.</p>
+ *
+ * <p>A consultation is known by an ID made of its slot and of the generation of the slot, which is incremented
+ * when the consultation is removed, so that stale IDs are rejected. The consultations are answered in place
+ * ({@link #answerCode(long, int)} follows the flow of {@link DiagnosisSession}) without copying their state
+ * into heap objects; {@link #store(DiagnosisSession)} and {@link #resume(long, String)} move consultations in
+ * and out of the store. Operations on the consultations are guarded by a lock striped by slot, and allocating
+ * and freeing the slots by a lock of their own, so this class is thread-safe (except for {@link #close()}).</p>
+ *
+ * <p>A store backed by a file outlives the process: when the file is opened again with the same knowledge base,
+ * the consultations paused in it are kept, under the same IDs. {@link #flush()} forces the changes to the
+ * storage device. The file is sparse until the slots are used, and its byte order is that of the platform.</p>
+ *
+ * <p>The Foreign Function and Memory API is a preview API of Java 21, so this class needs
+ * <code>--enable-preview</code> to compile and to run (it is final as of Java 22). It is kept apart in
+ * <code>src-preview</code> and compiled on its own, against the classes of <code>src</code>, which do not depend
+ * on it.</p>
+ */
+public final class OffHeapSessionStore implements AutoCloseable {
+    /* Identification and version of the layout of the file */
+    private static final long MAGIC = 0x4548524C53544F52L;
+    private static final int FORMAT = 1;
+
+    /* Offsets of the fields of the header */
+    private static final long HEADER_MAGIC = 0;
+    private static final long HEADER_FORMAT = 8;
+    private static final long HEADER_SLOT_SIZE = 12;
+    private static final long HEADER_VERSION = 16;
+    private static final long HEADER_CHUNK_SLOTS = 24;
+    private static final long HEADER_NUM_SLOTS = 28;
+    private static final long HEADER_FREE = 32;
+    private static final long HEADER_LIVE = 36;
+    /* Size of the header, in bytes */
+    private static final long HEADER_SIZE = 64;
+
+    /* Offsets of the fields of a slot */
+    private static final long GENERATION = 0;
+    private static final long FLAGS = 4;
+    private static final long I = 8;
+    private static final long SYMPTOM = 12;
+    private static final long NUM_ANSWERS = 16;
+    private static final long NEXT_FREE = 20;
+    private static final long AGE = 24;
+    private static final long LAST_CF = 32;
+    private static final long CF = 40;
+
+    /* Flags of a slot */
+    private static final int FLAG_IN_USE = 1;
+    private static final int FLAG_EMERGENCY = 2;
+    private static final int SEX_SHIFT = 2;
+
+    /* Target size of a chunk, in bytes */
+    private static final long CHUNK_BYTES = 1 << 24;
+    /* Number of locks guarding the slots (a power of 2) */
+    private static final int STRIPES = 64;
+
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+    /* Offset of the bit set of the removed symptoms, and size of a slot, in bytes */
+    private final long removedOffset;
+    private final int slotSize;
+    /* Maximum number of consultations */
+    private final int capacity;
+    /* Number of slots per chunk */
+    private final int chunkSlots;
+
+    /* Arena owning the memory (or the mappings) */
+    private final Arena arena;
+    /* File backing the store, or null */
+    private final FileChannel channel;
+    /* Header: the layout, the version of the knowledge base, and the state of the allocator */
+    private final MemorySegment header;
+    /* Chunks of slots, allocated as the store fills up (null until then) */
+    private final MemorySegment[] chunks;
+
+    /* Locks guarding the slots, by slot */
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    /* Lock guarding the allocator (the chunks, the free list, and the counts in the header) */
+    private final ReentrantLock allocator = new ReentrantLock();
+
+    /**
+     * Creates a store holding up to the given number of consultations in memory
+     *
+     * @param kb static tables of the knowledge base of the consultations
+     * @param capacity maximum number of consultations
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public OffHeapSessionStore(KnowledgeBase kb, int capacity) {
+        this(kb, capacity, null, null);
+    }
+
+    /**
+     * Creates a store holding up to the given number of consultations in a memory-mapped file (whose paused
+     * consultations are kept if it was written by a store over the same knowledge base)
+     *
+     * @param kb static tables of the knowledge base of the consultations
+     * @param capacity maximum number of consultations
+     * @param file file backing the store
+     * @throws IOException if the file cannot be opened
+     * @throws UncheckedIOException if the file cannot be mapped
+     * @throws IllegalArgumentException if the capacity is not positive, or the file holds consultations over
+     *                                  another knowledge base, or more than the capacity
+     */
+    public OffHeapSessionStore(KnowledgeBase kb, int capacity, Path file) throws IOException {
+        this(kb, capacity, file, FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Creates a store holding up to the given number of consultations, in memory or in a memory-mapped file
+     *
+     * @param kb static tables of the knowledge base of the consultations
+     * @param capacity maximum number of consultations
+     * @param file file backing the store, or <code>null</code>
+     * @param channel channel of the file, or <code>null</code> to hold the consultations in memory
+     * @throws UncheckedIOException if the file cannot be mapped
+     * @throws IllegalArgumentException if the capacity is not positive, or the file holds consultations over
+     *                                  another knowledge base, or more than the capacity
+     */
+    private OffHeapSessionStore(KnowledgeBase kb, int capacity, Path file, FileChannel channel) {
+        this.kb = kb;
+        this.capacity = capacity;
+        this.channel = channel;
+        this.removedOffset = CF + 8L * kb.getNumDiseases();
+        long size = removedOffset + 8L * ((kb.getNumSymptoms() + 63) / 64);
+        this.slotSize = (int) Math.min(size, Integer.MAX_VALUE);
+        for (int k = 0; k < STRIPES; k++) {
+            stripes[k] = new ReentrantLock();
+        }
+
+        arena = Arena.ofShared();
+        try {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("The capacity must be positive");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The knowledge base is too large");
+            }
+
+            if (channel == null) {
+                header = arena.allocate(HEADER_SIZE, 8);
+                chunkSlots = initHeader();
+            } else {
+                boolean exists = channel.size() >= HEADER_SIZE;
+                header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE, arena);
+                chunkSlots = exists ? checkHeader(file) : initHeader();
+            }
+
+            chunks = new MemorySegment[(int) ((capacity + (long) chunkSlots - 1) / chunkSlots)];
+            int numSlots = header.get(ValueLayout.JAVA_INT, HEADER_NUM_SLOTS);
+            for (int c = 0; c < (numSlots + chunkSlots - 1) / chunkSlots; c++) {
+                chunks[c] = newChunk(c);
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the header of an empty store
+     *
+     * @return number of slots per chunk
+     */
+    private int initHeader() {
+        int slots = (int) Math.max(1, Math.min(capacity, CHUNK_BYTES / slotSize));
+        header.set(ValueLayout.JAVA_LONG, HEADER_MAGIC, MAGIC);
+        header.set(ValueLayout.JAVA_INT, HEADER_FORMAT, FORMAT);
+        header.set(ValueLayout.JAVA_INT, HEADER_SLOT_SIZE, slotSize);
+        header.set(ValueLayout.JAVA_LONG, HEADER_VERSION, kb.getVersion());
+        header.set(ValueLayout.JAVA_INT, HEADER_CHUNK_SLOTS, slots);
+        header.set(ValueLayout.JAVA_INT, HEADER_NUM_SLOTS, 0);
+        header.set(ValueLayout.JAVA_INT, HEADER_FREE, -1);
+        header.set(ValueLayout.JAVA_INT, HEADER_LIVE, 0);
+        return slots;
+    }
+
+    /**
+     * Checks the header of an existing file
+     *
+     * @param file file backing the store
+     * @return number of slots per chunk
+     * @throws IllegalArgumentException if the file is not a store over the same knowledge base, or holds more
+     *                                  slots than the capacity
+     */
+    private int checkHeader(Path file) {
+        if (header.get(ValueLayout.JAVA_LONG, HEADER_MAGIC) != MAGIC
+                || header.get(ValueLayout.JAVA_INT, HEADER_FORMAT) != FORMAT) {
+            throw new IllegalArgumentException(file + " is not a session store");
+        }
+        if (header.get(ValueLayout.JAVA_LONG, HEADER_VERSION) != kb.getVersion()
+                || header.get(ValueLayout.JAVA_INT, HEADER_SLOT_SIZE) != slotSize) {
+            throw new IllegalArgumentException(file + " holds consultations over another knowledge base");
+        }
+        if (header.get(ValueLayout.JAVA_INT, HEADER_NUM_SLOTS) > capacity) {
+            throw new IllegalArgumentException(file + " holds more slots than the capacity");
+        }
+        return header.get(ValueLayout.JAVA_INT, HEADER_CHUNK_SLOTS);
+    }
+
+    /**
+     * Allocates (or maps) a chunk of slots
+     *
+     * @param c index of the chunk
+     * @return chunk of slots
+     * @throws IOException if the chunk cannot be mapped
+     */
+    private MemorySegment newChunk(int c) throws IOException {
+        long bytes = (long) chunkSlots * slotSize;
+        if (channel == null) {
+            return arena.allocate(bytes, 8);
+        }
+        return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + c * bytes, bytes, arena);
+    }
+
+    /**
+     * Starts a consultation in the store, removing the symptoms that do not apply to the patient's sex and age
+     *
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @return ID of the consultation
+     * @throws IllegalStateException if the store is full
+     * @throws UncheckedIOException if a chunk of the file cannot be mapped
+     */
+    public long create(double age, String sex) {
+        int slot = allocate();
+        ReentrantLock lock = stripes[slot & (STRIPES - 1)];
+        lock.lock();
+        try {
+            MemorySegment chunk = chunks[slot / chunkSlots];
+            long base = (long) (slot % chunkSlots) * slotSize;
+            int sexCode = VitalSignRules.sexCode(sex);
+            init(chunk, base, age, sexCode);
+
+            if (sexCode == VitalSignRules.MALE) {
+                for (int s : kb.getFemaleSymptoms()) {
+                    setRemoved(chunk, base, s);
+                }
+            }
+            if (age >= kb.getAdultAge()) {
+                for (int s : kb.getPediatricSymptoms()) {
+                    setRemoved(chunk, base, s);
+                }
+            }
+
+            chunk.set(ValueLayout.JAVA_INT, base + SYMPTOM, nextSymptom(chunk, base, 0));
+            return idOf(chunk, base, slot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pauses a consultation by copying its state into the store
+     *
+     * @param session consultation over the knowledge base of the store
+     * @return ID of the consultation in the store
+     * @throws IllegalArgumentException if the consultation is over another knowledge base
+     * @throws IllegalStateException if the store is full
+     * @throws UncheckedIOException if a chunk of the file cannot be mapped
+     */
+    public long store(DiagnosisSession session) {
+        if (session.getKnowledgeBase().getVersion() != kb.getVersion()) {
+            throw new IllegalArgumentException("The consultation is over another knowledge base");
+        }
+
+        int slot = allocate();
+        ReentrantLock lock = stripes[slot & (STRIPES - 1)];
+        lock.lock();
+        try {
+            MemorySegment chunk = chunks[slot / chunkSlots];
+            long base = (long) (slot % chunkSlots) * slotSize;
+            init(chunk, base, session.getAge(), VitalSignRules.sexCode(session.getSex()));
+
+            for (int d = 0; d < kb.getNumDiseases(); d++) {
+                chunk.set(ValueLayout.JAVA_DOUBLE, base + CF + 8L * d, session.getCF(d));
+            }
+            for (int s = 0; s < kb.getNumSymptoms(); s++) {
+                if (session.isRemoved(s)) {
+                    setRemoved(chunk, base, s);
+                }
+            }
+
+            chunk.set(ValueLayout.JAVA_INT, base + I, session.getI());
+            chunk.set(ValueLayout.JAVA_INT, base + SYMPTOM, session.getSymptomId());
+            chunk.set(ValueLayout.JAVA_INT, base + NUM_ANSWERS, session.getNumAnswers());
+            chunk.set(ValueLayout.JAVA_DOUBLE, base + LAST_CF, session.getLastCF());
+            if (session.getEmergency()) {
+                int flags = chunk.get(ValueLayout.JAVA_INT, base + FLAGS);
+                chunk.set(ValueLayout.JAVA_INT, base + FLAGS, flags | FLAG_EMERGENCY);
+            }
+            return idOf(chunk, base, slot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resumes a paused consultation as a new session on the heap (the consultation stays in the store until it
+     * is removed)
+     *
+     * @param id ID of the consultation
+     * @param name name of the patient
+     * @return new session, in the state of the consultation
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    public DiagnosisSession resume(long id, String name) {
+        ReentrantLock lock = lockOf(id);
+        lock.lock();
+        try {
+            MemorySegment chunk = chunkOf(id);
+            long base = baseOf(id);
+
+            double[] cf = new double[kb.getNumDiseases()];
+            for (int d = 0; d < cf.length; d++) {
+                cf[d] = chunk.get(ValueLayout.JAVA_DOUBLE, base + CF + 8L * d);
+            }
+            boolean[] removed = new boolean[kb.getNumSymptoms()];
+            for (int s = 0; s < removed.length; s++) {
+                removed[s] = isRemoved(chunk, base, s);
+            }
+
+            int flags = chunk.get(ValueLayout.JAVA_INT, base + FLAGS);
+            int sexCode = (flags >>> SEX_SHIFT) & VitalSignRules.ANY_SEX;
+            String sex = sexCode == VitalSignRules.MALE ? "male" : sexCode == VitalSignRules.FEMALE ? "female" : "";
+
+            DiagnosisSession session;
+            session = new DiagnosisSession(kb, name, chunk.get(ValueLayout.JAVA_DOUBLE, base + AGE), sex);
+            session.restore(new SessionState(cf, removed, chunk.get(ValueLayout.JAVA_INT, base + I),
+                    chunk.get(ValueLayout.JAVA_INT, base + SYMPTOM), chunk.get(ValueLayout.JAVA_DOUBLE, base + LAST_CF),
+                    chunk.get(ValueLayout.JAVA_INT, base + NUM_ANSWERS), (flags & FLAG_EMERGENCY) != 0));
+            return session;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the patient's response to the current symptom of a consultation (see
+     * {@link DiagnosisSession#answer(String)})
+     *
+     * @param id ID of the consultation
+     * @param answer response of the patient
+     * @throws IllegalArgumentException if the consultation does not exist, or the reading of a vital sign is
+     *                                  out of its valid range
+     * @throws IllegalStateException if the consultation has ended
+     * @throws NumberFormatException if a vital sign is answered with something other than a number
+     */
+    public void answer(long id, String answer) {
+        ReentrantLock lock = lockOf(id);
+        lock.lock();
+        try {
+            MemorySegment chunk = chunkOf(id);
+            long base = baseOf(id);
+            int symptom = chunk.get(ValueLayout.JAVA_INT, base + SYMPTOM);
+            if (symptom < 0) {
+                throw new IllegalStateException("The consultation has ended");
+            }
+
+            int flags = chunk.get(ValueLayout.JAVA_INT, base + FLAGS);
+            apply(chunk, base, kb.getVitalSignRules().evaluate(symptom, answer,
+                    chunk.get(ValueLayout.JAVA_DOUBLE, base + AGE), (flags >>> SEX_SHIFT) & VitalSignRules.ANY_SEX));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the patient's response to the current symptom of a consultation, given as an answer code (see
+     * {@link VitalSignRules}), and moves to the next question, in place
+     *
+     * @param id ID of the consultation
+     * @param code answer code of the response
+     * @throws IllegalArgumentException if the consultation does not exist
+     * @throws IllegalStateException if the consultation has ended
+     */
+    public void answerCode(long id, int code) {
+        ReentrantLock lock = lockOf(id);
+        lock.lock();
+        try {
+            MemorySegment chunk = chunkOf(id);
+            long base = baseOf(id);
+            if (chunk.get(ValueLayout.JAVA_INT, base + SYMPTOM) < 0) {
+                throw new IllegalStateException("The consultation has ended");
+            }
+
+            apply(chunk, base, code);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the certainty factors of the diseases associated with the current symptom, removes the symptom,
+     * and moves to the next question, following {@link DiagnosisSession#answerCode(int)}
+     *
+     * @param chunk chunk of the slot
+     * @param base offset of the slot in the chunk
+     * @param code answer code of the response
+     */
+    private void apply(MemorySegment chunk, long base, int code) {
+        int symptom = chunk.get(ValueLayout.JAVA_INT, base + SYMPTOM);
+        if ((code & VitalSignRules.EMERGENCY) != 0) {
+            int flags = chunk.get(ValueLayout.JAVA_INT, base + FLAGS);
+            chunk.set(ValueLayout.JAVA_INT, base + FLAGS, flags | FLAG_EMERGENCY);
+        }
+
+        double trueWeight = CertaintyFactors.adjustedWeight(kb.getWeight(symptom),
+                (code & VitalSignRules.POSITIVE) != 0);
+        for (int d : kb.getDiseasesWithSymptom(symptom)) {
+            long offset = base + CF + 8L * d;
+            chunk.set(ValueLayout.JAVA_DOUBLE, offset,
+                    CertaintyFactors.combine(chunk.get(ValueLayout.JAVA_DOUBLE, offset), trueWeight));
+        }
+
+        int i = chunk.get(ValueLayout.JAVA_INT, base + I);
+        double lastCF = chunk.get(ValueLayout.JAVA_DOUBLE, base + CF + 8L * i);
+        setRemoved(chunk, base, symptom);
+
+        /* Move to the next disease if the certainty factor drops below the threshold, or if all the symptoms of
+        the disease have been exhausted without reaching the conclusion. */
+        if (lastCF < kb.getCFValueRemove()) {
+            i++;
+            symptom = nextSymptom(chunk, base, i);
+        } else {
+            symptom = nextSymptom(chunk, base, i);
+            if (symptom < 0 && lastCF < kb.getCFValueConclude()) {
+                i++;
+                symptom = nextSymptom(chunk, base, i);
+            }
+        }
+
+        chunk.set(ValueLayout.JAVA_INT, base + I, i);
+        chunk.set(ValueLayout.JAVA_INT, base + SYMPTOM, symptom);
+        chunk.set(ValueLayout.JAVA_DOUBLE, base + LAST_CF, lastCF);
+        chunk.set(ValueLayout.JAVA_INT, base + NUM_ANSWERS, chunk.get(ValueLayout.JAVA_INT, base + NUM_ANSWERS) + 1);
+    }
+
+    /**
+     * Returns the first symptom of a disease that has not yet been removed, or <code>-1</code> if there is none
+     * or the diseases have been exhausted
+     *
+     * @param chunk chunk of the slot
+     * @param base offset of the slot in the chunk
+     * @param i index of the disease
+     * @return ID of the next symptom to be asked, or <code>-1</code> if there is none
+     */
+    private int nextSymptom(MemorySegment chunk, long base, int i) {
+        if (i >= kb.getNumDiseases()) {
+            return -1;
+        }
+
+        for (int s : kb.getDiseaseSymptoms(i)) {
+            if (!isRemoved(chunk, base, s)) {
+                return s;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns <code>true</code> if a consultation has ended; <code>false</code>, otherwise
+     *
+     * @param id ID of the consultation
+     * @return <code>true</code> if the consultation has ended; <code>false</code>, otherwise
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    public boolean isFinished(long id) {
+        return getSymptomId(id) < 0;
+    }
+
+    /**
+     * Returns the ID of the current symptom being asked in a consultation, or <code>-1</code> if it has ended
+     *
+     * @param id ID of the consultation
+     * @return ID of the current symptom, or <code>-1</code> if the consultation has ended
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    public int getSymptomId(long id) {
+        return getInt(id, SYMPTOM);
+    }
+
+    /**
+     * Returns the number of answers given in a consultation
+     *
+     * @param id ID of the consultation
+     * @return number of answers given
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    public int getNumAnswers(long id) {
+        return getInt(id, NUM_ANSWERS);
+    }
+
+    /**
+     * Returns <code>true</code> if a symptom indicative of an emergency has been reported in a consultation;
+     * <code>false</code>, otherwise
+     *
+     * @param id ID of the consultation
+     * @return <code>true</code> if a symptom indicative of an emergency has been reported; <code>false</code>,
+     * otherwise
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    public boolean getEmergency(long id) {
+        return (getInt(id, FLAGS) & FLAG_EMERGENCY) != 0;
+    }
+
+    /**
+     * Returns the certainty factor of a disease in a consultation
+     *
+     * @param id ID of the consultation
+     * @param disease index of the disease
+     * @return certainty factor of the disease
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    public double getCF(long id, int disease) {
+        ReentrantLock lock = lockOf(id);
+        lock.lock();
+        try {
+            return chunkOf(id).get(ValueLayout.JAVA_DOUBLE, baseOf(id) + CF + 8L * disease);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the index of the disease with the highest certainty factor in a consultation (the first one, in
+     * case of ties)
+     *
+     * @param id ID of the consultation
+     * @return index of the disease with the highest certainty factor
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    public int getDiagnosedDisease(long id) {
+        ReentrantLock lock = lockOf(id);
+        lock.lock();
+        try {
+            return diagnosedDisease(chunkOf(id), baseOf(id));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int diagnosedDisease(MemorySegment chunk, long base) {
+        int maxIndex = 0;
+        double maxValue = chunk.get(ValueLayout.JAVA_DOUBLE, base + CF);
+        for (int d = 1; d < kb.getNumDiseases(); d++) {
+            double value = chunk.get(ValueLayout.JAVA_DOUBLE, base + CF + 8L * d);
+            if (value > maxValue) {
+                maxIndex = d;
+                maxValue = value;
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Returns the final diagnosis of a consultation, worded as in {@link DiagnosisSession#getFinalDiagnosis()}
+     *
+     * @param id ID of the consultation
+     * @param name name of the patient
+     * @return final diagnosis
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    public String getFinalDiagnosis(long id, String name) {
+        ReentrantLock lock = lockOf(id);
+        lock.lock();
+        try {
+            MemorySegment chunk = chunkOf(id);
+            long base = baseOf(id);
+            int disease = diagnosedDisease(chunk, base);
+            return DiagnosisSession.formatDiagnosis(kb, name, disease,
+                    chunk.get(ValueLayout.JAVA_DOUBLE, base + CF + 8L * disease),
+                    (chunk.get(ValueLayout.JAVA_INT, base + FLAGS) & FLAG_EMERGENCY) != 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a consultation from the store, freeing its slot
+     *
+     * @param id ID of the consultation
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    public void remove(long id) {
+        int slot = (int) id;
+        ReentrantLock lock = lockOf(id);
+        lock.lock();
+        try {
+            MemorySegment chunk = chunkOf(id);
+            long base = baseOf(id);
+            chunk.set(ValueLayout.JAVA_INT, base + FLAGS, 0);
+            chunk.set(ValueLayout.JAVA_INT, base + GENERATION, chunk.get(ValueLayout.JAVA_INT, base + GENERATION) + 1);
+        } finally {
+            lock.unlock();
+        }
+
+        allocator.lock();
+        try {
+            chunks[slot / chunkSlots].set(ValueLayout.JAVA_INT, (long) (slot % chunkSlots) * slotSize + NEXT_FREE,
+                    header.get(ValueLayout.JAVA_INT, HEADER_FREE));
+            header.set(ValueLayout.JAVA_INT, HEADER_FREE, slot);
+            header.set(ValueLayout.JAVA_INT, HEADER_LIVE, header.get(ValueLayout.JAVA_INT, HEADER_LIVE) - 1);
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Takes a slot from the free list, or the next slot never used (allocating its chunk if needed)
+     *
+     * @return slot
+     * @throws IllegalStateException if the store is full
+     * @throws UncheckedIOException if a chunk of the file cannot be mapped
+     */
+    private int allocate() {
+        allocator.lock();
+        try {
+            int slot = header.get(ValueLayout.JAVA_INT, HEADER_FREE);
+            if (slot >= 0) {
+                long next = (long) (slot % chunkSlots) * slotSize + NEXT_FREE;
+                header.set(ValueLayout.JAVA_INT, HEADER_FREE,
+                        chunks[slot / chunkSlots].get(ValueLayout.JAVA_INT, next));
+            } else {
+                slot = header.get(ValueLayout.JAVA_INT, HEADER_NUM_SLOTS);
+                if (slot == capacity) {
+                    throw new IllegalStateException("The store is full (" + capacity + " consultations)");
+                }
+                if (chunks[slot / chunkSlots] == null) {
+                    try {
+                        chunks[slot / chunkSlots] = newChunk(slot / chunkSlots);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                header.set(ValueLayout.JAVA_INT, HEADER_NUM_SLOTS, slot + 1);
+            }
+
+            header.set(ValueLayout.JAVA_INT, HEADER_LIVE, header.get(ValueLayout.JAVA_INT, HEADER_LIVE) + 1);
+            return slot;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Clears a slot and marks it in use by a consultation with a patient of the given age and sex
+     *
+     * @param chunk chunk of the slot
+     * @param base offset of the slot in the chunk
+     * @param age age of the patient
+     * @param sexCode code of the sex of the patient, as used by the vital-sign rules
+     */
+    private void init(MemorySegment chunk, long base, double age, int sexCode) {
+        chunk.asSlice(base + FLAGS, slotSize - FLAGS).fill((byte) 0);
+        chunk.set(ValueLayout.JAVA_INT, base + FLAGS, FLAG_IN_USE | sexCode << SEX_SHIFT);
+        chunk.set(ValueLayout.JAVA_INT, base + NEXT_FREE, -1);
+        chunk.set(ValueLayout.JAVA_DOUBLE, base + AGE, age);
+    }
+
+    private boolean isRemoved(MemorySegment chunk, long base, int symptom) {
+        long word = chunk.get(ValueLayout.JAVA_LONG, base + removedOffset + 8L * (symptom >>> 6));
+        return (word & (1L << symptom)) != 0;
+    }
+
+    private void setRemoved(MemorySegment chunk, long base, int symptom) {
+        long offset = base + removedOffset + 8L * (symptom >>> 6);
+        chunk.set(ValueLayout.JAVA_LONG, offset, chunk.get(ValueLayout.JAVA_LONG, offset) | 1L << symptom);
+    }
+
+    private long idOf(MemorySegment chunk, long base, int slot) {
+        return ((long) chunk.get(ValueLayout.JAVA_INT, base + GENERATION) << 32) | slot;
+    }
+
+    private ReentrantLock lockOf(long id) {
+        return stripes[(int) id & (STRIPES - 1)];
+    }
+
+    private long baseOf(long id) {
+        return (long) ((int) id % chunkSlots) * slotSize;
+    }
+
+    /**
+     * Returns the chunk of the slot of a consultation, checking that the consultation exists (the lock of the
+     * slot must be held)
+     *
+     * @param id ID of the consultation
+     * @return chunk of the slot of the consultation
+     * @throws IllegalArgumentException if the consultation does not exist
+     */
+    private MemorySegment chunkOf(long id) {
+        int slot = (int) id;
+        MemorySegment chunk = slot >= 0 && slot / chunkSlots < chunks.length ? chunks[slot / chunkSlots] : null;
+        if (chunk != null) {
+            long base = baseOf(id);
+            if ((chunk.get(ValueLayout.JAVA_INT, base + FLAGS) & FLAG_IN_USE) != 0
+                    && chunk.get(ValueLayout.JAVA_INT, base + GENERATION) == (int) (id >>> 32)) {
+                return chunk;
+            }
+        }
+        throw new IllegalArgumentException("Unknown consultation: " + id);
+    }
+
+    private int getInt(long id, long field) {
+        ReentrantLock lock = lockOf(id);
+        lock.lock();
+        try {
+            return chunkOf(id).get(ValueLayout.JAVA_INT, baseOf(id) + field);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of consultations in the store
+     *
+     * @return number of consultations in the store
+     */
+    public int size() {
+        allocator.lock();
+        try {
+            return header.get(ValueLayout.JAVA_INT, HEADER_LIVE);
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Returns the maximum number of consultations
+     *
+     * @return maximum number of consultations
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the size of a slot, in bytes
+     *
+     * @return size of a slot, in bytes
+     */
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    /**
+     * Returns the native memory (or the size of the mappings) taken by the chunks allocated so far, in bytes
+     *
+     * @return native memory taken by the store, in bytes
+     */
+    public long getReservedBytes() {
+        allocator.lock();
+        try {
+            long bytes = HEADER_SIZE;
+            for (MemorySegment chunk : chunks) {
+                bytes += chunk != null ? chunk.byteSize() : 0;
+            }
+            return bytes;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Forces the changes to the file backing the store (if any) to the storage device
+     */
+    public void flush() {
+        if (channel == null) {
+            return;
+        }
+
+        allocator.lock();
+        try {
+            header.force();
+            for (MemorySegment chunk : chunks) {
+                if (chunk != null) {
+                    chunk.force();
+                }
+            }
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Releases the memory (or unmaps and closes the file) of the store, which must no longer be used by any
+     * thread
+     */
+    @Override
+    public void close() {
+        arena.close();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                /* Already closed */
+            }
+        }
+    }
+}
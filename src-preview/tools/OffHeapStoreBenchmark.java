@@ -0,0 +1,377 @@
+package tools;
+
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.OffHeapSessionStore;
+import expert.VitalSignRules;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * Benchmark that measures the <b>memory per paused consultation</b> of {@link OffHeapSessionStore}, against
+ * that of {@link DiagnosisSession}s kept on the heap, and the cost of answering the consultations in place
+ *
+ * <p>First, <code>--sessions</code> consultations are paused on the heap, and the heap they retain is measured.
+ * Then as many consultations are started in the store (in memory, or in the memory-mapped <code>--file</code>)
+ * by <code>--threads</code> threads, each answered a few times before it is paused. The threads then answer
+ * one question at a time of consultations picked at random (so they contend on the locks of the store), and
+ * finally resume and remove every consultation. The native memory and the heap used per consultation, the
+ * collections run during each phase, and the latency of the operations are reported.</p>
+ *
+ * <p>The heap in use is read after a full collection, several times, and the smallest reading is kept, so that
+ * the garbage left over between the collections does not count. The store keeps the consultations off the
+ * heap, so the heap it uses per consultation may be below the resolution of this measurement; it is then
+ * reported as such rather than as a (possibly negative) number of bytes. The consultations kept on the heap
+ * need a few hundred bytes each, so a large <code>--sessions</code> needs a large enough <code>-Xmx</code>.</p>
+ *
+ * <p>The answers of every consultation are derived from the seed, its index, and the number of answers it has
+ * given, so a sample of the consultations is replayed on {@link DiagnosisSession} and must end in the same
+ * state; the tool exits with status 1 otherwise. Like the store, it is compiled from <code>src-preview</code>
+ * and needs <code>--enable-preview</code> on Java 21.</p>
+ *
+ * <p>Usage: <code>java --enable-preview tools.OffHeapStoreBenchmark [--kb FILE] [--sessions N] [--file FILE]
+ * [--threads N] [--seed N]</code></p>
+ */
+public class OffHeapStoreBenchmark {
+    /* Number of consultations replayed on the heap to check the store */
+    private static final int CHECKED = 1000;
+    /* Number of readings of the heap in use, after a full collection each, of which the smallest is kept */
+    private static final int HEAP_SAMPLES = 5;
+
+    /**
+     * Runs the benchmark according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        int numSessions = 1_000_000;
+        Path file = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--sessions":
+                        numSessions = Integer.parseInt(args[++k]);
+                        break;
+                    case "--file":
+                        file = Paths.get(args[++k]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (numSessions <= 0 || threads <= 0) {
+                throw new IllegalArgumentException("The number of sessions and of threads must be positive");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java --enable-preview tools.OffHeapStoreBenchmark [--kb FILE] [--sessions N] "
+                    + "[--file FILE] [--threads N] [--seed N]");
+            System.exit(2);
+        }
+
+        try {
+            KnowledgeBase kb = KnowledgeBaseLoader.load(kbFile);
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+
+            double heapPerSession = measureHeap(kb, numSessions, seed);
+            System.out.printf(Locale.ROOT, "heap:     %d paused sessions, %.0f bytes per session%n", numSessions,
+                    heapPerSession);
+
+            if (!run(kb, numSessions, file, threads, seed, heapPerSession)) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to load the knowledge base or to map the file: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Measures the heap retained by paused consultations kept as {@link DiagnosisSession}s
+     *
+     * @param kb static tables of the knowledge base
+     * @param numSessions number of consultations
+     * @param seed seed of the patients and of the answers
+     * @return bytes of heap retained per consultation
+     */
+    private static double measureHeap(KnowledgeBase kb, int numSessions, long seed) {
+        DiagnosisSession[] sessions = new DiagnosisSession[numSessions];
+        long before = usedHeap();
+
+        for (int k = 0; k < numSessions; k++) {
+            sessions[k] = replay(kb, seed, k, pauseAfter(seed, k));
+        }
+
+        long after = usedHeap();
+        /* Keep the sessions alive until they are measured. */
+        if (sessions[numSessions - 1] == null) {
+            System.err.println("No sessions");
+        }
+        return (double) (after - before) / numSessions;
+    }
+
+    /**
+     * Fills the store, answers and resumes its consultations, and reports the memory and the latency
+     *
+     * @param kb static tables of the knowledge base
+     * @param numSessions number of consultations
+     * @param file file backing the store, or <code>null</code> to hold the consultations in memory
+     * @param numThreads number of threads
+     * @param seed seed of the patients and of the answers
+     * @param heapPerSession bytes of heap retained per consultation kept as a {@link DiagnosisSession}
+     * @return <code>true</code> if the consultations replayed on the heap are in the same state as in the
+     * store; <code>false</code>, otherwise
+     * @throws IOException if the file cannot be opened
+     */
+    private static boolean run(KnowledgeBase kb, int numSessions, Path file, int numThreads, long seed,
+                               double heapPerSession) throws IOException {
+        long[] ids = new long[numSessions];
+        LatencyHistogram[] create = new LatencyHistogram[numThreads];
+        LatencyHistogram[] answer = new LatencyHistogram[numThreads];
+        LatencyHistogram[] resume = new LatencyHistogram[numThreads];
+
+        try (OffHeapSessionStore store = file == null ? new OffHeapSessionStore(kb, numSessions)
+                : new OffHeapSessionStore(kb, numSessions, file)) {
+            long heapBefore = usedHeap();
+            long[] gcBefore = gc();
+            long start = System.nanoTime();
+
+            /* Start the consultations and pause them after a few answers. */
+            parallel(numThreads, t -> {
+                create[t] = new LatencyHistogram();
+                for (int k = t; k < ids.length; k += numThreads) {
+                    long begin = System.nanoTime();
+                    Random patient = new Random(mix(seed, k, -1));
+                    ids[k] = store.create(patient.nextInt(90), patient.nextBoolean() ? "male" : "female");
+                    for (int n = pauseAfter(seed, k); n > 0 && !store.isFinished(ids[k]); n--) {
+                        store.answerCode(ids[k], code(seed, k, store.getNumAnswers(ids[k])));
+                    }
+                    create[t].record(System.nanoTime() - begin);
+                }
+            });
+            long filled = System.nanoTime();
+            long[] gcFilled = gc();
+            long heapAfter = usedHeap();
+            /* Leave out the collection run to measure the heap. */
+            long[] gcMeasured = gc();
+
+            System.out.printf(Locale.ROOT, "off-heap: %d paused sessions in %.1f s, %d-byte slots, %d bytes "
+                            + "reserved (%.0f bytes per session, %.1fx less than on the heap), %s%n", store.size(),
+                    (filled - start) / 1e9, store.getSlotSize(), store.getReservedBytes(),
+                    (double) store.getReservedBytes() / store.size(),
+                    heapPerSession * store.size() / store.getReservedBytes(),
+                    heapAfter > heapBefore
+                            ? String.format(Locale.ROOT, "%.1f bytes of heap per session",
+                            (double) (heapAfter - heapBefore) / store.size())
+                            : "heap per session below the resolution of the measurement");
+            System.out.printf("create   %s%n", merge(create));
+            System.out.printf("fill     %d collections, %d ms%n", gcFilled[0] - gcBefore[0], gcFilled[1] - gcBefore[1]);
+
+            /* Answer one question at a time of consultations picked at random. */
+            parallel(numThreads, t -> {
+                answer[t] = new LatencyHistogram();
+                Random random = new Random(mix(seed, t, -2));
+                for (int n = t; n < ids.length; n += numThreads) {
+                    int k = random.nextInt(ids.length);
+                    long begin = System.nanoTime();
+                    if (!store.isFinished(ids[k])) {
+                        store.answerCode(ids[k], code(seed, k, store.getNumAnswers(ids[k])));
+                    }
+                    answer[t].record(System.nanoTime() - begin);
+                }
+            });
+            long[] gcAnswered = gc();
+            System.out.printf("answer   %s%n", merge(answer));
+            System.out.printf("answer   %d collections, %d ms%n", gcAnswered[0] - gcMeasured[0],
+                    gcAnswered[1] - gcMeasured[1]);
+            if (file != null) {
+                long begin = System.nanoTime();
+                store.flush();
+                System.out.printf(Locale.ROOT, "flush    %.1f ms, file of %d bytes%n",
+                        (System.nanoTime() - begin) / 1e6, Files.size(file));
+            }
+
+            /* Check a sample of the consultations against the heap engine. */
+            int mismatches = 0;
+            for (int k = 0; k < Math.min(CHECKED, ids.length); k++) {
+                DiagnosisSession resumed = store.resume(ids[k], "Patient " + k);
+                DiagnosisSession expected = replay(kb, seed, k, resumed.getNumAnswers());
+                if (!resumed.snapshot().equals(expected.snapshot()) || resumed.getAge() != expected.getAge()
+                        || !resumed.getSex().equals(expected.getSex())) {
+                    mismatches++;
+                }
+            }
+
+            /* Resume and remove every consultation. */
+            parallel(numThreads, t -> {
+                resume[t] = new LatencyHistogram();
+                for (int k = t; k < ids.length; k += numThreads) {
+                    long begin = System.nanoTime();
+                    store.resume(ids[k], "Patient " + k);
+                    store.remove(ids[k]);
+                    resume[t].record(System.nanoTime() - begin);
+                }
+            });
+            System.out.printf("resume   %s%n", merge(resume));
+
+            if (mismatches > 0 || store.size() != 0) {
+                System.out.printf("%d sessions were not in the same state as on the heap, %d left in the store%n",
+                        mismatches, store.size());
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Replays a consultation on the heap engine
+     *
+     * @param kb static tables of the knowledge base
+     * @param seed seed of the patients and of the answers
+     * @param k index of the consultation
+     * @param numAnswers number of answers to give
+     * @return consultation after the answers
+     */
+    private static DiagnosisSession replay(KnowledgeBase kb, long seed, int k, int numAnswers) {
+        Random patient = new Random(mix(seed, k, -1));
+        DiagnosisSession session = new DiagnosisSession(kb, "Patient " + k, patient.nextInt(90),
+                patient.nextBoolean() ? "male" : "female");
+        while (session.getNumAnswers() < numAnswers && !session.isFinished()) {
+            session.answerCode(code(seed, k, session.getNumAnswers()));
+        }
+        return session;
+    }
+
+    /**
+     * Returns the number of answers given by a consultation before it is paused (0 to 7)
+     *
+     * @param seed seed of the answers
+     * @param k index of the consultation
+     * @return number of answers given before the consultation is paused
+     */
+    private static int pauseAfter(long seed, int k) {
+        return (int) (mix(seed, k, -3) >>> 61);
+    }
+
+    /**
+     * Returns the answer code of an answer of a consultation: one in three answers is positive, and one in a
+     * hundred reports an emergency
+     *
+     * @param seed seed of the answers
+     * @param k index of the consultation
+     * @param n number of answers already given
+     * @return answer code
+     */
+    private static int code(long seed, int k, int n) {
+        long bits = mix(seed, k, n) >>> 1;
+        int code = bits % 3 == 0 ? VitalSignRules.POSITIVE : 0;
+        return (bits >>> 8) % 100 == 0 ? code | VitalSignRules.EMERGENCY : code;
+    }
+
+    /**
+     * Mixes the seed, the index of a consultation, and a counter into well-distributed bits (the finalizer of
+     * SplitMix64)
+     *
+     * @param seed seed
+     * @param k index of the consultation
+     * @param n counter
+     * @return mixed bits
+     */
+    private static long mix(long seed, long k, long n) {
+        long z = seed * 0x9E3779B97F4A7C15L + k * 0xC2B2AE3D27D4EB4FL + n * 0x165667B19E3779F9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Runs a task on the given number of threads and waits for them
+     *
+     * @param numThreads number of threads
+     * @param task task, given the index of its thread
+     */
+    private static void parallel(int numThreads, IntConsumer task) {
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> task.accept(index), "store-" + t);
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Merges the latencies recorded by the threads
+     *
+     * @param histograms latencies recorded by each thread
+     * @return merged latencies
+     */
+    private static LatencyHistogram merge(LatencyHistogram[] histograms) {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms) {
+            merged.add(histogram);
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the smallest of several readings of the heap in use, each after a full collection
+     *
+     * @return bytes of heap in use
+     */
+    private static long usedHeap() {
+        long used = Long.MAX_VALUE;
+        for (int k = 0; k < HEAP_SAMPLES; k++) {
+            System.gc();
+            used = Math.min(used, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    /**
+     * Returns the number of collections run so far and the time spent in them
+     *
+     * @return number of collections and milliseconds spent in them
+     */
+    private static long[] gc() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+}
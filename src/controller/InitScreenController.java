@@ -15,11 +15,21 @@ import java.awt.event.ActionListener;
  * of the patient</b> (name, age, and sex).
  */
 public class InitScreenController implements ActionListener, DocumentListener {
+    /**
+     * Prolog knowledge base consulted by the expert system
+     */
+    public static final String KNOWLEDGE_BASE = "src/expert/KnowledgeBase.pl";
+
     /* Graphical user interface for the initialization screen */
     private InitScreen scr;
     /* Expert system featuring a Java interface and a Prolog knowledge base */
     private PrologJavaRunner expert;
 
+    /* Set to true once the knowledge base has been loaded successfully; false, otherwise */
+    private boolean loaded = false;
+    /* Set to true once the sex of the patient has been chosen; false, otherwise */
+    private boolean sexChosen = false;
+
     /**
      * Creates a controller object with the initialization screen GUI and the expert system as parameters
      *
@@ -32,6 +42,25 @@ public class InitScreenController implements ActionListener, DocumentListener {
 
         scr.setActionListener(this);
         scr.setDocumentListener(this);
+
+        /* Load the knowledge base in the background while the patient's details are entered. The outcome is
+        handled on the event dispatch thread: the Start button stays disabled until the loading has succeeded,
+        and a failure is reported on this screen.
+         */
+        expert.loadKnowledgeBaseAsync(KNOWLEDGE_BASE).whenComplete((ignored, error) ->
+                SwingUtilities.invokeLater(() -> {
+                    if (error == null) {
+                        loaded = true;
+                        scr.setStatus("Knowledge base loaded.", false);
+                        if (sexChosen) {
+                            scr.enableStart();
+                        }
+                    } else {
+                        scr.setStatus("Failed to load knowledge base. Please double check if Prolog file exists.",
+                                true);
+                        scr.disableStart();
+                    }
+                }));
     }
 
     /**
@@ -43,11 +72,17 @@ public class InitScreenController implements ActionListener, DocumentListener {
     public void actionPerformed(ActionEvent e) {
         if (e.getActionCommand().equals("Male")) {              /* The patient is male. */
             expert.setSex("Male");
-            scr.enableStart();
+            sexChosen = true;
+            if (loaded) {
+                scr.enableStart();
+            }
         } else if (e.getActionCommand().equals("Female")) {     /* The patient is female. */
             expert.setSex("Female");
-            scr.enableStart();
-        } else if (e.getActionCommand().equals("Start")) {      /* The user is ready to begin the probing. */
+            sexChosen = true;
+            if (loaded) {
+                scr.enableStart();
+            }
+        } else if (e.getActionCommand().equals("Start") && loaded) {    /* The user is ready to begin. */
             expert.setName(scr.getName());
 
             String ageStr;
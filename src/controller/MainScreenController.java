@@ -1,6 +1,7 @@
 package controller;
 
 import expert.PrologJavaRunner;
+import expert.WhatIfAnalysis;
 import gui.InitScreen;
 import gui.MainScreen;
 
@@ -11,12 +12,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Class providing the <b>controller</b> for the processes related to the main screen of the system
  * (namely, the probing and diagnosis per se, together with the display of the technical logs)
  */
 public class MainScreenController implements ActionListener, DocumentListener, WindowListener {
+    /* Number of answers listed when explaining the diagnosis */
+    private static final int TOP_REASONS = 5;
+
     /* Graphical user interface for the main screen */
     private MainScreen scr;
     /* Expert system featuring a Java interface and a Prolog knowledge base */
@@ -43,14 +49,13 @@ public class MainScreenController implements ActionListener, DocumentListener, W
         scr.setDocumentListener(this);
         scr.setWindowListener(this);
 
-        /* Load and consult the Prolog knowledge base. */
-        if (expert.loadKnowledgeBase("src/expert/KnowledgeBase.pl")) {
+        /* The Prolog knowledge base and its constants are loaded in the background, and the intake screen only
+        starts the patient once the loading has succeeded, so this never waits on the event dispatch thread.
+         */
+        if (expert.isKnowledgeBaseLoaded()) {
             scr.updateEmergency("Prolog knowledge base has been loaded.\n" +
                     "EHRLICH is ready for diagnosis.");
 
-            /* Initialize the constants from the knowledge base. */
-            expert.loadConstantsFromKB();
-
             /* Remove female-specific symptoms if applicable. */
             if (expert.removeFemaleSymptoms()) {
                 scr.updateHistory("Female-specific symptoms removed:\n" +
@@ -171,7 +176,7 @@ public class MainScreenController implements ActionListener, DocumentListener, W
             /* Update the log to reflect that the diagnosis is ongoing. */
             if (clickCtr == 0) {
                 scr.updateEmergency("Diagnosis is ongoing.\n" +
-                        "Knowledge base has " + expert.NUM_DISEASES + " autoimmune diseases.");
+                        "Knowledge base has " + expert.NUM_DISEASES + " diseases.");
                 clickCtr++;
             }
 
@@ -232,7 +237,7 @@ public class MainScreenController implements ActionListener, DocumentListener, W
             /* Update the log to reflect that the diagnosis is ongoing. */
             if (clickCtr == 0) {
                 scr.updateEmergency("Diagnosis is ongoing.\n" +
-                        "Knowledge base has " + expert.NUM_DISEASES + " autoimmune diseases.");
+                        "Knowledge base has " + expert.NUM_DISEASES + " diseases.");
                 clickCtr++;
             }
 
@@ -291,7 +296,7 @@ public class MainScreenController implements ActionListener, DocumentListener, W
             /* Update the log to reflect that the diagnosis is ongoing. */
             if (clickCtr == 0) {
                 scr.updateEmergency("Diagnosis is ongoing.\n" +
-                        "Knowledge base has " + expert.NUM_DISEASES + " autoimmune diseases.");
+                        "Knowledge base has " + expert.NUM_DISEASES + " diseases.");
                 clickCtr++;
             }
 
@@ -354,6 +359,39 @@ public class MainScreenController implements ActionListener, DocumentListener, W
                 scr.clearResponse();
             }
 
+        } else if (e.getActionCommand().equals("Why?")) {       /* The user asks for the reasons for the diagnosis. */
+            /* The explanation is only rendered from the trace of the answers when requested. */
+            scr.updateHistory(expert.explainDiagnosis(TOP_REASONS));
+
+            /* List the answers that would change the diagnosis had the patient answered otherwise. The answers
+            are copied here, and the flips are replayed off the event dispatch thread.
+             */
+            WhatIfAnalysis whatIf;
+            try {
+                whatIf = expert.analyzeWhatIf();
+            } catch (IllegalArgumentException error) {
+                /* The answers of a very long consultation are no longer all retained. */
+                return;
+            }
+
+            scr.setBtnWhyEnabled(false);
+            new SwingWorker<String, Void>() {
+                @Override
+                protected String doInBackground() {
+                    return whatIf.describe(whatIf.flipEach(ForkJoinPool.commonPool()));
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        scr.updateHistory(get());
+                    } catch (InterruptedException | ExecutionException error) {
+                        scr.updateHistory("The what-if analysis could not be completed.\n");
+                    }
+                    scr.setBtnWhyEnabled(true);
+                }
+            }.execute();
+
         } else if (e.getActionCommand().equals("Restart")) {       /* The user restarts the system. */
             int dialogButton;
             int dialogResult;
@@ -428,8 +466,7 @@ public class MainScreenController implements ActionListener, DocumentListener, W
      */
     public void setQuestionNature(String symptom) {
         /* Open-ended question */
-        if (symptom.equalsIgnoreCase("fever")
-                || symptom.equalsIgnoreCase("slowHeartRate")) {
+        if (expert.isOpenEnded(symptom)) {
             scr.setTextEnabled(true);
             scr.setBtnYesNoEnabled(false);
             scr.setBtnSubmit(false);
@@ -447,10 +484,11 @@ public class MainScreenController implements ActionListener, DocumentListener, W
     public void displayDiagnosis() {
         scr.updateInquiry(expert.getFinalDiagnosis());
 
-        /* Disables all the buttons, except the restart button. */
+        /* Disables all the buttons, except the restart button and the button explaining the diagnosis. */
         scr.setBtnYesNoEnabled(false);
         scr.setBtnSubmit(false);
         scr.setTextEnabled(false);
+        scr.setBtnWhyEnabled(true);
 
         scr.updateEmergency("Diagnosis is finished with confidence factor " +
                 expert.getFinalCF() + "%.");
@@ -465,7 +503,7 @@ public class MainScreenController implements ActionListener, DocumentListener, W
             emergencyCtr++;
 
             scr.updateEmergency("EMERGENCY! Medical attention required\n" +
-                    "Knowledge base has 15 autoimmune diseases.\n");
+                    "Knowledge base has " + expert.NUM_DISEASES + " diseases.\n");
 
             /* Display the pop-up only once. */
             if (emergencyCtr == 1) {
@@ -479,12 +517,12 @@ public class MainScreenController implements ActionListener, DocumentListener, W
     }
 
     /**
-     * Returns <code>true</code> if the patient's vital sign, as supplied by the user, is a nonnegative number;
-     * <code>false</code>, otherwise
+     * Returns <code>true</code> if the patient's vital sign, as supplied by the user, is a number within the
+     * valid range of the vital sign being probed; <code>false</code>, otherwise
      *
      * @param responseStr patient's vital sign, as supplied by the user
-     * @return <code>true</code> if the patient's vital sign, as supplied by the user, is a nonnegative number;
-     * <code>false</code>, otherwise
+     * @return <code>true</code> if the patient's vital sign, as supplied by the user, is a number within the
+     * valid range of the vital sign; <code>false</code>, otherwise
      */
     public boolean checkResponse(String responseStr) {
         double response;
@@ -497,9 +535,9 @@ public class MainScreenController implements ActionListener, DocumentListener, W
             return false;
         }
 
-        if (response < 0) {
-            JOptionPane.showMessageDialog(null, "Input a valid number for the patient's vital sign",
-                    "Invalid input", JOptionPane.ERROR_MESSAGE);
+        if (!expert.isValidReading(expert.getSymptom(), response)) {
+            JOptionPane.showMessageDialog(null, "Input a number from " + expert.getReadingRange(expert.getSymptom())
+                    + " for the patient's vital sign", "Invalid input", JOptionPane.ERROR_MESSAGE);
             return false;
         }
 
@@ -0,0 +1,51 @@
+package expert;
+
+import java.util.TreeSet;
+
+/**
+ * Utility class computing the <b>age bands</b> of a knowledge base: the patients whose ages fall between two
+ * consecutive age boundaries (<code>adultAge/1</code> and the ages of the vital-sign bands) are asked the
+ * same questions and have their readings evaluated the same way
+ */
+final class AgeBands {
+    /**
+     * Does not allow instances of this class to be created
+     */
+    private AgeBands() {
+
+    }
+
+    /**
+     * Returns the age boundaries of the knowledge base
+     *
+     * @param kb static tables of the knowledge base
+     * @return finite age boundaries of the knowledge base, in ascending order
+     */
+    static double[] boundaries(KnowledgeBase kb) {
+        TreeSet<Double> ages = new TreeSet<>();
+        ages.add((double) kb.getAdultAge());
+
+        VitalSignRules rules = kb.getVitalSignRules();
+        for (int b = 0; b < rules.getNumBands(); b++) {
+            ages.add(rules.getBandMinAge(b));
+            ages.add(rules.getBandMaxAge(b));
+        }
+
+        return ages.stream().filter(Double::isFinite).mapToDouble(Double::doubleValue).toArray();
+    }
+
+    /**
+     * Returns the age band of a patient: the number of age boundaries lower than or equal to the age
+     *
+     * @param boundaries age boundaries, in ascending order
+     * @param age age of the patient
+     * @return age band of the patient
+     */
+    static int band(double[] boundaries, double age) {
+        int band = 0;
+        while (band < boundaries.length && boundaries[band] <= age) {
+            band++;
+        }
+        return band;
+    }
+}
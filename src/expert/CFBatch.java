@@ -0,0 +1,147 @@
+package expert;
+
+/**
+ * Class holding the <b>certainty factors of many patients at once</b> for batch and simulation workloads
+ * (such as population-scale replays and threshold studies)
+ *
+ * <p>The certainty factors are stored in a structure-of-arrays layout: there is one contiguous array per
+ * disease, holding that disease's certainty factor for every patient in the batch. Applying a symptom
+ * answer therefore walks a few long, contiguous arrays (one per disease associated with the symptom),
+ * which the vector kernel processes several patients at a time.</p>
+ *
+ * <p>The vector kernel is compiled separately (from <code>src-incubator</code>) and requires the JVM to be
+ * launched with <code>--add-modules jdk.incubator.vector</code>; otherwise, a scalar kernel with identical
+ * results is used. The consultations of a {@link DiagnosisBatch} are updated through this class.</p>
+ */
+public class CFBatch {
+    /* Certainty factors, indexed first by disease and then by patient */
+    private final double[][] cf;
+    /* Number of patients in the batch */
+    private final int size;
+    /* Kernel applying the MYCIN update across the batch */
+    private final CFBatchKernel kernel;
+
+    /**
+     * Creates a batch of patients whose certainty factors are all initially zero
+     *
+     * @param numDiseases number of diseases in the knowledge base
+     * @param size number of patients in the batch
+     */
+    public CFBatch(int numDiseases, int size) {
+        this(numDiseases, size, true);
+    }
+
+    /**
+     * Creates a batch of patients whose certainty factors are all initially zero, updated by the vector kernel
+     * (if available) or by the scalar kernel
+     *
+     * @param numDiseases number of diseases in the knowledge base
+     * @param size number of patients in the batch
+     * @param vector <code>true</code> to use the vector kernel if it is available; <code>false</code> to use
+     *               the scalar kernel
+     */
+    public CFBatch(int numDiseases, int size, boolean vector) {
+        this.size = size;
+        this.cf = new double[numDiseases][size];
+        this.kernel = vector ? CFBatchKernel.create() : new ScalarCFBatchKernel();
+    }
+
+    /**
+     * Returns the number of patients in the batch
+     *
+     * @return number of patients in the batch
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of diseases tracked per patient
+     *
+     * @return number of diseases tracked per patient
+     */
+    public int getNumDiseases() {
+        return cf.length;
+    }
+
+    /**
+     * Returns the name of the kernel used to update the batch (either <code>"scalar"</code> or
+     * <code>"vector-</code><i>lanes</i><code>"</code>)
+     *
+     * @return name of the kernel used to update the batch
+     */
+    public String getKernelName() {
+        return kernel.name();
+    }
+
+    /**
+     * Returns the certainty factor of a disease for a patient in the batch
+     *
+     * @param disease index of the disease (relative to <code>mapping/2</code>)
+     * @param patient index of the patient in the batch
+     * @return certainty factor of the disease for the patient
+     */
+    public double getCF(int disease, int patient) {
+        return cf[disease][patient];
+    }
+
+    /**
+     * Sets the certainty factor of a disease for a patient in the batch
+     *
+     * @param disease index of the disease (relative to <code>mapping/2</code>)
+     * @param patient index of the patient in the batch
+     * @param value certainty factor of the disease for the patient
+     */
+    public void setCF(int disease, int patient, double value) {
+        cf[disease][patient] = value;
+    }
+
+    /**
+     * Returns the certainty factors of all the diseases for a patient in the batch
+     *
+     * @param patient index of the patient in the batch
+     * @return certainty factors of all the diseases for the patient, ordered by disease index
+     */
+    public double[] getPatientCFs(int patient) {
+        double[] patientCF = new double[cf.length];
+
+        for (int d = 0; d < cf.length; d++) {
+            patientCF[d] = cf[d][patient];
+        }
+
+        return patientCF;
+    }
+
+    /**
+     * Applies one symptom answer to every patient in the batch, where each patient may have given a
+     * different answer
+     *
+     * @param diseases indices of the diseases associated with the symptom
+     * @param weight unsigned weight of the symptom
+     * @param affirmative <code>true</code> at index <code>p</code> if patient <code>p</code> reported
+     *                    experiencing the symptom
+     * @param answered <code>true</code> at index <code>p</code> if patient <code>p</code> was asked about the
+     *                 symptom, or <code>null</code> if every patient in the batch was asked
+     */
+    public void applyAnswer(int[] diseases, double weight, boolean[] affirmative, boolean[] answered) {
+        for (int d : diseases) {
+            kernel.apply(cf[d], affirmative, answered, weight, size);
+        }
+    }
+
+    /**
+     * Applies one symptom answer to every patient in the batch, given that all of them gave the same answer
+     *
+     * @param diseases indices of the diseases associated with the symptom
+     * @param weight unsigned weight of the symptom
+     * @param affirmative <code>true</code> if the patients reported experiencing the symptom;
+     *                    <code>false</code>, otherwise
+     */
+    public void applyAnswer(int[] diseases, double weight, boolean affirmative) {
+        double trueWeight = CertaintyFactors.adjustedWeight(weight, affirmative);
+
+        for (int d : diseases) {
+            kernel.apply(cf[d], trueWeight, size);
+        }
+    }
+}
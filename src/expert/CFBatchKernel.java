@@ -0,0 +1,86 @@
+package expert;
+
+/**
+ * Kernel applying a single symptom answer to one disease's certainty factors across a batch of patients
+ *
+ * <p>Two implementations exist: one using the (incubating) Java Vector API and a scalar fallback. The vector
+ * kernel lives in the separate source set <code>src-incubator</code>, so that the rest of the sources compile
+ * without the incubator module. It is only selected if it has been compiled, the
+ * <code>jdk.incubator.vector</code> module has been resolved (that is, the JVM was launched with
+ * <code>--add-modules jdk.incubator.vector</code>), and the system property <code>ehrlich.vector</code> is not
+ * set to <code>false</code>.</p>
+ */
+abstract class CFBatchKernel {
+    /**
+     * Returns the fastest kernel available in the running JVM
+     *
+     * @return vector kernel if the Vector API is available; scalar kernel, otherwise
+     */
+    static CFBatchKernel create() {
+        if (Boolean.parseBoolean(System.getProperty("ehrlich.vector", "true"))) {
+            /* The vector kernel is loaded reflectively so that this class still links if the kernel was not
+            compiled or the incubator module is absent.
+             */
+            try {
+                return (CFBatchKernel) Class.forName("expert.VectorCFBatchKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                /* Fall back to the scalar kernel. */
+            }
+        }
+
+        return new ScalarCFBatchKernel();
+    }
+
+    /**
+     * Returns a short name identifying this kernel (used in benchmark reports)
+     *
+     * @return short name identifying this kernel
+     */
+    abstract String name();
+
+    /**
+     * Updates the certainty factors of one disease for the first <code>size</code> patients in the batch
+     *
+     * @param lane certainty factors of one disease, one entry per patient
+     * @param affirmative <code>true</code> at index <code>p</code> if patient <code>p</code> reported
+     *                    experiencing the symptom
+     * @param answered <code>true</code> at index <code>p</code> if patient <code>p</code> was asked about the
+     *                 symptom, or <code>null</code> if every patient in the batch was asked
+     * @param weight unsigned weight of the symptom
+     * @param size number of patients in the batch
+     */
+    abstract void apply(double[] lane, boolean[] affirmative, boolean[] answered, double weight, int size);
+
+    /**
+     * Updates the certainty factors of one disease for the first <code>size</code> patients in the batch,
+     * given that all of them gave the same answer
+     *
+     * @param lane certainty factors of one disease, one entry per patient
+     * @param trueWeight signed weight of the symptom
+     * @param size number of patients in the batch
+     */
+    abstract void apply(double[] lane, double trueWeight, int size);
+
+    /**
+     * Applies the scalar formula to the patients in the range <code>[from, size)</code>
+     *
+     * @param lane certainty factors of one disease, one entry per patient
+     * @param affirmative <code>true</code> at index <code>p</code> if patient <code>p</code> reported
+     *                    experiencing the symptom
+     * @param answered <code>true</code> at index <code>p</code> if patient <code>p</code> was asked about the
+     *                 symptom, or <code>null</code> if every patient in the batch was asked
+     * @param weight unsigned weight of the symptom
+     * @param from index of the first patient to update
+     * @param size number of patients in the batch
+     */
+    static void applyScalar(double[] lane, boolean[] affirmative, boolean[] answered, double weight,
+                            int from, int size) {
+        for (int p = from; p < size; p++) {
+            if (answered == null || answered[p]) {
+                lane[p] = CertaintyFactors.combine(lane[p],
+                        CertaintyFactors.adjustedWeight(weight, affirmative[p]));
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package expert;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Renderer of the <b>table of certainty factors</b> shown after every answer (see
+ * {@link PrologJavaRunner#displayCFvals(String)}), with the labels of the diseases formatted once per
+ * knowledge base
+ *
+ * <p>Rendering appends to a caller-owned buffer and does not allocate once the buffer has grown to the size of
+ * the table. The certainty factors are formatted with two decimals, as with <code>%.2f</code>.</p>
+ */
+final class CFTable {
+    /* Renderers, by knowledge base (guarded by the class) */
+    private static final Map<KnowledgeBase, CFTable> TABLES = new WeakHashMap<>();
+
+    /* Label of every disease: its full name in uppercase, without the trailing period, followed by ": " */
+    private final char[][] labels;
+
+    private CFTable(KnowledgeBase kb) {
+        labels = new char[kb.getNumDiseases()][];
+        for (int d = 0; d < labels.length; d++) {
+            String name = kb.getDiseaseName(d);
+            if (name.endsWith(".")) {
+                name = name.substring(0, name.length() - 1);
+            }
+            labels[d] = (name.toUpperCase() + ": ").toCharArray();
+        }
+    }
+
+    /**
+     * Returns the renderer of the tables of a knowledge base, creating it on first use
+     *
+     * @param kb static tables of the knowledge base
+     * @return renderer of the tables
+     */
+    static synchronized CFTable of(KnowledgeBase kb) {
+        CFTable table = TABLES.get(kb);
+        if (table == null) {
+            table = new CFTable(kb);
+            TABLES.put(kb, table);
+        }
+        return table;
+    }
+
+    /**
+     * Appends the table of certainty factors after an answer
+     *
+     * @param sb buffer to which the table is appended
+     * @param symptom most recent symptom considered
+     * @param cf certainty factors, indexed as in <code>mapping/2</code>
+     */
+    void append(StringBuilder sb, String symptom, double[] cf) {
+        sb.append("Symptom: ").append(symptom).append("\nCertainty factors: \n");
+        for (int d = 0; d < labels.length; d++) {
+            sb.append(labels[d]);
+            appendHundredths(sb, cf[d]);
+            sb.append('\n');
+        }
+    }
+
+    /**
+     * Appends a number rounded half up to two decimals, exactly as <code>String.format("%.2f", value)</code>
+     *
+     * @param sb buffer to which the number is appended
+     * @param value number, whose magnitude is assumed to be well below <code>1e15</code>
+     */
+    static void appendHundredths(StringBuilder sb, double value) {
+        if (Math.copySign(1.0, value) < 0) {
+            sb.append('-');
+        }
+
+        /* The formatter rounds the shortest decimal representation of the number, so a number printed with a
+        5 as its third and last decimal (such as 0.565, which is slightly below 0.565 in binary) is rounded up. */
+        double magnitude = Math.abs(value);
+        double thousandths = Math.rint(magnitude * 1000);
+        long hundredths;
+        if (thousandths % 10 == 5 && thousandths / 1000 == magnitude) {
+            hundredths = ((long) thousandths + 5) / 10;
+        } else {
+            hundredths = Math.round(magnitude * 100);
+        }
+
+        long fraction = hundredths % 100;
+        sb.append(hundredths / 100).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+}
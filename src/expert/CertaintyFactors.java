@@ -0,0 +1,58 @@
+package expert;
+
+/**
+ * Class providing the <b>MYCIN-style certainty factor calculations</b> of the knowledge base as plain Java
+ * functions
+ *
+ * <p>The formulae are exactly those of the Prolog rules <code>confidenceFactor/3</code> and
+ * <code>adjustedWeight/3</code>; they are mirrored here so that workloads evaluating many patients at once
+ * (such as batch replays and threshold studies) do not need a round trip to Prolog per disease and per
+ * answer.</p>
+ */
+public final class CertaintyFactors {
+    /**
+     * Empty constructor (this class only provides static functions)
+     */
+    private CertaintyFactors() {
+
+    }
+
+    /**
+     * Returns the updated certainty factor given the current certainty factor and the signed weight of
+     * the symptom, following the three cases detailed in MYCIN
+     *
+     * <p>A signed weight of zero leaves the certainty factor unchanged, which allows callers to mask out
+     * patients who were not asked about the symptom.</p>
+     *
+     * @param cf current certainty factor
+     * @param trueWeight signed weight of the symptom
+     * @return updated certainty factor
+     */
+    public static double combine(double cf, double trueWeight) {
+        /* Both positive: first case detailed in MYCIN */
+        if (cf > 0 && trueWeight > 0) {
+            return cf + trueWeight - cf * trueWeight;
+        }
+
+        /* Both negative: second case detailed in MYCIN */
+        if (cf < 0 && trueWeight < 0) {
+            return cf + trueWeight + cf * trueWeight;
+        }
+
+        /* Opposite signs (or zero): third case detailed in MYCIN */
+        return (cf + trueWeight) / (1 - Math.min(Math.abs(cf), Math.abs(trueWeight)));
+    }
+
+    /**
+     * Returns the signed weight of a symptom given its unsigned weight and whether the patient responded
+     * affirmatively to the inquiry
+     *
+     * @param weight unsigned weight of the symptom
+     * @param affirmative <code>true</code> if the patient reported experiencing the symptom;
+     * <code>false</code>, otherwise
+     * @return signed weight of the symptom
+     */
+    public static double adjustedWeight(double weight, boolean affirmative) {
+        return affirmative ? weight : -1 * weight;
+    }
+}
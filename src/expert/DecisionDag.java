@@ -0,0 +1,552 @@
+package expert;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class implementing the <b>whole questionnaire compiled into a decision DAG</b>, read from a memory-mapped
+ * file, so that consultations are served without any inference
+ *
+ * <p>The DAG is built offline by <code>tools.DecisionDagCompiler</code>, which enumerates every consultation
+ * for each age band (see {@link AgeBands}) and sex, merging the nodes with equal {@link SessionState}s. Every
+ * node holds the symptom asked, the emergency flag, and the node reached by each answer code; the final nodes
+ * hold the diagnosed disease and its certainty factor. If the enumeration was cut short because the DAG grew
+ * too large, the nodes left unexpanded (the frontier) hold the full state of the consultation, and the
+ * sessions reaching them carry on with the live engine ({@link DiagnosisSession}).</p>
+ *
+ * <p>File layout (big-endian): magic, format, version of the knowledge base, number of diseases and symptoms,
+ * age boundaries, root node of every (age band, sex) slot, number of nodes and frontier nodes, then the nodes
+ * (fixed-size records) and the frontier states (fixed-size records).</p>
+ */
+public class DecisionDag {
+    /* Magic number of the file ("EHDG") */
+    private static final int MAGIC = 0x45484447;
+    /* Version of the file format */
+    private static final int FORMAT = 1;
+    /* Number of answer codes, hence of children of a node */
+    private static final int NUM_CODES = 4;
+    /* Number of sex codes, hence of root slots per age band */
+    private static final int NUM_SEXES = 4;
+    /* Size of a node record: symptom, flags, children, payload, padding, certainty factor */
+    private static final int NODE_BYTES = 4 + 4 + 4 * NUM_CODES + 4 + 4 + 8;
+
+    /* Sexes for which the DAG is compiled: male, female, and unspecified */
+    private static final String[] SEXES = {"Male", "Female", ""};
+
+    /* Flag of the nodes where an emergency has been reported */
+    private static final int FLAG_EMERGENCY = 1;
+    /* Flag of the final nodes */
+    private static final int FLAG_FINAL = 2;
+    /* Flag of the frontier nodes */
+    private static final int FLAG_FRONTIER = 4;
+
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+    /* Contents of the file */
+    private final ByteBuffer buffer;
+    /* Age boundaries of the knowledge base, in ascending order */
+    private final double[] ageBoundaries;
+    /* Root node of every (age band, sex) slot, or -1 */
+    private final int[] roots;
+    /* Number of nodes */
+    private final int numNodes;
+    /* Number of frontier nodes */
+    private final int numFrontier;
+    /* Offset of the first node record */
+    private final int nodesOffset;
+    /* Offset of the first frontier record */
+    private final int frontierOffset;
+    /* Size of a frontier record */
+    private final int frontierBytes;
+
+    /**
+     * Reads a decision DAG
+     *
+     * @param kb static tables of the knowledge base
+     * @param buffer contents of the file
+     * @throws IllegalArgumentException if the file is not a decision DAG of this version of the knowledge base
+     */
+    private DecisionDag(KnowledgeBase kb, ByteBuffer buffer) {
+        this.kb = kb;
+        this.buffer = buffer;
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            throw new IllegalArgumentException("Not a decision DAG file");
+        }
+        if (buffer.getLong(8) != kb.getVersion() || buffer.getInt(16) != kb.getNumDiseases()
+                || buffer.getInt(20) != kb.getNumSymptoms()) {
+            throw new IllegalArgumentException("The decision DAG was compiled from another version of the "
+                    + "knowledge base");
+        }
+
+        int offset = 24;
+        ageBoundaries = new double[buffer.getInt(offset)];
+        offset += 4;
+        for (int k = 0; k < ageBoundaries.length; k++, offset += 8) {
+            ageBoundaries[k] = buffer.getDouble(offset);
+        }
+
+        roots = new int[buffer.getInt(offset)];
+        offset += 4;
+        for (int k = 0; k < roots.length; k++, offset += 4) {
+            roots[k] = buffer.getInt(offset);
+        }
+
+        numNodes = buffer.getInt(offset);
+        numFrontier = buffer.getInt(offset + 4);
+        nodesOffset = offset + 8;
+        frontierOffset = nodesOffset + numNodes * NODE_BYTES;
+        frontierBytes = frontierBytes(kb);
+
+        if ((long) frontierOffset + (long) numFrontier * frontierBytes > buffer.limit()) {
+            throw new IllegalArgumentException("The decision DAG file is truncated");
+        }
+    }
+
+    /**
+     * Maps a decision DAG file into memory
+     *
+     * @param file decision DAG file
+     * @param kb static tables of the knowledge base the DAG was compiled from
+     * @return decision DAG
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a decision DAG of this version of the knowledge base
+     */
+    public static DecisionDag load(Path file, KnowledgeBase kb) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The decision DAG file is too large to be mapped");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new DecisionDag(kb, buffer);
+        }
+    }
+
+    /**
+     * Returns the size of a frontier record for the given knowledge base
+     *
+     * @param kb static tables of the knowledge base
+     * @return size of a frontier record, in bytes
+     */
+    private static int frontierBytes(KnowledgeBase kb) {
+        /* Certainty factors, bit set of the removed symptoms, current disease and symptom, number of answers
+        and emergency flag */
+        return 8 * kb.getNumDiseases() + 8 * ((kb.getNumSymptoms() + 63) / 64) + 4 * 4;
+    }
+
+    /**
+     * Returns the slot of the root node for a patient
+     *
+     * @param ageBand age band of the patient
+     * @param sexCode code of the sex of the patient
+     * @return slot of the root node
+     */
+    private static int rootSlot(int ageBand, int sexCode) {
+        return ageBand * NUM_SEXES + sexCode;
+    }
+
+    /**
+     * Compiles the whole questionnaire of a knowledge base into a decision DAG and writes it to a file
+     *
+     * <p>The consultations of every age band and sex are enumerated breadth-first from their initial state,
+     * following every answer code that can be given to each symptom (for a vital sign, the code of every band
+     * of readings). Nodes with equal states are merged. The given number of nodes is shared evenly by the age
+     * bands and sexes; once a share is used up, no more nodes are expanded, and the consultations reaching the
+     * unexpanded ones are served by the live engine.</p>
+     *
+     * @param file decision DAG file to be written
+     * @param kb static tables of the knowledge base
+     * @param maxNodes maximum number of nodes expanded
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if the maximum number of nodes is not positive, or the DAG would be too
+     *                                  large to be mapped
+     */
+    public static void compile(Path file, KnowledgeBase kb, int maxNodes) throws IOException {
+        if (maxNodes <= 0) {
+            throw new IllegalArgumentException("The maximum number of nodes must be positive");
+        }
+
+        double[] boundaries = AgeBands.boundaries(kb);
+        int[] roots = new int[(boundaries.length + 1) * NUM_SEXES];
+        Arrays.fill(roots, -1);
+
+        List<SessionState> states = new ArrayList<>();
+        int[] children = new int[NUM_CODES * 1024];
+        boolean[] expanded = new boolean[1024];
+
+        int numClasses = (boundaries.length + 1) * SEXES.length;
+        for (int band = 0; band <= boundaries.length; band++) {
+            /* Any age in the band behaves the same; take its lowest one (or just below the first boundary). */
+            double age;
+            if (band > 0) {
+                age = boundaries[band - 1];
+            } else {
+                age = boundaries.length > 0 ? boundaries[0] - 1 : 0;
+            }
+
+            for (String sex : SEXES) {
+                int sexCode = VitalSignRules.sexCode(sex);
+                /* The nodes left are shared evenly by the remaining age bands and sexes, so that all of them
+                have their first questions compiled. */
+                int limit = states.size() + Math.max(1, (maxNodes - states.size()) / numClasses--);
+                DiagnosisSession session;
+                session = new DiagnosisSession(kb, "", age, sex);
+
+                /* Nodes are only merged within the same age band and sex. */
+                Map<SessionState, Integer> index = new HashMap<>();
+                ArrayDeque<Integer> queue = new ArrayDeque<>();
+
+                SessionState initial = session.snapshot();
+                roots[rootSlot(band, sexCode)] = states.size();
+                index.put(initial, states.size());
+                queue.add(states.size());
+                states.add(initial);
+
+                while (!queue.isEmpty() && states.size() < limit) {
+                    int node = queue.poll();
+                    SessionState state = states.get(node);
+                    if (state.isFinished()) {
+                        continue;
+                    }
+
+                    if (states.size() + NUM_CODES > expanded.length) {
+                        expanded = Arrays.copyOf(expanded, 2 * expanded.length);
+                        children = Arrays.copyOf(children, NUM_CODES * expanded.length);
+                    }
+                    expanded[node] = true;
+
+                    boolean[] codes = answerCodes(kb, state.getSymptomId(), age, sexCode);
+                    for (int code = 0; code < NUM_CODES; code++) {
+                        if (!codes[code]) {
+                            children[NUM_CODES * node + code] = -1;
+                            continue;
+                        }
+
+                        session.restore(state);
+                        session.answerCode(code);
+                        SessionState next = session.snapshot();
+
+                        Integer child = index.get(next);
+                        if (child == null) {
+                            child = states.size();
+                            index.put(next, child);
+                            queue.add(child);
+                            states.add(next);
+                        }
+                        children[NUM_CODES * node + code] = child;
+                    }
+                }
+            }
+        }
+
+        write(file, kb, roots, states, children, Arrays.copyOf(expanded, states.size()));
+    }
+
+    /**
+     * Returns the answer codes that can be given to a symptom by a patient
+     *
+     * @param kb static tables of the knowledge base
+     * @param symptom ID of the symptom
+     * @param age age of the patient
+     * @param sexCode code of the sex of the patient
+     * @return flags of the answer codes that can be given
+     */
+    private static boolean[] answerCodes(KnowledgeBase kb, int symptom, double age, int sexCode) {
+        VitalSignRules rules = kb.getVitalSignRules();
+        boolean[] codes = new boolean[NUM_CODES];
+
+        if (!rules.isNumeric(symptom)) {
+            codes[rules.evaluate(symptom, false)] = true;
+            codes[rules.evaluate(symptom, true)] = true;
+            return codes;
+        }
+
+        /* The code of a reading only changes at the edges of the bands, which are half-open. */
+        codes[rules.evaluate(symptom, rules.getMin(symptom), age, sexCode)] = true;
+        codes[rules.evaluate(symptom, rules.getMax(symptom), age, sexCode)] = true;
+        for (int b = 0; b < rules.getNumBands(); b++) {
+            if (rules.getBandSymptom(b) == symptom) {
+                for (double value : new double[]{rules.getBandLow(b), rules.getBandHigh(b)}) {
+                    if (rules.isValidReading(symptom, value)) {
+                        codes[rules.evaluate(symptom, value, age, sexCode)] = true;
+                    }
+                }
+            }
+        }
+
+        return codes;
+    }
+
+    /**
+     * Writes a decision DAG
+     *
+     * @param file decision DAG file to be written
+     * @param kb static tables of the knowledge base
+     * @param roots root node of every (age band, sex) slot (indexed by <code>ageBand * 4 + sexCode</code>),
+     *              or <code>-1</code>
+     * @param states state of every node
+     * @param children node reached by each answer code of every node (<code>4 * node + code</code>), or
+     *                 <code>-1</code> if the answer code cannot be given
+     * @param expanded flags of the nodes whose children have been enumerated (the others, unless final, are
+     *                 the frontier)
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if the DAG would be too large to be mapped
+     */
+    private static void write(Path file, KnowledgeBase kb, int[] roots, List<SessionState> states, int[] children,
+                              boolean[] expanded) throws IOException {
+        double[] boundaries = AgeBands.boundaries(kb);
+        int numNodes = states.size();
+
+        int numFrontier = 0;
+        for (int n = 0; n < numNodes; n++) {
+            if (!expanded[n] && !states.get(n).isFinished()) {
+                numFrontier++;
+            }
+        }
+
+        long size = 32L + 8L * boundaries.length + 4L * roots.length + (long) NODE_BYTES * numNodes
+                + (long) frontierBytes(kb) * numFrontier;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The decision DAG is too large to be mapped (" + size
+                    + " bytes)");
+        }
+
+        try (OutputStream stream = Files.newOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(kb.getVersion());
+            out.writeInt(kb.getNumDiseases());
+            out.writeInt(kb.getNumSymptoms());
+
+            out.writeInt(boundaries.length);
+            for (double boundary : boundaries) {
+                out.writeDouble(boundary);
+            }
+
+            out.writeInt(roots.length);
+            for (int root : roots) {
+                out.writeInt(root);
+            }
+
+            out.writeInt(numNodes);
+            out.writeInt(numFrontier);
+
+            /* Nodes */
+            int frontier = 0;
+            for (int n = 0; n < numNodes; n++) {
+                SessionState state = states.get(n);
+                double[] cf = state.getCFs();
+
+                int maxIndex = 0;
+                for (int d = 0; d < cf.length; d++) {
+                    if (cf[d] > cf[maxIndex]) {
+                        maxIndex = d;
+                    }
+                }
+
+                int flags = state.getEmergency() ? FLAG_EMERGENCY : 0;
+                int payload = maxIndex;
+                if (state.isFinished()) {
+                    flags |= FLAG_FINAL;
+                } else if (!expanded[n]) {
+                    flags |= FLAG_FRONTIER;
+                    payload = frontier++;
+                }
+
+                out.writeInt(state.getSymptomId());
+                out.writeInt(flags);
+                for (int c = 0; c < NUM_CODES; c++) {
+                    out.writeInt(expanded[n] ? children[NUM_CODES * n + c] : -1);
+                }
+                out.writeInt(payload);
+                out.writeInt(0);
+                out.writeDouble(cf[maxIndex]);
+            }
+
+            /* Frontier states */
+            for (int n = 0; n < numNodes; n++) {
+                SessionState state = states.get(n);
+                if (expanded[n] || state.isFinished()) {
+                    continue;
+                }
+
+                for (double value : state.getCFs()) {
+                    out.writeDouble(value);
+                }
+                for (long word : state.getRemovedWords()) {
+                    out.writeLong(word);
+                }
+                out.writeInt(state.getI());
+                out.writeInt(state.getSymptomId());
+                out.writeInt(state.getNumAnswers());
+                out.writeInt(state.getEmergency() ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Returns the static tables of the knowledge base of this DAG
+     *
+     * @return static tables of the knowledge base
+     */
+    public KnowledgeBase getKnowledgeBase() {
+        return kb;
+    }
+
+    /**
+     * Returns the number of nodes of this DAG
+     *
+     * @return number of nodes
+     */
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    /**
+     * Returns the number of frontier nodes of this DAG (nodes left unexpanded, served by the live engine)
+     *
+     * @return number of frontier nodes
+     */
+    public int getNumFrontier() {
+        return numFrontier;
+    }
+
+    /**
+     * Returns the root node for a patient, or <code>-1</code> if the DAG has none
+     *
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @return root node for the patient, or <code>-1</code>
+     */
+    int root(double age, String sex) {
+        int slot = rootSlot(AgeBands.band(ageBoundaries, age), VitalSignRules.sexCode(sex));
+        return slot < roots.length ? roots[slot] : -1;
+    }
+
+    /**
+     * Returns the offset of a node record
+     *
+     * @param node index of the node
+     * @return offset of the node record
+     */
+    private int offsetOf(int node) {
+        return nodesOffset + node * NODE_BYTES;
+    }
+
+    /**
+     * Returns the ID of the symptom asked at a node, or <code>-1</code> if the node is final
+     *
+     * @param node index of the node
+     * @return ID of the symptom asked at the node, or <code>-1</code>
+     */
+    int symptomOf(int node) {
+        return buffer.getInt(offsetOf(node));
+    }
+
+    /**
+     * Returns <code>true</code> if an emergency has been reported at a node; <code>false</code>, otherwise
+     *
+     * @param node index of the node
+     * @return <code>true</code> if an emergency has been reported at the node; <code>false</code>, otherwise
+     */
+    boolean isEmergency(int node) {
+        return (buffer.getInt(offsetOf(node) + 4) & FLAG_EMERGENCY) != 0;
+    }
+
+    /**
+     * Returns <code>true</code> if a node is a frontier node; <code>false</code>, otherwise
+     *
+     * @param node index of the node
+     * @return <code>true</code> if the node is a frontier node; <code>false</code>, otherwise
+     */
+    boolean isFrontier(int node) {
+        return (buffer.getInt(offsetOf(node) + 4) & FLAG_FRONTIER) != 0;
+    }
+
+    /**
+     * Returns the node reached by an answer code, or <code>-1</code> if the code cannot be given at the node
+     *
+     * @param node index of the node
+     * @param code answer code
+     * @return node reached by the answer code, or <code>-1</code>
+     */
+    int childOf(int node, int code) {
+        return buffer.getInt(offsetOf(node) + 8 + 4 * (code & (NUM_CODES - 1)));
+    }
+
+    /**
+     * Returns the index of the disease with the highest certainty factor at a node
+     *
+     * @param node index of the node (not a frontier node)
+     * @return index of the disease with the highest certainty factor
+     */
+    int diseaseOf(int node) {
+        return buffer.getInt(offsetOf(node) + 8 + 4 * NUM_CODES);
+    }
+
+    /**
+     * Returns the highest certainty factor at a node
+     *
+     * @param node index of the node
+     * @return highest certainty factor
+     */
+    double maxCFOf(int node) {
+        return buffer.getDouble(offsetOf(node) + 8 + 4 * NUM_CODES + 8);
+    }
+
+    /**
+     * Returns the state of the consultation at a frontier node
+     *
+     * @param node index of the frontier node
+     * @return state of the consultation at the node
+     */
+    SessionState frontierState(int node) {
+        int offset = frontierOffset + diseaseOf(node) * frontierBytes;
+
+        double[] cf = new double[kb.getNumDiseases()];
+        for (int d = 0; d < cf.length; d++, offset += 8) {
+            cf[d] = buffer.getDouble(offset);
+        }
+
+        boolean[] removed = new boolean[kb.getNumSymptoms()];
+        for (int w = 0; w < (removed.length + 63) / 64; w++, offset += 8) {
+            long word = buffer.getLong(offset);
+            for (int b = 0; b < 64 && 64 * w + b < removed.length; b++) {
+                removed[64 * w + b] = (word & (1L << b)) != 0;
+            }
+        }
+
+        int i = buffer.getInt(offset);
+        int symptom = buffer.getInt(offset + 4);
+        int numAnswers = buffer.getInt(offset + 8);
+        boolean emergency = buffer.getInt(offset + 12) != 0;
+
+        return new SessionState(cf, removed, i, symptom, i < cf.length ? cf[i] : 0, numAnswers, emergency);
+    }
+
+    /**
+     * Returns a one-line summary of the DAG
+     *
+     * @return one-line summary of the DAG
+     */
+    @Override
+    public String toString() {
+        return String.format("%d nodes, %d frontier, %.1f MiB", numNodes, numFrontier, buffer.limit() / 1048576.0);
+    }
+}
@@ -0,0 +1,190 @@
+package expert;
+
+/**
+ * Class implementing a <b>consultation with a single patient over a compiled {@link DecisionDag}</b>
+ *
+ * <p>The session follows the same flow and gives the same diagnosis as a {@link DiagnosisSession}, but
+ * answering a question only reads the next node from the DAG, without any inference. If the consultation
+ * reaches the frontier of the DAG (the nodes left unexpanded because the DAG grew too large), it carries on
+ * with a live {@link DiagnosisSession} resumed from the state stored at that node. A single session is not
+ * thread-safe, but any number of sessions can run concurrently over the same DAG.</p>
+ */
+public class DecisionDagSession {
+    /* Compiled decision DAG */
+    private final DecisionDag dag;
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+
+    /* Name of the patient */
+    private final String name;
+    /* Age of the patient */
+    private final double age;
+    /* Sex of the patient */
+    private final String sex;
+    /* Code of the sex of the patient, as used by the vital-sign rules */
+    private final int sexCode;
+
+    /* Current node of the DAG, or -1 once the session has gone live */
+    private int node;
+    /* Live session, once the consultation has gone past the frontier of the DAG; null, otherwise */
+    private DiagnosisSession live;
+
+    /**
+     * Starts a consultation with a patient
+     *
+     * @param dag compiled decision DAG
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     */
+    public DecisionDagSession(DecisionDag dag, String name, double age, String sex) {
+        this.dag = dag;
+        this.kb = dag.getKnowledgeBase();
+        this.name = name;
+        this.age = age;
+        this.sex = sex;
+        this.sexCode = VitalSignRules.sexCode(sex);
+
+        int root = dag.root(age, sex);
+        if (root < 0) {
+            /* The DAG was compiled without this kind of patient. */
+            this.node = -1;
+            this.live = new DiagnosisSession(kb, name, age, sex);
+        } else {
+            moveTo(root);
+        }
+    }
+
+    /**
+     * Moves to a node of the DAG, going live if it is a frontier node
+     *
+     * @param next index of the node
+     */
+    private void moveTo(int next) {
+        if (dag.isFrontier(next)) {
+            node = -1;
+            live = new DiagnosisSession(kb, age, sex, dag.frontierState(next));
+        } else {
+            node = next;
+        }
+    }
+
+    /**
+     * Returns the name of the patient
+     *
+     * @return name of the patient
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns <code>true</code> if the consultation is served by the live engine (because it has gone past
+     * the frontier of the DAG); <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if the consultation is served by the live engine; <code>false</code>,
+     * otherwise
+     */
+    public boolean isLive() {
+        return live != null;
+    }
+
+    /**
+     * Returns <code>true</code> if the consultation has ended (that is, the final diagnosis can be given);
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if the consultation has ended; <code>false</code>, otherwise
+     */
+    public boolean isFinished() {
+        return getSymptomId() < 0;
+    }
+
+    /**
+     * Returns the ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+     *
+     * @return ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+     */
+    public int getSymptomId() {
+        return live != null ? live.getSymptomId() : dag.symptomOf(node);
+    }
+
+    /**
+     * Returns the Prolog atom naming the current symptom being asked, or <code>null</code> if the
+     * consultation has ended
+     *
+     * @return Prolog atom naming the current symptom, or <code>null</code> if the consultation has ended
+     */
+    public String getSymptom() {
+        int symptom = getSymptomId();
+        return symptom < 0 ? null : kb.getSymptomKey(symptom);
+    }
+
+    /**
+     * Returns <code>true</code> if a symptom indicative of an emergency has been reported;
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if a symptom indicative of an emergency has been reported;
+     * <code>false</code>, otherwise
+     */
+    public boolean getEmergency() {
+        return live != null ? live.getEmergency() : dag.isEmergency(node);
+    }
+
+    /**
+     * Records the patient's response to the current symptom and moves to the next question (or ends the
+     * consultation)
+     *
+     * @param answer response of the patient (<code>"yes"</code>, <code>"no"</code>, or a reading)
+     * @throws IllegalStateException if the consultation has ended
+     * @throws NumberFormatException if a vital sign is answered with something other than a number
+     * @throws IllegalArgumentException if the reading of a vital sign is out of its valid range
+     */
+    public void answer(String answer) {
+        if (isFinished()) {
+            throw new IllegalStateException("The consultation has ended");
+        }
+
+        answerCode(kb.getVitalSignRules().evaluate(getSymptomId(), answer, age, sexCode));
+    }
+
+    /**
+     * Records the patient's response to the current symptom, given as an answer code (see
+     * {@link VitalSignRules}), and moves to the next question (or ends the consultation)
+     *
+     * @param code answer code of the response
+     * @throws IllegalStateException if the consultation has ended
+     * @throws IllegalArgumentException if the answer code cannot be given to the current symptom
+     */
+    public void answerCode(int code) {
+        if (isFinished()) {
+            throw new IllegalStateException("The consultation has ended");
+        }
+
+        if (live != null) {
+            live.answerCode(code);
+            return;
+        }
+
+        int next = dag.childOf(node, code);
+        if (next < 0) {
+            throw new IllegalArgumentException("Answer code " + code + " cannot be given to "
+                    + kb.getSymptomKey(getSymptomId()));
+        }
+
+        moveTo(next);
+    }
+
+    /**
+     * Returns the final diagnosis, worded as in {@link DiagnosisSession#getFinalDiagnosis()}
+     *
+     * @return final diagnosis
+     */
+    public String getFinalDiagnosis() {
+        if (live != null) {
+            return DiagnosisSession.formatDiagnosis(kb, name, live.getCFs(), live.getEmergency());
+        }
+
+        return DiagnosisSession.formatDiagnosis(kb, name, dag.diseaseOf(node), dag.maxCFOf(node),
+                dag.isEmergency(node));
+    }
+}
@@ -0,0 +1,337 @@
+package expert;
+
+/**
+ * Class implementing <b>consultations with a batch of patients in lockstep</b>, whose certainty factors are
+ * kept in a {@link CFBatch} (for population-scale replays and threshold studies)
+ *
+ * <p>Every patient follows exactly the flow of {@link DiagnosisSession}. At every step, each patient whose
+ * consultation has not ended answers its current symptom. The patients asked the same symptom form a cohort:
+ * a large cohort is updated by the kernel of the batch across whole lanes of the batch (masking out the other
+ * patients), and the patients of a small cohort are updated one at a time, with the same formula. Either way,
+ * the certainty factors are exactly those of a {@link DiagnosisSession} given the same answers.</p>
+ *
+ * <p>A batch is not thread-safe.</p>
+ */
+public class DiagnosisBatch {
+    /* Smallest fraction of the batch (as a divisor) asked the same symptom for the kernel to be used */
+    private static final int COHORT_DIVISOR = 8;
+
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+    /* Certainty factors of the patients */
+    private final CFBatch cf;
+    /* Number of patients in the batch */
+    private final int size;
+
+    /* Set to true for each symptom of each patient that has been asked or ruled out; false, otherwise */
+    private final boolean[][] removed;
+    /* Index of the current disease of each patient */
+    private final int[] i;
+    /* ID of the current symptom of each patient, or -1 if the consultation has ended */
+    private final int[] symptom;
+    /* Certainty factor of the disease considered when each patient gave the last answer */
+    private final double[] lastCF;
+    /* Number of answers given by each patient */
+    private final int[] numAnswers;
+    /* Set to true for each patient who reported an emergency symptom; false, otherwise */
+    private final boolean[] emergency;
+    /* Number of patients whose consultation has not ended */
+    private int active;
+
+    /* Buffers of a step: the patients asked a symptom and their answers, the symptoms asked, the size and the
+    offset of their cohorts (indexed by symptom ID), and the patients sorted by cohort */
+    private final boolean[] answered;
+    private final boolean[] affirmative;
+    private final int[] asked;
+    private final int[] cohort;
+    private final int[] offset;
+    private final int[] members;
+
+    /**
+     * Starts consultations with a batch of patients, removing the symptoms that do not apply to each patient's
+     * sex and age, with the vector kernel if it is available
+     *
+     * @param kb static tables of the knowledge base
+     * @param ages age of each patient
+     * @param sexes sex of each patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @throws IllegalArgumentException if there are not as many sexes as ages
+     */
+    public DiagnosisBatch(KnowledgeBase kb, double[] ages, String[] sexes) {
+        this(kb, ages, sexes, true);
+    }
+
+    /**
+     * Starts consultations with a batch of patients, removing the symptoms that do not apply to each patient's
+     * sex and age
+     *
+     * @param kb static tables of the knowledge base
+     * @param ages age of each patient
+     * @param sexes sex of each patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @param vector <code>true</code> to use the vector kernel if it is available; <code>false</code> to use
+     *               the scalar kernel
+     * @throws IllegalArgumentException if there are not as many sexes as ages
+     */
+    public DiagnosisBatch(KnowledgeBase kb, double[] ages, String[] sexes, boolean vector) {
+        if (ages.length != sexes.length) {
+            throw new IllegalArgumentException("Expected as many sexes as ages");
+        }
+
+        this.kb = kb;
+        this.size = ages.length;
+        this.cf = new CFBatch(kb.getNumDiseases(), size, vector);
+
+        removed = new boolean[size][kb.getNumSymptoms()];
+        i = new int[size];
+        symptom = new int[size];
+        lastCF = new double[size];
+        numAnswers = new int[size];
+        emergency = new boolean[size];
+
+        answered = new boolean[size];
+        affirmative = new boolean[size];
+        asked = new int[size];
+        cohort = new int[kb.getNumSymptoms()];
+        offset = new int[kb.getNumSymptoms()];
+        members = new int[size];
+
+        for (int p = 0; p < size; p++) {
+            /* Delete female-specific symptoms if the patient is male. */
+            if (sexes[p].equalsIgnoreCase("male")) {
+                for (int s : kb.getFemaleSymptoms()) {
+                    removed[p][s] = true;
+                }
+            }
+
+            /* Delete pediatric symptoms if the patient is not a child. */
+            if (ages[p] >= kb.getAdultAge()) {
+                for (int s : kb.getPediatricSymptoms()) {
+                    removed[p][s] = true;
+                }
+            }
+
+            symptom[p] = nextSymptom(p);
+            if (symptom[p] >= 0) {
+                active++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of patients in the batch
+     *
+     * @return number of patients in the batch
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the name of the kernel updating the certainty factors (see {@link CFBatch#getKernelName()})
+     *
+     * @return name of the kernel updating the certainty factors
+     */
+    public String getKernelName() {
+        return cf.getKernelName();
+    }
+
+    /**
+     * Returns <code>true</code> if the consultations of all the patients have ended; <code>false</code>,
+     * otherwise
+     *
+     * @return <code>true</code> if all the consultations have ended; <code>false</code>, otherwise
+     */
+    public boolean isFinished() {
+        return active == 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the consultation of a patient has ended; <code>false</code>, otherwise
+     *
+     * @param patient index of the patient in the batch
+     * @return <code>true</code> if the consultation has ended; <code>false</code>, otherwise
+     */
+    public boolean isFinished(int patient) {
+        return symptom[patient] < 0;
+    }
+
+    /**
+     * Returns the ID of the current symptom being asked to a patient, or <code>-1</code> if the consultation
+     * has ended
+     *
+     * @param patient index of the patient in the batch
+     * @return ID of the current symptom, or <code>-1</code> if the consultation has ended
+     */
+    public int getSymptomId(int patient) {
+        return symptom[patient];
+    }
+
+    /**
+     * Returns the number of answers given by a patient
+     *
+     * @param patient index of the patient in the batch
+     * @return number of answers given
+     */
+    public int getNumAnswers(int patient) {
+        return numAnswers[patient];
+    }
+
+    /**
+     * Returns the certainty factor of a disease for a patient
+     *
+     * @param disease index of the disease
+     * @param patient index of the patient in the batch
+     * @return certainty factor of the disease
+     */
+    public double getCF(int disease, int patient) {
+        return cf.getCF(disease, patient);
+    }
+
+    /**
+     * Returns <code>true</code> if a patient reported a symptom indicative of an emergency; <code>false</code>,
+     * otherwise
+     *
+     * @param patient index of the patient in the batch
+     * @return <code>true</code> if an emergency symptom has been reported; <code>false</code>, otherwise
+     */
+    public boolean getEmergency(int patient) {
+        return emergency[patient];
+    }
+
+    /**
+     * Returns the index of the disease with the highest certainty factor for a patient (the first one, in case
+     * of ties)
+     *
+     * @param patient index of the patient in the batch
+     * @return index of the disease with the highest certainty factor
+     */
+    public int getDiagnosedDisease(int patient) {
+        int maxIndex = 0;
+
+        for (int d = 0; d < cf.getNumDiseases(); d++) {
+            if (cf.getCF(d, patient) > cf.getCF(maxIndex, patient)) {
+                maxIndex = d;
+            }
+        }
+
+        return maxIndex;
+    }
+
+    /**
+     * Records the response of every patient whose consultation has not ended to its current symptom, and
+     * moves each of them to the next question (or ends the consultation)
+     *
+     * @param codes answer code of the response of each patient (see {@link VitalSignRules}); the codes of the
+     *              patients whose consultation has ended are ignored
+     * @throws IllegalStateException if all the consultations have ended
+     */
+    public void step(int[] codes) {
+        if (active == 0) {
+            throw new IllegalStateException("The consultations have ended");
+        }
+
+        /* Group the patients by the symptom they are asked. */
+        int numAsked = 0;
+        for (int p = 0; p < size; p++) {
+            int s = symptom[p];
+            if (s >= 0 && cohort[s]++ == 0) {
+                asked[numAsked++] = s;
+            }
+        }
+
+        int next = 0;
+        for (int k = 0; k < numAsked; k++) {
+            offset[asked[k]] = next;
+            next += cohort[asked[k]];
+        }
+        for (int p = 0; p < size; p++) {
+            if (symptom[p] >= 0) {
+                members[offset[symptom[p]]++] = p;
+            }
+        }
+
+        for (int k = 0; k < numAsked; k++) {
+            int s = asked[k];
+            int[] diseases = kb.getDiseasesWithSymptom(s);
+
+            if (cohort[s] * COHORT_DIVISOR >= size) {
+                /* Large cohort: update the whole batch, masking out the patients not asked the symptom. */
+                for (int p = 0; p < size; p++) {
+                    answered[p] = symptom[p] == s;
+                    affirmative[p] = answered[p] && (codes[p] & VitalSignRules.POSITIVE) != 0;
+                }
+                cf.applyAnswer(diseases, kb.getWeight(s), affirmative, cohort[s] == size ? null : answered);
+            } else {
+                /* Small cohort: update its patients one at a time (the offset now points past the cohort). */
+                for (int m = offset[s] - cohort[s]; m < offset[s]; m++) {
+                    int p = members[m];
+                    double trueWeight = CertaintyFactors.adjustedWeight(kb.getWeight(s),
+                            (codes[p] & VitalSignRules.POSITIVE) != 0);
+                    for (int d : diseases) {
+                        cf.setCF(d, p, CertaintyFactors.combine(cf.getCF(d, p), trueWeight));
+                    }
+                }
+            }
+            cohort[s] = 0;
+        }
+
+        for (int p = 0; p < size; p++) {
+            if (symptom[p] < 0) {
+                continue;
+            }
+
+            if ((codes[p] & VitalSignRules.EMERGENCY) != 0) {
+                emergency[p] = true;
+            }
+            lastCF[p] = cf.getCF(i[p], p);
+            removed[p][symptom[p]] = true;
+            numAnswers[p]++;
+            advance(p);
+
+            if (symptom[p] < 0) {
+                active--;
+            }
+        }
+    }
+
+    /**
+     * Moves a patient to the next question after an answer, following {@link DiagnosisSession}
+     *
+     * @param p index of the patient in the batch
+     */
+    private void advance(int p) {
+        if (lastCF[p] < kb.getCFValueRemove()) {
+            /* Move to the next disease if the certainty factor drops below the threshold. */
+            i[p]++;
+            symptom[p] = nextSymptom(p);
+        } else {
+            symptom[p] = nextSymptom(p);
+
+            /* All the symptoms of the disease have been exhausted: conclude or move to the next disease. */
+            if (symptom[p] < 0 && lastCF[p] < kb.getCFValueConclude()) {
+                i[p]++;
+                symptom[p] = nextSymptom(p);
+            }
+        }
+    }
+
+    /**
+     * Returns the first symptom of the current disease of a patient that has not yet been removed, or
+     * <code>-1</code> if there is none or the diseases have been exhausted
+     *
+     * @param p index of the patient in the batch
+     * @return ID of the next symptom to be asked, or <code>-1</code> if there is none
+     */
+    private int nextSymptom(int p) {
+        if (i[p] >= kb.getNumDiseases()) {
+            return -1;
+        }
+
+        for (int s : kb.getDiseaseSymptoms(i[p])) {
+            if (!removed[p][s]) {
+                return s;
+            }
+        }
+
+        return -1;
+    }
+}
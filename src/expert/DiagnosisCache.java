@@ -0,0 +1,356 @@
+package expert;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class implementing a <b>bounded cache of final diagnoses</b>, for re-scoring many records that share the
+ * same demographics and answers
+ *
+ * <p>A consultation is fully determined by the answers to the symptoms it asks, so records are keyed by a
+ * canonical form of their answers: the version of the knowledge base, the age band of the patient (the
+ * ages between two consecutive age boundaries of the knowledge base, such as <code>adultAge/1</code> and the
+ * ages of the vital-sign bands, behave the same), the sex, and the answer code of every answer, sorted by
+ * symptom ID. Numerical readings are thus bucketed by the bands of the {@link VitalSignRules}, and the
+ * answers about symptoms that are never asked of the patient (female-specific or pediatric) are left out.
+ * Keys are compared in full, so two records never share a result by a hash collision.</p>
+ *
+ * <p>The cache holds at most a given number of results, evicting the least recently used one, and results
+ * older than the time to live are recomputed. It is cleared automatically when it is used with a knowledge
+ * base of a different version. This class is thread-safe.</p>
+ */
+public class DiagnosisCache {
+    /* Maximum number of results held */
+    private final int maxEntries;
+    /* Time to live of a result, in nanoseconds (0 if results never expire) */
+    private final long ttlNanos;
+
+    /* Results, from the least to the most recently used (guarded by this) */
+    private final LinkedHashMap<Key, Entry> entries;
+    /* Version of the knowledge base of the results (guarded by this) */
+    private long version;
+    /* Age boundaries of the knowledge base of the results, in ascending order (guarded by this) */
+    private double[] ageBoundaries;
+
+    /* Number of lookups that returned a cached result */
+    private final LongAdder hits = new LongAdder();
+    /* Number of lookups that computed the result */
+    private final LongAdder misses = new LongAdder();
+    /* Number of results evicted because the cache was full */
+    private final LongAdder evictions = new LongAdder();
+    /* Number of results recomputed because they had expired */
+    private final LongAdder expirations = new LongAdder();
+    /* Number of times the cache was cleared because the version of the knowledge base changed */
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Creates an empty cache
+     *
+     * @param maxEntries maximum number of results held
+     * @param ttlMillis time to live of a result, in milliseconds (0 if results never expire)
+     * @throws IllegalArgumentException if the maximum number of results is not positive or the time to live
+     *                                  is negative
+     */
+    public DiagnosisCache(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("The size of the cache must be positive and its time to live "
+                    + "nonnegative");
+        }
+
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > DiagnosisCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the outcome of a consultation with the given patient and answers, computing it only if it is
+     * not cached
+     *
+     * <p>Symptoms asked during the consultation but missing from the answers are answered with
+     * <code>"no"</code>; answers about symptoms that are never asked are ignored.</p>
+     *
+     * @param kb static tables of the knowledge base
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @param answers responses of the patient, keyed by the Prolog atom naming the symptom
+     * @return outcome of the consultation
+     * @throws IllegalArgumentException if a symptom is unknown or the reading of a vital sign is out of its
+     *                                  valid range
+     * @throws NumberFormatException if a vital sign is answered with something other than a number
+     */
+    public DiagnosisResult diagnose(KnowledgeBase kb, double age, String sex, Map<String, String> answers) {
+        double[] boundaries = boundariesFor(kb);
+        int sexCode = VitalSignRules.sexCode(sex);
+        int[] codes = answerCodes(kb, age, sexCode, answers);
+        Key key = new Key(kb.getVersion(), AgeBands.band(boundaries, age), sexCode,
+                canonical(kb, age, sex, codes));
+
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+
+            if (entry != null && (ttlNanos == 0 || now - entry.created < ttlNanos)) {
+                hits.increment();
+                return entry.result;
+            } else if (entry != null) {
+                expirations.increment();
+            }
+        }
+
+        misses.increment();
+        DiagnosisResult result = run(kb, age, sex, codes);
+
+        synchronized (this) {
+            if (version == kb.getVersion()) {
+                entries.put(key, new Entry(result, now));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the age boundaries of the knowledge base, clearing the cache first if it holds results of
+     * another version
+     *
+     * @param kb static tables of the knowledge base
+     * @return age boundaries of the knowledge base, in ascending order
+     */
+    private synchronized double[] boundariesFor(KnowledgeBase kb) {
+        if (ageBoundaries == null || version != kb.getVersion()) {
+            if (ageBoundaries != null) {
+                invalidations.increment();
+            }
+
+            entries.clear();
+            version = kb.getVersion();
+            ageBoundaries = AgeBands.boundaries(kb);
+        }
+
+        return ageBoundaries;
+    }
+
+    /**
+     * Returns the answer code of every symptom (indexed by ID), or <code>-1</code> for the symptoms that
+     * were not answered
+     *
+     * @param kb static tables of the knowledge base
+     * @param age age of the patient
+     * @param sexCode code of the sex of the patient
+     * @param answers responses of the patient, keyed by the Prolog atom naming the symptom
+     * @return answer code of every symptom
+     */
+    private static int[] answerCodes(KnowledgeBase kb, double age, int sexCode, Map<String, String> answers) {
+        VitalSignRules rules = kb.getVitalSignRules();
+        int[] codes = new int[kb.getNumSymptoms()];
+        Arrays.fill(codes, -1);
+
+        for (Map.Entry<String, String> answer : answers.entrySet()) {
+            int id = kb.getSymptomId(answer.getKey().trim());
+            if (id < 0) {
+                throw new IllegalArgumentException("Unknown symptom: " + answer.getKey());
+            }
+
+            codes[id] = rules.evaluate(id, answer.getValue().trim(), age, sexCode);
+        }
+
+        return codes;
+    }
+
+    /**
+     * Returns the canonical form of the answers: the symptom ID and the answer code of every answer about a
+     * symptom that may be asked of the patient, in ascending order of symptom ID
+     *
+     * @param kb static tables of the knowledge base
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @param codes answer code of every symptom, or <code>-1</code> for the symptoms that were not answered
+     * @return canonical form of the answers, each packed as <code>(id &lt;&lt; 2) | code</code>
+     */
+    private static int[] canonical(KnowledgeBase kb, double age, String sex, int[] codes) {
+        boolean[] skipped = new boolean[codes.length];
+
+        if (sex.equalsIgnoreCase("male")) {
+            for (int s : kb.getFemaleSymptoms()) {
+                skipped[s] = true;
+            }
+        }
+
+        if (age >= kb.getAdultAge()) {
+            for (int s : kb.getPediatricSymptoms()) {
+                skipped[s] = true;
+            }
+        }
+
+        int[] packed = new int[codes.length];
+        int n = 0;
+        for (int id = 0; id < codes.length; id++) {
+            if (codes[id] >= 0 && !skipped[id]) {
+                packed[n++] = (id << 2) | codes[id];
+            }
+        }
+
+        return Arrays.copyOf(packed, n);
+    }
+
+    /**
+     * Runs a consultation with the given answer codes
+     *
+     * @param kb static tables of the knowledge base
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @param codes answer code of every symptom, or <code>-1</code> for the symptoms that were not answered
+     * @return outcome of the consultation
+     */
+    private static DiagnosisResult run(KnowledgeBase kb, double age, String sex, int[] codes) {
+        DiagnosisSession session;
+        session = new DiagnosisSession(kb, "", age, sex);
+
+        while (!session.isFinished()) {
+            session.answerCode(Math.max(0, codes[session.getSymptomId()]));
+        }
+
+        return new DiagnosisResult(session);
+    }
+
+    /**
+     * Removes all the results
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of results held
+     *
+     * @return number of results held
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups that returned a cached result
+     *
+     * @return number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that computed the result
+     *
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of results evicted because the cache was full
+     *
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of results recomputed because they had expired
+     *
+     * @return number of expirations
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * Returns the number of times the cache was cleared because the version of the knowledge base changed
+     *
+     * @return number of invalidations
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Returns a one-line summary of the metrics of the cache
+     *
+     * @return one-line summary of the metrics of the cache
+     */
+    @Override
+    public String toString() {
+        long h = getHits();
+        long m = getMisses();
+        return String.format("size=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expirations=%d "
+                        + "invalidations=%d", size(), maxEntries, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m),
+                getEvictions(), getExpirations(), getInvalidations());
+    }
+
+    /**
+     * Canonical key of a consultation
+     */
+    private static final class Key {
+        /* Version of the knowledge base */
+        private final long version;
+        /* Age band of the patient */
+        private final int ageBand;
+        /* Code of the sex of the patient */
+        private final int sex;
+        /* Canonical form of the answers */
+        private final int[] answers;
+        /* Hash code, computed once */
+        private final int hash;
+
+        Key(long version, int ageBand, int sex, int[] answers) {
+            this.version = version;
+            this.ageBand = ageBand;
+            this.sex = sex;
+            this.answers = answers;
+            this.hash = 31 * (31 * (31 * Long.hashCode(version) + ageBand) + sex) + Arrays.hashCode(answers);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return version == other.version && ageBand == other.ageBand && sex == other.sex
+                    && Arrays.equals(answers, other.answers);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Cached result, with the time at which it was computed
+     */
+    private static final class Entry {
+        /* Outcome of the consultation */
+        private final DiagnosisResult result;
+        /* Time at which the result was computed, as given by System.nanoTime() */
+        private final long created;
+
+        Entry(DiagnosisResult result, long created) {
+            this.result = result;
+            this.created = created;
+        }
+    }
+}
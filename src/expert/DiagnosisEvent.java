@@ -0,0 +1,300 @@
+package expert;
+
+/**
+ * Class representing an <b>event in a consultation</b>, as published by a {@link DiagnosisSession} through a
+ * {@link DiagnosisEventPublisher}
+ *
+ * <p>Only the fields relevant to the type of the event are set; the others are <code>null</code>,
+ * <code>-1</code>, or <code>NaN</code>. Events are immutable once published.</p>
+ */
+public final class DiagnosisEvent {
+    /**
+     * Types of events in a consultation
+     */
+    public enum Type {
+        /**
+         * The consultation has started (the patient's details are set)
+         */
+        SESSION_STARTED,
+        /**
+         * A question about a symptom is asked (the symptom is set)
+         */
+        QUESTION_ASKED,
+        /**
+         * An answer has been applied (the symptom, the answer code, and the changes in the certainty factors
+         * are set)
+         */
+        ANSWER_APPLIED,
+        /**
+         * A symptom indicative of an emergency has been reported for the first time (the symptom is set)
+         */
+        EMERGENCY_RAISED,
+        /**
+         * The consultation has ended (the diagnosis and its certainty factor are set)
+         */
+        DIAGNOSIS_REACHED
+    }
+
+    /* Type of the event */
+    private final Type type;
+    /* ID of the session in which the event occurred */
+    private final long sessionId;
+    /* Time at which the event occurred, in milliseconds since the epoch */
+    private final long timestamp;
+    /* Name of the patient (SESSION_STARTED) */
+    private final String name;
+    /* Age of the patient (SESSION_STARTED) */
+    private final double age;
+    /* Sex of the patient (SESSION_STARTED) */
+    private final String sex;
+    /* Prolog atom naming the symptom (QUESTION_ASKED, ANSWER_APPLIED, EMERGENCY_RAISED) */
+    private final String symptom;
+    /* Answer code of the response (ANSWER_APPLIED; see VitalSignRules) */
+    private final int answerCode;
+    /* Indices of the diseases whose certainty factors were updated (ANSWER_APPLIED) */
+    private final int[] diseases;
+    /* Changes in the certainty factors of these diseases (ANSWER_APPLIED) */
+    private final double[] cfDeltas;
+    /* Final diagnosis (DIAGNOSIS_REACHED) */
+    private final String diagnosis;
+    /* Final certainty factor, expressed in percentage (DIAGNOSIS_REACHED) */
+    private final double finalCF;
+
+    /**
+     * Creates an event; use the static factory methods instead
+     */
+    private DiagnosisEvent(Type type, long sessionId, String name, double age, String sex, String symptom,
+                           int answerCode, int[] diseases, double[] cfDeltas, String diagnosis, double finalCF) {
+        this.type = type;
+        this.sessionId = sessionId;
+        this.timestamp = System.currentTimeMillis();
+        this.name = name;
+        this.age = age;
+        this.sex = sex;
+        this.symptom = symptom;
+        this.answerCode = answerCode;
+        this.diseases = diseases;
+        this.cfDeltas = cfDeltas;
+        this.diagnosis = diagnosis;
+        this.finalCF = finalCF;
+    }
+
+    /**
+     * Returns an event signaling that a consultation has started
+     *
+     * @param sessionId ID of the session
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @return event signaling that the consultation has started
+     */
+    public static DiagnosisEvent sessionStarted(long sessionId, String name, double age, String sex) {
+        return new DiagnosisEvent(Type.SESSION_STARTED, sessionId, name, age, sex, null, -1, null, null,
+                null, Double.NaN);
+    }
+
+    /**
+     * Returns an event signaling that a question about a symptom is asked
+     *
+     * @param sessionId ID of the session
+     * @param symptom Prolog atom naming the symptom
+     * @return event signaling that the question is asked
+     */
+    public static DiagnosisEvent questionAsked(long sessionId, String symptom) {
+        return new DiagnosisEvent(Type.QUESTION_ASKED, sessionId, null, Double.NaN, null, symptom, -1, null,
+                null, null, Double.NaN);
+    }
+
+    /**
+     * Returns an event signaling that an answer has been applied
+     *
+     * @param sessionId ID of the session
+     * @param symptom Prolog atom naming the symptom
+     * @param answerCode answer code of the response (see {@link VitalSignRules})
+     * @param diseases indices of the diseases whose certainty factors were updated
+     * @param cfDeltas changes in the certainty factors of these diseases
+     * @return event signaling that the answer has been applied
+     */
+    public static DiagnosisEvent answerApplied(long sessionId, String symptom, int answerCode, int[] diseases,
+                                               double[] cfDeltas) {
+        return new DiagnosisEvent(Type.ANSWER_APPLIED, sessionId, null, Double.NaN, null, symptom, answerCode,
+                diseases, cfDeltas, null, Double.NaN);
+    }
+
+    /**
+     * Returns an event signaling that a symptom indicative of an emergency has been reported
+     *
+     * @param sessionId ID of the session
+     * @param symptom Prolog atom naming the symptom
+     * @return event signaling the emergency
+     */
+    public static DiagnosisEvent emergencyRaised(long sessionId, String symptom) {
+        return new DiagnosisEvent(Type.EMERGENCY_RAISED, sessionId, null, Double.NaN, null, symptom, -1, null,
+                null, null, Double.NaN);
+    }
+
+    /**
+     * Returns an event signaling that a consultation has ended
+     *
+     * @param sessionId ID of the session
+     * @param diagnosis final diagnosis
+     * @param finalCF final certainty factor, expressed in percentage
+     * @return event signaling that the consultation has ended
+     */
+    public static DiagnosisEvent diagnosisReached(long sessionId, String diagnosis, double finalCF) {
+        return new DiagnosisEvent(Type.DIAGNOSIS_REACHED, sessionId, null, Double.NaN, null, null, -1, null,
+                null, diagnosis, finalCF);
+    }
+
+    /**
+     * Returns the type of the event
+     *
+     * @return type of the event
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the ID of the session in which the event occurred
+     *
+     * @return ID of the session
+     */
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Returns the time at which the event occurred
+     *
+     * @return time at which the event occurred, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the name of the patient (<code>SESSION_STARTED</code>)
+     *
+     * @return name of the patient, or <code>null</code>
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the age of the patient (<code>SESSION_STARTED</code>)
+     *
+     * @return age of the patient, or <code>NaN</code>
+     */
+    public double getAge() {
+        return age;
+    }
+
+    /**
+     * Returns the sex of the patient (<code>SESSION_STARTED</code>)
+     *
+     * @return sex of the patient, or <code>null</code>
+     */
+    public String getSex() {
+        return sex;
+    }
+
+    /**
+     * Returns the Prolog atom naming the symptom (<code>QUESTION_ASKED</code>, <code>ANSWER_APPLIED</code>,
+     * and <code>EMERGENCY_RAISED</code>)
+     *
+     * @return Prolog atom naming the symptom, or <code>null</code>
+     */
+    public String getSymptom() {
+        return symptom;
+    }
+
+    /**
+     * Returns the answer code of the response (<code>ANSWER_APPLIED</code>)
+     *
+     * @return answer code of the response (see {@link VitalSignRules}), or <code>-1</code>
+     */
+    public int getAnswerCode() {
+        return answerCode;
+    }
+
+    /**
+     * Returns the number of diseases whose certainty factors were updated (<code>ANSWER_APPLIED</code>)
+     *
+     * @return number of diseases whose certainty factors were updated
+     */
+    public int getNumDeltas() {
+        return diseases == null ? 0 : diseases.length;
+    }
+
+    /**
+     * Returns the index of a disease whose certainty factor was updated (<code>ANSWER_APPLIED</code>)
+     *
+     * @param k index of the update, from 0 to <code>getNumDeltas() - 1</code>
+     * @return index of the disease
+     */
+    public int getDisease(int k) {
+        return diseases[k];
+    }
+
+    /**
+     * Returns the change in the certainty factor of a disease (<code>ANSWER_APPLIED</code>)
+     *
+     * @param k index of the update, from 0 to <code>getNumDeltas() - 1</code>
+     * @return change in the certainty factor of the disease
+     */
+    public double getCFDelta(int k) {
+        return cfDeltas[k];
+    }
+
+    /**
+     * Returns the final diagnosis (<code>DIAGNOSIS_REACHED</code>)
+     *
+     * @return final diagnosis, or <code>null</code>
+     */
+    public String getDiagnosis() {
+        return diagnosis;
+    }
+
+    /**
+     * Returns the final certainty factor, expressed in percentage (<code>DIAGNOSIS_REACHED</code>)
+     *
+     * @return final certainty factor, or <code>NaN</code>
+     */
+    public double getFinalCF() {
+        return finalCF;
+    }
+
+    /**
+     * Returns a one-line description of the event
+     *
+     * @return one-line description of the event
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('#').append(sessionId).append(' ').append(type);
+
+        switch (type) {
+            case SESSION_STARTED:
+                sb.append(' ').append(name).append(" (").append(age).append(", ").append(sex).append(')');
+                break;
+            case QUESTION_ASKED:
+            case EMERGENCY_RAISED:
+                sb.append(' ').append(symptom);
+                break;
+            case ANSWER_APPLIED:
+                sb.append(' ').append(symptom).append('=').append(answerCode);
+                for (int k = 0; k < diseases.length; k++) {
+                    sb.append(' ').append(diseases[k]).append(':').append(String.format("%+.4f", cfDeltas[k]));
+                }
+                break;
+            case DIAGNOSIS_REACHED:
+                sb.append(' ').append(diagnosis);
+                break;
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,218 @@
+package expert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class implementing a <b>stream of consultation events</b> (see {@link DiagnosisEvent}) to which any number
+ * of subscribers (such as an archive, a pager, or a dashboard) may subscribe
+ *
+ * <p>Events are delivered in batches: they are collected until a batch is full, an emergency is raised, or a
+ * maximum delay elapses, whichever comes first. Each subscriber has a bounded
+ * buffer of batches, and is served asynchronously by the given executor with the usual
+ * {@link Flow.Subscription#request(long)} backpressure.</p>
+ *
+ * <p>Publishing never blocks the consultation: if the buffer of a subscriber is full, the batch is dropped
+ * for that subscriber only and counted in {@link #getDropped()}. Events of the same session are delivered in
+ * order. This class is thread-safe.</p>
+ */
+public final class DiagnosisEventPublisher implements Flow.Publisher<List<DiagnosisEvent>>, AutoCloseable {
+    /**
+     * Default maximum number of events in a batch
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    /**
+     * Default maximum delay before a partial batch is delivered, in milliseconds
+     */
+    public static final long DEFAULT_MAX_DELAY = 50;
+
+    /* Publisher delivering the batches to the subscribers */
+    private final SubmissionPublisher<List<DiagnosisEvent>> publisher;
+    /* Maximum number of events in a batch */
+    private final int batchSize;
+    /* Timer delivering partial batches */
+    private final ScheduledExecutorService timer;
+
+    /* Guards the batch (a lock rather than a monitor, so that virtual threads do not pin their carriers) */
+    private final ReentrantLock lock = new ReentrantLock();
+    /* Events collected for the next batch */
+    private List<DiagnosisEvent> batch;
+
+    /* Set to true while the stream (may) have subscribers; false, otherwise. This is refreshed by the timer
+    rather than asking the publisher on every event, which takes its lock. */
+    private volatile boolean observed;
+
+    /* Number of events published */
+    private final LongAdder published = new LongAdder();
+    /* Number of batches dropped for a subscriber whose buffer is full */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Creates a stream of events with the default executor, buffer capacity, batch size, and delay
+     */
+    public DiagnosisEventPublisher() {
+        this(ForkJoinPool.commonPool(), Flow.defaultBufferSize(), DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Creates a stream of events
+     *
+     * @param executor executor delivering the batches to the subscribers
+     * @param bufferCapacity maximum number of batches buffered for each subscriber (rounded up to a power of
+     *                       two)
+     * @param batchSize maximum number of events in a batch
+     * @param maxDelayMillis maximum delay before a partial batch is delivered, in milliseconds
+     * @throws IllegalArgumentException if the buffer capacity, the batch size, or the delay is not positive
+     */
+    public DiagnosisEventPublisher(Executor executor, int bufferCapacity, int batchSize, long maxDelayMillis) {
+        if (batchSize <= 0 || maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("The batch size and the delay must be positive");
+        }
+
+        this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "diagnosis-event-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleWithFixedDelay(this::tick, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a subscriber to the stream
+     *
+     * @param subscriber subscriber to the batches of events
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<DiagnosisEvent>> subscriber) {
+        publisher.subscribe(subscriber);
+        observed = true;
+    }
+
+    /**
+     * Returns <code>true</code> if the stream has at least one subscriber; <code>false</code>, otherwise
+     *
+     * <p>Sessions check this before building their events, so an unobserved stream costs next to nothing. It
+     * may still return <code>true</code> for up to the maximum delay after the last subscriber cancels.</p>
+     *
+     * @return <code>true</code> if the stream has at least one subscriber; <code>false</code>, otherwise
+     */
+    public boolean hasSubscribers() {
+        return observed;
+    }
+
+    /**
+     * Publishes an event, delivering the current batch if it is full or if the event is urgent (an
+     * emergency)
+     *
+     * @param event event to be published
+     */
+    public void publish(DiagnosisEvent event) {
+        List<DiagnosisEvent> full = null;
+
+        lock.lock();
+        try {
+            batch.add(event);
+
+            if (batch.size() >= batchSize || event.getType() == DiagnosisEvent.Type.EMERGENCY_RAISED) {
+                full = batch;
+                batch = new ArrayList<>(batchSize);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        published.increment();
+        if (full != null) {
+            deliver(full);
+        }
+    }
+
+    /**
+     * Delivers the current batch, and checks whether the stream still has subscribers
+     */
+    private void tick() {
+        flush();
+        observed = publisher.hasSubscribers();
+    }
+
+    /**
+     * Delivers the current batch, if it is not empty
+     */
+    public void flush() {
+        List<DiagnosisEvent> partial;
+
+        lock.lock();
+        try {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            partial = batch;
+            batch = new ArrayList<>(batchSize);
+        } finally {
+            lock.unlock();
+        }
+
+        deliver(partial);
+    }
+
+    /**
+     * Offers a batch to every subscriber without blocking, dropping it for the subscribers whose buffers
+     * are full
+     *
+     * @param events batch of events
+     */
+    private void deliver(List<DiagnosisEvent> events) {
+        if (publisher.isClosed()) {
+            return;
+        }
+
+        publisher.offer(events, (subscriber, unused) -> {
+            dropped.increment();
+            return false;
+        });
+    }
+
+    /**
+     * Returns the number of events published
+     *
+     * @return number of events published
+     */
+    public long getPublished() {
+        return published.sum();
+    }
+
+    /**
+     * Returns the number of batches dropped because the buffer of a subscriber was full (a batch dropped
+     * for two subscribers counts twice)
+     *
+     * @return number of batches dropped
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Delivers the current batch and completes the stream, so the subscribers receive
+     * <code>onComplete</code> once their buffers are drained
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        flush();
+        publisher.close();
+    }
+}
@@ -0,0 +1,117 @@
+package expert;
+
+import java.util.Arrays;
+
+/**
+ * Class representing the <b>outcome of a consultation</b>, independently of the patient's name, so that it
+ * can be shared by the patients with the same answers (see {@link DiagnosisCache})
+ */
+public final class DiagnosisResult {
+    /* Static tables of the knowledge base used in the consultation */
+    private final KnowledgeBase kb;
+    /* Certainty factors of all the diseases at the end of the consultation */
+    private final double[] cf;
+    /* Set to true if a symptom indicative of an emergency was reported; false, otherwise */
+    private final boolean emergency;
+    /* Number of answers given during the consultation */
+    private final int numAnswers;
+
+    /**
+     * Creates the outcome of a finished consultation
+     *
+     * @param session finished consultation
+     */
+    public DiagnosisResult(DiagnosisSession session) {
+        this.kb = session.getKnowledgeBase();
+        this.cf = session.getCFs();
+        this.emergency = session.getEmergency();
+        this.numAnswers = session.getNumAnswers();
+    }
+
+    /**
+     * Returns the index of the disease with the highest certainty factor (the first one, in case of ties)
+     *
+     * @return index of the disease with the highest certainty factor
+     */
+    public int getDiagnosedDisease() {
+        int maxIndex = 0;
+
+        for (int d = 0; d < cf.length; d++) {
+            if (cf[d] > cf[maxIndex]) {
+                maxIndex = d;
+            }
+        }
+
+        return maxIndex;
+    }
+
+    /**
+     * Returns the final certainty factor (the highest among the diseases), expressed in percentage (%)
+     *
+     * @return final certainty factor, expressed in percentage
+     */
+    public double getFinalCF() {
+        return cf[getDiagnosedDisease()] * 100;
+    }
+
+    /**
+     * Returns the certainty factor of a disease
+     *
+     * @param disease index of the disease
+     * @return certainty factor of the disease
+     */
+    public double getCF(int disease) {
+        return cf[disease];
+    }
+
+    /**
+     * Appends the certainty factor of a disease with two decimals, as in the table of certainty factors (see
+     * {@link DiagnosisSession#formatCFTable(String)}), without allocating
+     *
+     * @param sb buffer to which the certainty factor is appended
+     * @param disease index of the disease
+     */
+    public void appendCF(StringBuilder sb, int disease) {
+        CFTable.appendHundredths(sb, cf[disease]);
+    }
+
+    /**
+     * Returns a copy of the certainty factors of all the diseases, indexed as in <code>mapping/2</code>
+     *
+     * @return copy of the certainty factors of all the diseases
+     */
+    public double[] getCFs() {
+        return Arrays.copyOf(cf, cf.length);
+    }
+
+    /**
+     * Returns <code>true</code> if a symptom indicative of an emergency was reported; <code>false</code>,
+     * otherwise
+     *
+     * @return <code>true</code> if a symptom indicative of an emergency was reported; <code>false</code>,
+     * otherwise
+     */
+    public boolean getEmergency() {
+        return emergency;
+    }
+
+    /**
+     * Returns the number of answers given during the consultation
+     *
+     * @return number of answers given during the consultation
+     */
+    public int getNumAnswers() {
+        return numAnswers;
+    }
+
+    /**
+     * Returns the final diagnosis addressed to the given patient, worded as in
+     * {@link DiagnosisSession#getFinalDiagnosis()}
+     *
+     * @param name name of the patient
+     * @return final diagnosis
+     */
+    public String getFinalDiagnosis(String name) {
+        return DiagnosisSession.formatDiagnosis(kb, name, cf, emergency);
+    }
+}
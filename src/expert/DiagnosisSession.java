@@ -0,0 +1,758 @@
+package expert;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class implementing a <b>consultation with a single patient</b> entirely in Java, on top of the static
+ * tables of the knowledge base
+ *
+ * <p>The probing follows exactly the flow of <code>MainScreenController</code> and {@link PrologJavaRunner}:
+ * the symptoms of the current disease are asked in order; after every answer, the certainty factors of all
+ * the diseases associated with the symptom are updated, and the current disease is abandoned once its
+ * certainty factor falls below <code>cfValueRemove</code> or its symptoms are exhausted. The consultation
+ * ends when a disease reaches <code>cfValueConclude</code> after its symptoms are exhausted, or when the next
+ * disease has no symptoms left to ask. The final diagnosis is built with the same bands as
+ * <code>getDiagnosis/4</code>.</p>
+ *
+ * <p>Unlike the Prolog knowledge base, whose dynamic clauses are global, every session owns its state, so
+ * any number of sessions can run concurrently over the same {@link KnowledgeBase}. A single session is not
+ * thread-safe.</p>
+ *
+ * <p>If a {@link DiagnosisEventPublisher} is given, the session publishes its events (start, questions,
+ * answers with the changes in the certainty factors, emergency, and diagnosis) to it; the events are only
+ * built while the stream has subscribers.</p>
+ */
+public final class DiagnosisSession {
+    /* ID of the next session */
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+    /* Stream to which the events of the session are published, or null */
+    private final DiagnosisEventPublisher events;
+    /* ID of the session */
+    private final long id;
+
+    /* Name of the patient */
+    private final String name;
+    /* Age of the patient */
+    private final double age;
+    /* Sex of the patient */
+    private final String sex;
+    /* Code of the sex of the patient, as used by the vital-sign rules */
+    private final int sexCode;
+
+    /* Certainty factors, indexed as in mapping/2 */
+    private final double[] cf;
+    /* Set to true for each symptom (indexed by ID) that has been asked or ruled out; false, otherwise */
+    private final boolean[] removed;
+
+    /* Index of the current disease being considered */
+    private int i;
+    /* ID of the current symptom being asked, or -1 if the consultation has ended */
+    private int symptom;
+    /* Certainty factor of the disease considered when the last answer was given */
+    private double CFval;
+    /* Number of answers given */
+    private int numAnswers;
+
+    /* Set to true if an emergency symptom has been reported; false, otherwise */
+    private boolean emergency;
+
+    /* Renderer of the table of certainty factors, and the buffer reused for rendering it (null until the
+    table is first rendered) */
+    private CFTable cfRenderer;
+    private StringBuilder cfTable;
+
+    /* Trace of the answers, from which the diagnosis is explained (null unless enabled) */
+    private ExplanationTrace trace;
+
+    /**
+     * Starts a consultation with a patient, removing the symptoms that do not apply to the patient's sex
+     * and age
+     *
+     * @param kb static tables of the knowledge base
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     */
+    public DiagnosisSession(KnowledgeBase kb, String name, double age, String sex) {
+        this(kb, name, age, sex, null);
+    }
+
+    /**
+     * Starts a consultation with a patient, removing the symptoms that do not apply to the patient's sex
+     * and age, and publishing the events of the consultation to the given stream
+     *
+     * @param kb static tables of the knowledge base
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @param events stream to which the events of the session are published, or <code>null</code>
+     */
+    public DiagnosisSession(KnowledgeBase kb, String name, double age, String sex, DiagnosisEventPublisher events) {
+        this.kb = kb;
+        this.events = events;
+        this.id = NEXT_ID.getAndIncrement();
+        this.name = name;
+        this.age = age;
+        this.sex = sex;
+        this.sexCode = VitalSignRules.sexCode(sex);
+
+        cf = new double[kb.getNumDiseases()];
+        removed = new boolean[kb.getNumSymptoms()];
+
+        /* Delete female-specific symptoms if the patient is male. */
+        if (sex.equalsIgnoreCase("male")) {
+            for (int s : kb.getFemaleSymptoms()) {
+                removed[s] = true;
+            }
+        }
+
+        /* Delete pediatric symptoms if the patient is not a child. */
+        if (age >= kb.getAdultAge()) {
+            for (int s : kb.getPediatricSymptoms()) {
+                removed[s] = true;
+            }
+        }
+
+        i = 0;
+        symptom = nextSymptom();
+
+        if (isObserved()) {
+            events.publish(DiagnosisEvent.sessionStarted(id, name, age, sex));
+            publishProgress();
+        }
+    }
+
+    /**
+     * Resumes an anonymous consultation from a snapshot, without publishing any event (used to compute the
+     * nodes of a {@link DiagnosisTrie}, and past the frontier of a {@link DecisionDag})
+     *
+     * @param kb static tables of the knowledge base
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @param state snapshot of the state of a consultation with a patient of the same sex and age band
+     */
+    DiagnosisSession(KnowledgeBase kb, double age, String sex, SessionState state) {
+        this.kb = kb;
+        this.events = null;
+        this.id = 0;
+        this.name = "";
+        this.age = age;
+        this.sex = sex;
+        this.sexCode = VitalSignRules.sexCode(sex);
+
+        cf = new double[kb.getNumDiseases()];
+        removed = new boolean[kb.getNumSymptoms()];
+        restore(state);
+    }
+
+    /**
+     * Returns the ID of the session, unique within the process
+     *
+     * @return ID of the session
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the static tables of the knowledge base used by this session
+     *
+     * @return static tables of the knowledge base
+     */
+    public KnowledgeBase getKnowledgeBase() {
+        return kb;
+    }
+
+    /**
+     * Returns the name of the patient
+     *
+     * @return name of the patient
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the age of the patient
+     *
+     * @return age of the patient
+     */
+    public double getAge() {
+        return age;
+    }
+
+    /**
+     * Returns the sex of the patient
+     *
+     * @return sex of the patient
+     */
+    public String getSex() {
+        return sex;
+    }
+
+    /**
+     * Returns <code>true</code> if the consultation has ended (that is, the final diagnosis can be given);
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if the consultation has ended; <code>false</code>, otherwise
+     */
+    public boolean isFinished() {
+        return symptom < 0;
+    }
+
+    /**
+     * Returns the index of the current disease being considered
+     *
+     * @return index of the current disease being considered
+     */
+    public int getI() {
+        return i;
+    }
+
+    /**
+     * Returns the ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+     *
+     * @return ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+     */
+    public int getSymptomId() {
+        return symptom;
+    }
+
+    /**
+     * Returns the Prolog atom naming the current symptom being asked, or <code>null</code> if the
+     * consultation has ended
+     *
+     * @return Prolog atom naming the current symptom, or <code>null</code> if the consultation has ended
+     */
+    public String getSymptom() {
+        return symptom < 0 ? null : kb.getSymptomKey(symptom);
+    }
+
+    /**
+     * Returns the question to be displayed for the current symptom, formatted as in
+     * {@link PrologJavaRunner#displayInquiry()}, or <code>null</code> if the consultation has ended
+     *
+     * @return question to be displayed for the current symptom, or <code>null</code> if the consultation
+     * has ended
+     */
+    public String getInquiry() {
+        if (symptom < 0) {
+            return null;
+        }
+
+        /* Separate the Filipino translation from the English question with a blank newline for readability. */
+        return kb.getInquiry(symptom).replace("? ", "?\n\n");
+    }
+
+    /**
+     * Returns the number of answers given so far
+     *
+     * @return number of answers given so far
+     */
+    public int getNumAnswers() {
+        return numAnswers;
+    }
+
+    /**
+     * Returns the certainty factor of a disease
+     *
+     * @param disease index of the disease
+     * @return certainty factor of the disease
+     */
+    public double getCF(int disease) {
+        return cf[disease];
+    }
+
+    /**
+     * Returns a copy of the certainty factors of all the diseases, indexed as in <code>mapping/2</code>
+     *
+     * @return copy of the certainty factors of all the diseases
+     */
+    public double[] getCFs() {
+        return Arrays.copyOf(cf, cf.length);
+    }
+
+    /**
+     * Returns the certainty factor of the disease considered when the last answer was given
+     *
+     * @return certainty factor of the disease considered when the last answer was given
+     */
+    public double getLastCF() {
+        return CFval;
+    }
+
+    /**
+     * Returns <code>true</code> if the symptom with the given ID has been asked or ruled out;
+     * <code>false</code>, otherwise
+     *
+     * @param symptom ID of the symptom
+     * @return <code>true</code> if the symptom has been asked or ruled out; <code>false</code>, otherwise
+     */
+    public boolean isRemoved(int symptom) {
+        return removed[symptom];
+    }
+
+    /**
+     * Returns <code>true</code> if a symptom indicative of an emergency has been reported;
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if a symptom indicative of an emergency has been reported;
+     * <code>false</code>, otherwise
+     */
+    public boolean getEmergency() {
+        return emergency;
+    }
+
+    /**
+     * Records the patient's response to the current symptom and moves to the next question (or ends the
+     * consultation)
+     *
+     * <p>The response is either <code>"yes"</code> or <code>"no"</code> or, for the vital signs, a number,
+     * which is evaluated against the bands of the {@link VitalSignRules} of the knowledge base.</p>
+     *
+     * @param answer response of the patient
+     * @throws IllegalStateException if the consultation has ended
+     * @throws NumberFormatException if a vital sign is answered with something other than a number
+     * @throws IllegalArgumentException if the reading of a vital sign is out of its valid range
+     */
+    public void answer(String answer) {
+        if (symptom < 0) {
+            throw new IllegalStateException("The consultation has ended");
+        }
+
+        answerCode(kb.getVitalSignRules().evaluate(symptom, answer, age, sexCode));
+    }
+
+    /**
+     * Records the reading of the vital sign being asked, and moves to the next question (or ends the
+     * consultation)
+     *
+     * <p>Unlike {@link #answer(String)}, the reading is not parsed, so nothing is allocated.</p>
+     *
+     * @param value reading of the vital sign
+     * @throws IllegalStateException if the consultation has ended
+     * @throws IllegalArgumentException if the current symptom is not a vital sign, or the reading is out of its
+     *                                  valid range
+     */
+    public void answerReading(double value) {
+        if (symptom < 0) {
+            throw new IllegalStateException("The consultation has ended");
+        }
+
+        VitalSignRules rules = kb.getVitalSignRules();
+        if (!rules.isNumeric(symptom) || !rules.isValidReading(symptom, value)) {
+            throw new IllegalArgumentException("Invalid reading for " + kb.getSymptomKey(symptom) + ": " + value);
+        }
+
+        answerCode(rules.evaluate(symptom, value, age, sexCode));
+    }
+
+    /**
+     * Records the patient's response to the current symptom, given as an answer code (see
+     * {@link VitalSignRules}), and moves to the next question (or ends the consultation)
+     *
+     * @param code answer code of the response
+     * @throws IllegalStateException if the consultation has ended
+     */
+    public void answerCode(int code) {
+        if (symptom < 0) {
+            throw new IllegalStateException("The consultation has ended");
+        }
+
+        boolean observed = isObserved();
+
+        if ((code & VitalSignRules.EMERGENCY) != 0) {
+            if (observed && !emergency) {
+                events.publish(DiagnosisEvent.emergencyRaised(id, kb.getSymptomKey(symptom)));
+            }
+            emergency = true;
+        }
+
+        /* Keep the certainty factors before the update to publish the changes. */
+        int[] diseases = null;
+        double[] deltas = null;
+        if (observed) {
+            diseases = kb.getDiseasesWithSymptom(symptom).clone();
+            deltas = new double[diseases.length];
+            for (int k = 0; k < diseases.length; k++) {
+                deltas[k] = -cf[diseases[k]];
+            }
+        }
+
+        int answered = symptom;
+        apply(symptom, code);
+        numAnswers++;
+        advance();
+
+        if (observed) {
+            for (int k = 0; k < diseases.length; k++) {
+                deltas[k] += cf[diseases[k]];
+            }
+            events.publish(DiagnosisEvent.answerApplied(id, kb.getSymptomKey(answered), code, diseases, deltas));
+            publishProgress();
+        }
+    }
+
+    /**
+     * Records a whole form of responses at once, keyed by the Prolog atom naming the symptom, and moves to
+     * the first question not answered by the form (or ends the consultation)
+     *
+     * <p>The responses are all evaluated before any of them is applied, so an invalid form leaves the
+     * consultation unchanged. They are then applied in the order in which the symptoms are asked, as if
+     * they had been given one by one; the responses about symptoms that are not asked are ignored.</p>
+     *
+     * @param answers responses of the patient (<code>"yes"</code>, <code>"no"</code>, or a reading), keyed by
+     *                the Prolog atom naming the symptom
+     * @return state of the consultation after the responses, with the next question to be asked
+     * @throws IllegalStateException if the consultation has ended
+     * @throws IllegalArgumentException if a symptom is unknown or the reading of a vital sign is out of its
+     *                                  valid range
+     * @throws NumberFormatException if a vital sign is answered with something other than a number
+     */
+    public SessionState answerAll(Map<String, String> answers) {
+        if (symptom < 0) {
+            throw new IllegalStateException("The consultation has ended");
+        }
+
+        VitalSignRules rules = kb.getVitalSignRules();
+        int[] codes = new int[kb.getNumSymptoms()];
+        Arrays.fill(codes, -1);
+
+        for (Map.Entry<String, String> answer : answers.entrySet()) {
+            int id = kb.getSymptomId(answer.getKey().trim());
+            if (id < 0) {
+                throw new IllegalArgumentException("Unknown symptom: " + answer.getKey());
+            }
+
+            codes[id] = rules.evaluate(id, answer.getValue().trim(), age, sexCode);
+        }
+
+        answerCodes(codes);
+        return snapshot();
+    }
+
+    /**
+     * Records a whole form of responses at once, given as answer codes (see {@link VitalSignRules}) indexed
+     * by symptom ID, and moves to the first question not answered by the form (or ends the consultation)
+     *
+     * <p>The responses are applied in the order in which the symptoms are asked, as if they had been given
+     * one by one, but the emergency flag is only evaluated once. The codes of the symptoms that are not
+     * asked are ignored.</p>
+     *
+     * @param codes answer code of every symptom (indexed by ID), or <code>-1</code> for the symptoms that
+     *              were not answered
+     * @return number of responses applied
+     * @throws IllegalStateException if the consultation has ended
+     */
+    public int answerCodes(int[] codes) {
+        if (symptom < 0) {
+            throw new IllegalStateException("The consultation has ended");
+        }
+
+        int applied = 0;
+
+        if (isObserved()) {
+            /* Every answer is published with its changes in the certainty factors. */
+            while (symptom >= 0 && codes[symptom] >= 0) {
+                answerCode(codes[symptom]);
+                applied++;
+            }
+            return applied;
+        }
+
+        int reported = 0;
+        while (symptom >= 0 && codes[symptom] >= 0) {
+            reported |= codes[symptom];
+            apply(symptom, codes[symptom]);
+            advance();
+            applied++;
+        }
+
+        numAnswers += applied;
+        if ((reported & VitalSignRules.EMERGENCY) != 0) {
+            emergency = true;
+        }
+
+        return applied;
+    }
+
+    /**
+     * Returns <code>true</code> if the events of this session are published to a stream with subscribers;
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if the events of this session are observed; <code>false</code>, otherwise
+     */
+    private boolean isObserved() {
+        return events != null && events.hasSubscribers();
+    }
+
+    /**
+     * Publishes the next question, or the final diagnosis if the consultation has ended
+     */
+    private void publishProgress() {
+        if (symptom >= 0) {
+            events.publish(DiagnosisEvent.questionAsked(id, kb.getSymptomKey(symptom)));
+        } else {
+            events.publish(DiagnosisEvent.diagnosisReached(id, getFinalDiagnosis(), getFinalCF()));
+        }
+    }
+
+    /**
+     * Renders the table of certainty factors shown after an answer, in the format of
+     * {@link PrologJavaRunner#displayCFvals(String)}
+     *
+     * <p>The table is rendered into a buffer owned by this session, so nothing is allocated once the buffer has
+     * grown; the returned sequence is overwritten by the next call.</p>
+     *
+     * @param symptom most recent symptom considered
+     * @return table of certainty factors, valid until the next call
+     */
+    public CharSequence formatCFTable(String symptom) {
+        if (cfTable == null) {
+            cfRenderer = CFTable.of(kb);
+            cfTable = new StringBuilder(64 + 48 * cf.length);
+        }
+
+        cfTable.setLength(0);
+        cfRenderer.append(cfTable, symptom, cf);
+        return cfTable;
+    }
+
+    /**
+     * Starts recording the answers of this consultation, so that the diagnosis can be explained (see
+     * {@link #explainDiagnosis(int)})
+     *
+     * <p>Recording is off by default, as sessions served in bulk rarely need it; once on, it allocates nothing
+     * per answer. Only the answers given from now on are recorded.</p>
+     *
+     * @param capacity number of the most recent answers retained
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public void enableTrace(int capacity) {
+        trace = new ExplanationTrace(capacity);
+    }
+
+    /**
+     * Records the answers of this consultation into the given trace, or stops recording them
+     *
+     * @param trace trace into which the answers are recorded, or <code>null</code>
+     */
+    void setTrace(ExplanationTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Returns the trace of the answers of this consultation, or <code>null</code> if recording is off
+     *
+     * @return trace of the answers, or <code>null</code> if recording is off
+     */
+    public ExplanationTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Renders the explanation of the diagnosis: the answers that changed the certainty factor of the disease
+     * with the highest certainty factor the most (see {@link ExplanationTrace#explain(KnowledgeBase, int, int)})
+     *
+     * @param top maximum number of answers listed
+     * @return explanation of the diagnosis
+     * @throws IllegalStateException if recording is off
+     */
+    public String explainDiagnosis(int top) {
+        if (trace == null) {
+            throw new IllegalStateException("The answers of this consultation are not recorded");
+        }
+        return trace.explain(kb, getDiagnosedDisease(), top);
+    }
+
+    /**
+     * Returns an immutable snapshot of the state of this consultation (everything but the patient's details)
+     *
+     * @return snapshot of the state of this consultation
+     */
+    public SessionState snapshot() {
+        return new SessionState(cf, removed, i, symptom, CFval, numAnswers, emergency);
+    }
+
+    /**
+     * Replaces the state of this consultation with a snapshot taken from a consultation over the same
+     * knowledge base, with a patient of the same sex and age band
+     *
+     * <p>The answers recorded so far (if any) no longer explain the new state, so the trace is cleared.</p>
+     *
+     * @param state snapshot of the state of a consultation
+     */
+    public void restore(SessionState state) {
+        state.copyInto(cf, removed);
+        if (trace != null) {
+            trace.clear();
+        }
+        i = state.getI();
+        symptom = state.getSymptomId();
+        CFval = state.getLastCF();
+        numAnswers = state.getNumAnswers();
+        emergency = state.getEmergency();
+    }
+
+    /**
+     * Updates the certainty factors of all the diseases associated with a symptom and removes the symptom
+     * (the equivalent of <code>updateCF/2</code> followed by <code>deleteAll/1</code>)
+     *
+     * @param id ID of the symptom
+     * @param code answer code of the response (see {@link VitalSignRules})
+     */
+    private void apply(int id, int code) {
+        double trueWeight = CertaintyFactors.adjustedWeight(kb.getWeight(id), (code & VitalSignRules.POSITIVE) != 0);
+
+        if (trace == null) {
+            for (int d : kb.getDiseasesWithSymptom(id)) {
+                cf[d] = CertaintyFactors.combine(cf[d], trueWeight);
+            }
+        } else {
+            trace.step(id, code, trueWeight);
+            for (int d : kb.getDiseasesWithSymptom(id)) {
+                double previous = cf[d];
+                cf[d] = CertaintyFactors.combine(previous, trueWeight);
+                trace.effect(d, previous, cf[d]);
+            }
+        }
+
+        CFval = cf[i];
+        removed[id] = true;
+    }
+
+    /**
+     * Moves to the next question after an answer, following the flow of <code>MainScreenController</code>
+     */
+    private void advance() {
+        if (CFval < kb.getCFValueRemove()) {
+            /* Move to the next disease if the certainty factor drops below the threshold. */
+            i++;
+            symptom = nextSymptom();
+        } else {
+            symptom = nextSymptom();
+
+            /* All the symptoms of the disease have been exhausted: conclude or move to the next disease. */
+            if (symptom < 0 && CFval < kb.getCFValueConclude()) {
+                i++;
+                symptom = nextSymptom();
+            }
+        }
+    }
+
+    /**
+     * Returns the first symptom of the current disease that has not yet been removed, or <code>-1</code> if
+     * there is none or the diseases have been exhausted (the equivalent of <code>remainingSymptoms/2</code>)
+     *
+     * @return ID of the next symptom to be asked, or <code>-1</code> if there is none
+     */
+    private int nextSymptom() {
+        if (i >= kb.getNumDiseases()) {
+            return -1;
+        }
+
+        for (int s : kb.getDiseaseSymptoms(i)) {
+            if (!removed[s]) {
+                return s;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the index of the disease with the highest certainty factor (the first one, in case of ties)
+     *
+     * @return index of the disease with the highest certainty factor
+     */
+    public int getDiagnosedDisease() {
+        int maxIndex = 0;
+
+        for (int d = 0; d < cf.length; d++) {
+            if (cf[d] > cf[maxIndex]) {
+                maxIndex = d;
+            }
+        }
+
+        return maxIndex;
+    }
+
+    /**
+     * Returns the final certainty factor (the highest among the diseases), expressed in percentage (%)
+     *
+     * @return final certainty factor, expressed in percentage
+     */
+    public double getFinalCF() {
+        return cf[getDiagnosedDisease()] * 100;
+    }
+
+    /**
+     * Returns the final diagnosis, worded as in {@link PrologJavaRunner#getFinalDiagnosis()}
+     *
+     * <p>If no disease exceeds the 0.2 threshold, then the patient is asked to consult with a larger
+     * hospital for a more thorough diagnosis. This rule is overridden if the patient reports a symptom
+     * that is indicative of an emergency.</p>
+     *
+     * @return final diagnosis
+     */
+    public String getFinalDiagnosis() {
+        return formatDiagnosis(kb, name, cf, emergency);
+    }
+
+    /**
+     * Returns the final diagnosis for the given certainty factors, worded as in
+     * {@link PrologJavaRunner#getFinalDiagnosis()}
+     *
+     * @param kb static tables of the knowledge base
+     * @param name name of the patient
+     * @param cf certainty factors of all the diseases, indexed as in <code>mapping/2</code>
+     * @param emergency <code>true</code> if a symptom indicative of an emergency has been reported;
+     *                  <code>false</code>, otherwise
+     * @return final diagnosis
+     */
+    public static String formatDiagnosis(KnowledgeBase kb, String name, double[] cf, boolean emergency) {
+        int maxIndex = 0;
+        for (int d = 0; d < cf.length; d++) {
+            if (cf[d] > cf[maxIndex]) {
+                maxIndex = d;
+            }
+        }
+
+        return formatDiagnosis(kb, name, maxIndex, cf[maxIndex], emergency);
+    }
+
+    /**
+     * Returns the final diagnosis for the disease with the highest certainty factor, worded as in
+     * {@link PrologJavaRunner#getFinalDiagnosis()}
+     *
+     * @param kb static tables of the knowledge base
+     * @param name name of the patient
+     * @param maxIndex index of the disease with the highest certainty factor
+     * @param maxValue highest certainty factor
+     * @param emergency <code>true</code> if a symptom indicative of an emergency has been reported;
+     *                  <code>false</code>, otherwise
+     * @return final diagnosis
+     */
+    public static String formatDiagnosis(KnowledgeBase kb, String name, int maxIndex, double maxValue,
+                                         boolean emergency) {
+        String disease = kb.getDiseaseName(maxIndex);
+
+        /* Same bands as getDiagnosis/4 */
+        if (maxValue >= 0.99) {
+            return name + ", you most likely have " + disease;
+        } else if (maxValue >= 0.7) {
+            return name + ", you likely have " + disease;
+        } else if (maxValue >= 0.5) {
+            return name + ", you may have " + disease;
+        } else if (maxValue > 0.2 || emergency) {
+            return name + ", you exhibit some symptoms of " + disease;
+        }
+
+        return name + ", a diagnosis cannot be made. Please refer to a large medical facility as needed.";
+    }
+}
@@ -0,0 +1,352 @@
+package expert;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class implementing a <b>trie of consultation states shared across sessions</b>, keyed by the answers given
+ * so far
+ *
+ * <p>For a given knowledge base, sex, and age band (see {@link AgeBands}), the questions asked only depend on
+ * the answer codes given so far, so the patients share their early prefixes. Every node of the trie holds the
+ * {@link SessionState} reached after a prefix of answer codes, and has a child for each answer code. A
+ * {@link SharedDiagnosisSession} moves from node to node: if the child for its answer is already in the trie,
+ * answering is a pointer hop; otherwise, the child state is computed once from its parent and inserted for
+ * the next patients.</p>
+ *
+ * <p>The trie holds at most a given number of bytes (as estimated from the size of the states, besides the
+ * roots). Once it grows beyond that, the least recently used branches are detached until it is back to 90%
+ * of the limit; sessions standing on a detached
+ * node carry on unaffected. This class is thread-safe: the children are inserted with compare-and-set, and
+ * the eviction sweep is done by one thread at a time.</p>
+ */
+public class DiagnosisTrie {
+    /* Number of children of a node: one for each answer code (POSITIVE and EMERGENCY bits) */
+    private static final int NUM_CODES = 4;
+    /* Estimated size of a node without its state, in bytes (node, array of children, and its header) */
+    private static final long NODE_BYTES = 40 + 16 + 4L * NUM_CODES;
+
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+    /* Age boundaries of the knowledge base, in ascending order */
+    private final double[] ageBoundaries;
+    /* Maximum number of bytes held, besides the roots */
+    private final long maxBytes;
+
+    /* Roots of the trie, keyed by age band and code of the sex */
+    private final ConcurrentHashMap<Integer, Node> roots = new ConcurrentHashMap<>();
+    /* Number of nodes held, besides the roots (recounted by every eviction sweep) */
+    private final AtomicInteger numNodes = new AtomicInteger();
+    /* Estimated number of bytes held, besides the roots (recounted by every eviction sweep) */
+    private final AtomicLong numBytes = new AtomicLong();
+    /* Logical clock, advanced on every insertion, used to find the least recently used nodes */
+    private final AtomicLong clock = new AtomicLong();
+    /* Held by the thread running the eviction sweep */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /* Number of answers that moved to a node already in the trie */
+    private final LongAdder hits = new LongAdder();
+    /* Number of answers that computed a new node */
+    private final LongAdder misses = new LongAdder();
+    /* Number of nodes evicted */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty trie over the given knowledge base
+     *
+     * @param kb static tables of the knowledge base
+     * @param maxBytes maximum number of bytes held (as estimated from the size of the states), besides the
+     *                 roots
+     * @throws IllegalArgumentException if the maximum number of bytes is not positive
+     */
+    public DiagnosisTrie(KnowledgeBase kb, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The maximum size of the trie must be positive");
+        }
+
+        this.kb = kb;
+        this.ageBoundaries = AgeBands.boundaries(kb);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the static tables of the knowledge base of this trie
+     *
+     * @return static tables of the knowledge base
+     */
+    public KnowledgeBase getKnowledgeBase() {
+        return kb;
+    }
+
+    /**
+     * Returns the node holding the initial state of a consultation with a patient of the given age and sex
+     *
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @return root node for the patient
+     */
+    Node root(double age, String sex) {
+        int key = AgeBands.band(ageBoundaries, age) * NUM_CODES + VitalSignRules.sexCode(sex);
+
+        return roots.computeIfAbsent(key, k -> {
+            DiagnosisSession session;
+            session = new DiagnosisSession(kb, "", age, sex);
+            return new Node(session.snapshot(), age, sex, clock.get());
+        });
+    }
+
+    /**
+     * Returns the node reached by answering the current question of the given node, inserting it if needed
+     *
+     * @param node current node
+     * @param code answer code of the response (see {@link VitalSignRules})
+     * @return node reached by the answer
+     */
+    Node next(Node node, int code) {
+        int edge = code & (VitalSignRules.POSITIVE | VitalSignRules.EMERGENCY);
+        Node child = node.children.get(edge);
+
+        if (child != null) {
+            hits.increment();
+            child.touch(clock.get());
+            return child;
+        }
+
+        /* Compute the child from the state of its parent. */
+        misses.increment();
+        DiagnosisSession session;
+        session = new DiagnosisSession(kb, node.age, node.sex, node.state);
+        session.answerCode(edge);
+
+        Node computed = new Node(session.snapshot(), node.age, node.sex, clock.incrementAndGet());
+        if (!node.children.compareAndSet(edge, null, computed)) {
+            /* Another session inserted the same child in the meantime. */
+            return node.children.get(edge);
+        }
+
+        numNodes.incrementAndGet();
+        if (numBytes.addAndGet(computed.size()) > maxBytes) {
+            evict();
+        }
+
+        return computed;
+    }
+
+    /**
+     * Detaches the least recently used branches until the trie is back to 90% of its maximum size, unless
+     * another thread is already doing so
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+
+        try {
+            /* Collect all the branches, and recount the nodes and their sizes. */
+            List<Branch> branches = new ArrayList<>();
+            for (Node root : roots.values()) {
+                collect(root, 1, branches);
+            }
+
+            long bytes = 0;
+            for (Branch branch : branches) {
+                bytes += branch.child.size();
+            }
+            numNodes.set(branches.size());
+            numBytes.set(bytes);
+
+            /* A branch is as recent as its most recently used node, so a hot prefix is never detached before
+            the cold branches below it; on ties, the deeper branches go first, so that no branch is detached
+            after its parent (and counted twice). */
+            branches.sort(Comparator.comparingLong((Branch branch) -> branch.lastUsed)
+                    .thenComparing(Comparator.comparingInt((Branch branch) -> branch.depth).reversed()));
+
+            long target = maxBytes / 10 * 9;
+            for (Branch branch : branches) {
+                if (numBytes.get() <= target) {
+                    break;
+                }
+
+                if (branch.parent.children.compareAndSet(branch.code, branch.child, null)) {
+                    evict(branch.child);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Adds every branch below the given node to the list
+     *
+     * @param node node whose descendants are collected
+     * @param depth depth of the children of the node
+     * @param branches list receiving the branches
+     * @return most recent use of the given node or any of its descendants
+     */
+    private static long collect(Node node, int depth, List<Branch> branches) {
+        long lastUsed = node.lastUsed;
+
+        for (int c = 0; c < NUM_CODES; c++) {
+            Node child = node.children.get(c);
+            if (child != null) {
+                Branch branch = new Branch(node, c, child, depth);
+                branches.add(branch);
+                branch.lastUsed = collect(child, depth + 1, branches);
+                lastUsed = Math.max(lastUsed, branch.lastUsed);
+            }
+        }
+
+        return lastUsed;
+    }
+
+    /**
+     * Accounts for the removal of the branch starting at the given node
+     *
+     * @param node first node of the detached branch
+     */
+    private void evict(Node node) {
+        numNodes.decrementAndGet();
+        numBytes.addAndGet(-node.size());
+        evictions.increment();
+
+        for (int c = 0; c < NUM_CODES; c++) {
+            Node child = node.children.get(c);
+            if (child != null) {
+                evict(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes held, besides the roots (exact as of the last eviction sweep)
+     *
+     * @return number of nodes held
+     */
+    public int getNumNodes() {
+        return numNodes.get();
+    }
+
+    /**
+     * Returns the estimated number of bytes held, besides the roots (exact as of the last eviction sweep)
+     *
+     * @return estimated number of bytes held
+     */
+    public long getNumBytes() {
+        return numBytes.get();
+    }
+
+    /**
+     * Returns the number of answers that moved to a node already in the trie
+     *
+     * @return number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of answers that computed a new node
+     *
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of nodes evicted
+     *
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns a one-line summary of the metrics of the trie
+     *
+     * @return one-line summary of the metrics of the trie
+     */
+    @Override
+    public String toString() {
+        long h = getHits();
+        long m = getMisses();
+        return String.format("nodes=%d size=%.1f/%.1fMiB roots=%d hits=%d misses=%d hitRate=%.1f%% evictions=%d",
+                getNumNodes(), getNumBytes() / 1048576.0, maxBytes / 1048576.0, roots.size(), h, m,
+                h + m == 0 ? 0.0 : 100.0 * h / (h + m), getEvictions());
+    }
+
+    /**
+     * Branch of the trie considered by the eviction sweep
+     */
+    private static final class Branch {
+        /* Node to which the branch is attached */
+        private final Node parent;
+        /* Answer code leading to the branch */
+        private final int code;
+        /* First node of the branch */
+        private final Node child;
+        /* Depth of the first node of the branch */
+        private final int depth;
+        /* Most recent use of any node of the branch */
+        private long lastUsed;
+
+        Branch(Node parent, int code, Node child, int depth) {
+            this.parent = parent;
+            this.code = code;
+            this.child = child;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Node of the trie, holding the state reached after a prefix of answers
+     */
+    static final class Node {
+        /* State of the consultation after the prefix of answers */
+        final SessionState state;
+        /* Age of the first patient who reached this node (any age in the same band behaves the same) */
+        final double age;
+        /* Sex of the first patient who reached this node */
+        final String sex;
+        /* Nodes reached by each answer code */
+        final AtomicReferenceArray<Node> children = new AtomicReferenceArray<>(NUM_CODES);
+        /* Value of the logical clock when the node was last used */
+        volatile long lastUsed;
+
+        Node(SessionState state, double age, String sex, long lastUsed) {
+            this.state = state;
+            this.age = age;
+            this.sex = sex;
+            this.lastUsed = lastUsed;
+        }
+
+        /**
+         * Returns the estimated size of the node, in bytes
+         *
+         * @return estimated size of the node, in bytes
+         */
+        long size() {
+            return NODE_BYTES + state.getSizeInBytes();
+        }
+
+        /**
+         * Marks the node as used at the given time, writing only if the time has changed
+         *
+         * @param now value of the logical clock
+         */
+        void touch(long now) {
+            if (lastUsed != now) {
+                lastUsed = now;
+            }
+        }
+    }
+}
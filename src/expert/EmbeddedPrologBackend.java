@@ -0,0 +1,214 @@
+package expert;
+
+import expert.prolog.Interpreter;
+import expert.prolog.Term;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Backend running the knowledge base on the <b>embedded Prolog interpreter</b> written in pure Java (see
+ * {@link Interpreter}), without SWI-Prolog or native libraries
+ *
+ * <p>The knowledge base is consulted once into a prototype interpreter. Every engine is a copy of the
+ * prototype sharing its static clauses, so creating one only copies the dynamic predicates of the knowledge
+ * base, and engines can run on different threads side by side. This class is thread-safe.</p>
+ */
+public class EmbeddedPrologBackend implements PrologBackend {
+    /* Interpreter into which the knowledge base has been consulted, copied for every engine */
+    private volatile Interpreter prototype;
+
+    @Override
+    public String getName() {
+        return "embedded";
+    }
+
+    @Override
+    public void consult(Path file) throws IOException {
+        consult(file.toString(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Consults a knowledge base given its Prolog source
+     *
+     * @param fileName name of the file, used in error messages
+     * @param src Prolog source of the knowledge base
+     * @throws IOException if the source cannot be consulted
+     */
+    public void consult(String fileName, String src) throws IOException {
+        try {
+            prototype = Interpreter.consult(fileName, src);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public PrologEngine newEngine() {
+        Interpreter consulted = prototype;
+        if (consulted == null) {
+            throw new IllegalStateException("No knowledge base has been consulted");
+        }
+
+        /* The initialization goals of the knowledge base have already restored the state of the prototype. */
+        return new EmbeddedEngine(consulted.copy());
+    }
+
+    /**
+     * Engine running the predicates of the knowledge base on its own copy of the interpreter
+     */
+    private static final class EmbeddedEngine implements PrologEngine {
+        /* Interpreter holding the state of this consultation */
+        private final Interpreter interpreter;
+
+        /* Atoms naming the symptoms, created once per symptom */
+        private final Map<String, Term> atoms = new HashMap<>();
+
+        EmbeddedEngine(Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        public int numberOfDiseases() {
+            return (int) solution("numberOfDiseases").longValue();
+        }
+
+        @Override
+        public int adultAge() {
+            return (int) solution("adultAge").longValue();
+        }
+
+        @Override
+        public double cfValueRemove() {
+            return solution("cfValueRemove").doubleValue();
+        }
+
+        @Override
+        public double cfValueConclude() {
+            return solution("cfValueConclude").doubleValue();
+        }
+
+        @Override
+        public void restore() {
+            interpreter.once(Term.atom("restore"));
+        }
+
+        @Override
+        public void removeFemaleSymptoms() {
+            interpreter.once(Term.atom("removeFemaleSymptoms"));
+        }
+
+        @Override
+        public void removeChildSymptoms() {
+            interpreter.once(Term.atom("removeChildSymptoms"));
+        }
+
+        @Override
+        public boolean updateCF(String symptom, int answer) {
+            return interpreter.once(Term.compound("updateCF", atom(symptom), Term.integer(answer)));
+        }
+
+        @Override
+        public double cf(int index) {
+            Term.Var x = Term.var();
+            if (!interpreter.once(Term.compound("cf", Term.integer(index), x))) {
+                throw new NoSuchElementException("No certainty factor for index " + index);
+            }
+            return x.doubleValue();
+        }
+
+        @Override
+        public double[] cfValues(double[] cf) {
+            List<Term> values = solution("cfValues").toList();
+            for (int k = 0; k < values.size(); k++) {
+                cf[k] = values.get(k).doubleValue();
+            }
+            return cf;
+        }
+
+        @Override
+        public String[] remainingSymptoms(int index) {
+            Term.Var x = Term.var();
+            if (!interpreter.once(Term.compound("remainingSymptoms", Term.integer(index), x))) {
+                return null;
+            }
+            return names(x);
+        }
+
+        @Override
+        public String[] removedSymptoms() {
+            return names(solution("removedSymptoms"));
+        }
+
+        @Override
+        public void setState(double[] cf, Collection<String> symptoms) {
+            List<Term> values = new ArrayList<>(cf.length);
+            for (double value : cf) {
+                values.add(Term.real(value));
+            }
+
+            List<Term> removed = new ArrayList<>(symptoms.size());
+            for (String symptom : symptoms) {
+                removed.add(atom(symptom));
+            }
+
+            interpreter.once(Term.compound("setState", Term.list(values), Term.list(removed)));
+        }
+
+        @Override
+        public void deleteAll(String symptom) {
+            interpreter.once(Term.compound("deleteAll", atom(symptom)));
+        }
+
+        @Override
+        public String finalDiagnosis(String name, double cf, int index, boolean emergency) {
+            Term.Var x = Term.var();
+            if (!interpreter.once(Term.compound("finalDiagnosis", Term.string(name), Term.real(cf),
+                    Term.integer(index), emergency ? Term.TRUE : Term.FALSE, x))) {
+                throw new IllegalStateException("finalDiagnosis/5 failed");
+            }
+            return x.text();
+        }
+
+        @Override
+        public PrologEngine copy() {
+            return new EmbeddedEngine(interpreter.copy());
+        }
+
+        /**
+         * Runs a predicate of arity 1 and returns the value of its argument
+         *
+         * @param name name of the predicate
+         * @return value of the argument
+         * @throws IllegalStateException if the predicate fails
+         */
+        private Term solution(String name) {
+            Term.Var x = Term.var();
+            if (!interpreter.once(Term.compound(name, x))) {
+                throw new IllegalStateException(name + "/1 failed");
+            }
+            return x.deref();
+        }
+
+        private Term atom(String symptom) {
+            return atoms.computeIfAbsent(symptom, Term::atom);
+        }
+
+        private static String[] names(Term list) {
+            List<Term> elements = list.toList();
+            String[] names = new String[elements.size()];
+            for (int k = 0; k < names.length; k++) {
+                names[k] = elements.get(k).name();
+            }
+            return names;
+        }
+    }
+}
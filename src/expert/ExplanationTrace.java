@@ -0,0 +1,306 @@
+package expert;
+
+/**
+ * Compact <b>trace of the answers of a consultation</b>, from which the reasons for a diagnosis are explained
+ *
+ * <p>Every answer is recorded as a step (the ID of the symptom, the answer code, and the adjusted weight),
+ * followed by its effects: the ID of every disease associated with the symptom, with its certainty factor
+ * before and after the answer. Steps and effects are stored in two ring buffers of primitives allocated up
+ * front, so recording an answer allocates nothing and costs a few array stores; once a buffer is full, the
+ * oldest steps are dropped. Explanations are only rendered when requested (see
+ * {@link #explain(KnowledgeBase, int, int)}). A trace is not thread-safe.</p>
+ */
+public final class ExplanationTrace {
+    /* Average number of effects per step for which room is made in the ring of effects */
+    private static final int EFFECTS_PER_STEP = 8;
+
+    /* Ring of the steps: ID of the symptom, answer code, adjusted weight, position of the first effect (counted
+    from the start of the trace), and number of effects */
+    private final int[] symptoms;
+    private final int[] codes;
+    private final double[] weights;
+    private final long[] firstEffects;
+    private final int[] numEffects;
+
+    /* Ring of the effects: ID of the disease, and its certainty factor before and after the answer */
+    private final int[] diseases;
+    private final double[] before;
+    private final double[] after;
+
+    /* Number of steps and effects recorded since the start of the trace (or the last clear) */
+    private long stepCount;
+    private long effectCount;
+
+    /**
+     * Creates an empty trace retaining at least the given number of the most recent steps, provided that
+     * they affect a few diseases each
+     *
+     * @param capacity number of steps retained (rounded up to a power of two)
+     * @throws IllegalArgumentException if the capacity is not positive or exceeds 2<sup>24</sup>
+     */
+    public ExplanationTrace(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        int steps = Integer.highestOneBit(capacity);
+        if (steps < capacity) {
+            steps <<= 1;
+        }
+        symptoms = new int[steps];
+        codes = new int[steps];
+        weights = new double[steps];
+        firstEffects = new long[steps];
+        numEffects = new int[steps];
+
+        diseases = new int[steps * EFFECTS_PER_STEP];
+        before = new double[steps * EFFECTS_PER_STEP];
+        after = new double[steps * EFFECTS_PER_STEP];
+    }
+
+    /**
+     * Records an answer, whose effects are then recorded with {@link #effect(int, double, double)}
+     *
+     * @param symptom ID of the symptom
+     * @param code answer code (see {@link VitalSignRules})
+     * @param weight adjusted (signed) weight of the symptom
+     */
+    public void step(int symptom, int code, double weight) {
+        int slot = (int) (stepCount & (symptoms.length - 1));
+        symptoms[slot] = symptom;
+        codes[slot] = code;
+        weights[slot] = weight;
+        firstEffects[slot] = effectCount;
+        numEffects[slot] = 0;
+        stepCount++;
+    }
+
+    /**
+     * Records the effect of the last answer on the certainty factor of a disease
+     *
+     * @param disease index of the disease
+     * @param cfBefore certainty factor of the disease before the answer
+     * @param cfAfter certainty factor of the disease after the answer
+     * @throws IllegalStateException if no answer has been recorded
+     */
+    public void effect(int disease, double cfBefore, double cfAfter) {
+        if (stepCount == 0) {
+            throw new IllegalStateException("No answer has been recorded");
+        }
+
+        int slot = (int) (effectCount & (diseases.length - 1));
+        diseases[slot] = disease;
+        before[slot] = cfBefore;
+        after[slot] = cfAfter;
+        effectCount++;
+        numEffects[(int) ((stepCount - 1) & (symptoms.length - 1))]++;
+    }
+
+    /**
+     * Removes all the steps
+     */
+    public void clear() {
+        stepCount = 0;
+        effectCount = 0;
+    }
+
+    /**
+     * Returns the number of answers recorded, including the ones that are no longer retained
+     *
+     * @return number of answers recorded
+     */
+    public long getNumRecorded() {
+        return stepCount;
+    }
+
+    /**
+     * Returns the number of steps retained
+     *
+     * @return number of steps retained
+     */
+    public int size() {
+        return (int) (stepCount - oldest());
+    }
+
+    /**
+     * Returns the ID of the symptom of a retained step
+     *
+     * @param step index of the step among the retained ones, from the oldest
+     * @return ID of the symptom
+     */
+    public int getSymptom(int step) {
+        return symptoms[slot(step)];
+    }
+
+    /**
+     * Returns the answer code of a retained step (see {@link VitalSignRules})
+     *
+     * @param step index of the step among the retained ones, from the oldest
+     * @return answer code
+     */
+    public int getCode(int step) {
+        return codes[slot(step)];
+    }
+
+    /**
+     * Returns the adjusted (signed) weight of the symptom of a retained step
+     *
+     * @param step index of the step among the retained ones, from the oldest
+     * @return adjusted weight of the symptom
+     */
+    public double getWeight(int step) {
+        return weights[slot(step)];
+    }
+
+    /**
+     * Returns the number of diseases affected by a retained step
+     *
+     * @param step index of the step among the retained ones, from the oldest
+     * @return number of diseases affected
+     */
+    public int getNumEffects(int step) {
+        return numEffects[slot(step)];
+    }
+
+    /**
+     * Returns the index of a disease affected by a retained step
+     *
+     * @param step index of the step among the retained ones, from the oldest
+     * @param effect index of the effect within the step
+     * @return index of the disease
+     */
+    public int getDisease(int step, int effect) {
+        return diseases[effectSlot(step, effect)];
+    }
+
+    /**
+     * Returns the certainty factor of a disease affected by a retained step, before the answer
+     *
+     * @param step index of the step among the retained ones, from the oldest
+     * @param effect index of the effect within the step
+     * @return certainty factor before the answer
+     */
+    public double getCFBefore(int step, int effect) {
+        return before[effectSlot(step, effect)];
+    }
+
+    /**
+     * Returns the certainty factor of a disease affected by a retained step, after the answer
+     *
+     * @param step index of the step among the retained ones, from the oldest
+     * @param effect index of the effect within the step
+     * @return certainty factor after the answer
+     */
+    public double getCFAfter(int step, int effect) {
+        return after[effectSlot(step, effect)];
+    }
+
+    /**
+     * Renders the explanation of the certainty factor of a disease: the answers that changed it the most,
+     * in decreasing order of the size of the change
+     *
+     * <p>Each line gives the change in the certainty factor, the symptom, and the answer, for instance
+     * <code>+0.45  muscleWeakness: yes</code>. The answers that are no longer retained are counted at the
+     * end.</p>
+     *
+     * @param kb static tables of the knowledge base
+     * @param disease index of the disease
+     * @param top maximum number of answers listed
+     * @return explanation of the certainty factor of the disease
+     */
+    public String explain(KnowledgeBase kb, int disease, int top) {
+        int size = size();
+
+        /* Collect the steps that changed the certainty factor of the disease. */
+        int[] steps = new int[size];
+        double[] changes = new double[size];
+        int count = 0;
+        double cf = 0;
+
+        for (int k = 0; k < size; k++) {
+            for (int e = 0; e < getNumEffects(k); e++) {
+                if (getDisease(k, e) == disease) {
+                    steps[count] = k;
+                    changes[count] = getCFAfter(k, e) - getCFBefore(k, e);
+                    cf = getCFAfter(k, e);
+                    count++;
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        String name = kb.getDiseaseName(disease);
+        sb.append("Why ").append(name.endsWith(".") ? name.substring(0, name.length() - 1) : name)
+                .append(" (certainty factor ");
+        CFTable.appendHundredths(sb, cf);
+        sb.append("):\n");
+
+        /* Select the largest changes in magnitude, leaving the rest of the arrays unsorted. */
+        int listed = Math.min(top, count);
+        for (int n = 0; n < listed; n++) {
+            int largest = n;
+            for (int k = n + 1; k < count; k++) {
+                if (Math.abs(changes[k]) > Math.abs(changes[largest])) {
+                    largest = k;
+                }
+            }
+
+            int step = steps[largest];
+            double change = changes[largest];
+            steps[largest] = steps[n];
+            changes[largest] = changes[n];
+
+            sb.append(change < 0 ? "-" : "+");
+            CFTable.appendHundredths(sb, Math.abs(change));
+            sb.append("  ").append(kb.getSymptomKey(getSymptom(step))).append(": ")
+                    .append((getCode(step) & VitalSignRules.POSITIVE) != 0 ? "yes" : "no");
+            if ((getCode(step) & VitalSignRules.EMERGENCY) != 0) {
+                sb.append(" (emergency)");
+            }
+            sb.append('\n');
+        }
+
+        if (count == 0) {
+            sb.append("No answer changed its certainty factor.\n");
+        } else if (count > listed) {
+            sb.append('(').append(count - listed).append(" other answers changed it less)\n");
+        }
+
+        long dropped = stepCount - size;
+        if (dropped > 0) {
+            sb.append('(').append(dropped).append(" earlier answers are no longer retained)\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the position of the oldest retained step, counted from the start of the trace
+     *
+     * @return position of the oldest retained step
+     */
+    private long oldest() {
+        /* A step is retained if neither it nor any of its effects has been overwritten. */
+        long oldest = Math.max(0, stepCount - symptoms.length);
+        long firstEffect = effectCount - diseases.length;
+        while (oldest < stepCount && firstEffects[(int) (oldest & (symptoms.length - 1))] < firstEffect) {
+            oldest++;
+        }
+        return oldest;
+    }
+
+    private int slot(int step) {
+        if (step < 0 || step >= size()) {
+            throw new IndexOutOfBoundsException("Step " + step + " out of " + size());
+        }
+        return (int) ((oldest() + step) & (symptoms.length - 1));
+    }
+
+    private int effectSlot(int step, int effect) {
+        int slot = slot(step);
+        if (effect < 0 || effect >= numEffects[slot]) {
+            throw new IndexOutOfBoundsException("Effect " + effect + " out of " + numEffects[slot]);
+        }
+        return (int) ((firstEffects[slot] + effect) & (diseases.length - 1));
+    }
+}
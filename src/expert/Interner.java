@@ -0,0 +1,209 @@
+package expert;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class implementing a <b>pool of immutable strings, arrays, and maps</b> shared by the knowledge bases of a
+ * {@link KnowledgeBaseRegistry}
+ *
+ * <p>Interning a value returns the first value equal to it ever interned, so knowledge bases that use the same
+ * symptom keys, disease names, inquiries, or lists of symptoms (such as the translations of a knowledge base,
+ * or knowledge bases derived from a common one) hold a single copy of them. Arrays are compared by contents;
+ * an array of objects is compared by the equality of its elements, so its elements should be interned first.
+ * The values handed to the pool must never be modified afterwards. The pool estimates the bytes it holds,
+ * assuming compressed object pointers and compact strings. This class is thread-safe.</p>
+ */
+public final class Interner {
+    /* Canonical values, keyed by themselves (strings and maps) or by their contents (arrays) */
+    private final ConcurrentHashMap<Object, Object> values = new ConcurrentHashMap<>();
+
+    /* Estimated number of bytes of the canonical values */
+    private final AtomicLong bytes = new AtomicLong();
+    /* Number of values interned that were already in the pool */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Returns the canonical copy of a string
+     *
+     * @param string string
+     * @return canonical copy of the string (<code>null</code> if the string is <code>null</code>)
+     */
+    public String intern(String string) {
+        return string == null ? null : (String) canonical(string, string, sizeOf(string));
+    }
+
+    /**
+     * Returns the canonical copy of an array of integers
+     *
+     * @param array array of integers
+     * @return canonical copy of the array
+     */
+    public int[] intern(int[] array) {
+        return (int[]) canonical(new Key(array, Arrays.hashCode(array)), array, 16 + 4L * array.length);
+    }
+
+    /**
+     * Returns the canonical copy of an array of doubles
+     *
+     * @param array array of doubles
+     * @return canonical copy of the array
+     */
+    public double[] intern(double[] array) {
+        return (double[]) canonical(new Key(array, Arrays.hashCode(array)), array, 16 + 8L * array.length);
+    }
+
+    /**
+     * Returns the canonical copy of an array of objects, compared by the equality of its elements
+     *
+     * @param array array of objects (whose elements are canonical)
+     * @param <T> type of the elements
+     * @return canonical copy of the array
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T[] intern(T[] array) {
+        return (T[]) canonical(new Key(array, Arrays.hashCode(array)), array, sizeOf(array));
+    }
+
+    /**
+     * Returns the canonical copy of a map from strings to integers
+     *
+     * @param map map (whose keys are canonical)
+     * @return canonical copy of the map
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Integer> intern(Map<String, Integer> map) {
+        return (Map<String, Integer>) canonical(map, map, sizeOfMap(map.size()));
+    }
+
+    /**
+     * Returns the canonical value equal to the given one, adding it to the pool if it is new
+     *
+     * @param key key of the value
+     * @param value value
+     * @param size estimated size of the value, in bytes
+     * @return canonical value
+     */
+    private Object canonical(Object key, Object value, long size) {
+        Object canonical = values.putIfAbsent(key, value);
+        if (canonical == null) {
+            bytes.addAndGet(size);
+            return value;
+        }
+
+        hits.increment();
+        return canonical;
+    }
+
+    /**
+     * Returns the estimated size of a string, in bytes
+     *
+     * @param string string, or <code>null</code>
+     * @return estimated size of the string (0 if it is <code>null</code>)
+     */
+    static long sizeOf(String string) {
+        if (string == null) {
+            return 0;
+        }
+
+        /* A string object, and its array of bytes (two per character if it is not Latin-1). */
+        boolean latin1 = true;
+        for (int k = 0; k < string.length() && latin1; k++) {
+            latin1 = string.charAt(k) < 256;
+        }
+        return 24 + 16 + (latin1 ? 1L : 2L) * string.length();
+    }
+
+    /**
+     * Returns the estimated size of an array of objects, excluding its elements, in bytes
+     *
+     * @param array array of objects
+     * @return estimated size of the array
+     */
+    static long sizeOf(Object[] array) {
+        return 16 + 4L * array.length;
+    }
+
+    /**
+     * Returns the estimated size of a hash map, excluding its keys and values, in bytes
+     *
+     * @param numEntries number of entries of the map
+     * @return estimated size of the map
+     */
+    static long sizeOfMap(int numEntries) {
+        /* A hash map takes a table of references, and an entry of 32 bytes per key. */
+        return 48 + 16 + 4L * Integer.highestOneBit(Math.max(1, numEntries * 4 / 3) * 2) + 32L * numEntries;
+    }
+
+    /**
+     * Returns the number of canonical values
+     *
+     * @return number of canonical values
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes of the canonical values
+     *
+     * @return estimated number of bytes of the canonical values
+     */
+    public long getNumBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Returns the number of values interned that were already in the pool
+     *
+     * @return number of values interned that were already in the pool
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("values=%d size=%.1fKiB hits=%d", size(), getNumBytes() / 1024.0, getHits());
+    }
+
+    /**
+     * Key comparing an array by its contents
+     */
+    private static final class Key {
+        /* Array */
+        private final Object array;
+        /* Hash code of the contents of the array */
+        private final int hash;
+
+        Key(Object array, int hash) {
+            this.array = array;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Object other = ((Key) o).array;
+            if (array instanceof int[] && other instanceof int[]) {
+                return Arrays.equals((int[]) array, (int[]) other);
+            } else if (array instanceof double[] && other instanceof double[]) {
+                return Arrays.equals((double[]) array, (double[]) other);
+            } else if (array instanceof Object[] && other instanceof Object[]) {
+                return array.getClass() == other.getClass() && Arrays.equals((Object[]) array, (Object[]) other);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
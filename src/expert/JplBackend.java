@@ -0,0 +1,227 @@
+package expert;
+
+import org.jpl7.Query;
+import org.jpl7.Term;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Backend running the knowledge base on <b>SWI-Prolog through JPL</b>, the bidirectional library bundled with
+ * SWI-Prolog that connects Java and Prolog through the SWI-Prolog Foreign Language Interface and the Java
+ * Native Interface
+ *
+ * <p>SWI-Prolog hosts a single engine per process, whose dynamic predicates hold the state of the
+ * consultation. Creating an engine therefore resets the state of the previous one, which can no longer be
+ * used, and engines cannot be copied.</p>
+ */
+public class JplBackend implements PrologBackend {
+    /* Number of engines created in this process; only the most recent one is usable */
+    private static volatile int generation;
+
+    @Override
+    public String getName() {
+        return "jpl";
+    }
+
+    @Override
+    public void consult(Path file) throws IOException {
+        /* The consult predicate does not accept a relative path, and expects forward slashes. */
+        String path = file.toAbsolutePath().toString().replace("\\", "/");
+
+        if (!new Query("consult('" + path + "')").hasSolution()) {
+            throw new IOException("SWI-Prolog failed to consult " + file);
+        }
+    }
+
+    @Override
+    public PrologEngine newEngine() {
+        int id;
+        synchronized (JplBackend.class) {
+            id = ++generation;
+        }
+
+        JplEngine engine = new JplEngine(id);
+        engine.restore();
+        return engine;
+    }
+
+    /**
+     * Engine wrapping the global SWI-Prolog engine, with the sources of the frequent queries formatted once
+     */
+    private static final class JplEngine implements PrologEngine {
+        /* Generation of this engine (see JplBackend#generation) */
+        private final int id;
+
+        /* Sources of the queries asked after every answer, by symptom or by index of the disease */
+        private final Map<String, String> updateNoQueries = new HashMap<>();
+        private final Map<String, String> updateYesQueries = new HashMap<>();
+        private final Map<String, String> deleteQueries = new HashMap<>();
+        private String[] cfQueries = new String[0];
+        private String[] remainingQueries = new String[0];
+
+        JplEngine(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int numberOfDiseases() {
+            return solution("numberOfDiseases(X)").intValue();
+        }
+
+        @Override
+        public int adultAge() {
+            return solution("adultAge(X)").intValue();
+        }
+
+        @Override
+        public double cfValueRemove() {
+            return solution("cfValueRemove(X)").doubleValue();
+        }
+
+        @Override
+        public double cfValueConclude() {
+            return solution("cfValueConclude(X)").doubleValue();
+        }
+
+        @Override
+        public void restore() {
+            run("restore");
+        }
+
+        @Override
+        public void removeFemaleSymptoms() {
+            run("removeFemaleSymptoms");
+        }
+
+        @Override
+        public void removeChildSymptoms() {
+            run("removeChildSymptoms");
+        }
+
+        @Override
+        public boolean updateCF(String symptom, int answer) {
+            Map<String, String> queries = answer == 0 ? updateNoQueries : updateYesQueries;
+            return run(queries.computeIfAbsent(symptom, s -> "updateCF(" + s + ", " + answer + ")"));
+        }
+
+        @Override
+        public double cf(int index) {
+            if (index >= cfQueries.length) {
+                cfQueries = Arrays.copyOf(cfQueries, Math.max(index + 1, 2 * cfQueries.length));
+            }
+            if (index < 0) {
+                throw new NoSuchElementException("No certainty factor for index " + index);
+            } else if (cfQueries[index] == null) {
+                cfQueries[index] = "cf(" + index + ", X)";
+            }
+
+            Map<String, Term> solution = query(cfQueries[index]).oneSolution();
+            if (solution == null) {
+                throw new NoSuchElementException("No certainty factor for index " + index);
+            }
+            return solution.get("X").doubleValue();
+        }
+
+        @Override
+        public double[] cfValues(double[] cf) {
+            Term[] terms = solution("cfValues(X)").listToTermArray();
+            for (int k = 0; k < terms.length; k++) {
+                cf[k] = terms[k].doubleValue();
+            }
+            return cf;
+        }
+
+        @Override
+        public String[] remainingSymptoms(int index) {
+            if (index < 0) {
+                return null;
+            } else if (index >= remainingQueries.length) {
+                remainingQueries = Arrays.copyOf(remainingQueries, Math.max(index + 1, 2 * remainingQueries.length));
+            }
+            if (remainingQueries[index] == null) {
+                remainingQueries[index] = "remainingSymptoms(" + index + ", X)";
+            }
+
+            Map<String, Term> solution = query(remainingQueries[index]).oneSolution();
+            return solution == null ? null : names(solution.get("X"));
+        }
+
+        @Override
+        public String[] removedSymptoms() {
+            return names(solution("removedSymptoms(X)"));
+        }
+
+        @Override
+        public void setState(double[] cf, Collection<String> symptoms) {
+            StringBuilder query = new StringBuilder("setState([");
+            for (int k = 0; k < cf.length; k++) {
+                query.append(k == 0 ? "" : ",").append(cf[k]);
+            }
+            query.append("], [").append(String.join(",", symptoms)).append("])");
+
+            run(query.toString());
+        }
+
+        @Override
+        public void deleteAll(String symptom) {
+            run(deleteQueries.computeIfAbsent(symptom, s -> "deleteAll(" + s + ")"));
+        }
+
+        @Override
+        public String finalDiagnosis(String name, double cf, int index, boolean emergency) {
+            Term diagnosis = solution("finalDiagnosis(\" " + name + "\"," + cf + "," + index + "," + emergency
+                    + ",X)");
+
+            /* The name is passed with a leading space, which is dropped along with the quotes. */
+            String text = String.valueOf(diagnosis);
+            return text.substring(2, text.length() - 1);
+        }
+
+        @Override
+        public PrologEngine copy() {
+            throw new UnsupportedOperationException("SWI-Prolog hosts a single engine per process");
+        }
+
+        /**
+         * Returns a query on the global engine, provided that this engine is still the most recent one
+         *
+         * @param source source of the query
+         * @return query
+         * @throws IllegalStateException if a newer engine has been created
+         */
+        private Query query(String source) {
+            if (id != generation) {
+                throw new IllegalStateException("This engine has been superseded: SWI-Prolog hosts a single engine "
+                        + "per process");
+            }
+            return new Query(source);
+        }
+
+        private boolean run(String source) {
+            return query(source).hasSolution();
+        }
+
+        private Term solution(String source) {
+            Map<String, Term> solution = query(source).oneSolution();
+            if (solution == null) {
+                throw new IllegalStateException(source + " failed");
+            }
+            return solution.get("X");
+        }
+
+        private static String[] names(Term list) {
+            Term[] terms = list.listToTermArray();
+            String[] names = new String[terms.length];
+            for (int k = 0; k < terms.length; k++) {
+                names[k] = terms[k].name();
+            }
+            return names;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package expert;
+
+/**
+ * Interface providing <b>indexed access to the static tables of the Prolog knowledge base</b>
+ * (<code>mapping/2</code>, <code>fullName/2</code>, <code>hasSymptom/2</code>, <code>weight/2</code>,
+ * <code>display/2</code>, <code>femaleSymptom/1</code>, <code>pediatricSymptom/1</code>, the vital-sign rules,
+ * and the constants)
+ *
+ * <p>Diseases are identified by their indices in <code>mapping/2</code>. Symptoms are identified by integer
+ * IDs assigned in the order in which their <code>weight/2</code> facts appear in the knowledge base.</p>
+ *
+ * <p>Two implementations exist: one parsed from the Prolog source at runtime by
+ * {@link KnowledgeBaseParser}, and one generated ahead of time as Java source by
+ * <code>tools.KnowledgeBaseCompiler</code>, which turns the tables into constant arrays and
+ * <code>switch</code>-based lookups. {@link KnowledgeBaseLoader} picks the generated implementation if it
+ * matches the knowledge base file. A {@link TunedKnowledgeBase} is a view of either with some of the constants
+ * and weights changed.</p>
+ *
+ * <p>Arrays returned by the methods of this interface are shared and must not be modified.</p>
+ */
+public interface KnowledgeBase {
+    /**
+     * Returns the version of the knowledge base (a fingerprint of the contents of its Prolog source)
+     *
+     * @return version of the knowledge base
+     */
+    long getVersion();
+
+    /**
+     * Returns the number of diseases in the knowledge base
+     *
+     * @return number of diseases in the knowledge base
+     */
+    int getNumDiseases();
+
+    /**
+     * Returns the Prolog atom naming a disease (as used in <code>mapping/2</code>)
+     *
+     * @param disease index of the disease
+     * @return Prolog atom naming the disease
+     */
+    String getDiseaseKey(int disease);
+
+    /**
+     * Returns the full name of a disease (as used in <code>fullName/2</code>), including the trailing period
+     *
+     * @param disease index of the disease
+     * @return full name of the disease
+     */
+    String getDiseaseName(int disease);
+
+    /**
+     * Returns the IDs of the symptoms of a disease, in the order in which they are probed
+     *
+     * @param disease index of the disease
+     * @return IDs of the symptoms of the disease
+     */
+    int[] getDiseaseSymptoms(int disease);
+
+    /**
+     * Returns the number of unique symptoms in the knowledge base
+     *
+     * @return number of unique symptoms in the knowledge base
+     */
+    int getNumSymptoms();
+
+    /**
+     * Returns the ID of a symptom given its Prolog atom, or <code>-1</code> if the symptom is not in the
+     * knowledge base
+     *
+     * @param symptom Prolog atom naming the symptom
+     * @return ID of the symptom, or <code>-1</code> if the symptom is not in the knowledge base
+     */
+    int getSymptomId(String symptom);
+
+    /**
+     * Returns the Prolog atom naming a symptom
+     *
+     * @param symptom ID of the symptom
+     * @return Prolog atom naming the symptom
+     */
+    String getSymptomKey(int symptom);
+
+    /**
+     * Returns the weight of a symptom (as used in <code>weight/2</code>)
+     *
+     * @param symptom ID of the symptom
+     * @return weight of the symptom
+     */
+    double getWeight(int symptom);
+
+    /**
+     * Returns the inquiry associated with a symptom (as used in <code>display/2</code>), or <code>null</code>
+     * if the symptom is never probed
+     *
+     * @param symptom ID of the symptom
+     * @return inquiry associated with the symptom
+     */
+    String getInquiry(int symptom);
+
+    /**
+     * Returns the indices of the diseases associated with a symptom, in ascending order
+     *
+     * @param symptom ID of the symptom
+     * @return indices of the diseases associated with the symptom
+     */
+    int[] getDiseasesWithSymptom(int symptom);
+
+    /**
+     * Returns the IDs of the symptoms removed beforehand if the patient is male
+     * (as listed in <code>femaleSymptom/1</code>)
+     *
+     * @return IDs of the symptoms removed beforehand if the patient is male
+     */
+    int[] getFemaleSymptoms();
+
+    /**
+     * Returns the IDs of the symptoms removed beforehand if the patient is an adult
+     * (as listed in <code>pediatricSymptom/1</code>)
+     *
+     * @return IDs of the symptoms removed beforehand if the patient is an adult
+     */
+    int[] getPediatricSymptoms();
+
+    /**
+     * Returns the table of rules for the vital signs and the emergency answers (as given by
+     * <code>vitalSign/3</code>, <code>diagnosisBand/6</code>, <code>emergencyBand/6</code>, and
+     * <code>emergencyAnswer/1</code>)
+     *
+     * @return table of rules for the vital signs and the emergency answers
+     */
+    VitalSignRules getVitalSignRules();
+
+    /**
+     * Returns the lower bound for the age of an adult
+     *
+     * @return lower bound for the age of an adult
+     */
+    int getAdultAge();
+
+    /**
+     * Returns the certainty factor below which a disease is ruled out
+     *
+     * @return certainty factor below which a disease is ruled out
+     */
+    double getCFValueRemove();
+
+    /**
+     * Returns the certainty factor at or above which a disease is immediately reported as the diagnosis
+     *
+     * @return certainty factor at or above which a disease is immediately reported as the diagnosis
+     */
+    double getCFValueConclude();
+}
@@ -0,0 +1,87 @@
+package expert;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Class for <b>obtaining the static tables of a knowledge base</b>, preferring the Java source generated
+ * ahead of time by <code>tools.KnowledgeBaseCompiler</code> over parsing the Prolog source at runtime
+ *
+ * <p>The generated class is only used if its version (the fingerprint of the Prolog source it was generated
+ * from) matches the fingerprint of the given file; a stale or missing generated class silently falls back
+ * to {@link KnowledgeBaseParser}.</p>
+ */
+public final class KnowledgeBaseLoader {
+    /**
+     * Fully qualified name of the class generated by <code>tools.KnowledgeBaseCompiler</code>
+     */
+    public static final String COMPILED_CLASS = "expert.generated.CompiledKnowledgeBase";
+
+    /**
+     * Empty constructor (this class only provides static functions)
+     */
+    private KnowledgeBaseLoader() {
+
+    }
+
+    /**
+     * Returns the static tables of the knowledge base stored in the given Prolog file
+     *
+     * @param file Prolog knowledge base
+     * @return static tables of the knowledge base
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file has to be parsed and is inconsistent
+     */
+    public static KnowledgeBase load(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+
+        KnowledgeBase compiled = loadCompiled();
+        if (compiled != null && compiled.getVersion() == KnowledgeBaseParser.fingerprint(bytes)) {
+            return compiled;
+        }
+
+        return KnowledgeBaseParser.parse(file.getFileName().toString(), bytes);
+    }
+
+    /**
+     * Returns the static tables of the knowledge base stored in a resource on the class path (such as a
+     * knowledge base embedded in a native image)
+     *
+     * @param resource absolute name of the resource (for instance, <code>/expert/knowledgebase.pl</code>)
+     * @return static tables of the knowledge base
+     * @throws IOException if the resource does not exist or cannot be read
+     * @throws IllegalArgumentException if the resource has to be parsed and is inconsistent
+     */
+    public static KnowledgeBase loadResource(String resource) throws IOException {
+        byte[] bytes;
+        try (InputStream in = KnowledgeBaseLoader.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new FileNotFoundException("No resource " + resource);
+            }
+            bytes = in.readAllBytes();
+        }
+
+        KnowledgeBase compiled = loadCompiled();
+        if (compiled != null && compiled.getVersion() == KnowledgeBaseParser.fingerprint(bytes)) {
+            return compiled;
+        }
+
+        return KnowledgeBaseParser.parse(resource.substring(resource.lastIndexOf('/') + 1), bytes);
+    }
+
+    /**
+     * Returns an instance of the generated knowledge base, or <code>null</code> if it is not on the class path
+     *
+     * @return instance of the generated knowledge base, or <code>null</code> if it is not on the class path
+     */
+    public static KnowledgeBase loadCompiled() {
+        try {
+            return (KnowledgeBase) Class.forName(COMPILED_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,1007 @@
+package expert;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for <b>reading the static tables of the Prolog knowledge base</b> directly from its source file,
+ * without consulting it in SWI-Prolog
+ *
+ * <p>The symptoms of each disease are given by <code>hasSymptom/2</code> facts, listed in the order in which
+ * they are probed, and the number of diseases is the number of <code>mapping/2</code> facts.</p>
+ *
+ * <p>Only facts are read; directives and rules are skipped. The facts are then checked for consistency (for
+ * instance, every symptom of every disease must have both a <code>weight/2</code> and a <code>display/2</code>
+ * entry), and all problems found are reported together in a single {@link IllegalArgumentException}.</p>
+ */
+public final class KnowledgeBaseParser {
+    /* Name of the file being parsed (used in error messages) */
+    private final String fileName;
+    /* Source code of the knowledge base */
+    private final String src;
+    /* Position of the next character to be read */
+    private int pos;
+    /* Line number of the next character to be read */
+    private int line;
+
+    /* Facts read so far, grouped by predicate name */
+    private final Map<String, List<Fact>> facts;
+
+    /**
+     * Creates a parser for the given source code
+     *
+     * @param fileName name of the file being parsed (used in error messages)
+     * @param src source code of the knowledge base
+     */
+    private KnowledgeBaseParser(String fileName, String src) {
+        this.fileName = fileName;
+        this.src = src;
+        this.pos = 0;
+        this.line = 1;
+        this.facts = new LinkedHashMap<>();
+    }
+
+    /**
+     * Reads and validates the knowledge base stored in the given Prolog file
+     *
+     * @param file Prolog knowledge base
+     * @return static tables of the knowledge base
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file cannot be parsed or the knowledge base is inconsistent
+     */
+    public static KnowledgeBase parse(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        return parse(file.getFileName().toString(), bytes);
+    }
+
+    /**
+     * Reads and validates the knowledge base stored in the given bytes (the contents of a Prolog file)
+     *
+     * @param fileName name of the file being parsed (used in error messages)
+     * @param bytes contents of the Prolog file, encoded in UTF-8
+     * @return static tables of the knowledge base
+     * @throws IllegalArgumentException if the file cannot be parsed or the knowledge base is inconsistent
+     */
+    public static KnowledgeBase parse(String fileName, byte[] bytes) {
+        KnowledgeBaseParser parser;
+        parser = new KnowledgeBaseParser(fileName, new String(bytes, StandardCharsets.UTF_8));
+
+        parser.readFacts();
+        return parser.build(fingerprint(bytes));
+    }
+
+    /**
+     * Returns the fingerprint of the contents of a knowledge base, which serves as its version
+     *
+     * <p>The fingerprint is the first eight bytes of the SHA-256 digest of the contents.</p>
+     *
+     * @param bytes contents of the Prolog file
+     * @return fingerprint of the contents
+     */
+    public static long fingerprint(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+
+            long version = 0;
+            for (int k = 0; k < Long.BYTES; k++) {
+                version = (version << 8) | (digest[k] & 0xFF);
+            }
+
+            return version;
+        } catch (NoSuchAlgorithmException e) {
+            /* Every Java platform is required to support SHA-256. */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads every clause in the source, keeping the facts and skipping the directives and rules
+     */
+    private void readFacts() {
+        while (skipLayout()) {
+            int clauseLine = line;
+
+            /* Skip directives such as ":- dynamic cf/1." */
+            if (src.startsWith(":-", pos)) {
+                skipClause();
+                continue;
+            }
+
+            Object head = readTerm();
+            skipLayout();
+
+            if (src.startsWith(":-", pos)) {       /* Rule: only the head has been read. */
+                skipClause();
+
+            } else if (atEnd()) {       /* Fact */
+                pos++;
+
+                if (head instanceof Compound) {
+                    Compound c = (Compound) head;
+                    facts.computeIfAbsent(c.name, k -> new ArrayList<>()).add(new Fact(c, clauseLine));
+                }
+
+            } else {
+                throw error("expected '.' or ':-' after clause head");
+            }
+        }
+    }
+
+    /**
+     * Builds and validates the static tables from the facts read
+     *
+     * @param version fingerprint of the contents of the knowledge base
+     * @return static tables of the knowledge base
+     */
+    private KnowledgeBase build(long version) {
+        List<String> errors = new ArrayList<>();
+
+        /* Diseases, as indexed by mapping/2 */
+        List<Fact> mappings = facts.getOrDefault("mapping", new ArrayList<>());
+        int numDiseases = mappings.size();
+        String[] diseaseKeys = new String[numDiseases];
+
+        for (Fact f : mappings) {
+            int index = f.intArg(0, errors);
+            String key = f.atomArg(1, errors);
+
+            if (index < 0 || index >= numDiseases) {
+                errors.add(f.where() + "mapping/2 index " + index + " is not in 0.." + (numDiseases - 1));
+            } else if (diseaseKeys[index] != null) {
+                errors.add(f.where() + "duplicate mapping/2 index " + index);
+            } else {
+                diseaseKeys[index] = key;
+            }
+        }
+
+        /* Full names of the diseases */
+        String[] diseaseNames = new String[numDiseases];
+        for (Fact f : facts.getOrDefault("fullName", new ArrayList<>())) {
+            int index = f.intArg(0, errors);
+
+            if (index >= 0 && index < numDiseases) {
+                diseaseNames[index] = f.stringArg(1, errors);
+            } else {
+                errors.add(f.where() + "fullName/2 index " + index + " has no mapping/2 entry");
+            }
+        }
+
+        /* Symptom IDs follow the order of the weight/2 facts. */
+        Map<String, Integer> symptomIds = new HashMap<>();
+        List<String> symptomKeys = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+
+        for (Fact f : facts.getOrDefault("weight", new ArrayList<>())) {
+            String symptom = f.atomArg(0, errors);
+            double weight = f.numberArg(1, errors);
+
+            if (symptomIds.containsKey(symptom)) {
+                errors.add(f.where() + "duplicate weight/2 entry for " + symptom);
+            } else if (weight <= 0 || weight > 1) {
+                errors.add(f.where() + "weight/2 of " + symptom + " is not in (0, 1]");
+            } else {
+                symptomIds.put(symptom, symptomKeys.size());
+                symptomKeys.add(symptom);
+                weights.add(weight);
+            }
+        }
+
+        /* Inquiries */
+        String[] inquiries = new String[symptomKeys.size()];
+        for (Fact f : facts.getOrDefault("display", new ArrayList<>())) {
+            String symptom = f.atomArg(0, errors);
+            Integer id = symptomIds.get(symptom);
+
+            if (id == null) {
+                errors.add(f.where() + "display/2 entry for " + symptom + " has no weight/2 entry");
+            } else if (inquiries[id] != null) {
+                errors.add(f.where() + "duplicate display/2 entry for " + symptom);
+            } else {
+                inquiries[id] = f.stringArg(1, errors);
+            }
+        }
+
+        /* Symptoms per disease, from hasSymptom/2 (in the order in which they are probed) */
+        Map<String, Integer> diseaseIds = new HashMap<>();
+        for (int d = 0; d < numDiseases; d++) {
+            if (diseaseKeys[d] == null) {
+                errors.add(fileName + ": no mapping/2 entry for index " + d);
+            } else if (diseaseIds.put(diseaseKeys[d], d) != null) {
+                errors.add(fileName + ": disease " + diseaseKeys[d] + " is mapped to more than one index");
+            }
+
+            if (diseaseNames[d] == null) {
+                errors.add(fileName + ": no fullName/2 entry for index " + d);
+            }
+        }
+
+        List<List<Integer>> symptomLists = new ArrayList<>();
+        for (int d = 0; d < numDiseases; d++) {
+            symptomLists.add(new ArrayList<>());
+        }
+
+        for (Fact f : facts.getOrDefault("hasSymptom", new ArrayList<>())) {
+            String disease = f.atomArg(0, errors);
+            String symptom = f.atomArg(1, errors);
+            Integer d = diseaseIds.get(disease);
+            Integer id = symptomIds.get(symptom);
+
+            if (d == null) {
+                errors.add(f.where() + "disease " + disease + " has no mapping/2 entry");
+            } else if (id == null) {
+                errors.add(f.where() + "symptom " + symptom + " of " + disease + " has no weight/2 entry");
+            } else if (symptomLists.get(d).contains(id)) {
+                errors.add(f.where() + "duplicate hasSymptom/2 entry for " + disease + " and " + symptom);
+            } else {
+                if (inquiries[id] == null) {
+                    errors.add(f.where() + "symptom " + symptom + " of " + disease + " has no display/2 entry");
+                }
+                symptomLists.get(d).add(id);
+            }
+        }
+
+        int[][] diseaseSymptoms = new int[numDiseases][];
+        for (int d = 0; d < numDiseases; d++) {
+            if (symptomLists.get(d).isEmpty() && diseaseKeys[d] != null) {
+                errors.add(fileName + ": disease " + diseaseKeys[d] + " has no hasSymptom/2 entries");
+            }
+            diseaseSymptoms[d] = toArray(symptomLists.get(d));
+        }
+
+        /* Symptoms removed beforehand depending on the sex and the age of the patient */
+        int[] femaleSymptoms = symptomSet("femaleSymptom", symptomIds, errors);
+        int[] pediatricSymptoms = symptomSet("pediatricSymptom", symptomIds, errors);
+
+        /* Constants (the number of diseases is derived from mapping/2) */
+        int adultAge = (int) constant("adultAge", errors);
+        double cfValueRemove = constant("cfValueRemove", errors);
+        double cfValueConclude = constant("cfValueConclude", errors);
+
+        /* Table of rules for the vital signs and the emergency answers */
+        VitalSignRules vitalSignRules = vitalSignRules(symptomIds, adultAge, errors);
+
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Inconsistent knowledge base:\n" + String.join("\n", errors));
+        }
+
+        double[] weightArray = new double[weights.size()];
+        for (int s = 0; s < weightArray.length; s++) {
+            weightArray[s] = weights.get(s);
+        }
+
+        return new ParsedKnowledgeBase(version, diseaseKeys, diseaseNames, diseaseSymptoms,
+                symptomKeys.toArray(new String[0]), weightArray, inquiries, symptomIds,
+                femaleSymptoms, pediatricSymptoms,
+                vitalSignRules, adultAge, cfValueRemove, cfValueConclude);
+    }
+
+    /**
+     * Builds the table of rules from the <code>vitalSign/3</code>, <code>diagnosisBand/6</code>,
+     * <code>emergencyBand/6</code>, and <code>emergencyAnswer/1</code> facts
+     *
+     * @param symptomIds mapping from the Prolog atoms naming the symptoms to their IDs
+     * @param adultAge minimum age for a patient to be considered an adult (the age bound <code>adult</code>)
+     * @param errors list to which problems are added
+     * @return table of rules
+     */
+    private VitalSignRules vitalSignRules(Map<String, Integer> symptomIds, int adultAge, List<String> errors) {
+        /* Vital signs and their ranges of valid readings */
+        List<Integer> vitalSigns = new ArrayList<>();
+        List<Double> mins = new ArrayList<>();
+        List<Double> maxs = new ArrayList<>();
+
+        for (Fact f : facts.getOrDefault("vitalSign", new ArrayList<>())) {
+            String symptom = f.atomArg(0, errors);
+            double min = f.boundArg(1, errors);
+            double max = f.boundArg(2, errors);
+            Integer id = symptomIds.get(symptom);
+
+            if (id == null) {
+                errors.add(f.where() + "vital sign " + symptom + " has no weight/2 entry");
+            } else if (vitalSigns.contains(id)) {
+                errors.add(f.where() + "duplicate vitalSign/3 entry for " + symptom);
+            } else if (!(min <= max)) {
+                errors.add(f.where() + "range of " + symptom + " is empty");
+            } else {
+                vitalSigns.add(id);
+                mins.add(min);
+                maxs.add(max);
+            }
+        }
+
+        /* Diagnosis and emergency bands of the vital signs */
+        List<Integer> bandSymptoms = new ArrayList<>();
+        List<Integer> bandCodes = new ArrayList<>();
+        List<Double> bandMinAges = new ArrayList<>();
+        List<Double> bandMaxAges = new ArrayList<>();
+        List<Integer> bandSexes = new ArrayList<>();
+        List<Double> bandLows = new ArrayList<>();
+        List<Double> bandHighs = new ArrayList<>();
+
+        String[] bandNames = {"diagnosisBand", "emergencyBand"};
+        int[] codes = {VitalSignRules.POSITIVE, VitalSignRules.EMERGENCY};
+
+        for (int k = 0; k < bandNames.length; k++) {
+            for (Fact f : facts.getOrDefault(bandNames[k], new ArrayList<>())) {
+                String symptom = f.atomArg(0, errors);
+                double minAge = f.ageBoundArg(1, errors);
+                double maxAge = f.ageBoundArg(2, errors);
+                String sex = f.atomArg(3, errors);
+                double low = f.boundArg(4, errors);
+                double high = f.boundArg(5, errors);
+                Integer id = symptomIds.get(symptom);
+
+                if (id == null || !vitalSigns.contains(id)) {
+                    errors.add(f.where() + bandNames[k] + "/6 entry for " + symptom + " has no vitalSign/3 entry");
+                } else if (!sex.equals("any") && !sex.equals("male") && !sex.equals("female")) {
+                    errors.add(f.where() + "sex " + sex + " is not one of any, male, and female");
+                } else if (!(resolveAge(minAge, adultAge) < resolveAge(maxAge, adultAge)) || !(low < high)) {
+                    errors.add(f.where() + "age range or reading range of " + symptom + " is empty");
+                } else {
+                    bandSymptoms.add(id);
+                    bandCodes.add(codes[k]);
+                    bandMinAges.add(minAge);
+                    bandMaxAges.add(maxAge);
+                    bandSexes.add(VitalSignRules.sexCode(sex));
+                    bandLows.add(low);
+                    bandHighs.add(high);
+                }
+            }
+        }
+
+        /* Dichotomous symptoms whose affirmation is an emergency */
+        int[] emergencyAnswers = symptomSet("emergencyAnswer", symptomIds, errors);
+        for (int id : emergencyAnswers) {
+            if (vitalSigns.contains(id)) {
+                errors.add(fileName + ": emergency answer " + symptomKeyOf(symptomIds, id) + " is a vital sign");
+            }
+        }
+
+        return new VitalSignRules(symptomIds.size(), toArray(vitalSigns), toDoubleArray(mins),
+                toDoubleArray(maxs), toArray(bandSymptoms), toArray(bandCodes), toDoubleArray(bandMinAges),
+                toDoubleArray(bandMaxAges), adultAge, toArray(bandSexes), toDoubleArray(bandLows),
+                toDoubleArray(bandHighs), emergencyAnswers);
+    }
+
+    /**
+     * Returns an age bound of a band, with the atom <code>adult</code> resolved to the adult age
+     *
+     * @param bound age bound, or {@link VitalSignRules#ADULT}
+     * @param adultAge minimum age for a patient to be considered an adult
+     * @return age bound
+     */
+    private static double resolveAge(double bound, int adultAge) {
+        return bound == VitalSignRules.ADULT ? adultAge : bound;
+    }
+
+    /**
+     * Returns the Prolog atom naming the symptom with the given ID
+     *
+     * @param symptomIds mapping from the Prolog atoms naming the symptoms to their IDs
+     * @param id ID of the symptom
+     * @return Prolog atom naming the symptom
+     */
+    private static String symptomKeyOf(Map<String, Integer> symptomIds, int id) {
+        for (Map.Entry<String, Integer> e : symptomIds.entrySet()) {
+            if (e.getValue() == id) {
+                return e.getKey();
+            }
+        }
+
+        return String.valueOf(id);
+    }
+
+    /**
+     * Returns the elements of a list of numbers as an array
+     *
+     * @param list list of numbers
+     * @return elements of the list as an array
+     */
+    private static double[] toDoubleArray(List<Double> list) {
+        double[] array = new double[list.size()];
+
+        for (int k = 0; k < array.length; k++) {
+            array[k] = list.get(k);
+        }
+
+        return array;
+    }
+
+    /**
+     * Returns the IDs of the symptoms listed by a predicate with a single atom argument
+     * (such as <code>femaleSymptom/1</code>)
+     *
+     * @param name name of the predicate listing the symptoms
+     * @param symptomIds mapping from the Prolog atoms naming the symptoms to their IDs
+     * @param errors list to which problems are added
+     * @return IDs of the symptoms listed by the predicate
+     */
+    private int[] symptomSet(String name, Map<String, Integer> symptomIds, List<String> errors) {
+        List<Integer> ids = new ArrayList<>();
+
+        for (Fact f : facts.getOrDefault(name, new ArrayList<>())) {
+            String symptom = f.atomArg(0, errors);
+            Integer id = symptomIds.get(symptom);
+
+            if (id == null) {
+                errors.add(f.where() + name + "/1 entry for " + symptom + " has no weight/2 entry");
+            } else {
+                ids.add(id);
+            }
+        }
+
+        return toArray(ids);
+    }
+
+    /**
+     * Returns the elements of a list of integers as an array
+     *
+     * @param list list of integers
+     * @return elements of the list as an array
+     */
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+
+        for (int k = 0; k < array.length; k++) {
+            array[k] = list.get(k);
+        }
+
+        return array;
+    }
+
+    /**
+     * Returns the value of a constant stored as a fact with a single numeric argument
+     *
+     * @param name name of the predicate holding the constant
+     * @param errors list to which problems are added
+     * @return value of the constant, or <code>NaN</code> if it is missing
+     */
+    private double constant(String name, List<String> errors) {
+        List<Fact> list = facts.get(name);
+
+        if (list == null || list.size() != 1) {
+            errors.add(fileName + ": expected exactly one " + name + "/1 fact");
+            return Double.NaN;
+        }
+
+        return list.get(0).numberArg(0, errors);
+    }
+
+    /* ------------------------------------------------------------------------------------------------------
+     * Reader
+     * ------------------------------------------------------------------------------------------------------ */
+
+    /**
+     * Skips whitespace and comments, and returns <code>true</code> if there are characters left to read;
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if there are characters left to read; <code>false</code>, otherwise
+     */
+    private boolean skipLayout() {
+        while (pos < src.length()) {
+            char c = src.charAt(pos);
+
+            if (c == '\n') {
+                line++;
+                pos++;
+            } else if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '%') {
+                while (pos < src.length() && src.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (src.startsWith("/*", pos)) {
+                int close = src.indexOf("*/", pos + 2);
+                if (close < 0) {
+                    throw error("unterminated block comment");
+                }
+
+                countLines(pos, close + 2);
+                pos = close + 2;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Skips the remainder of the current clause, up to and including its terminating period
+     */
+    private void skipClause() {
+        while (skipLayout()) {
+            char c = src.charAt(pos);
+
+            if (c == '"' || c == '\'' || c == '`') {
+                readQuoted(c);
+            } else if (atEnd()) {
+                pos++;
+                return;
+            } else {
+                pos++;
+            }
+        }
+
+        throw error("unterminated clause");
+    }
+
+    /**
+     * Returns <code>true</code> if the next character is the period terminating a clause;
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if the next character is the period terminating a clause;
+     * <code>false</code>, otherwise
+     */
+    private boolean atEnd() {
+        if (pos >= src.length() || src.charAt(pos) != '.') {
+            return false;
+        }
+
+        return pos + 1 == src.length() || Character.isWhitespace(src.charAt(pos + 1))
+                || src.charAt(pos + 1) == '%';
+    }
+
+    /**
+     * Reads a term: a number, a string, an atom, a variable, a list, or a compound term
+     *
+     * <p>Atoms are returned as {@link String}, Prolog strings as {@link Text}, numbers as {@link Long} or
+     * {@link Double}, lists as {@link List}, compound terms as {@link Compound}, and variables as
+     * {@link Variable}.</p>
+     *
+     * @return term read
+     */
+    private Object readTerm() {
+        if (!skipLayout()) {
+            throw error("unexpected end of file");
+        }
+
+        char c = src.charAt(pos);
+
+        if (Character.isDigit(c) || (c == '-' && pos + 1 < src.length()
+                && Character.isDigit(src.charAt(pos + 1)))) {
+            return readNumber();
+        }
+
+        if (c == '"') {
+            return new Text(readQuoted('"'));
+        }
+
+        if (c == '[') {
+            return readList();
+        }
+
+        if (c == '_' || Character.isUpperCase(c)) {
+            readName();
+            return Variable.INSTANCE;
+        }
+
+        String name;
+        if (c == '\'') {
+            name = readQuoted('\'');
+        } else if (Character.isLowerCase(c)) {
+            name = readName();
+        } else {
+            throw error("unexpected character '" + c + "'");
+        }
+
+        /* Compound term: the opening parenthesis must immediately follow the name. */
+        if (pos < src.length() && src.charAt(pos) == '(') {
+            pos++;
+            List<Object> args = readSequence(')');
+            return new Compound(name, args);
+        }
+
+        return name;
+    }
+
+    /**
+     * Reads a list, from its opening bracket to its closing bracket
+     *
+     * @return elements of the list
+     */
+    private List<Object> readList() {
+        pos++;
+        skipLayout();
+
+        if (src.charAt(pos) == ']') {
+            pos++;
+            return new ArrayList<>();
+        }
+
+        return readSequence(']');
+    }
+
+    /**
+     * Reads a comma-separated sequence of terms, up to and including the given closing character
+     *
+     * @param close closing character (either a parenthesis or a bracket)
+     * @return terms read
+     */
+    private List<Object> readSequence(char close) {
+        List<Object> items = new ArrayList<>();
+
+        while (true) {
+            items.add(readTerm());
+            skipLayout();
+
+            char c = pos < src.length() ? src.charAt(pos) : 0;
+            pos++;
+
+            if (c == close) {
+                return items;
+            }
+            if (c != ',') {
+                pos--;
+                throw error("expected ',' or '" + close + "'");
+            }
+        }
+    }
+
+    /**
+     * Reads an unquoted name (an atom or a variable)
+     *
+     * @return name read
+     */
+    private String readName() {
+        int start = pos;
+
+        while (pos < src.length() && (Character.isLetterOrDigit(src.charAt(pos)) || src.charAt(pos) == '_')) {
+            pos++;
+        }
+
+        return src.substring(start, pos);
+    }
+
+    /**
+     * Reads an integer or a floating-point number
+     *
+     * @return number read, either a {@link Long} or a {@link Double}
+     */
+    private Number readNumber() {
+        int start = pos;
+        boolean isFloat = false;
+
+        if (src.charAt(pos) == '-') {
+            pos++;
+        }
+        while (pos < src.length() && Character.isDigit(src.charAt(pos))) {
+            pos++;
+        }
+
+        /* A period is part of the number only if a digit follows it; otherwise, it ends the clause. */
+        if (pos + 1 < src.length() && src.charAt(pos) == '.' && Character.isDigit(src.charAt(pos + 1))) {
+            isFloat = true;
+            pos++;
+            while (pos < src.length() && Character.isDigit(src.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        if (pos < src.length() && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+            isFloat = true;
+            pos++;
+            if (src.charAt(pos) == '+' || src.charAt(pos) == '-') {
+                pos++;
+            }
+            while (pos < src.length() && Character.isDigit(src.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        String text = src.substring(start, pos);
+        return isFloat ? (Number) Double.parseDouble(text) : (Number) Long.parseLong(text);
+    }
+
+    /**
+     * Reads a quoted item (a string or a quoted atom), resolving escape sequences
+     *
+     * @param quote quotation mark delimiting the item
+     * @return contents of the item, without the quotation marks
+     */
+    private String readQuoted(char quote) {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+
+        while (pos < src.length()) {
+            char c = src.charAt(pos++);
+
+            if (c == quote) {
+                /* A doubled quotation mark stands for the quotation mark itself. */
+                if (pos < src.length() && src.charAt(pos) == quote) {
+                    sb.append(quote);
+                    pos++;
+                } else {
+                    return sb.toString();
+                }
+
+            } else if (c == '\\' && pos < src.length()) {
+                char e = src.charAt(pos++);
+
+                switch (e) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case '\n':
+                        /* Line continuation */
+                        line++;
+                        break;
+                    default:
+                        sb.append(e);
+                }
+
+            } else {
+                if (c == '\n') {
+                    line++;
+                }
+                sb.append(c);
+            }
+        }
+
+        throw error("unterminated quoted item");
+    }
+
+    /**
+     * Counts the newlines in a range of the source
+     *
+     * @param from start of the range (inclusive)
+     * @param to end of the range (exclusive)
+     */
+    private void countLines(int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (src.charAt(k) == '\n') {
+                line++;
+            }
+        }
+    }
+
+    /**
+     * Returns an exception describing a syntax error at the current line
+     *
+     * @param message description of the syntax error
+     * @return exception describing the syntax error
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(fileName + ":" + line + ": " + message);
+    }
+
+    /* ------------------------------------------------------------------------------------------------------
+     * Terms
+     * ------------------------------------------------------------------------------------------------------ */
+
+    /**
+     * Prolog string (as opposed to an atom)
+     */
+    private static final class Text {
+        /* Contents of the string */
+        private final String value;
+
+        /**
+         * Creates a Prolog string with the given contents
+         *
+         * @param value contents of the string
+         */
+        Text(String value) {
+            this.value = value;
+        }
+
+        /**
+         * Returns the contents of the string
+         *
+         * @return contents of the string
+         */
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    /**
+     * Prolog variable (only ever found in the heads of rules, which are skipped)
+     */
+    private static final class Variable {
+        /* Sole instance */
+        private static final Variable INSTANCE = new Variable();
+    }
+
+    /**
+     * Compound term
+     */
+    private static final class Compound {
+        /* Name of the functor */
+        private final String name;
+        /* Arguments */
+        private final List<Object> args;
+
+        /**
+         * Creates a compound term with the given functor name and arguments
+         *
+         * @param name name of the functor
+         * @param args arguments
+         */
+        Compound(String name, List<Object> args) {
+            this.name = name;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Fact read from the knowledge base, together with its line number
+     */
+    private final class Fact {
+        /* Fact as a compound term */
+        private final Compound term;
+        /* Line number of the fact */
+        private final int line;
+
+        /**
+         * Creates a fact read at the given line
+         *
+         * @param term fact as a compound term
+         * @param line line number of the fact
+         */
+        Fact(Compound term, int line) {
+            this.term = term;
+            this.line = line;
+        }
+
+        /**
+         * Returns the location of this fact, as a prefix for error messages
+         *
+         * @return location of this fact
+         */
+        String where() {
+            return fileName + ":" + line + ": ";
+        }
+
+        /**
+         * Returns the argument at the given position, recording an error if there is none
+         *
+         * @param k position of the argument
+         * @param errors list to which problems are added
+         * @return argument at the given position, or <code>null</code> if there is none
+         */
+        Object arg(int k, List<String> errors) {
+            if (k >= term.args.size()) {
+                errors.add(where() + term.name + " is missing argument " + (k + 1));
+                return null;
+            }
+
+            return term.args.get(k);
+        }
+
+        /**
+         * Returns the atom at the given position
+         *
+         * @param k position of the argument
+         * @param errors list to which problems are added
+         * @return atom at the given position
+         */
+        String atomArg(int k, List<String> errors) {
+            Object a = arg(k, errors);
+            if (a instanceof String) {
+                return (String) a;
+            }
+
+            errors.add(where() + "argument " + (k + 1) + " of " + term.name + " is not an atom");
+            return "";
+        }
+
+        /**
+         * Returns the string at the given position
+         *
+         * @param k position of the argument
+         * @param errors list to which problems are added
+         * @return string at the given position
+         */
+        String stringArg(int k, List<String> errors) {
+            Object a = arg(k, errors);
+            if (a instanceof Text) {
+                return a.toString();
+            }
+
+            errors.add(where() + "argument " + (k + 1) + " of " + term.name + " is not a string");
+            return "";
+        }
+
+        /**
+         * Returns the number at the given position
+         *
+         * @param k position of the argument
+         * @param errors list to which problems are added
+         * @return number at the given position
+         */
+        double numberArg(int k, List<String> errors) {
+            Object a = arg(k, errors);
+            if (a instanceof Number) {
+                return ((Number) a).doubleValue();
+            }
+
+            errors.add(where() + "argument " + (k + 1) + " of " + term.name + " is not a number");
+            return Double.NaN;
+        }
+
+        /**
+         * Returns the number at the given position, where the atom <code>inf</code> stands for positive
+         * infinity
+         *
+         * @param k position of the argument
+         * @param errors list to which problems are added
+         * @return number at the given position
+         */
+        double boundArg(int k, List<String> errors) {
+            if (k < term.args.size() && "inf".equals(term.args.get(k))) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            return numberArg(k, errors);
+        }
+
+        /**
+         * Returns the age bound at the given position, where the atom <code>adult</code> stands for the minimum
+         * age of an adult ({@link VitalSignRules#ADULT}) and the atom <code>inf</code> for positive infinity
+         *
+         * @param k position of the argument
+         * @param errors list to which problems are added
+         * @return age bound at the given position
+         */
+        double ageBoundArg(int k, List<String> errors) {
+            if (k < term.args.size() && "adult".equals(term.args.get(k))) {
+                return VitalSignRules.ADULT;
+            }
+
+            double age = boundArg(k, errors);
+            if (age < 0) {
+                errors.add(where() + "argument " + (k + 1) + " of " + term.name + " is a negative age");
+                return 0;
+            }
+            return age;
+        }
+
+        /**
+         * Returns the integer at the given position
+         *
+         * @param k position of the argument
+         * @param errors list to which problems are added
+         * @return integer at the given position
+         */
+        int intArg(int k, List<String> errors) {
+            Object a = arg(k, errors);
+            if (a instanceof Long) {
+                return ((Long) a).intValue();
+            }
+
+            errors.add(where() + "argument " + (k + 1) + " of " + term.name + " is not an integer");
+            return -1;
+        }
+
+        /**
+         * Returns the list at the given position
+         *
+         * @param k position of the argument
+         * @param errors list to which problems are added
+         * @return list at the given position
+         */
+        List<?> listArg(int k, List<String> errors) {
+            Object a = arg(k, errors);
+            if (a instanceof List) {
+                return (List<?>) a;
+            }
+
+            errors.add(where() + "argument " + (k + 1) + " of " + term.name + " is not a list");
+            return new ArrayList<>();
+        }
+    }
+}
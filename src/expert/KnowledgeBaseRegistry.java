@@ -0,0 +1,156 @@
+package expert;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class implementing a <b>registry of named knowledge bases</b> (tenants) hosted side by side by one engine
+ * process, such as the knowledge bases of several clinics, specialties, or languages
+ *
+ * <p>Every knowledge base is copied into tables whose strings, arrays, and maps are taken from a pool shared
+ * by all the tenants (see {@link Interner}), so the symptom and disease dictionaries, the question texts, and
+ * the lists of symptoms they have in common are held once. Sessions are bound to the tenant that started
+ * them. Tenants are registered once and never removed. This class is thread-safe.</p>
+ */
+public class KnowledgeBaseRegistry {
+    /* Pool of the parts shared by the knowledge bases */
+    private final Interner pool = new Interner();
+    /* Tenants, by name */
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    /**
+     * Loads a knowledge base from a file (see {@link KnowledgeBaseLoader}) and registers it
+     *
+     * @param name name of the tenant
+     * @param file path of the Prolog file of the knowledge base
+     * @return tenant
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the knowledge base is inconsistent, or the name is already taken
+     */
+    public Tenant register(String name, Path file) throws IOException {
+        return register(name, KnowledgeBaseLoader.load(file));
+    }
+
+    /**
+     * Registers a knowledge base
+     *
+     * @param name name of the tenant
+     * @param kb static tables of the knowledge base (copied, so they can be released afterwards)
+     * @return tenant
+     * @throws IllegalArgumentException if the name is already taken
+     */
+    public synchronized Tenant register(String name, KnowledgeBase kb) {
+        if (tenants.containsKey(name)) {
+            throw new IllegalArgumentException("Tenant already registered: " + name);
+        }
+
+        /* Registrations are serialized, so the growth of the pool is owned by this tenant. */
+        long before = pool.getNumBytes();
+        KnowledgeBase shared = ParsedKnowledgeBase.interned(kb, pool);
+        Tenant tenant = new Tenant(name, shared, sizeOf(shared), pool.getNumBytes() - before);
+
+        tenants.put(name, tenant);
+        return tenant;
+    }
+
+    /**
+     * Returns a tenant
+     *
+     * @param name name of the tenant
+     * @return tenant, or <code>null</code> if no tenant has this name
+     */
+    public Tenant get(String name) {
+        return tenants.get(name);
+    }
+
+    /**
+     * Starts a consultation bound to a tenant
+     *
+     * @param tenant name of the tenant
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @return consultation over the knowledge base of the tenant
+     * @throws IllegalArgumentException if no tenant has this name
+     */
+    public DiagnosisSession newSession(String tenant, String name, double age, String sex) {
+        Tenant t = tenants.get(tenant);
+        if (t == null) {
+            throw new IllegalArgumentException("Unknown tenant: " + tenant);
+        }
+        return t.newSession(name, age, sex);
+    }
+
+    /**
+     * Returns the tenants, sorted by name
+     *
+     * @return tenants, sorted by name
+     */
+    public Collection<Tenant> getTenants() {
+        ArrayList<Tenant> sorted = new ArrayList<>(tenants.values());
+        sorted.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Returns the largest number of diseases of the knowledge bases
+     *
+     * @return largest number of diseases
+     */
+    public int getMaxNumDiseases() {
+        int max = 0;
+        for (Tenant tenant : tenants.values()) {
+            max = Math.max(max, tenant.getKnowledgeBase().getNumDiseases());
+        }
+        return max;
+    }
+
+    /**
+     * Returns the pool of the parts shared by the knowledge bases
+     *
+     * @return shared pool
+     */
+    public Interner getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the estimated number of bytes the static tables of a knowledge base would take on their own
+     * (excluding the rules for the vital signs)
+     *
+     * @param kb static tables of the knowledge base
+     * @return estimated number of bytes
+     */
+    private static long sizeOf(KnowledgeBase kb) {
+        int numDiseases = kb.getNumDiseases();
+        int numSymptoms = kb.getNumSymptoms();
+
+        /* Tables of the diseases and of the symptoms, and the map of the symptom IDs */
+        long size = 3 * (16 + 4L * numDiseases) + 3 * (16 + 4L * numSymptoms) + 16 + 8L * numSymptoms;
+        size += Interner.sizeOfMap(numSymptoms);
+
+        for (int d = 0; d < numDiseases; d++) {
+            size += Interner.sizeOf(kb.getDiseaseKey(d)) + Interner.sizeOf(kb.getDiseaseName(d))
+                    + 16 + 4L * kb.getDiseaseSymptoms(d).length;
+        }
+        for (int s = 0; s < numSymptoms; s++) {
+            size += Interner.sizeOf(kb.getSymptomKey(s)) + Interner.sizeOf(kb.getInquiry(s))
+                    + 16 + 4L * kb.getDiseasesWithSymptom(s).length;
+        }
+        return size + 16 + 4L * kb.getFemaleSymptoms().length + 16 + 4L * kb.getPediatricSymptoms().length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("pool: " + pool);
+        for (Tenant tenant : getTenants()) {
+            sb.append(System.lineSeparator()).append(tenant);
+        }
+        return sb.toString();
+    }
+}
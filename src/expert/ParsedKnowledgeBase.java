@@ -0,0 +1,238 @@
+package expert;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Static tables of the knowledge base, as read from its Prolog source by {@link KnowledgeBaseParser}
+ */
+final class ParsedKnowledgeBase implements KnowledgeBase {
+    /* Fingerprint of the contents of the knowledge base */
+    private final long version;
+
+    /* Prolog atoms naming the diseases, indexed as in mapping/2 */
+    private final String[] diseaseKeys;
+    /* Full names of the diseases, indexed as in mapping/2 */
+    private final String[] diseaseNames;
+    /* IDs of the symptoms of each disease, in the order in which they are probed */
+    private final int[][] diseaseSymptoms;
+
+    /* Prolog atoms naming the symptoms, indexed by symptom ID */
+    private final String[] symptomKeys;
+    /* Weights of the symptoms, indexed by symptom ID */
+    private final double[] weights;
+    /* Inquiries of the symptoms, indexed by symptom ID */
+    private final String[] inquiries;
+    /* Indices of the diseases associated with each symptom, indexed by symptom ID */
+    private final int[][] diseasesWithSymptom;
+    /* Mapping from the Prolog atoms naming the symptoms to their IDs */
+    private final Map<String, Integer> symptomIds;
+    /* IDs of the symptoms removed beforehand if the patient is male */
+    private final int[] femaleSymptoms;
+    /* IDs of the symptoms removed beforehand if the patient is an adult */
+    private final int[] pediatricSymptoms;
+
+    /* Table of rules for the vital signs and the emergency answers */
+    private final VitalSignRules vitalSignRules;
+
+    /* Constants (see the getters for their descriptions) */
+    private final int adultAge;
+    private final double cfValueRemove;
+    private final double cfValueConclude;
+
+    /**
+     * Creates the static tables of a knowledge base (the arguments are assumed to have been validated)
+     */
+    ParsedKnowledgeBase(long version, String[] diseaseKeys, String[] diseaseNames, int[][] diseaseSymptoms,
+                        String[] symptomKeys, double[] weights, String[] inquiries,
+                        Map<String, Integer> symptomIds, int[] femaleSymptoms, int[] pediatricSymptoms,
+                        VitalSignRules vitalSignRules, int adultAge, double cfValueRemove,
+                        double cfValueConclude) {
+        this(version, diseaseKeys, diseaseNames, diseaseSymptoms, symptomKeys, weights, inquiries,
+                invert(diseaseSymptoms, symptomKeys.length), symptomIds, femaleSymptoms, pediatricSymptoms,
+                vitalSignRules, adultAge, cfValueRemove, cfValueConclude);
+    }
+
+    /**
+     * Creates the static tables of a knowledge base, given the inverted lists of symptoms per disease
+     */
+    private ParsedKnowledgeBase(long version, String[] diseaseKeys, String[] diseaseNames,
+                                int[][] diseaseSymptoms, String[] symptomKeys, double[] weights,
+                                String[] inquiries, int[][] diseasesWithSymptom, Map<String, Integer> symptomIds,
+                                int[] femaleSymptoms, int[] pediatricSymptoms, VitalSignRules vitalSignRules,
+                                int adultAge, double cfValueRemove, double cfValueConclude) {
+        this.version = version;
+        this.diseaseKeys = diseaseKeys;
+        this.diseaseNames = diseaseNames;
+        this.diseaseSymptoms = diseaseSymptoms;
+        this.symptomKeys = symptomKeys;
+        this.weights = weights;
+        this.inquiries = inquiries;
+        this.diseasesWithSymptom = diseasesWithSymptom;
+        this.symptomIds = symptomIds;
+        this.femaleSymptoms = femaleSymptoms;
+        this.pediatricSymptoms = pediatricSymptoms;
+        this.vitalSignRules = vitalSignRules;
+        this.adultAge = adultAge;
+        this.cfValueRemove = cfValueRemove;
+        this.cfValueConclude = cfValueConclude;
+    }
+
+    /**
+     * Copies the static tables of a knowledge base, taking every string, array, and map from a pool, so that
+     * the parts equal to those of the knowledge bases already in the pool are shared with them
+     *
+     * @param kb static tables of the knowledge base
+     * @param pool pool of the shared parts
+     * @return copy of the static tables
+     */
+    static ParsedKnowledgeBase interned(KnowledgeBase kb, Interner pool) {
+        int numDiseases = kb.getNumDiseases();
+        int numSymptoms = kb.getNumSymptoms();
+
+        String[] diseaseKeys = new String[numDiseases];
+        String[] diseaseNames = new String[numDiseases];
+        int[][] diseaseSymptoms = new int[numDiseases][];
+        for (int d = 0; d < numDiseases; d++) {
+            diseaseKeys[d] = pool.intern(kb.getDiseaseKey(d));
+            diseaseNames[d] = pool.intern(kb.getDiseaseName(d));
+            diseaseSymptoms[d] = pool.intern(kb.getDiseaseSymptoms(d).clone());
+        }
+
+        String[] symptomKeys = new String[numSymptoms];
+        double[] weights = new double[numSymptoms];
+        String[] inquiries = new String[numSymptoms];
+        int[][] diseasesWithSymptom = new int[numSymptoms][];
+        Map<String, Integer> symptomIds = new HashMap<>();
+        for (int s = 0; s < numSymptoms; s++) {
+            symptomKeys[s] = pool.intern(kb.getSymptomKey(s));
+            weights[s] = kb.getWeight(s);
+            inquiries[s] = pool.intern(kb.getInquiry(s));
+            diseasesWithSymptom[s] = pool.intern(kb.getDiseasesWithSymptom(s).clone());
+            symptomIds.put(symptomKeys[s], s);
+        }
+
+        /* The tables themselves are shared too when all their rows are. */
+        return new ParsedKnowledgeBase(kb.getVersion(), pool.intern(diseaseKeys), pool.intern(diseaseNames),
+                pool.intern(diseaseSymptoms), pool.intern(symptomKeys), pool.intern(weights),
+                pool.intern(inquiries), pool.intern(diseasesWithSymptom), pool.intern(symptomIds),
+                pool.intern(kb.getFemaleSymptoms().clone()), pool.intern(kb.getPediatricSymptoms().clone()),
+                kb.getVitalSignRules(), kb.getAdultAge(), kb.getCFValueRemove(), kb.getCFValueConclude());
+    }
+
+    /**
+     * Inverts the lists of symptoms per disease
+     *
+     * @param diseaseSymptoms IDs of the symptoms of each disease
+     * @param numSymptoms number of symptoms
+     * @return indices of the diseases associated with each symptom, indexed by symptom ID
+     */
+    private static int[][] invert(int[][] diseaseSymptoms, int numSymptoms) {
+        int[] counts = new int[numSymptoms];
+        for (int[] symptoms : diseaseSymptoms) {
+            for (int s : symptoms) {
+                counts[s]++;
+            }
+        }
+
+        int[][] diseasesWithSymptom = new int[numSymptoms][];
+        for (int s = 0; s < numSymptoms; s++) {
+            diseasesWithSymptom[s] = new int[counts[s]];
+        }
+
+        Arrays.fill(counts, 0);
+        for (int d = 0; d < diseaseSymptoms.length; d++) {
+            for (int s : diseaseSymptoms[d]) {
+                diseasesWithSymptom[s][counts[s]++] = d;
+            }
+        }
+        return diseasesWithSymptom;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public int getNumDiseases() {
+        return diseaseKeys.length;
+    }
+
+    @Override
+    public String getDiseaseKey(int disease) {
+        return diseaseKeys[disease];
+    }
+
+    @Override
+    public String getDiseaseName(int disease) {
+        return diseaseNames[disease];
+    }
+
+    @Override
+    public int[] getDiseaseSymptoms(int disease) {
+        return diseaseSymptoms[disease];
+    }
+
+    @Override
+    public int getNumSymptoms() {
+        return symptomKeys.length;
+    }
+
+    @Override
+    public int getSymptomId(String symptom) {
+        Integer id = symptomIds.get(symptom);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public String getSymptomKey(int symptom) {
+        return symptomKeys[symptom];
+    }
+
+    @Override
+    public double getWeight(int symptom) {
+        return weights[symptom];
+    }
+
+    @Override
+    public String getInquiry(int symptom) {
+        return inquiries[symptom];
+    }
+
+    @Override
+    public int[] getDiseasesWithSymptom(int symptom) {
+        return diseasesWithSymptom[symptom];
+    }
+
+    @Override
+    public int[] getFemaleSymptoms() {
+        return femaleSymptoms;
+    }
+
+    @Override
+    public int[] getPediatricSymptoms() {
+        return pediatricSymptoms;
+    }
+
+    @Override
+    public VitalSignRules getVitalSignRules() {
+        return vitalSignRules;
+    }
+
+    @Override
+    public int getAdultAge() {
+        return adultAge;
+    }
+
+    @Override
+    public double getCFValueRemove() {
+        return cfValueRemove;
+    }
+
+    @Override
+    public double getCFValueConclude() {
+        return cfValueConclude;
+    }
+}
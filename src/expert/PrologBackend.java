@@ -0,0 +1,78 @@
+package expert;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Backend that runs the <b>Prolog knowledge base</b> for {@link PrologJavaRunner}: it consults
+ * <code>knowledgebase.pl</code> and creates the engines on which consultations run
+ *
+ * <p>Two backends are available:</p>
+ * <ul>
+ *     <li>{@link JplBackend} (<code>jpl</code>), which runs the knowledge base on SWI-Prolog through JPL and
+ *     the Java Native Interface. SWI-Prolog hosts a single engine per process, so only the most recently
+ *     created engine can be used.</li>
+ *     <li>{@link EmbeddedPrologBackend} (<code>embedded</code>), which runs it on an interpreter written in
+ *     pure Java (see {@link expert.prolog.Interpreter}), without native libraries. Every engine is a cheap
+ *     copy of the consulted knowledge base, so consultations can run side by side.</li>
+ * </ul>
+ *
+ * <p>The backend of the graphical user interface is chosen with the system property {@link #PROPERTY}.</p>
+ */
+public interface PrologBackend {
+    /**
+     * System property naming the backend to be used (<code>jpl</code>, the default, or <code>embedded</code>)
+     */
+    String PROPERTY = "ehrlich.prolog";
+
+    /**
+     * Returns the backend named by the system property {@link #PROPERTY}
+     *
+     * @return backend
+     * @throws IllegalArgumentException if the property names no backend
+     */
+    static PrologBackend fromSystemProperty() {
+        return forName(System.getProperty(PROPERTY, "jpl"));
+    }
+
+    /**
+     * Returns a new backend given its name
+     *
+     * @param name name of the backend (<code>jpl</code> or <code>embedded</code>)
+     * @return backend
+     * @throws IllegalArgumentException if no backend has this name
+     */
+    static PrologBackend forName(String name) {
+        switch (name) {
+            case "jpl":
+                return new JplBackend();
+            case "embedded":
+                return new EmbeddedPrologBackend();
+            default:
+                throw new IllegalArgumentException("Unknown Prolog backend: " + name);
+        }
+    }
+
+    /**
+     * Returns the name of this backend
+     *
+     * @return name of the backend
+     */
+    String getName();
+
+    /**
+     * Consults the knowledge base stored in a Prolog file
+     *
+     * @param file Prolog knowledge base
+     * @throws IOException if the file cannot be read or consulted
+     */
+    void consult(Path file) throws IOException;
+
+    /**
+     * Creates an engine for a new consultation, with all the certainty factors set to 0 and no symptom removed
+     *
+     * @return engine
+     * @throws IllegalStateException if no knowledge base has been consulted
+     */
+    PrologEngine newEngine();
+}
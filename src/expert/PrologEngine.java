@@ -0,0 +1,139 @@
+package expert;
+
+import java.util.Collection;
+
+/**
+ * Prolog engine holding the knowledge base and the state of one consultation (the dynamic predicates
+ * <code>cf/2</code> and <code>removed/1</code>), as created by a {@link PrologBackend}
+ *
+ * <p>Each method runs the predicate of the knowledge base with the same name, so every backend computes the
+ * certainty factors with the rules written in <code>knowledgebase.pl</code>. Symptoms are given by the Prolog
+ * atoms naming them, and diseases by their indices in <code>mapping/2</code>. An engine is not thread-safe.</p>
+ */
+public interface PrologEngine {
+    /**
+     * Returns the number of diseases in the knowledge base (<code>numberOfDiseases/1</code>)
+     *
+     * @return number of diseases
+     */
+    int numberOfDiseases();
+
+    /**
+     * Returns the minimum age for a patient to be considered an adult (<code>adultAge/1</code>)
+     *
+     * @return minimum age of an adult
+     */
+    int adultAge();
+
+    /**
+     * Returns the certainty factor below which a disease is ruled out (<code>cfValueRemove/1</code>)
+     *
+     * @return threshold for ruling out a disease
+     */
+    double cfValueRemove();
+
+    /**
+     * Returns the certainty factor at which a disease is immediately reported as the diagnosis
+     * (<code>cfValueConclude/1</code>)
+     *
+     * @return threshold for an immediate diagnosis
+     */
+    double cfValueConclude();
+
+    /**
+     * Resets the consultation: all the certainty factors are set to 0 and no symptom is removed
+     * (<code>restore/0</code>)
+     */
+    void restore();
+
+    /**
+     * Removes the female-specific symptoms (<code>removeFemaleSymptoms/0</code>)
+     */
+    void removeFemaleSymptoms();
+
+    /**
+     * Removes the pediatric symptoms (<code>removeChildSymptoms/0</code>)
+     */
+    void removeChildSymptoms();
+
+    /**
+     * Updates the certainty factors of all the diseases associated with a symptom following the answer of the
+     * patient (<code>updateCF/2</code>)
+     *
+     * @param symptom symptom being considered
+     * @param answer 1 if the answer is affirmative; 0, otherwise
+     * @return <code>true</code> if the symptom has a weight in the knowledge base; <code>false</code>, otherwise
+     */
+    boolean updateCF(String symptom, int answer);
+
+    /**
+     * Returns the certainty factor of a disease (<code>cf/2</code>)
+     *
+     * @param index index of the disease
+     * @return certainty factor of the disease
+     * @throws java.util.NoSuchElementException if no disease has this index
+     */
+    double cf(int index);
+
+    /**
+     * Reads the certainty factors of all the diseases (<code>cfValues/1</code>)
+     *
+     * @param cf array of at least <code>numberOfDiseases()</code> elements, into which the certainty factors
+     *           are written in the order of the indices of the diseases
+     * @return the given array
+     */
+    double[] cfValues(double[] cf);
+
+    /**
+     * Returns the symptoms of a disease that have not yet been removed (<code>remainingSymptoms/2</code>)
+     *
+     * @param index index of the disease
+     * @return remaining symptoms in the order in which they are probed, or <code>null</code> if no disease has
+     * this index
+     */
+    String[] remainingSymptoms(int index);
+
+    /**
+     * Returns the symptoms that have already been asked or ruled out (<code>removedSymptoms/1</code>)
+     *
+     * @return removed symptoms
+     */
+    String[] removedSymptoms();
+
+    /**
+     * Replaces the certainty factors of all the diseases and removes symptoms, in a single call
+     * (<code>setState/2</code>)
+     *
+     * @param cf certainty factors of all the diseases, in the order of their indices
+     * @param symptoms symptoms to be removed
+     */
+    void setState(double[] cf, Collection<String> symptoms);
+
+    /**
+     * Removes a symptom, so that it is not asked again (<code>deleteAll/1</code>)
+     *
+     * @param symptom symptom to be removed
+     */
+    void deleteAll(String symptom);
+
+    /**
+     * Returns the final diagnosis worded by the knowledge base (<code>finalDiagnosis/5</code>)
+     *
+     * @param name name of the patient
+     * @param cf highest certainty factor
+     * @param index index of the disease with the highest certainty factor
+     * @param emergency <code>true</code> if a symptom indicative of an emergency has been reported;
+     *                  <code>false</code>, otherwise
+     * @return final diagnosis, starting with the name of the patient
+     */
+    String finalDiagnosis(String name, double cf, int index, boolean emergency);
+
+    /**
+     * Returns an independent engine in the same state as this one, such as a consultation to be continued
+     * along another line of answers
+     *
+     * @return copy of this engine
+     * @throws UnsupportedOperationException if the backend hosts a single engine
+     */
+    PrologEngine copy();
+}
@@ -1,10 +1,10 @@
 package expert;
 
-import java.lang.Integer;
 import java.util.*;
-import org.jpl7.*;
-import org.jpl7.Query;
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Class implementing the <b>medical expert system</b> featuring an interface written in the object-oriented
@@ -17,8 +17,15 @@ import java.io.File;
  *
  * <p><a href = "https://jpl7.org/">JPL</a> is bundled with SWI Prolog since version 5.4. It is used in this
  * machine project in accordance with the terms in its Simplified BSD License. </p>
+ *
+ * <p>The knowledge base can also run on an embedded interpreter written in pure Java, without SWI Prolog or
+ * native libraries; the backend is chosen with the system property <code>ehrlich.prolog</code> (see
+ * {@link PrologBackend}).</p>
  */
 public class PrologJavaRunner {
+    /* Maximum number of answers retained by the trace (a consultation asks every symptom at most once) */
+    private static final int MAX_TRACED_ANSWERS = 1024;
+
     /**
      * Number of diseases in the knowledge base
      */
@@ -27,26 +34,6 @@ public class PrologJavaRunner {
      * Lower bound for the age of an adult
      */
     public int ADULT_AGE;
-    /**
-     * A body temperature (in degree Celsius) equal to or higher than this is considered an emergency.
-     */
-    public double FEVER_EMERGENCY_TEMP;
-    /**
-     * A heart rate equal to or slower than this is considered an emergency.
-     */
-    public double SLOW_HEART_RATE_EMERGENCY_RATE;
-    /**
-     * A body temperature (in degree Celsius) equal to or higher than this is indicative of fever.
-     */
-    public double FEVER_DIAGNOSIS_TEMP;
-    /**
-     * A heart rate equal to or slower tha this is indicative of slow heart rate (brachycardia) for a child.
-     */
-    public double SLOW_HEART_RATE_CHILD_DIAGNOSIS;
-    /**
-     * A heart rate equal to or slower tha this is indicative of slow heart rate (brachycardia) for an adult.
-     */
-    public double SLOW_HEART_RATE_ADULT_DIAGNOSIS;
     /**
      * A disease whose certainty factor falls below this value is ruled out.
      */
@@ -81,6 +68,30 @@ public class PrologJavaRunner {
     /* Set to true if an emergency symptom has been reported; false, otherwise */
     private boolean emergency;
 
+    /* Static tables of the knowledge base, read from the same file as the one consulted in Prolog */
+    private KnowledgeBase kb;
+    /* Table of rules for the vital signs and the emergency answers */
+    private VitalSignRules vitalSignRules;
+
+    /* Backend running the knowledge base, and the engine holding the state of this consultation (created on
+    first use) */
+    private final PrologBackend backend;
+    private PrologEngine engine;
+    /* Questions for display, formatted once per symptom (indexed by symptom ID, null until first asked) */
+    private String[] questions;
+    /* Certainty factors as last read from the knowledge base, and the ones read before them, indexed as in
+    mapping/2 (both reused across answers) */
+    private double[] cfBuffer;
+    private double[] cfPrevious;
+    /* Trace of the answers, from which the diagnosis is explained */
+    private ExplanationTrace trace;
+    /* Renderer of the table of certainty factors, and the buffer reused for rendering it */
+    private CFTable cfRenderer;
+    private final StringBuilder cfLog = new StringBuilder();
+
+    /* Loading of the knowledge base and its constants in the background (null if not started) */
+    private CompletableFuture<Void> kbReady;
+
     /**
      * Constructor for the medical expert system featuring an interface written in the object-oriented language
      * Java and a knowledge base written in the logic language Prolog
@@ -90,6 +101,16 @@ public class PrologJavaRunner {
      * <code>setSex</code>.</p>
      */
     public PrologJavaRunner() {
+        this(PrologBackend.fromSystemProperty());
+    }
+
+    /**
+     * Constructor for the medical expert system running the knowledge base on the given backend
+     *
+     * @param backend backend running the Prolog knowledge base
+     */
+    public PrologJavaRunner(PrologBackend backend) {
+        this.backend = backend;
         emergency = false;
     }
 
@@ -170,6 +191,26 @@ public class PrologJavaRunner {
         return emergency;
     }
 
+    /**
+     * Sets the static tables of the knowledge base (including the table of rules for the vital signs) to the
+     * given value
+     *
+     * <p>This is done by <code>loadKnowledgeBase</code>; it only needs to be called directly if this expert
+     * system uses a knowledge base that has already been consulted.</p>
+     *
+     * @param kb static tables of the knowledge base
+     */
+    public void setKnowledgeBase(KnowledgeBase kb) {
+        this.kb = kb;
+        this.vitalSignRules = kb.getVitalSignRules();
+
+        questions = new String[kb.getNumSymptoms()];
+        cfBuffer = new double[kb.getNumDiseases()];
+        cfPrevious = new double[kb.getNumDiseases()];
+        trace = new ExplanationTrace(Math.min(kb.getNumSymptoms(), MAX_TRACED_ANSWERS));
+        cfRenderer = CFTable.of(kb);
+    }
+
     /**
      * Sets the user's response to the probing question to the given value (which is either
      * a <code>"yes"</code> or a <code>"no"</code>)
@@ -221,28 +262,64 @@ public class PrologJavaRunner {
      */
     public boolean loadKnowledgeBase(String knowledgeBase) {
         /* Prolog knowledge base */
-        File f1;
-        f1 = new File(knowledgeBase);
+        Path file;
+        file = Paths.get(knowledgeBase);
 
-        /* Get the absolute path of the Prolog knowledge base. Otherwise, an existence error will be returned
-        by Prolog (the consult predicate does not accept a relative path as its argument).
+        /* Read the static tables (in particular, the table of rules for the vital signs) in Java, then consult
+        the knowledge base on the backend. Return true if the consultation is successful; false, otherwise.
          */
-        String f1s;
-        f1s = f1.getAbsolutePath();
+        try {
+            setKnowledgeBase(KnowledgeBaseLoader.load(file));
+            backend.consult(file);
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
 
-        /* Change backslashes to forward slashes in absolute path in compliance with Prolog conventions. */
-        f1s = f1s.replace("\\", "/");
+        engine = backend.newEngine();
+        return true;
+    }
+
+    /**
+     * Starts connecting this expert system to the knowledge base written in Prolog and initializing the
+     * constants in the background, and returns the future that completes once both are done
+     *
+     * <p>Initializing the backend (such as SWI Prolog through JPL) and consulting the knowledge base take a
+     * noticeable amount of time, so they are started as soon as the application is launched, while the personal
+     * details of the patient are being entered. The future completes exceptionally if the consultation fails or
+     * the backend cannot be initialized.</p>
+     *
+     * @param knowledgeBase Prolog knowledge base where the pertinent facts and rules are stored
+     * @return future that completes once the knowledge base and its constants have been loaded
+     */
+    public CompletableFuture<Void> loadKnowledgeBaseAsync(String knowledgeBase) {
+        kbReady = CompletableFuture.runAsync(() -> {
+            if (!loadKnowledgeBase(knowledgeBase)) {
+                throw new IllegalStateException("Failed to consult " + knowledgeBase);
+            }
 
-        /* Prepare the query to consult the knowledge base. */
-        Query qFile;
-        qFile = new Query("consult('" + f1s + "')");
+            loadConstantsFromKB();
+        }, task -> {
+            /* A daemon thread does not keep the application running if the window is closed early. */
+            Thread loader;
+            loader = new Thread(task, "knowledge-base-loader");
+            loader.setDaemon(true);
+            loader.start();
+        });
 
-        /* Return true if the consultation is successful; false, otherwise. */
-        if (qFile.hasSolution()) {
-            return true;
-        }
+        return kbReady;
+    }
 
-        return false;
+    /**
+     * Returns <code>true</code> if the loading started by <code>loadKnowledgeBaseAsync</code> has completed
+     * successfully; <code>false</code>, otherwise (including while it is still in progress)
+     *
+     * <p>This never blocks, so it may be called on the event dispatch thread.</p>
+     *
+     * @return <code>true</code> if the knowledge base and its constants have been loaded; <code>false</code>,
+     * otherwise
+     */
+    public boolean isKnowledgeBaseLoaded() {
+        return kbReady != null && kbReady.isDone() && !kbReady.isCompletedExceptionally();
     }
 
     /**
@@ -254,11 +331,11 @@ public class PrologJavaRunner {
      * sessions of the expert system. </p>
      */
     public void unloadKnowledgeBase() {
-        /* Prolog query to reset the terms that have been dynamically altered during previous sessions */
-       Query qUnload;
-       qUnload = new Query("restore");
+        /* Reset the terms that have been dynamically altered during previous sessions. */
+        engine().restore();
 
-       qUnload.hasSolution();
+        Arrays.fill(cfBuffer, 0);
+        trace.clear();
     }
 
     /**
@@ -269,60 +346,37 @@ public class PrologJavaRunner {
      * <ul>
      *     <li>Number of diseases in the knowledge base</li>
      *     <li>Minimum age for a patient to be considered an adult</li>
-     *     <li>Minimum temperature for a body temperature to be considered indicative of an emergency</li>
-     *     <li>Upper bound for a slow heart rate to be considered indicative of an emergency</li>
-     *     <li>Minimum temperature for a body temperature to be considered indicative of a fever</li>
-     *     <li>Upper bound for a slow heart rate (brachycardia) for a child</li>
-     *     <li>Upper bound for a slow heart rate (brachycardia) for an adult</li>
      *     <li>Threshold for a disease to be ruled out</li>
      *     <li>Threshold for a diagnosis to be immediately given</li>
      * </ul>
      */
     public void loadConstantsFromKB() {
         /* Number of diseases in the knowledge base */
-        Query qNumDiseases = new Query("numberOfDiseases(X)");
-        Map<String, Term> solution = qNumDiseases.oneSolution();
-        NUM_DISEASES = Integer.parseInt(String.valueOf(solution.get("X")));
+        NUM_DISEASES = engine().numberOfDiseases();
 
         /* Minimum age for a patient to be considered an adult */
-        Query qAdultAge = new Query("adultAge(X)");
-        solution = qAdultAge.oneSolution();
-        ADULT_AGE = Integer.parseInt(String.valueOf(solution.get("X")));
-
-        /* Minimum temperature for a body temperature to be considered indicative of an emergency */
-        Query qFeverEmergencyTemp = new Query("feverEmergencyDiagnosis(X)");
-        solution = qFeverEmergencyTemp.oneSolution();
-        FEVER_EMERGENCY_TEMP = Double.parseDouble(String.valueOf(solution.get("X")));
-
-        /* Upper bound for a slow heart rate to be considered indicative of an emergency */
-        Query qSlowHeartRateEmergencyRate = new Query("slowHeartRateEmergencyDiagnosis(X)");
-        solution = qSlowHeartRateEmergencyRate.oneSolution();
-        SLOW_HEART_RATE_EMERGENCY_RATE = Double.parseDouble(String.valueOf(solution.get("X")));
-
-        /* Minimum temperature for a body temperature to be considered indicative of a fever */
-        Query qFeverDiagnosisTemp = new Query("feverDiagnosis(X)");
-        solution = qFeverDiagnosisTemp.oneSolution();
-        FEVER_DIAGNOSIS_TEMP = Double.parseDouble(String.valueOf(solution.get("X")));
-
-        /* Upper bound for a slow heart rate (brachycardia) for a child */
-        Query qSlowHeartRateChildDiagnosis = new Query("slowHeartRateChildDiagnosis(X)");
-        solution = qSlowHeartRateChildDiagnosis.oneSolution();
-        SLOW_HEART_RATE_CHILD_DIAGNOSIS = Double.parseDouble(String.valueOf(solution.get("X")));
-
-        /* Upper bound for a slow heart rate (brachycardia) for an adult */
-        Query qSlowHeartRateAdultDiagnosis = new Query("slowHeartRateAdultDiagnosis(X)");
-        solution = qSlowHeartRateAdultDiagnosis.oneSolution();
-        SLOW_HEART_RATE_ADULT_DIAGNOSIS = Double.parseDouble(String.valueOf(solution.get("X")));
+        ADULT_AGE = engine().adultAge();
 
         /* Threshold for a disease to be ruled out */
-        Query qCFValueRemove = new Query("cfValueRemove(X)");
-        solution = qCFValueRemove.oneSolution();
-        CF_VALUE_REMOVE = Double.parseDouble(String.valueOf(solution.get("X")));
+        CF_VALUE_REMOVE = engine().cfValueRemove();
 
         /* Threshold for a diagnosis to be immediately given */
-        Query qCFValueConclude = new Query("cfValueConclude(X)");
-        solution = qCFValueConclude.oneSolution();
-        CF_VALUE_CONCLUDE = Double.parseDouble(String.valueOf(solution.get("X")));
+        CF_VALUE_CONCLUDE = engine().cfValueConclude();
+    }
+
+    /**
+     * Returns the engine holding the state of this consultation, creating it on first use
+     *
+     * <p>The engine is created by <code>loadKnowledgeBase</code>; an expert system given a knowledge base that
+     * has already been consulted (see <code>setKnowledgeBase</code>) creates it here.</p>
+     *
+     * @return engine holding the state of this consultation
+     */
+    private PrologEngine engine() {
+        if (engine == null) {
+            engine = backend.newEngine();
+        }
+        return engine;
     }
 
     /**
@@ -334,11 +388,8 @@ public class PrologJavaRunner {
     public boolean removeFemaleSymptoms() {
         /* Delete female-specific symptoms if the patient is male. */
         if (sex.equalsIgnoreCase("male")) {
-            Query qRemoveOne = new Query("deleteAll(irregularMenstruation)");
-            qRemoveOne.hasSolution();
-
-            Query qRemoveTwo = new Query("deleteAll(vaginalDryness)");
-            qRemoveTwo.hasSolution();
+            /* The female-specific symptoms are listed in femaleSymptom/1. */
+            engine().removeFemaleSymptoms();
 
             return true;
         }
@@ -356,8 +407,8 @@ public class PrologJavaRunner {
     public boolean removeChildSymptoms() {
         /* Delete pediatric symptoms if the patient is not a child (that is, 19 years old and above). */
         if (age >= ADULT_AGE) {
-            Query qRemoveThree = new Query("deleteAll(failureToThrive)");
-            qRemoveThree.hasSolution();
+            /* The pediatric symptoms are listed in pediatricSymptom/1. */
+            engine().removeChildSymptoms();
 
             return true;
         }
@@ -405,8 +456,9 @@ public class PrologJavaRunner {
      *
      * <p>The computation is expressed in the Prolog rules <code>confidenceFactor/3</code> and
      * adjustedWeight/3 (which adjusts the weight depending on whether an affirmative or negative response
-     * is received from the patient). This function also asserts the updated certainty factors back into
-     * the knowledge base, superseding previous values. </p>
+     * is received from the patient). Both are applied by <code>updateCF/2</code>, which updates the
+     * certainty factors of all the diseases associated with the symptom in a single query, superseding
+     * previous values. </p>
      *
      * <p>It is patterned after the ad-hoc formulae used by the pioneering medical expert system MYCIN;
      * a more detailed description is given in the technical report.</p>
@@ -417,208 +469,205 @@ public class PrologJavaRunner {
      * @param currIndex index of the current disease being considered (relative to the Prolog list)
      *
      * @return updated certainty factor for the pertinent disease
+     * @throws IllegalStateException if the index of the current disease is out of range
      */
     public double updateCF(String symptom, String answer, double age, int currIndex) {
-        /* Retrieve the weight of the current symptom from the knowledge base. */
-        Query qWeight = new Query("weight(" + symptom + ",X)");
-        Map<String, Term> solution = qWeight.oneSolution();
-        double weight = Double.parseDouble(String.valueOf(solution.get("X")));
+        if (currIndex < 0 || currIndex >= cfBuffer.length) {
+            throw new IllegalStateException("No disease is being considered: index " + currIndex);
+        }
         symptom = symptom.trim();
 
-        /* Construct a string that is representative of a list of the updated certainty factors for each disease,
-        which will be asserted back into the knowledge base.
+        /* Evaluate the response against the table of rules: numerical inputs for the vital signs are
+        translated into an affirmation or a negation, and the emergency bit is set if the response is
+        indicative of an emergency (such as an extremely high fever or chest pain).
          */
-        String newCF = "[";
+        int id = kb.getSymptomId(symptom);
+        int code;               // Answer code (see VitalSignRules)
+        code = vitalSignRules.evaluate(id, answer, age, VitalSignRules.sexCode(sex));
 
-        /* Retrieve the certainty factors from the knowledge base, and transfer them into an array for a more
-        systematic GUI parsing.
-         */
-        Query qCF = new Query("cf(X)");
-        solution = qCF.oneSolution();
-        String init = String.valueOf(solution.get("X"));
-        String trimmed = init.substring(1, init.length() - 1);
-        String[] parsed = trimmed.split(",");
-
-        double[] cf = new double[NUM_DISEASES];
-        for (int i = 0; i < NUM_DISEASES; i++) {
-            cf[i] = Double.parseDouble(parsed[i]);
+        if ((code & VitalSignRules.EMERGENCY) != 0) {
+            emergency = true;
         }
 
-        /* Check if the patient reported a symptom that is indicative of an emergency.
+        /* Update the certainty factor of each disease associated with the symptom. */
+        int answerCode;         // Numerical code corresponding to the patient's response
+        answerCode = code & VitalSignRules.POSITIVE;
 
-        Currently, there are three such cases recognized in the knowledge base:
-        - extremely high fever
-        - extremely slow heart beat
-        - chest pain
-         */
-        if (symptom.equalsIgnoreCase("fever")) {
-            double num = Double.parseDouble(answer);
-            if (num >= FEVER_EMERGENCY_TEMP) {
-                emergency = true;
-            }
+        engine().updateCF(symptom, answerCode);
 
-        } else if (symptom.equalsIgnoreCase("slowHeartRate")) {
-            double num = Double.parseDouble(answer);
-            if (num < SLOW_HEART_RATE_EMERGENCY_RATE) {
-                emergency = true;
-            }
+        /* Retrieve the updated certainty factors, keeping the previous ones to record the effects of the answer
+        in the trace. */
+        double[] previous = cfBuffer;
+        cfBuffer = cfPrevious;
+        cfPrevious = previous;
+        readCFs();
+
+        trace.step(id, code, CertaintyFactors.adjustedWeight(kb.getWeight(id), answerCode != 0));
+        for (int d : kb.getDiseasesWithSymptom(id)) {
+            trace.effect(d, cfPrevious[d], cfBuffer[d]);
+        }
 
-        } else if (symptom.equalsIgnoreCase("chestPain")) {
-            if (answer.equalsIgnoreCase("yes")) {
-                emergency = true;
+        /* Update the attribute in this Prolog-Java connector class, and return the certainty factor of the
+        disease currently being considered. */
+        CFval = cfBuffer[currIndex];
+        return CFval;
+    }
+
+    /**
+     * Applies a whole form of answers at once, in the order in which the symptoms would be asked, and moves
+     * to the first question not answered by the form
+     *
+     * <p>Instead of a sequence of <code>updateCF/2</code> and <code>deleteAll/1</code> per answer, the
+     * certainty factors and the removed symptoms are read once, the answers are applied in Java (with the
+     * same formulae, see {@link DiagnosisSession#answerAll(Map)}), and the resulting certainty factors and
+     * removed symptoms are written back in a single call to <code>setState/2</code>. The answers are all
+     * validated first, so an invalid form leaves the knowledge base unchanged.</p>
+     *
+     * @param answers responses of the patient (<code>"yes"</code>, <code>"no"</code>, or a reading), keyed by
+     *                the Prolog atom naming the symptom
+     * @return state of the consultation after the answers; if it has not ended, the next question is
+     * retrieved with {@link #displayInquiry()}
+     * @throws IllegalStateException if no symptoms are left to be asked
+     * @throws IllegalArgumentException if a symptom is unknown or the reading of a vital sign is out of its
+     *                                  valid range
+     * @throws NumberFormatException if a vital sign is answered with something other than a number
+     */
+    public SessionState applyAnswers(Map<String, String> answers) {
+        /* Retrieve the certainty factors and the removed symptoms once. */
+        double[] cf = readCFs();
+
+        boolean[] removed = new boolean[kb.getNumSymptoms()];
+        for (String symptom : engine().removedSymptoms()) {
+            int id = kb.getSymptomId(symptom);
+            if (id >= 0) {
+                removed[id] = true;
             }
         }
 
-        /* Translate the patient's numerical input for his/her vital signs into a binary affirmation ("yes")
-        or negation ("no").
-         */
-        if (symptom.equalsIgnoreCase("fever")) {
-            double num = Double.parseDouble(answer);
-            if (num >= FEVER_DIAGNOSIS_TEMP)
-                answer = "yes";
-            else
-                answer = "no";
-
-        } else if (symptom.equalsIgnoreCase("slowHeartRate")) {
-            /* Abnormally slow heart rate is different for children and adults. */
-            if (age < ADULT_AGE) {
-                double num = Double.parseDouble(answer);
-                if (num < SLOW_HEART_RATE_CHILD_DIAGNOSIS)
-                    answer = "yes";
-                else
-                    answer = "no";
-            } else {
-                double num = Double.parseDouble(answer);
-                if (num < SLOW_HEART_RATE_ADULT_DIAGNOSIS)
-                    answer = "yes";
-                else
-                    answer = "no";
+        /* The current question is the first symptom of the current disease that has not yet been removed. */
+        int current = -1;
+        if (i < NUM_DISEASES) {
+            for (int s : kb.getDiseaseSymptoms(i)) {
+                if (!removed[s]) {
+                    current = s;
+                    break;
+                }
             }
         }
 
-        /* Update the confidence factor for each disease in the knowledge base. */
-        for (int i = 0; i < NUM_DISEASES; i++) {
-            /* Retrieve the mapping (stored in the knowledge base) to match each disease with the corresponding
-            entry in the Prolog list.
-             */
-            Query qIndex = new Query("mapping(" + i + ", Y)");
-            solution = qIndex.oneSolution();
-            String disease = String.valueOf(solution.get("Y"));
-
-            /* Retrieve the list of symptoms from the knowledge base and parse the result of the Prolog
-            query into a list for easier manipulation.
-             */
-            Query qSymptoms = new Query("(" + disease + "Symptoms(X))");
-            solution = qSymptoms.oneSolution();
-            String initial = String.valueOf(solution.get("X"));
-            String trimmedstr = initial.substring(1,initial.length() - 1);
-            String[] parsedstr = trimmedstr.split(",");
-            for (int j = 0; j < parsedstr.length; j++)
-                parsedstr[j] = parsedstr[j].trim();
-            List<String> listParsed = Arrays.asList(parsedstr);
-
-            /* Update the confidence factor if the disease is associated with the symptom. */
-            if (listParsed.contains(symptom)) {
-                double c = cf[i];       // Current (non-updated) certainty factor
-                double trueWeight;      // Adjusted weight depending on the user's response
-                double newc;            // Updated certainty factor
-
-                /* Adjust the weight of a symptom depending on the response of the patient (either affirmative
-                or negative) by calling the relevant Prolog predicate.
-                 */
-                int answerCode;         // Numerical code corresponding to the patient's response
-                answerCode = answer.equalsIgnoreCase("yes") ? 1 : 0;
-
-                Query qAdjustedWeight = new Query("adjustedWeight(" + weight + ", " + answerCode + ", " + "NewWeight)");
-                solution = qAdjustedWeight.oneSolution();
-                String soln = String.valueOf(solution.get("NewWeight"));
-
-                trueWeight = Double.parseDouble(soln);
-
-                /* Update the confidence factor (following a scheme patterned after the computation introduced
-                in the pioneering medical expert system MYCIN) by calling the appropriate Prolog predicate.
-                 */
-                Query qCalc = new Query("confidenceFactor(" + c + ", " + trueWeight + ", " + "NewCF)");
-                solution = qCalc.oneSolution();
-                soln = String.valueOf(solution.get("NewCF"));
-                newc = Double.parseDouble(soln);
-
-                /* Update the values in the list. */
-                newCF += newc;
-                cf[i] = newc;
-
-                /* Convert the list back to a Prolog-recognized string representative of a list through the
-                addition of comma separators.
-                 */
-                if (i < NUM_DISEASES - 1)
-                    newCF += ", ";
-
-            } else {
-                /* Since the disease is not associated with the symptom, the certainty factor is not adjusted. */
-                newCF += cf[i];
-
-                if (i < NUM_DISEASES - 1)
-                    newCF += ", ";
+        /* Apply the answers in Java. */
+        DiagnosisSession session;
+        session = new DiagnosisSession(kb, age, sex, new SessionState(cf, removed, i, current, CFval, 0, emergency));
+        session.setTrace(trace);
+        SessionState state = session.answerAll(answers);
+
+        if (state.getNumAnswers() > 0) {
+            /* Write the certainty factors and the newly removed symptoms back in a single call. */
+            for (int k = 0; k < NUM_DISEASES; k++) {
+                cfBuffer[k] = state.getCF(k);
+            }
+
+            List<String> newlyRemoved = new ArrayList<>();
+            for (int s = 0; s < removed.length; s++) {
+                if (state.isRemoved(s) && !removed[s]) {
+                    newlyRemoved.add(kb.getSymptomKey(s));
+                }
             }
+
+            engine().setState(cfBuffer, newlyRemoved);
         }
 
-        /* Complete the conversion of the list back to a Prolog-recognized string representative of a list
-        through the appending of a closing square bracket.
-         */
-        newCF += "]";
+        /* Update the attributes in this Prolog-Java connector class. */
+        i = state.getI();
+        j = 0;
+        CFval = state.getLastCF();
+        emergency = state.getEmergency();
+        currSymptomsParsed = state.isFinished() ? null : new String[]{kb.getSymptomKey(state.getSymptomId())};
 
-        /* Remove the old list of certainty factors, and assert new list to the knowledge base. */
-        Query qRetract = new Query ("retract(cf(X))");
-        qRetract.hasSolution();
+        return state;
+    }
+
+    /**
+     * Returns <code>true</code> if the question about the given symptom is open-ended (that is, the symptom
+     * is a vital sign answered with a number); <code>false</code>, otherwise
+     *
+     * @param symptom symptom being probed
+     * @return <code>true</code> if the question about the symptom is open-ended; <code>false</code>, otherwise
+     */
+    public boolean isOpenEnded(String symptom) {
+        return vitalSignRules.isNumeric(kb.getSymptomId(symptom.trim()));
+    }
+
+    /**
+     * Returns <code>true</code> if the given reading is valid for the given vital sign; <code>false</code>,
+     * otherwise
+     *
+     * @param symptom vital sign being probed
+     * @param value reading entered by the user
+     * @return <code>true</code> if the reading is valid for the vital sign; <code>false</code>, otherwise
+     */
+    public boolean isValidReading(String symptom, double value) {
+        return vitalSignRules.isValidReading(kb.getSymptomId(symptom.trim()), value);
+    }
 
-        Query qAssert = new Query ("assertz(cf(" + newCF + "))");
-        qAssert.hasSolution();
+    /**
+     * Returns the range of valid readings for the given vital sign, for display
+     *
+     * @param symptom vital sign being probed
+     * @return range of valid readings for the vital sign (for example, <code>"25 to 45"</code>)
+     */
+    public String getReadingRange(String symptom) {
+        int id = kb.getSymptomId(symptom.trim());
+        return String.format("%s to %s", formatReading(vitalSignRules.getMin(id)),
+                formatReading(vitalSignRules.getMax(id)));
+    }
 
-        /* Update the attribute in this Prolog-Java connector class, and return the certainty factor. */
-        CFval = cf[currIndex];
-        return cf[currIndex];
+    /**
+     * Returns a reading formatted without a trailing <code>.0</code>
+     *
+     * @param value reading
+     * @return reading formatted for display
+     */
+    private static String formatReading(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
     }
 
     /**
-     * Removes a symptom from the list of symptoms associated with a certain disease
-     * in order to prevent redundant asking of questions during probing
+     * Removes the current symptom from the symptoms of every disease in order to prevent redundant
+     * asking of questions during probing
      */
     public void deleteSymptom() {
-        Query qDelete = new Query("deleteAll(" + currSymptomsParsed[j] + ")");
-        qDelete.hasSolution();
+        engine().deleteAll(currSymptomsParsed[j]);
     }
 
     /**
      * Returns the question asked by this expert system during probing
      *
      * @return question asked by this expert system during probing
+     * @throws NoSuchElementException if the diseases in the knowledge base have been exhausted or no
+     * symptoms of the current disease are left to be asked
      */
     public String displayInquiry() {
-        Map<String, Term> solution;
-
-        /* Retrieve the name of the disease from the knowledge base. */
-        Query qIndex = new Query("mapping(" + i + ", Y)");
-        solution = qIndex.oneSolution();
-        String currDisease = String.valueOf(solution.get("Y"));
-
-        /* Retrieve the list of symptoms associated with the current disease from the knowledge base. */
-        Query qSymptoms = new Query("(" + currDisease + "Symptoms(X))");
-        solution = qSymptoms.oneSolution();
-        String init = String.valueOf(solution.get("X"));
-        String trimmed = init.substring(1,init.length() - 1);
-        currSymptomsParsed = trimmed.split(",");
+        /* Retrieve the symptoms of the current disease that have not yet been asked. */
+        String[] remaining = engine().remainingSymptoms(i);
+        if (remaining == null) {
+            throw new NoSuchElementException("No disease with index " + i);
+        } else if (remaining.length == 0) {
+            throw new NoSuchElementException("No symptoms left for disease with index " + i);
+        }
 
-        /* Retrieve the current probing question associated with the symptom being considered. */
-        Query qInquiry = new Query("display(" + currSymptomsParsed[j] + ",X)");
-        solution = qInquiry.oneSolution();
-        String temp = String.valueOf(solution.get("X"));
-        String forDisplay = temp.substring(1, temp.length() - 1);
+        currSymptomsParsed = remaining;
 
-        /* Separate the Filipino translation from the English question with a blank newline for readability. */
-        forDisplay = forDisplay.replace("? ", "?\n\n");
+        /* The question associated with the symptom being considered is formatted the first time it is asked. */
+        int id = kb.getSymptomId(currSymptomsParsed[j]);
+        if (questions[id] == null) {
+            /* Separate the Filipino translation from the English question with a blank newline for
+            readability. */
+            questions[id] = kb.getInquiry(id).replace("? ", "?\n\n");
+        }
 
         /* Return the question for display. */
-        return forDisplay;
+        return questions[id];
     }
 
     /**
@@ -638,19 +687,8 @@ public class PrologJavaRunner {
      * @return final diagnosis of this expert system
      */
     public String getFinalDiagnosis() {
-        Map<String, Term> solution;
-
-        /* Retrieve the certainty factors per disease, and transfer them in a list for easier manipulation. */
-        Query qMax = new Query("cf(X)");
-        solution = qMax.oneSolution();
-        String init = String.valueOf(solution.get("X"));
-        String trimmed = init.substring(1, init.length() - 1);
-        String[] parsed = trimmed.split(",");
-
-        double[] cf = new double[NUM_DISEASES];
-        for (int i = 0; i < NUM_DISEASES; i++) {
-            cf[i] = Double.parseDouble(parsed[i]);
-        }
+        /* Retrieve the certainty factors per disease. */
+        double[] cf = readCFs();
 
         /* Find the maximum confidence factor and the index associated with the pertinent disease. */
         double maxValue = cf[0];
@@ -664,16 +702,56 @@ public class PrologJavaRunner {
         }
 
         /* Retrieve the template for the final diagnosis from the knowledge base. */
-        Query qFinalDiagnosis = new Query("finalDiagnosis(\" " + name + "\"," + maxValue + "," + maxIndex + "," + emergency + "," + "X)");
-        solution = qFinalDiagnosis.oneSolution();
-        String diagnosis = String.valueOf(solution.get("X"));
-        String trimmedDiagnosis = diagnosis.substring(2, diagnosis.length() - 1);
+        String diagnosis = engine().finalDiagnosis(name, maxValue, maxIndex, emergency);
 
         /* Express the final certainty factor in percentage. */
         finalCF = maxValue * 100;
 
         /* Return the final diagnosis for display. */
-        return trimmedDiagnosis;
+        return diagnosis;
+    }
+
+    /**
+     * Returns the explanation of the final diagnosis: the answers that changed the certainty factor of the most
+     * probable disease the most, rendered from the trace of the answers only when requested
+     *
+     * @param top maximum number of answers listed
+     * @return explanation of the final diagnosis
+     */
+    public String explainDiagnosis(int top) {
+        /* Retrieve the certainty factors per disease, and find the most probable disease as in
+        getFinalDiagnosis. */
+        double[] cf = readCFs();
+
+        int maxIndex = 0;
+        for (int d = 0; d < cf.length; d++) {
+            if (cf[d] > cf[maxIndex]) {
+                maxIndex = d;
+            }
+        }
+
+        return trace.explain(kb, maxIndex, top);
+    }
+
+    /**
+     * Returns the what-if analysis of the finished consultation, which evaluates how the diagnosis would change
+     * had the patient given the opposite answer to some questions
+     *
+     * @return what-if analysis of the consultation
+     * @throws IllegalArgumentException if the consultation has not ended, or the trace no longer retains its
+     *                                  earliest answers
+     */
+    public WhatIfAnalysis analyzeWhatIf() {
+        return WhatIfAnalysis.of(kb, age, sex, trace);
+    }
+
+    /**
+     * Returns the trace of the answers given so far, from which the diagnosis is explained
+     *
+     * @return trace of the answers
+     */
+    public ExplanationTrace getTrace() {
+        return trace;
     }
 
     /**
@@ -694,34 +772,22 @@ public class PrologJavaRunner {
      * given the most recent symptom considered
      */
     public String displayCFvals(String symptom) {
-        /* Construct the header. */
-        String log = "Symptom: " + symptom + "\nCertainty factors: \n";
-
-        /* Retrieve the certainty factors per disease from the knowledge base. */
-        Query qGetCF = new Query("cf(X)");
-        Map<String, Term> solution = qGetCF.oneSolution();
-        String init = String.valueOf(solution.get("X"));
-        String trimmed = init.substring(1, init.length() - 1);
-        String[] parsed = trimmed.split(",");
-
-        /* Transfer them into a list for more organized GUI parsing. */
-        double[] cf = new double[NUM_DISEASES];
-        for (int i = 0; i < NUM_DISEASES; i++) {
-            cf[i] = Double.parseDouble(parsed[i]);
-        }
-
-        /* Retrieve the names of the diseases from the knowledge base. */
-        for (int i = 0; i < NUM_DISEASES; i++) {
-            Query qFullName = new Query("fullName(" + i + ",X)");
-            solution = qFullName.oneSolution();
-            String diseaseName = String.valueOf(solution.get("X"));
-
-            /* Concatenate the disease and the current certainty factor associated with it. */
-            String diseaseNameTrimmed = diseaseName.substring(1, diseaseName.length() - 2).toUpperCase();
-            log += diseaseNameTrimmed + ": " + String.format("%.2f", cf[i]) + "\n";
-        }
+        /* Render the certainty factors per disease, with the labels of the diseases formatted once, into a
+        buffer reused across answers. */
+        cfLog.setLength(0);
+        cfRenderer.append(cfLog, symptom, readCFs());
 
         /* Return the list of certainty factors for display. */
-        return log;
+        return cfLog.toString();
+    }
+
+    /**
+     * Reads the certainty factors per disease from the knowledge base into a buffer reused across answers
+     *
+     * @return certainty factors per disease, indexed as in <code>mapping/2</code> (overwritten by the next
+     * call)
+     */
+    private double[] readCFs() {
+        return engine().cfValues(cfBuffer);
     }
 }
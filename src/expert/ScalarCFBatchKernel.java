@@ -0,0 +1,47 @@
+package expert;
+
+/**
+ * Batch kernel applying the MYCIN update one patient at a time (used when the Vector API is unavailable)
+ */
+final class ScalarCFBatchKernel extends CFBatchKernel {
+    /**
+     * Returns a short name identifying this kernel
+     *
+     * @return short name identifying this kernel
+     */
+    @Override
+    String name() {
+        return "scalar";
+    }
+
+    /**
+     * Updates the certainty factors of one disease for the first <code>size</code> patients in the batch
+     *
+     * @param lane certainty factors of one disease, one entry per patient
+     * @param affirmative <code>true</code> at index <code>p</code> if patient <code>p</code> reported
+     *                    experiencing the symptom
+     * @param answered <code>true</code> at index <code>p</code> if patient <code>p</code> was asked about the
+     *                 symptom, or <code>null</code> if every patient in the batch was asked
+     * @param weight unsigned weight of the symptom
+     * @param size number of patients in the batch
+     */
+    @Override
+    void apply(double[] lane, boolean[] affirmative, boolean[] answered, double weight, int size) {
+        applyScalar(lane, affirmative, answered, weight, 0, size);
+    }
+
+    /**
+     * Updates the certainty factors of one disease for the first <code>size</code> patients in the batch,
+     * given that all of them gave the same answer
+     *
+     * @param lane certainty factors of one disease, one entry per patient
+     * @param trueWeight signed weight of the symptom
+     * @param size number of patients in the batch
+     */
+    @Override
+    void apply(double[] lane, double trueWeight, int size) {
+        for (int p = 0; p < size; p++) {
+            lane[p] = CertaintyFactors.combine(lane[p], trueWeight);
+        }
+    }
+}
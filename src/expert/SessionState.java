@@ -0,0 +1,192 @@
+package expert;
+
+import java.util.Arrays;
+
+/**
+ * Class representing an <b>immutable snapshot of the state of a consultation</b> (see
+ * {@link DiagnosisSession#snapshot()}), which can be shared by any number of sessions
+ *
+ * <p>Two snapshots are equal if the rest of their consultations are the same: they have the same certainty
+ * factors, removed symptoms, current disease and symptom, and emergency flag. The number of answers and the
+ * last certainty factor (which is recomputed by the next answer) are not compared.</p>
+ */
+public final class SessionState {
+    /* Certainty factors, indexed as in mapping/2 */
+    private final double[] cf;
+    /* Bit set of the symptoms (indexed by ID) that have been asked or ruled out */
+    private final long[] removed;
+    /* Index of the current disease being considered */
+    private final int i;
+    /* ID of the current symptom being asked, or -1 if the consultation has ended */
+    private final int symptom;
+    /* Certainty factor of the disease considered when the last answer was given */
+    private final double CFval;
+    /* Number of answers given */
+    private final int numAnswers;
+    /* Set to true if an emergency symptom has been reported; false, otherwise */
+    private final boolean emergency;
+
+    /**
+     * Creates a snapshot of the state of a consultation; the arrays are copied
+     *
+     * @param cf certainty factors
+     * @param removed flags of the symptoms that have been asked or ruled out
+     * @param i index of the current disease being considered
+     * @param symptom ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+     * @param CFval certainty factor of the disease considered when the last answer was given
+     * @param numAnswers number of answers given
+     * @param emergency <code>true</code> if an emergency symptom has been reported; <code>false</code>,
+     *                  otherwise
+     */
+    SessionState(double[] cf, boolean[] removed, int i, int symptom, double CFval, int numAnswers,
+                 boolean emergency) {
+        this.cf = Arrays.copyOf(cf, cf.length);
+        this.removed = new long[(removed.length + 63) / 64];
+        for (int s = 0; s < removed.length; s++) {
+            if (removed[s]) {
+                this.removed[s >>> 6] |= 1L << s;
+            }
+        }
+
+        this.i = i;
+        this.symptom = symptom;
+        this.CFval = CFval;
+        this.numAnswers = numAnswers;
+        this.emergency = emergency;
+    }
+
+    /**
+     * Copies the certainty factors and the flags of the removed symptoms into the given arrays
+     *
+     * @param cf array receiving the certainty factors
+     * @param removed array receiving the flags of the symptoms that have been asked or ruled out
+     */
+    void copyInto(double[] cf, boolean[] removed) {
+        System.arraycopy(this.cf, 0, cf, 0, cf.length);
+        for (int s = 0; s < removed.length; s++) {
+            removed[s] = isRemoved(s);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the consultation has ended; <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if the consultation has ended; <code>false</code>, otherwise
+     */
+    public boolean isFinished() {
+        return symptom < 0;
+    }
+
+    /**
+     * Returns the index of the current disease being considered
+     *
+     * @return index of the current disease being considered
+     */
+    public int getI() {
+        return i;
+    }
+
+    /**
+     * Returns the ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+     *
+     * @return ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+     */
+    public int getSymptomId() {
+        return symptom;
+    }
+
+    /**
+     * Returns the certainty factor of a disease
+     *
+     * @param disease index of the disease
+     * @return certainty factor of the disease
+     */
+    public double getCF(int disease) {
+        return cf[disease];
+    }
+
+    /**
+     * Returns a copy of the certainty factors of all the diseases, indexed as in <code>mapping/2</code>
+     *
+     * @return copy of the certainty factors of all the diseases
+     */
+    public double[] getCFs() {
+        return Arrays.copyOf(cf, cf.length);
+    }
+
+    /**
+     * Returns the certainty factor of the disease considered when the last answer was given
+     *
+     * @return certainty factor of the disease considered when the last answer was given
+     */
+    public double getLastCF() {
+        return CFval;
+    }
+
+    /**
+     * Returns <code>true</code> if the symptom with the given ID has been asked or ruled out;
+     * <code>false</code>, otherwise
+     *
+     * @param symptom ID of the symptom
+     * @return <code>true</code> if the symptom has been asked or ruled out; <code>false</code>, otherwise
+     */
+    public boolean isRemoved(int symptom) {
+        return (removed[symptom >>> 6] & (1L << symptom)) != 0;
+    }
+
+    /**
+     * Returns the number of answers given
+     *
+     * @return number of answers given
+     */
+    public int getNumAnswers() {
+        return numAnswers;
+    }
+
+    /**
+     * Returns <code>true</code> if a symptom indicative of an emergency has been reported;
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if a symptom indicative of an emergency has been reported;
+     * <code>false</code>, otherwise
+     */
+    public boolean getEmergency() {
+        return emergency;
+    }
+
+    /**
+     * Returns the words of the bit set of the symptoms that have been asked or ruled out
+     *
+     * @return copy of the words of the bit set of the removed symptoms
+     */
+    long[] getRemovedWords() {
+        return Arrays.copyOf(removed, removed.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SessionState)) {
+            return false;
+        }
+
+        SessionState other = (SessionState) o;
+        return i == other.i && symptom == other.symptom && emergency == other.emergency
+                && Arrays.equals(cf, other.cf) && Arrays.equals(removed, other.removed);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * Arrays.hashCode(cf) + Arrays.hashCode(removed)) + i * 31 + symptom)
+                + Boolean.hashCode(emergency);
+    }
+
+    /**
+     * Returns an estimate of the memory taken by this snapshot, in bytes
+     *
+     * @return estimate of the memory taken by this snapshot, in bytes
+     */
+    public long getSizeInBytes() {
+        /* Object header and fields, plus the two arrays with their headers */
+        return 48 + 16 + 8L * cf.length + 16 + 8L * removed.length;
+    }
+}
@@ -0,0 +1,369 @@
+package expert;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Codec of <b>signed session-state tokens</b>, which carry the whole state of a consultation so that any
+ * process holding the same key and knowledge base can resume it
+ *
+ * <p>A token holds the version of the knowledge base, the patient's details, the cursor (current disease and
+ * symptom, number of answers, and last certainty factor), the emergency flag, the nonzero certainty factors,
+ * and the symptoms removed by the answers (those ruled out by the patient's sex and age are recomputed). It
+ * is laid out as follows, where the varints are unsigned LEB128 and the indices are stored as gaps from the
+ * previous one:</p>
+ *
+ * <pre>
+ * byte format, byte flags (emergency, quantised, sex code), long kbVersion, double age,
+ * varint n, n bytes of UTF-8 name, varint i, varint symptom + 1, varint numAnswers, cf lastCF,
+ * varint n, n times (varint disease gap, cf), varint m, m times varint symptom gap,
+ * 16 bytes of HMAC-SHA256
+ * </pre>
+ *
+ * <p>A certainty factor is a <code>double</code>, or a <code>short</code> of 1/32767ths if the token is
+ * quantised. Quantised tokens are about a third of the size, but a certainty factor close to
+ * <code>cfValueRemove</code> or <code>cfValueConclude</code> may round across it, so the rest of the
+ * consultation may differ slightly; exact tokens resume it exactly. The signature is the HMAC-SHA256 of the
+ * rest of the token truncated to 16 bytes, so a token cannot be forged or altered without the key, but it is
+ * not encrypted: the patient's details can be read by anyone holding it.</p>
+ *
+ * <p>A codec is safe for use by multiple threads.</p>
+ */
+public final class SessionToken {
+    /**
+     * Version of the layout of the tokens
+     */
+    public static final int FORMAT = 1;
+
+    /**
+     * Shortest key accepted, in bytes
+     */
+    public static final int MIN_KEY_LENGTH = 16;
+
+    /* Length of the truncated signature, in bytes */
+    private static final int MAC_LENGTH = 16;
+    /* Offset of the knowledge base version */
+    private static final int VERSION_OFFSET = 2;
+    /* Scale of the quantised certainty factors */
+    private static final double QUANTUM = Short.MAX_VALUE;
+
+    /* Flags of a token */
+    private static final int FLAG_EMERGENCY = 1;
+    private static final int FLAG_QUANTISED = 2;
+    private static final int SEX_SHIFT = 2;
+
+    /* Key of the signatures */
+    private final SecretKeySpec key;
+    /* Message authentication code of every thread, initialised with the key */
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Creates a codec signing the tokens with the given key (shared by every process resuming the sessions)
+     *
+     * @param key key of the signatures (copied)
+     * @throws IllegalArgumentException if the key is shorter than {@link #MIN_KEY_LENGTH} bytes
+     * @throws IllegalStateException if HMAC-SHA256 is not available
+     */
+    public SessionToken(byte[] key) {
+        if (key.length < MIN_KEY_LENGTH) {
+            throw new IllegalArgumentException("The key must have at least " + MIN_KEY_LENGTH + " bytes");
+        }
+
+        this.key = new SecretKeySpec(key.clone(), "HmacSHA256");
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        newMac();
+    }
+
+    /**
+     * Returns a message authentication code initialised with the key
+     *
+     * @return message authentication code
+     * @throws IllegalStateException if HMAC-SHA256 is not available
+     */
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    /**
+     * Encodes the state of a consultation into a token
+     *
+     * @param session consultation
+     * @param quantised <code>true</code> to store the certainty factors as 16-bit fractions; <code>false</code>
+     *                  to store them exactly
+     * @return token
+     */
+    public byte[] encode(DiagnosisSession session, boolean quantised) {
+        KnowledgeBase kb = session.getKnowledgeBase();
+        int sexCode = VitalSignRules.sexCode(session.getSex());
+        boolean[] inapplicable = inapplicable(kb, session.getAge(), sexCode);
+
+        int numCFs = 0;
+        for (int d = 0; d < kb.getNumDiseases(); d++) {
+            numCFs += session.getCF(d) != 0 ? 1 : 0;
+        }
+        int numRemoved = 0;
+        for (int s = 0; s < kb.getNumSymptoms(); s++) {
+            numRemoved += session.isRemoved(s) && !inapplicable[s] ? 1 : 0;
+        }
+
+        byte[] name = session.getName().getBytes(StandardCharsets.UTF_8);
+        int cfBytes = quantised ? 2 : 8;
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 8 + 8 + 5 + name.length + 3 * 5 + cfBytes + 5
+                + numCFs * (5 + cfBytes) + 5 + numRemoved * 5 + MAC_LENGTH);
+
+        int flags = sexCode << SEX_SHIFT;
+        flags |= session.getEmergency() ? FLAG_EMERGENCY : 0;
+        flags |= quantised ? FLAG_QUANTISED : 0;
+        buffer.put((byte) FORMAT);
+        buffer.put((byte) flags);
+        buffer.putLong(kb.getVersion());
+        buffer.putDouble(session.getAge());
+        putVarint(buffer, name.length);
+        buffer.put(name);
+
+        putVarint(buffer, session.getI());
+        putVarint(buffer, session.getSymptomId() + 1);
+        putVarint(buffer, session.getNumAnswers());
+        putCF(buffer, session.getLastCF(), quantised);
+
+        putVarint(buffer, numCFs);
+        int previous = -1;
+        for (int d = 0; d < kb.getNumDiseases(); d++) {
+            if (session.getCF(d) != 0) {
+                putVarint(buffer, d - previous - 1);
+                putCF(buffer, session.getCF(d), quantised);
+                previous = d;
+            }
+        }
+
+        putVarint(buffer, numRemoved);
+        previous = -1;
+        for (int s = 0; s < kb.getNumSymptoms(); s++) {
+            if (session.isRemoved(s) && !inapplicable[s]) {
+                putVarint(buffer, s - previous - 1);
+                previous = s;
+            }
+        }
+
+        Mac mac = macs.get();
+        mac.update(buffer.array(), 0, buffer.position());
+        buffer.put(mac.doFinal(), 0, MAC_LENGTH);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Encodes the state of a consultation into a token, as URL-safe Base64 without padding
+     *
+     * @param session consultation
+     * @param quantised <code>true</code> to store the certainty factors as 16-bit fractions; <code>false</code>
+     *                  to store them exactly
+     * @return token, as text
+     */
+    public String encodeToString(DiagnosisSession session, boolean quantised) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(encode(session, quantised));
+    }
+
+    /**
+     * Returns the version of the knowledge base of a token, without checking its signature (to find the
+     * knowledge base with which to decode it)
+     *
+     * @param token token
+     * @return version of the knowledge base of the token
+     * @throws IllegalArgumentException if the token is malformed or of another format
+     */
+    public static long versionOf(byte[] token) {
+        if (token.length < VERSION_OFFSET + 8 + MAC_LENGTH || token[0] != FORMAT) {
+            throw new IllegalArgumentException("Malformed token");
+        }
+        return ByteBuffer.wrap(token).getLong(VERSION_OFFSET);
+    }
+
+    /**
+     * Resumes a consultation from a token
+     *
+     * @param token token
+     * @param kb static tables of the knowledge base with which the token was encoded
+     * @return new session, in the state of the token
+     * @throws IllegalArgumentException if the token is malformed, its signature is invalid, or it was encoded
+     *                                  with another version of the knowledge base
+     */
+    public DiagnosisSession decode(byte[] token, KnowledgeBase kb) {
+        return decode(token, kb, null);
+    }
+
+    /**
+     * Resumes a consultation from a token as text (see {@link #encodeToString(DiagnosisSession, boolean)})
+     *
+     * @param token token, as text
+     * @param kb static tables of the knowledge base with which the token was encoded
+     * @return new session, in the state of the token
+     * @throws IllegalArgumentException if the token is malformed, its signature is invalid, or it was encoded
+     *                                  with another version of the knowledge base
+     */
+    public DiagnosisSession decode(String token, KnowledgeBase kb) {
+        return decode(Base64.getUrlDecoder().decode(token), kb, null);
+    }
+
+    /**
+     * Resumes a consultation from a token as a new session of a tenant
+     *
+     * @param token token
+     * @param tenant tenant whose knowledge base the token was encoded with
+     * @return new session of the tenant, in the state of the token
+     * @throws IllegalArgumentException if the token is malformed, its signature is invalid, or it was encoded
+     *                                  with another version of the knowledge base
+     */
+    public DiagnosisSession decode(byte[] token, Tenant tenant) {
+        return decode(token, tenant.getKnowledgeBase(), tenant);
+    }
+
+    /**
+     * Resumes a consultation from a token
+     *
+     * @param token token
+     * @param kb static tables of the knowledge base with which the token was encoded
+     * @param tenant tenant starting the session, or <code>null</code>
+     * @return new session, in the state of the token
+     * @throws IllegalArgumentException if the token is malformed, its signature is invalid, or it was encoded
+     *                                  with another version of the knowledge base
+     */
+    private DiagnosisSession decode(byte[] token, KnowledgeBase kb, Tenant tenant) {
+        if (versionOf(token) != kb.getVersion()) {
+            throw new IllegalArgumentException("Token of another version of the knowledge base");
+        }
+
+        int length = token.length - MAC_LENGTH;
+        Mac mac = macs.get();
+        mac.update(token, 0, length);
+        byte[] expected = mac.doFinal();
+        if (!MessageDigest.isEqual(Arrays.copyOf(expected, MAC_LENGTH),
+                Arrays.copyOfRange(token, length, token.length))) {
+            throw new IllegalArgumentException("Invalid signature");
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(token, 0, length);
+            buffer.position(VERSION_OFFSET + 8);
+            int flags = token[1];
+            boolean quantised = (flags & FLAG_QUANTISED) != 0;
+            int sexCode = (flags >>> SEX_SHIFT) & VitalSignRules.ANY_SEX;
+
+            double age = buffer.getDouble();
+            int n = getVarint(buffer, buffer.remaining());
+            String name = new String(token, buffer.position(), n, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + n);
+
+            int i = getVarint(buffer, kb.getNumDiseases());
+            int symptom = getVarint(buffer, kb.getNumSymptoms()) - 1;
+            int numAnswers = getVarint(buffer, Integer.MAX_VALUE);
+            double lastCF = getCF(buffer, quantised);
+
+            double[] cf = new double[kb.getNumDiseases()];
+            int numCFs = getVarint(buffer, cf.length);
+            for (int k = 0, d = -1; k < numCFs; k++) {
+                d += getVarint(buffer, cf.length - d - 2) + 1;
+                cf[d] = getCF(buffer, quantised);
+            }
+
+            boolean[] removed = inapplicable(kb, age, sexCode);
+            int numRemoved = getVarint(buffer, removed.length);
+            for (int k = 0, s = -1; k < numRemoved; k++) {
+                s += getVarint(buffer, removed.length - s - 2) + 1;
+                removed[s] = true;
+            }
+
+            if (buffer.hasRemaining() || Double.isNaN(age)) {
+                throw new IllegalArgumentException("Malformed token");
+            }
+
+            String sex = sexCode == VitalSignRules.MALE ? "male" : sexCode == VitalSignRules.FEMALE ? "female" : "";
+            DiagnosisSession session = tenant == null ? new DiagnosisSession(kb, name, age, sex)
+                    : tenant.newSession(name, age, sex);
+            session.restore(new SessionState(cf, removed, i, symptom, lastCF, numAnswers,
+                    (flags & FLAG_EMERGENCY) != 0));
+            return session;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed token", e);
+        }
+    }
+
+    /**
+     * Returns the flags of the symptoms that do not apply to a patient's sex and age, as removed when a
+     * consultation starts
+     *
+     * @param kb static tables of the knowledge base
+     * @param age age of the patient
+     * @param sexCode code of the sex of the patient, as used by the vital-sign rules
+     * @return new array of the flags of the symptoms that do not apply, indexed by symptom ID
+     */
+    private static boolean[] inapplicable(KnowledgeBase kb, double age, int sexCode) {
+        boolean[] flags = new boolean[kb.getNumSymptoms()];
+        if (sexCode == VitalSignRules.MALE) {
+            for (int s : kb.getFemaleSymptoms()) {
+                flags[s] = true;
+            }
+        }
+        if (age >= kb.getAdultAge()) {
+            for (int s : kb.getPediatricSymptoms()) {
+                flags[s] = true;
+            }
+        }
+        return flags;
+    }
+
+    private static void putCF(ByteBuffer buffer, double cf, boolean quantised) {
+        if (quantised) {
+            buffer.putShort((short) Math.round(Math.max(-1, Math.min(1, cf)) * QUANTUM));
+        } else {
+            buffer.putDouble(cf);
+        }
+    }
+
+    private static double getCF(ByteBuffer buffer, boolean quantised) {
+        return quantised ? buffer.getShort() / QUANTUM : buffer.getDouble();
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a varint, checking that it is at most the given bound
+     *
+     * @param buffer buffer holding the varint
+     * @param max largest value accepted
+     * @return value of the varint
+     * @throws IllegalArgumentException if the varint is too long or its value is out of range
+     */
+    private static int getVarint(ByteBuffer buffer, int max) {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value > max) {
+                    throw new IllegalArgumentException("Malformed token");
+                }
+                return (int) value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed token");
+    }
+}
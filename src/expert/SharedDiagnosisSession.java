@@ -0,0 +1,145 @@
+package expert;
+
+/**
+ * Class implementing a <b>consultation with a single patient over a shared {@link DiagnosisTrie}</b>
+ *
+ * <p>The session follows the same flow and gives the same diagnosis as a {@link DiagnosisSession}, but its
+ * state is a pointer to a node of the trie, shared with every patient of the same sex and age band who gave
+ * the same answers so far. Answering a question whose outcome is already in the trie only moves the pointer.
+ * A single session is not thread-safe, but any number of sessions can run concurrently over the same
+ * trie.</p>
+ */
+public class SharedDiagnosisSession {
+    /* Trie of the states shared across sessions */
+    private final DiagnosisTrie trie;
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+
+    /* Name of the patient */
+    private final String name;
+    /* Age of the patient */
+    private final double age;
+    /* Code of the sex of the patient, as used by the vital-sign rules */
+    private final int sexCode;
+
+    /* Node holding the current state of the consultation */
+    private DiagnosisTrie.Node node;
+
+    /**
+     * Starts a consultation with a patient
+     *
+     * @param trie trie of the states shared across sessions
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     */
+    public SharedDiagnosisSession(DiagnosisTrie trie, String name, double age, String sex) {
+        this.trie = trie;
+        this.kb = trie.getKnowledgeBase();
+        this.name = name;
+        this.age = age;
+        this.sexCode = VitalSignRules.sexCode(sex);
+        this.node = trie.root(age, sex);
+    }
+
+    /**
+     * Returns the name of the patient
+     *
+     * @return name of the patient
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the current state of the consultation (shared with other sessions)
+     *
+     * @return current state of the consultation
+     */
+    public SessionState getState() {
+        return node.state;
+    }
+
+    /**
+     * Returns <code>true</code> if the consultation has ended (that is, the final diagnosis can be given);
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if the consultation has ended; <code>false</code>, otherwise
+     */
+    public boolean isFinished() {
+        return node.state.isFinished();
+    }
+
+    /**
+     * Returns the ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+     *
+     * @return ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+     */
+    public int getSymptomId() {
+        return node.state.getSymptomId();
+    }
+
+    /**
+     * Returns the Prolog atom naming the current symptom being asked, or <code>null</code> if the
+     * consultation has ended
+     *
+     * @return Prolog atom naming the current symptom, or <code>null</code> if the consultation has ended
+     */
+    public String getSymptom() {
+        int symptom = node.state.getSymptomId();
+        return symptom < 0 ? null : kb.getSymptomKey(symptom);
+    }
+
+    /**
+     * Returns <code>true</code> if a symptom indicative of an emergency has been reported;
+     * <code>false</code>, otherwise
+     *
+     * @return <code>true</code> if a symptom indicative of an emergency has been reported;
+     * <code>false</code>, otherwise
+     */
+    public boolean getEmergency() {
+        return node.state.getEmergency();
+    }
+
+    /**
+     * Records the patient's response to the current symptom and moves to the next question (or ends the
+     * consultation)
+     *
+     * @param answer response of the patient (<code>"yes"</code>, <code>"no"</code>, or a reading)
+     * @throws IllegalStateException if the consultation has ended
+     * @throws NumberFormatException if a vital sign is answered with something other than a number
+     * @throws IllegalArgumentException if the reading of a vital sign is out of its valid range
+     */
+    public void answer(String answer) {
+        if (isFinished()) {
+            throw new IllegalStateException("The consultation has ended");
+        }
+
+        answerCode(kb.getVitalSignRules().evaluate(getSymptomId(), answer, age, sexCode));
+    }
+
+    /**
+     * Records the patient's response to the current symptom, given as an answer code (see
+     * {@link VitalSignRules}), and moves to the next question (or ends the consultation)
+     *
+     * @param code answer code of the response
+     * @throws IllegalStateException if the consultation has ended
+     */
+    public void answerCode(int code) {
+        if (isFinished()) {
+            throw new IllegalStateException("The consultation has ended");
+        }
+
+        node = trie.next(node, code);
+    }
+
+    /**
+     * Returns the final diagnosis, worded as in {@link DiagnosisSession#getFinalDiagnosis()}
+     *
+     * @return final diagnosis
+     */
+    public String getFinalDiagnosis() {
+        SessionState state = node.state;
+        return DiagnosisSession.formatDiagnosis(kb, name, state.getCFs(), state.getEmergency());
+    }
+}
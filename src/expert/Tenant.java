@@ -0,0 +1,157 @@
+package expert;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class representing a <b>tenant</b> of a {@link KnowledgeBaseRegistry}: a named knowledge base, the sessions
+ * bound to it, and its memory and query metrics
+ *
+ * <p>The memory metrics are estimated when the tenant is registered: the tables are the bytes the static
+ * tables of the knowledge base would take on their own, of which the owned bytes were added to the shared
+ * pool by this tenant, and the shared bytes were already in the pool. The query metrics count the sessions
+ * started, and the requests and answers recorded by the front end serving the tenant. This class is
+ * thread-safe.</p>
+ */
+public final class Tenant {
+    /* Name of the tenant */
+    private final String name;
+    /* Static tables of the knowledge base, with their parts taken from the shared pool */
+    private final KnowledgeBase kb;
+    /* Estimated number of bytes of the static tables */
+    private final long tableBytes;
+    /* Estimated number of bytes of the static tables added to the shared pool by this tenant */
+    private final long ownedBytes;
+
+    /* Number of sessions started */
+    private final LongAdder sessions = new LongAdder();
+    /* Number of requests served */
+    private final LongAdder requests = new LongAdder();
+    /* Number of answers applied */
+    private final LongAdder answers = new LongAdder();
+    /* Total time spent serving the requests, in nanoseconds */
+    private final LongAdder busyNanos = new LongAdder();
+
+    Tenant(String name, KnowledgeBase kb, long tableBytes, long ownedBytes) {
+        this.name = name;
+        this.kb = kb;
+        this.tableBytes = tableBytes;
+        this.ownedBytes = ownedBytes;
+    }
+
+    /**
+     * Starts a consultation bound to this tenant
+     *
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @return consultation over the knowledge base of this tenant
+     */
+    public DiagnosisSession newSession(String name, double age, String sex) {
+        sessions.increment();
+        return new DiagnosisSession(kb, name, age, sex);
+    }
+
+    /**
+     * Records a request served for this tenant
+     *
+     * @param numAnswers number of answers applied by the request
+     * @param nanos time spent serving the request, in nanoseconds
+     */
+    public void recordRequest(int numAnswers, long nanos) {
+        requests.increment();
+        if (numAnswers > 0) {
+            answers.add(numAnswers);
+        }
+        busyNanos.add(nanos);
+    }
+
+    /**
+     * Returns the name of the tenant
+     *
+     * @return name of the tenant
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the static tables of the knowledge base of the tenant
+     *
+     * @return static tables of the knowledge base
+     */
+    public KnowledgeBase getKnowledgeBase() {
+        return kb;
+    }
+
+    /**
+     * Returns the estimated number of bytes the static tables would take on their own
+     *
+     * @return estimated number of bytes of the static tables
+     */
+    public long getTableBytes() {
+        return tableBytes;
+    }
+
+    /**
+     * Returns the estimated number of bytes of the static tables added to the shared pool by this tenant
+     *
+     * @return estimated number of bytes owned by this tenant
+     */
+    public long getOwnedBytes() {
+        return ownedBytes;
+    }
+
+    /**
+     * Returns the estimated number of bytes of the static tables that were already in the shared pool
+     *
+     * @return estimated number of bytes shared with the other tenants
+     */
+    public long getSharedBytes() {
+        return tableBytes - ownedBytes;
+    }
+
+    /**
+     * Returns the number of sessions started
+     *
+     * @return number of sessions started
+     */
+    public long getSessions() {
+        return sessions.sum();
+    }
+
+    /**
+     * Returns the number of requests served
+     *
+     * @return number of requests served
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the number of answers applied
+     *
+     * @return number of answers applied
+     */
+    public long getAnswers() {
+        return answers.sum();
+    }
+
+    /**
+     * Returns the total time spent serving the requests, in nanoseconds
+     *
+     * @return total time spent serving the requests
+     */
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        long r = getRequests();
+        return String.format("%s: diseases=%d symptoms=%d tables=%.1fKiB owned=%.1fKiB shared=%.1fKiB sessions=%d "
+                        + "requests=%d answers=%d meanRequest=%.2fus", name, kb.getNumDiseases(),
+                kb.getNumSymptoms(), tableBytes / 1024.0, ownedBytes / 1024.0, getSharedBytes() / 1024.0,
+                getSessions(), r, getAnswers(), r == 0 ? 0.0 : getBusyNanos() / 1000.0 / r);
+    }
+}
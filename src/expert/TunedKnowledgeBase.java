@@ -0,0 +1,261 @@
+package expert;
+
+import java.math.BigDecimal;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * View of a knowledge base whose <b>constants and weights are tuned</b>: <code>adultAge/1</code>,
+ * <code>cfValueRemove/1</code>, <code>cfValueConclude/1</code>, and any <code>weight/2</code> entry may differ
+ * from those of the underlying knowledge base, and every other table is shared with it
+ *
+ * <p>The vital-sign bands whose age bounds are given as the atom <code>adult</code> follow the tuned adult age
+ * (see {@link VitalSignRules#withAdultAge(int)}), so that a tuned adult age moves both the removal of the
+ * pediatric symptoms and the thresholds of the readings, as <code>adultAge/1</code> does in the source.</p>
+ *
+ * <p>A view is cheap to create (the weights and, for another adult age, the bands are the only tables copied),
+ * so that many candidate configurations can be evaluated side by side. Its version is derived from that of the
+ * underlying knowledge base and from the tuned values, so it is never mistaken for the original by the caches
+ * keyed by version. Once a configuration has been chosen, {@link #patch(String)} writes it back into the Prolog
+ * source.</p>
+ */
+public final class TunedKnowledgeBase implements KnowledgeBase {
+    /* Facts of the constants and of the weights, as laid out in the knowledge base */
+    private static final Pattern CONSTANT = Pattern.compile(
+            "^(\\s*)(adultAge|cfValueRemove|cfValueConclude)(\\(\\s*)([^)\\s]+)(\\s*\\)\\s*\\.)");
+    private static final Pattern WEIGHT = Pattern.compile(
+            "^(\\s*weight\\(\\s*)(\\w+)(\\s*,\\s*)([^)\\s]+)(\\s*\\)\\s*\\.)");
+
+    /* Knowledge base whose other tables are shared */
+    private final KnowledgeBase base;
+    /* Version derived from that of the underlying knowledge base and from the tuned values */
+    private final long version;
+
+    /* Tuned constants */
+    private final int adultAge;
+    private final double cfValueRemove;
+    private final double cfValueConclude;
+    /* Tuned weights of the symptoms, indexed by symptom ID */
+    private final double[] weights;
+    /* Table of rules whose bands follow the tuned adult age */
+    private final VitalSignRules vitalSignRules;
+
+    /**
+     * Creates a view of a knowledge base with tuned constants and weights
+     *
+     * @param base knowledge base whose other tables are shared
+     * @param adultAge lower bound for the age of an adult
+     * @param cfValueRemove certainty factor below which a disease is ruled out
+     * @param cfValueConclude certainty factor at or above which a disease is immediately reported
+     * @param weights weights of all the symptoms, indexed by symptom ID (copied)
+     * @throws IllegalArgumentException if the age is negative, the certainty factors are not such that
+     *                                  <code>0 &lt;= cfValueRemove &lt; cfValueConclude &lt;= 1</code>, or a
+     *                                  weight is not in (0, 1]
+     */
+    public TunedKnowledgeBase(KnowledgeBase base, int adultAge, double cfValueRemove, double cfValueConclude,
+                              double[] weights) {
+        if (adultAge < 0) {
+            throw new IllegalArgumentException("Invalid adult age: " + adultAge);
+        }
+        if (!(cfValueRemove >= 0 && cfValueRemove < cfValueConclude && cfValueConclude <= 1)) {
+            throw new IllegalArgumentException("Invalid certainty factors: cfValueRemove " + cfValueRemove
+                    + ", cfValueConclude " + cfValueConclude);
+        }
+        if (weights.length != base.getNumSymptoms()) {
+            throw new IllegalArgumentException("Expected " + base.getNumSymptoms() + " weights but got "
+                    + weights.length);
+        }
+
+        long version = base.getVersion();
+        version = 31 * version + adultAge;
+        version = 31 * version + Double.doubleToLongBits(cfValueRemove);
+        version = 31 * version + Double.doubleToLongBits(cfValueConclude);
+        for (int s = 0; s < weights.length; s++) {
+            if (!(weights[s] > 0 && weights[s] <= 1)) {
+                throw new IllegalArgumentException("Weight of " + base.getSymptomKey(s) + " is not in (0, 1]: "
+                        + weights[s]);
+            }
+            version = 31 * version + Double.doubleToLongBits(weights[s]);
+        }
+
+        this.base = base;
+        this.version = version;
+        this.adultAge = adultAge;
+        this.cfValueRemove = cfValueRemove;
+        this.cfValueConclude = cfValueConclude;
+        this.weights = weights.clone();
+        this.vitalSignRules = base.getVitalSignRules().withAdultAge(adultAge);
+    }
+
+    /**
+     * Returns the weights of all the symptoms of a knowledge base, indexed by symptom ID, as a starting point
+     * for tuning them
+     *
+     * @param kb static tables of the knowledge base
+     * @return new array of the weights of the symptoms
+     */
+    public static double[] weightsOf(KnowledgeBase kb) {
+        double[] weights = new double[kb.getNumSymptoms()];
+        for (int s = 0; s < weights.length; s++) {
+            weights[s] = kb.getWeight(s);
+        }
+        return weights;
+    }
+
+    /**
+     * Returns the knowledge base whose other tables are shared
+     *
+     * @return underlying knowledge base
+     */
+    public KnowledgeBase getBase() {
+        return base;
+    }
+
+    /**
+     * Rewrites the Prolog source of the underlying knowledge base with the tuned values
+     *
+     * <p>Only the facts whose values differ from those of the underlying knowledge base are rewritten; every
+     * other line, including the comments and the layout, is kept as is. The bands that follow the adult age
+     * refer to <code>adultAge/1</code>, so rewriting it moves them too.</p>
+     *
+     * @param source Prolog source of the underlying knowledge base
+     * @return patched Prolog source
+     */
+    public String patch(String source) {
+        StringBuilder sb = new StringBuilder(source.length() + 64);
+
+        int start = 0;
+        while (start < source.length()) {
+            int end = source.indexOf('\n', start);
+            end = end < 0 ? source.length() : end + 1;
+            String line = source.substring(start, end);
+
+            Matcher m = CONSTANT.matcher(line);
+            if (m.find()) {
+                String value = null;
+                switch (m.group(2)) {
+                    case "adultAge":
+                        value = adultAge != base.getAdultAge() ? String.valueOf(adultAge) : null;
+                        break;
+                    case "cfValueRemove":
+                        value = cfValueRemove != base.getCFValueRemove() ? format(cfValueRemove) : null;
+                        break;
+                    case "cfValueConclude":
+                        value = cfValueConclude != base.getCFValueConclude() ? format(cfValueConclude) : null;
+                        break;
+                    default:
+                        break;
+                }
+                line = replaceValue(line, m, value);
+            } else {
+                m = WEIGHT.matcher(line);
+                if (m.find()) {
+                    int s = base.getSymptomId(m.group(2));
+                    line = replaceValue(line, m, s >= 0 && weights[s] != base.getWeight(s) ? format(weights[s])
+                            : null);
+                }
+            }
+
+            sb.append(line);
+            start = end;
+        }
+
+        return sb.toString();
+    }
+
+    private static String replaceValue(String line, Matcher m, String value) {
+        if (value == null) {
+            return line;
+        }
+        return line.substring(0, m.start(4)) + value + line.substring(m.end(4));
+    }
+
+    private static String format(double value) {
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public int getNumDiseases() {
+        return base.getNumDiseases();
+    }
+
+    @Override
+    public String getDiseaseKey(int disease) {
+        return base.getDiseaseKey(disease);
+    }
+
+    @Override
+    public String getDiseaseName(int disease) {
+        return base.getDiseaseName(disease);
+    }
+
+    @Override
+    public int[] getDiseaseSymptoms(int disease) {
+        return base.getDiseaseSymptoms(disease);
+    }
+
+    @Override
+    public int getNumSymptoms() {
+        return base.getNumSymptoms();
+    }
+
+    @Override
+    public int getSymptomId(String symptom) {
+        return base.getSymptomId(symptom);
+    }
+
+    @Override
+    public String getSymptomKey(int symptom) {
+        return base.getSymptomKey(symptom);
+    }
+
+    @Override
+    public double getWeight(int symptom) {
+        return weights[symptom];
+    }
+
+    @Override
+    public String getInquiry(int symptom) {
+        return base.getInquiry(symptom);
+    }
+
+    @Override
+    public int[] getDiseasesWithSymptom(int symptom) {
+        return base.getDiseasesWithSymptom(symptom);
+    }
+
+    @Override
+    public int[] getFemaleSymptoms() {
+        return base.getFemaleSymptoms();
+    }
+
+    @Override
+    public int[] getPediatricSymptoms() {
+        return base.getPediatricSymptoms();
+    }
+
+    @Override
+    public VitalSignRules getVitalSignRules() {
+        return vitalSignRules;
+    }
+
+    @Override
+    public int getAdultAge() {
+        return adultAge;
+    }
+
+    @Override
+    public double getCFValueRemove() {
+        return cfValueRemove;
+    }
+
+    @Override
+    public double getCFValueConclude() {
+        return cfValueConclude;
+    }
+}
@@ -0,0 +1,446 @@
+package expert;
+
+import java.util.Arrays;
+
+/**
+ * Class implementing the <b>table of rules for the symptoms whose answers are evaluated</b>: the vital signs,
+ * answered with a number, and the dichotomous symptoms whose affirmation is an emergency
+ *
+ * <p>The table is compiled from the following facts of the knowledge base:</p>
+ * <ul>
+ *     <li><code>vitalSign(Symptom, Min, Max)</code>: the symptom is asked as an open-ended question, and the
+ *     answer must be a number between <code>Min</code> and <code>Max</code> (inclusive);</li>
+ *     <li><code>diagnosisBand(Symptom, MinAge, MaxAge, Sex, Low, High)</code>: a reading in
+ *     [<code>Low</code>, <code>High</code>) counts as an affirmation for patients whose age is in
+ *     [<code>MinAge</code>, <code>MaxAge</code>) and whose sex is <code>Sex</code> (<code>male</code>,
+ *     <code>female</code>, or <code>any</code>);</li>
+ *     <li><code>emergencyBand(Symptom, MinAge, MaxAge, Sex, Low, High)</code>: likewise, but the reading is
+ *     indicative of an emergency; and</li>
+ *     <li><code>emergencyAnswer(Symptom)</code>: an affirmative answer to the dichotomous symptom is
+ *     indicative of an emergency.</li>
+ * </ul>
+ * <p>The atom <code>inf</code> may be used for an unbounded upper limit, and the atom <code>adult</code> for an
+ * age bound equal to the minimum age of an adult (<code>adultAge/1</code>), so that the bands follow it.</p>
+ *
+ * <p>The outcome of an answer is an <b>answer code</b>: bit {@link #POSITIVE} is set if the answer counts as
+ * an affirmation of the symptom, and bit {@link #EMERGENCY} is set if it is indicative of an emergency.
+ * Evaluating an answer is a lookup by symptom ID followed by a scan of the (few) bands of that symptom; no
+ * names are compared.</p>
+ */
+public final class VitalSignRules {
+    /**
+     * Bit of the answer code set if the answer counts as an affirmation of the symptom
+     */
+    public static final int POSITIVE = 1;
+    /**
+     * Bit of the answer code set if the answer is indicative of an emergency
+     */
+    public static final int EMERGENCY = 2;
+
+    /**
+     * Code of a band applying to male patients
+     */
+    public static final int MALE = 1;
+    /**
+     * Code of a band applying to female patients
+     */
+    public static final int FEMALE = 2;
+    /**
+     * Code of a band applying to patients of either sex
+     */
+    public static final int ANY_SEX = MALE | FEMALE;
+
+    /**
+     * Age bound of a band standing for the minimum age of an adult (the atom <code>adult</code>)
+     */
+    public static final double ADULT = -1;
+
+    /* Minimum age for a patient to be considered an adult, to which the bounds equal to ADULT resolve */
+    private final int adultAge;
+
+    /* IDs of the vital signs, in the order of their vitalSign/3 facts */
+    private final int[] vitalSigns;
+    /* IDs of the dichotomous symptoms whose affirmation is an emergency */
+    private final int[] emergencyAnswers;
+
+    /* Set to true for each symptom (indexed by ID) that is a vital sign; false, otherwise */
+    private final boolean[] numeric;
+    /* Answer code of an affirmative answer to each dichotomous symptom, indexed by ID */
+    private final int[] yesCode;
+    /* Smallest valid reading of each vital sign, indexed by ID */
+    private final double[] min;
+    /* Largest valid reading of each vital sign, indexed by ID */
+    private final double[] max;
+
+    /* Bands of each symptom are bandStart[symptom] (inclusive) to bandStart[symptom + 1] (exclusive). */
+    private final int[] bandStart;
+    /* Symptom, code, age range, sex, and reading range of each band, sorted by symptom */
+    private final int[] bandSymptom;
+    private final int[] bandCode;
+    private final double[] bandMinAge;
+    private final double[] bandMaxAge;
+    private final int[] bandSex;
+    /* Age range of each band as given, where ADULT stands for the adult age */
+    private final double[] bandMinAgeBound;
+    private final double[] bandMaxAgeBound;
+    private final double[] bandLow;
+    private final double[] bandHigh;
+
+    /**
+     * Compiles a table of rules (the arguments are assumed to have been validated)
+     *
+     * @param numSymptoms number of unique symptoms in the knowledge base
+     * @param vitalSigns IDs of the vital signs
+     * @param mins smallest valid reading of each vital sign (parallel to <code>vitalSigns</code>)
+     * @param maxs largest valid reading of each vital sign (parallel to <code>vitalSigns</code>)
+     * @param bandSymptoms ID of the vital sign of each band
+     * @param bandCodes answer code of each band ({@link #POSITIVE} or {@link #EMERGENCY})
+     * @param bandMinAges smallest age (inclusive) to which each band applies, or {@link #ADULT}
+     * @param bandMaxAges largest age (exclusive) to which each band applies, or {@link #ADULT}
+     * @param adultAge minimum age for a patient to be considered an adult, to which the age bounds equal to
+     *                 {@link #ADULT} resolve
+     * @param bandSexes sexes to which each band applies ({@link #MALE}, {@link #FEMALE}, or {@link #ANY_SEX})
+     * @param bandLows smallest reading (inclusive) of each band
+     * @param bandHighs largest reading (exclusive) of each band
+     * @param emergencyAnswers IDs of the dichotomous symptoms whose affirmation is an emergency
+     */
+    public VitalSignRules(int numSymptoms, int[] vitalSigns, double[] mins, double[] maxs, int[] bandSymptoms,
+                          int[] bandCodes, double[] bandMinAges, double[] bandMaxAges, int adultAge,
+                          int[] bandSexes, double[] bandLows, double[] bandHighs, int[] emergencyAnswers) {
+        this.adultAge = adultAge;
+        this.vitalSigns = vitalSigns;
+        this.emergencyAnswers = emergencyAnswers;
+
+        numeric = new boolean[numSymptoms];
+        min = new double[numSymptoms];
+        max = new double[numSymptoms];
+        for (int k = 0; k < vitalSigns.length; k++) {
+            numeric[vitalSigns[k]] = true;
+            min[vitalSigns[k]] = mins[k];
+            max[vitalSigns[k]] = maxs[k];
+        }
+
+        yesCode = new int[numSymptoms];
+        Arrays.fill(yesCode, POSITIVE);
+        for (int s : emergencyAnswers) {
+            yesCode[s] = POSITIVE | EMERGENCY;
+        }
+
+        /* Sort the bands by symptom (stably, so that the order of the facts is kept within a symptom). */
+        int numBands = bandSymptoms.length;
+        bandStart = new int[numSymptoms + 1];
+        for (int s : bandSymptoms) {
+            bandStart[s + 1]++;
+        }
+        for (int s = 0; s < numSymptoms; s++) {
+            bandStart[s + 1] += bandStart[s];
+        }
+
+        bandSymptom = new int[numBands];
+        bandCode = new int[numBands];
+        bandMinAge = new double[numBands];
+        bandMaxAge = new double[numBands];
+        bandMinAgeBound = new double[numBands];
+        bandMaxAgeBound = new double[numBands];
+        bandSex = new int[numBands];
+        bandLow = new double[numBands];
+        bandHigh = new double[numBands];
+
+        int[] next = Arrays.copyOf(bandStart, numSymptoms);
+        for (int k = 0; k < numBands; k++) {
+            int b = next[bandSymptoms[k]]++;
+
+            bandSymptom[b] = bandSymptoms[k];
+            bandCode[b] = bandCodes[k];
+            bandMinAgeBound[b] = bandMinAges[k];
+            bandMaxAgeBound[b] = bandMaxAges[k];
+            bandMinAge[b] = resolveAge(bandMinAges[k], adultAge);
+            bandMaxAge[b] = resolveAge(bandMaxAges[k], adultAge);
+            bandSex[b] = bandSexes[k];
+            bandLow[b] = bandLows[k];
+            bandHigh[b] = bandHighs[k];
+        }
+    }
+
+    /**
+     * Returns a copy of this table whose age bounds equal to {@link #ADULT} resolve to another adult age
+     *
+     * @param adultAge minimum age for a patient to be considered an adult
+     * @return table of rules following the given adult age
+     */
+    public VitalSignRules withAdultAge(int adultAge) {
+        if (adultAge == this.adultAge) {
+            return this;
+        }
+
+        double[] mins = new double[vitalSigns.length];
+        double[] maxs = new double[vitalSigns.length];
+        for (int k = 0; k < vitalSigns.length; k++) {
+            mins[k] = min[vitalSigns[k]];
+            maxs[k] = max[vitalSigns[k]];
+        }
+
+        return new VitalSignRules(numeric.length, vitalSigns, mins, maxs, bandSymptom, bandCode, bandMinAgeBound,
+                bandMaxAgeBound, adultAge, bandSex, bandLow, bandHigh, emergencyAnswers);
+    }
+
+    /**
+     * Returns an age bound of a band, with {@link #ADULT} resolved to the adult age
+     *
+     * @param bound age bound as given
+     * @param adultAge minimum age for a patient to be considered an adult
+     * @return age bound
+     */
+    private static double resolveAge(double bound, int adultAge) {
+        return bound == ADULT ? adultAge : bound;
+    }
+
+    /**
+     * Returns the code of a sex as used in the bands
+     *
+     * @param sex sex of the patient (<code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @return {@link #MALE} or {@link #FEMALE}, or {@link #ANY_SEX} if the sex is neither
+     */
+    public static int sexCode(String sex) {
+        if (sex == null) {
+            return ANY_SEX;
+        } else if (sex.equalsIgnoreCase("male")) {
+            return MALE;
+        } else if (sex.equalsIgnoreCase("female")) {
+            return FEMALE;
+        }
+
+        return ANY_SEX;
+    }
+
+    /**
+     * Returns <code>true</code> if the symptom is a vital sign (asked as an open-ended question);
+     * <code>false</code>, otherwise
+     *
+     * @param symptom ID of the symptom
+     * @return <code>true</code> if the symptom is a vital sign; <code>false</code>, otherwise
+     */
+    public boolean isNumeric(int symptom) {
+        return numeric[symptom];
+    }
+
+    /**
+     * Returns the smallest valid reading of a vital sign
+     *
+     * @param symptom ID of the vital sign
+     * @return smallest valid reading of the vital sign
+     */
+    public double getMin(int symptom) {
+        return min[symptom];
+    }
+
+    /**
+     * Returns the largest valid reading of a vital sign
+     *
+     * @param symptom ID of the vital sign
+     * @return largest valid reading of the vital sign
+     */
+    public double getMax(int symptom) {
+        return max[symptom];
+    }
+
+    /**
+     * Returns <code>true</code> if the reading is valid for the vital sign; <code>false</code>, otherwise
+     *
+     * @param symptom ID of the vital sign
+     * @param value reading
+     * @return <code>true</code> if the reading is valid for the vital sign; <code>false</code>, otherwise
+     */
+    public boolean isValidReading(int symptom, double value) {
+        return value >= min[symptom] && value <= max[symptom];
+    }
+
+    /**
+     * Returns the answer code of a reading of a vital sign
+     *
+     * @param symptom ID of the vital sign
+     * @param value reading (assumed to be valid)
+     * @param age age of the patient
+     * @param sex code of the sex of the patient (see {@link #sexCode(String)})
+     * @return answer code of the reading
+     */
+    public int evaluate(int symptom, double value, double age, int sex) {
+        int code = 0;
+
+        for (int b = bandStart[symptom]; b < bandStart[symptom + 1]; b++) {
+            if (value >= bandLow[b] && value < bandHigh[b] && age >= bandMinAge[b] && age < bandMaxAge[b]
+                    && (bandSex[b] & sex) != 0) {
+                code |= bandCode[b];
+            }
+        }
+
+        return code;
+    }
+
+    /**
+     * Returns the answer code of a dichotomous answer
+     *
+     * @param symptom ID of the symptom
+     * @param yes <code>true</code> if the patient reported experiencing the symptom; <code>false</code>,
+     * otherwise
+     * @return answer code of the answer
+     */
+    public int evaluate(int symptom, boolean yes) {
+        return yes ? yesCode[symptom] : 0;
+    }
+
+    /**
+     * Returns the answer code of an answer as entered by the user (a number for the vital signs, and
+     * <code>"yes"</code> or <code>"no"</code> otherwise)
+     *
+     * @param symptom ID of the symptom
+     * @param answer answer as entered by the user
+     * @param age age of the patient
+     * @param sex code of the sex of the patient (see {@link #sexCode(String)})
+     * @return answer code of the answer
+     * @throws NumberFormatException if a vital sign is answered with something other than a number
+     * @throws IllegalArgumentException if the reading of a vital sign is out of its valid range
+     */
+    public int evaluate(int symptom, String answer, double age, int sex) {
+        if (!numeric[symptom]) {
+            return evaluate(symptom, answer.equalsIgnoreCase("yes"));
+        }
+
+        double value = Double.parseDouble(answer);
+        if (!isValidReading(symptom, value)) {
+            throw new IllegalArgumentException("Reading " + answer + " is not between " + min[symptom]
+                    + " and " + max[symptom]);
+        }
+
+        return evaluate(symptom, value, age, sex);
+    }
+
+    /**
+     * Returns the IDs of the vital signs, in the order of their <code>vitalSign/3</code> facts
+     *
+     * @return IDs of the vital signs
+     */
+    public int[] getVitalSigns() {
+        return vitalSigns;
+    }
+
+    /**
+     * Returns the IDs of the dichotomous symptoms whose affirmation is an emergency
+     *
+     * @return IDs of the dichotomous symptoms whose affirmation is an emergency
+     */
+    public int[] getEmergencyAnswers() {
+        return emergencyAnswers;
+    }
+
+    /**
+     * Returns the number of bands in the table
+     *
+     * @return number of bands in the table
+     */
+    public int getNumBands() {
+        return bandSymptom.length;
+    }
+
+    /**
+     * Returns the ID of the vital sign of a band
+     *
+     * @param band index of the band (bands are sorted by vital sign)
+     * @return ID of the vital sign of the band
+     */
+    public int getBandSymptom(int band) {
+        return bandSymptom[band];
+    }
+
+    /**
+     * Returns the answer code of a band
+     *
+     * @param band index of the band
+     * @return answer code of the band
+     */
+    public int getBandCode(int band) {
+        return bandCode[band];
+    }
+
+    /**
+     * Returns the smallest age (inclusive) to which a band applies
+     *
+     * @param band index of the band
+     * @return smallest age to which the band applies
+     */
+    public double getBandMinAge(int band) {
+        return bandMinAge[band];
+    }
+
+    /**
+     * Returns the largest age (exclusive) to which a band applies
+     *
+     * @param band index of the band
+     * @return largest age to which the band applies
+     */
+    public double getBandMaxAge(int band) {
+        return bandMaxAge[band];
+    }
+
+    /**
+     * Returns the smallest age (inclusive) to which a band applies as given in the knowledge base, which is
+     * {@link #ADULT} if the band follows the adult age
+     *
+     * @param band index of the band
+     * @return smallest age to which the band applies, or {@link #ADULT}
+     */
+    public double getBandMinAgeBound(int band) {
+        return bandMinAgeBound[band];
+    }
+
+    /**
+     * Returns the largest age (exclusive) to which a band applies as given in the knowledge base, which is
+     * {@link #ADULT} if the band follows the adult age
+     *
+     * @param band index of the band
+     * @return largest age to which the band applies, or {@link #ADULT}
+     */
+    public double getBandMaxAgeBound(int band) {
+        return bandMaxAgeBound[band];
+    }
+
+    /**
+     * Returns the minimum age for a patient to be considered an adult, to which the age bounds equal to
+     * {@link #ADULT} resolve
+     *
+     * @return minimum age for a patient to be considered an adult
+     */
+    public int getAdultAge() {
+        return adultAge;
+    }
+
+    /**
+     * Returns the sexes to which a band applies
+     *
+     * @param band index of the band
+     * @return sexes to which the band applies
+     */
+    public int getBandSex(int band) {
+        return bandSex[band];
+    }
+
+    /**
+     * Returns the smallest reading (inclusive) of a band
+     *
+     * @param band index of the band
+     * @return smallest reading of the band
+     */
+    public double getBandLow(int band) {
+        return bandLow[band];
+    }
+
+    /**
+     * Returns the largest reading (exclusive) of a band
+     *
+     * @param band index of the band
+     * @return largest reading of the band
+     */
+    public double getBandHigh(int band) {
+        return bandHigh[band];
+    }
+}
@@ -0,0 +1,437 @@
+package expert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <b>What-if sensitivity analysis</b> of a finished consultation: how the diagnosis would change had the
+ * patient given the opposite answer to one question (or to two)
+ *
+ * <p>The answers of the consultation are replayed once, keeping an immutable {@link SessionState} before every
+ * answer. A flip is evaluated by resuming from the snapshot taken before the first flipped answer, so the
+ * answers before it are not replayed. After a flip, the questions may take another path: the symptoms that
+ * were asked in the consultation keep their answers, and the ones that were never asked are answered
+ * <i>no</i>. Flipping a vital sign swaps an abnormal reading for a normal one (dropping its emergency, if any)
+ * and the other way around. The flips are evaluated in parallel on a {@link ForkJoinPool}.</p>
+ *
+ * <p>An analysis is immutable, so it can be run on any number of threads.</p>
+ */
+public final class WhatIfAnalysis {
+    /* Number of flips below which a task evaluates them instead of forking */
+    private static final int FLIPS_PER_TASK = 4;
+
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+    /* Age and sex of the patient */
+    private final double age;
+    private final String sex;
+
+    /* IDs of the symptoms asked, in order */
+    private final int[] symptoms;
+    /* State of the consultation before every answer */
+    private final SessionState[] before;
+    /* Answer code of every symptom (indexed by ID): 0 (a negative answer) for the symptoms that were not asked */
+    private final int[] script;
+
+    /* Outcome of the consultation as it was answered */
+    private final Outcome actual;
+
+    private WhatIfAnalysis(KnowledgeBase kb, double age, String sex, int[] symptoms, int[] codes) {
+        this.kb = kb;
+        this.age = age;
+        this.sex = sex;
+        this.symptoms = symptoms;
+
+        before = new SessionState[symptoms.length];
+        script = new int[kb.getNumSymptoms()];
+
+        /* Replay the answers, checking that they follow the flow of the consultation. */
+        DiagnosisSession session = new DiagnosisSession(kb, "", age, sex);
+        for (int k = 0; k < symptoms.length; k++) {
+            if (session.getSymptomId() != symptoms[k]) {
+                throw new IllegalArgumentException("Answer " + (k + 1) + " is about " + kb.getSymptomKey(symptoms[k])
+                        + ", but the consultation asks " + (session.isFinished() ? "nothing more"
+                        : kb.getSymptomKey(session.getSymptomId())));
+            }
+
+            before[k] = session.snapshot();
+            script[symptoms[k]] = codes[k];
+            session.answerCode(codes[k]);
+        }
+
+        if (!session.isFinished()) {
+            throw new IllegalArgumentException("The consultation has not ended");
+        }
+
+        actual = new Outcome(new int[0], session, null, kb.getCFValueConclude());
+    }
+
+    /**
+     * Creates the analysis of a finished consultation given its answers
+     *
+     * @param kb static tables of the knowledge base
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @param symptoms IDs of the symptoms asked, in order
+     * @param codes answer codes of the symptoms (see {@link VitalSignRules})
+     * @return analysis of the consultation
+     * @throws IllegalArgumentException if the answers do not follow the flow of a consultation that has ended
+     */
+    public static WhatIfAnalysis of(KnowledgeBase kb, double age, String sex, int[] symptoms, int[] codes) {
+        if (symptoms.length != codes.length) {
+            throw new IllegalArgumentException("There are " + symptoms.length + " symptoms but " + codes.length
+                    + " answers");
+        }
+        return new WhatIfAnalysis(kb, age, sex, symptoms.clone(), codes.clone());
+    }
+
+    /**
+     * Creates the analysis of a finished consultation given the trace of all its answers
+     *
+     * @param kb static tables of the knowledge base
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @param trace trace of the answers, recorded from the start of the consultation
+     * @return analysis of the consultation
+     * @throws IllegalArgumentException if the trace no longer retains the earliest answers, or the answers do
+     *                                  not follow the flow of a consultation that has ended
+     */
+    public static WhatIfAnalysis of(KnowledgeBase kb, double age, String sex, ExplanationTrace trace) {
+        if (trace.size() != trace.getNumRecorded()) {
+            throw new IllegalArgumentException("The trace no longer retains the earliest answers");
+        }
+
+        int[] symptoms = new int[trace.size()];
+        int[] codes = new int[trace.size()];
+        for (int k = 0; k < symptoms.length; k++) {
+            symptoms[k] = trace.getSymptom(k);
+            codes[k] = trace.getCode(k);
+        }
+        return new WhatIfAnalysis(kb, age, sex, symptoms, codes);
+    }
+
+    /**
+     * Creates the analysis of a finished consultation whose answers have all been recorded (see
+     * {@link DiagnosisSession#enableTrace(int)})
+     *
+     * @param session finished consultation
+     * @return analysis of the consultation
+     * @throws IllegalArgumentException if the consultation has not ended, or its answers have not all been
+     *                                  recorded
+     */
+    public static WhatIfAnalysis of(DiagnosisSession session) {
+        ExplanationTrace trace = session.getTrace();
+        if (trace == null || trace.getNumRecorded() != session.getNumAnswers()) {
+            throw new IllegalArgumentException("The answers of the consultation have not all been recorded");
+        }
+        return of(session.getKnowledgeBase(), session.getAge(), session.getSex(), trace);
+    }
+
+    /**
+     * Returns the number of answers of the consultation
+     *
+     * @return number of answers
+     */
+    public int getNumAnswers() {
+        return symptoms.length;
+    }
+
+    /**
+     * Returns the outcome of the consultation as it was answered
+     *
+     * @return actual outcome
+     */
+    public Outcome getActual() {
+        return actual;
+    }
+
+    /**
+     * Evaluates the flip of every answer, in parallel
+     *
+     * @param pool pool on which the flips are evaluated
+     * @return outcome of every flip, in the order of the answers
+     */
+    public List<Outcome> flipEach(ForkJoinPool pool) {
+        return Collections.unmodifiableList(Arrays.asList(evaluate(pool, singleFlips())));
+    }
+
+    /**
+     * Evaluates the flips of every pair of answers, in parallel, and returns the ones whose outcome matters
+     * although neither flip does on its own: pairs that change the top diagnosis or cross
+     * <code>cfValueConclude</code>, made of answers that do not when flipped alone
+     *
+     * @param pool pool on which the flips are evaluated
+     * @return outcomes of the pairs that matter, in the order of the answers
+     */
+    public List<Outcome> flipPairs(ForkJoinPool pool) {
+        Outcome[] singles = evaluate(pool, singleFlips());
+
+        /* Only the answers that do not matter on their own are paired. */
+        int[] quiet = new int[singles.length];
+        int numQuiet = 0;
+        for (int k = 0; k < singles.length; k++) {
+            if (!singles[k].matters()) {
+                quiet[numQuiet++] = k;
+            }
+        }
+
+        int[][] flips = new int[numQuiet * (numQuiet - 1) / 2][];
+        int n = 0;
+        for (int a = 0; a < numQuiet; a++) {
+            for (int b = a + 1; b < numQuiet; b++) {
+                flips[n++] = new int[]{quiet[a], quiet[b]};
+            }
+        }
+
+        List<Outcome> pairs = new ArrayList<>();
+        for (Outcome outcome : evaluate(pool, flips)) {
+            if (outcome.matters()) {
+                pairs.add(outcome);
+            }
+        }
+        return Collections.unmodifiableList(pairs);
+    }
+
+    /**
+     * Renders the flips that change the top diagnosis or cross <code>cfValueConclude</code>, one per line
+     *
+     * @param outcomes outcomes of flips
+     * @return flips that matter, or a line saying that none does
+     */
+    public String describe(List<Outcome> outcomes) {
+        StringBuilder sb = new StringBuilder("What if:\n");
+        int described = 0;
+
+        for (Outcome outcome : outcomes) {
+            if (outcome.matters()) {
+                sb.append("- ").append(outcome.describe()).append('\n');
+                described++;
+            }
+        }
+
+        if (described == 0) {
+            sb.append("No other answer would change the diagnosis.\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the flips of every single answer
+     *
+     * @return index of the answer flipped, per flip
+     */
+    private int[][] singleFlips() {
+        int[][] flips = new int[symptoms.length][];
+        for (int k = 0; k < flips.length; k++) {
+            flips[k] = new int[]{k};
+        }
+        return flips;
+    }
+
+    /**
+     * Evaluates flips in parallel
+     *
+     * @param pool pool on which the flips are evaluated
+     * @param flips indices of the answers flipped together, in increasing order, per flip
+     * @return outcome of every flip
+     */
+    private Outcome[] evaluate(ForkJoinPool pool, int[][] flips) {
+        Outcome[] outcomes = new Outcome[flips.length];
+        pool.invoke(new Flips(flips, outcomes, 0, flips.length));
+        return outcomes;
+    }
+
+    /**
+     * Evaluates one flip by resuming the consultation from the snapshot taken before the first flipped answer
+     *
+     * @param flipped indices of the answers flipped, in increasing order
+     * @return outcome of the flip
+     */
+    private Outcome evaluate(int[] flipped) {
+        int[] flippedSymptoms = new int[flipped.length];
+        for (int k = 0; k < flipped.length; k++) {
+            flippedSymptoms[k] = symptoms[flipped[k]];
+        }
+
+        DiagnosisSession session = new DiagnosisSession(kb, age, sex, before[flipped[0]]);
+        while (!session.isFinished()) {
+            int symptom = session.getSymptomId();
+            int code = script[symptom];
+
+            for (int s : flippedSymptoms) {
+                if (s == symptom) {
+                    code = (code & VitalSignRules.POSITIVE) != 0 ? 0 : VitalSignRules.POSITIVE;
+                }
+            }
+            session.answerCode(code);
+        }
+
+        return new Outcome(flippedSymptoms, session, actual, kb.getCFValueConclude());
+    }
+
+    /**
+     * Task evaluating a range of flips, split in halves until it is small
+     */
+    @SuppressWarnings("serial")     /* Tasks are forked within a pool, never serialized. */
+    private final class Flips extends RecursiveAction {
+        private final int[][] flips;
+        private final Outcome[] outcomes;
+        private final int from;
+        private final int to;
+
+        Flips(int[][] flips, Outcome[] outcomes, int from, int to) {
+            this.flips = flips;
+            this.outcomes = outcomes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FLIPS_PER_TASK) {
+                for (int k = from; k < to; k++) {
+                    outcomes[k] = evaluate(flips[k]);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Flips(flips, outcomes, from, middle), new Flips(flips, outcomes, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Outcome of a consultation whose answers to some symptoms have been flipped
+     */
+    public final class Outcome {
+        /* IDs of the symptoms whose answers have been flipped */
+        private final int[] flipped;
+        /* Disease with the highest certainty factor, and its certainty factor */
+        private final int disease;
+        private final double cf;
+        /* Set to true if a symptom indicative of an emergency has been reported; false, otherwise */
+        private final boolean emergency;
+        /* Number of answers given */
+        private final int numAnswers;
+        /* Set to true if the top diagnosis changes, or if the top certainty factor crosses cfValueConclude */
+        private final boolean changesDiagnosis;
+        private final boolean crossesConclude;
+
+        private Outcome(int[] flipped, DiagnosisSession session, Outcome actual, double conclude) {
+            this.flipped = flipped;
+            this.disease = session.getDiagnosedDisease();
+            this.cf = session.getCF(disease);
+            this.emergency = session.getEmergency();
+            this.numAnswers = session.getNumAnswers();
+            this.changesDiagnosis = actual != null && disease != actual.disease;
+            this.crossesConclude = actual != null && (cf >= conclude) != (actual.cf >= conclude);
+        }
+
+        /**
+         * Returns the IDs of the symptoms whose answers have been flipped
+         *
+         * @return IDs of the symptoms flipped
+         */
+        public int[] getFlippedSymptoms() {
+            return flipped.clone();
+        }
+
+        /**
+         * Returns the index of the disease with the highest certainty factor
+         *
+         * @return index of the top disease
+         */
+        public int getDisease() {
+            return disease;
+        }
+
+        /**
+         * Returns the highest certainty factor
+         *
+         * @return certainty factor of the top disease
+         */
+        public double getCF() {
+            return cf;
+        }
+
+        /**
+         * Returns <code>true</code> if a symptom indicative of an emergency has been reported;
+         * <code>false</code>, otherwise
+         *
+         * @return <code>true</code> if an emergency has been reported; <code>false</code>, otherwise
+         */
+        public boolean getEmergency() {
+            return emergency;
+        }
+
+        /**
+         * Returns the number of answers given
+         *
+         * @return number of answers
+         */
+        public int getNumAnswers() {
+            return numAnswers;
+        }
+
+        /**
+         * Returns <code>true</code> if the top diagnosis differs from the actual one; <code>false</code>,
+         * otherwise
+         *
+         * @return <code>true</code> if the top diagnosis changes; <code>false</code>, otherwise
+         */
+        public boolean changesDiagnosis() {
+            return changesDiagnosis;
+        }
+
+        /**
+         * Returns <code>true</code> if the top certainty factor is on the other side of
+         * <code>cfValueConclude</code> than the actual one; <code>false</code>, otherwise
+         *
+         * @return <code>true</code> if the top certainty factor crosses the threshold; <code>false</code>,
+         * otherwise
+         */
+        public boolean crossesConclude() {
+            return crossesConclude;
+        }
+
+        /**
+         * Returns <code>true</code> if the flip changes the top diagnosis or crosses
+         * <code>cfValueConclude</code>; <code>false</code>, otherwise
+         *
+         * @return <code>true</code> if the flip matters; <code>false</code>, otherwise
+         */
+        public boolean matters() {
+            return changesDiagnosis || crossesConclude;
+        }
+
+        /**
+         * Returns a one-line description of the flip and its outcome, for instance
+         * <code>jointPain: no -&gt; Rheumatoid arthritis (0.81)</code>
+         *
+         * @return description of the flip
+         */
+        public String describe() {
+            StringBuilder sb = new StringBuilder();
+
+            for (int s : flipped) {
+                int original = script[s];
+                sb.append(sb.length() == 0 ? "" : ", ").append(kb.getSymptomKey(s)).append(": ")
+                        .append((original & VitalSignRules.POSITIVE) != 0 ? "no" : "yes");
+            }
+
+            String name = kb.getDiseaseName(disease);
+            sb.append(" -> ").append(name.endsWith(".") ? name.substring(0, name.length() - 1) : name)
+                    .append(" (");
+            CFTable.appendHundredths(sb, cf);
+            sb.append(')');
+
+            if (crossesConclude) {
+                sb.append(cf >= kb.getCFValueConclude() ? ", conclusive" : ", no longer conclusive");
+            }
+            return sb.toString();
+        }
+    }
+}
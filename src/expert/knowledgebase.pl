@@ -1,57 +1,201 @@
-/*  The predicates holding the lists of symptoms for each disease and the list of values
- *  of the confidence factors are declared as dynamic so that their contents can be updated
- *  (using retractions and assertions) as the program runs.
+/*  The per-session state of the knowledge base is declared as dynamic so that it can be updated
+ *  (using retractions and assertions) as the program runs:
+ *     - cf/2 holds the certainty factor of each disease, indexed as in mapping/2;
+ *     - removed/1 holds the symptoms that have already been asked or ruled out for the patient.
+ *  The static facts below are never modified, so adding a disease only requires adding facts.
  */
-:- dynamic cf/1.
-:- dynamic addisonSymptoms/1.
-:- dynamic dermatomyositisSymptoms/1.
-:- dynamic hashimotoSymptoms/1.
-:- dynamic multipleSclerosisSymptoms/1.
-:- dynamic lupusSymptoms/1.
-:- dynamic graveSymptoms/1.
-:- dynamic myastheniaGravisSymptoms/1.
-:- dynamic celiacSymptoms/1.
-:- dynamic reactiveArthritisSymptoms/1.
-:- dynamic sjogrenSymptoms/1.
-:- dynamic perniciousAnemiaSymptoms/1.
-:- dynamic rheumatoidArthritisSymptoms/1.
-:- dynamic diabetesSymptoms/1.
-:- dynamic crohnsSymptoms/1.
-:- dynamic alopeciaAreataSymptoms/1.
-
-
-/* The values of the "constants" used in the system (such as the number of diseases and the minimum
- * age for a patient to be considered an adult, among others) are stored in descriptive predicates.
+:- dynamic cf/2.
+:- dynamic removed/1.
+
+
+/* The values of the "constants" used in the system (such as the minimum age for a patient to be
+ * considered an adult, among others) are stored in descriptive predicates. The number of diseases is
+ * derived from mapping/2 (see numberOfDiseases/1), and the thresholds for the vital signs are given by
+ * the bands below the display/2 predicate.
  */
-numberOfDiseases(15).
 adultAge(18).
-feverEmergencyDiagnosis(40).
-slowHeartRateEmergencyDiagnosis(30).
-feverDiagnosis(39.5).
-slowHeartRateChildDiagnosis(70).
-slowHeartRateAdultDiagnosis(60).
 cfValueRemove(0.2).
 cfValueConclude(0.99).
 
-/* The following predicates are used to hold the list of symptoms for each of the diseases in the
- * symptom. Elements are deleted from this list as the program runs in order to prevent asking the
- * patient duplicate inquiries.
+/* The hasSymptom/2 predicate associates each disease with one of its symptoms. The facts of a disease
+ * are listed in the order in which its symptoms are probed. Symptoms are never deleted from these facts;
+ * symptoms that have already been asked are instead recorded in removed/1.
+ */
+hasSymptom(addison, muscleWeakness).
+hasSymptom(addison, fatigue).
+hasSymptom(addison, orthoHypotension).
+hasSymptom(addison, hyperpigmentation).
+hasSymptom(addison, blackFreckles).
+hasSymptom(addison, discoloration).
+hasSymptom(addison, nausea).
+hasSymptom(addison, vomiting).
+hasSymptom(addison, diarrhea).
+hasSymptom(addison, coldSensitivity).
+hasSymptom(addison, weightLoss).
+hasSymptom(addison, dehydration).
+
+hasSymptom(dermatomyositis, rashes).
+hasSymptom(dermatomyositis, redVioletBumps).
+hasSymptom(dermatomyositis, gottron).
+hasSymptom(dermatomyositis, muscleWeakness).
+hasSymptom(dermatomyositis, jointPain).
+hasSymptom(dermatomyositis, jointSwelling).
+hasSymptom(dermatomyositis, discoloredSkin).
+hasSymptom(dermatomyositis, thickenedSkin).
+
+hasSymptom(hashimoto, goiter).
+hasSymptom(hashimoto, tiredness).
+hasSymptom(hashimoto, weightGain).
+hasSymptom(hashimoto, coldSensitivity).
+hasSymptom(hashimoto, jointPain).
+hasSymptom(hashimoto, musclePain).
+hasSymptom(hashimoto, constipation).
+hasSymptom(hashimoto, thinningHair).
+hasSymptom(hashimoto, memoryProblem).
+hasSymptom(hashimoto, slowHeartRate).
+hasSymptom(hashimoto, irregularMenstruation).
+
+hasSymptom(multipleSclerosis, paresthesia).
+hasSymptom(multipleSclerosis, clumsiness).
+hasSymptom(multipleSclerosis, visionLoss).
+hasSymptom(multipleSclerosis, muscleWeakness).
+hasSymptom(multipleSclerosis, vertigo).
+hasSymptom(multipleSclerosis, fatigue).
+hasSymptom(multipleSclerosis, decreasedBladderControl).
+hasSymptom(multipleSclerosis, shortAttentionSpan).
+hasSymptom(multipleSclerosis, difficultyProcessing).
+hasSymptom(multipleSclerosis, anxiety).
+hasSymptom(multipleSclerosis, constipation).
+hasSymptom(multipleSclerosis, difficultyChewing).
+
+hasSymptom(lupus, fatigue).
+hasSymptom(lupus, jointSwelling).
+hasSymptom(lupus, jointPain).
+hasSymptom(lupus, headache).
+hasSymptom(lupus, fever).
+hasSymptom(lupus, lightSensitivity).
+hasSymptom(lupus, chestPain).
+hasSymptom(lupus, butterflyRash).
+hasSymptom(lupus, hairLoss).
+hasSymptom(lupus, mouthSores).
+hasSymptom(lupus, raynaud).
+hasSymptom(lupus, abdominalPain).
+
+hasSymptom(grave, irregularHeartbeat).
+hasSymptom(grave, diarrhea).
+hasSymptom(grave, goiter).
+hasSymptom(grave, heatSensitivity).
+hasSymptom(grave, irritable).
+hasSymptom(grave, muscleWeakness).
+hasSymptom(grave, fatigue).
+hasSymptom(grave, tremblingHands).
+hasSymptom(grave, difficultySleeping).
+hasSymptom(grave, weightLoss).
+hasSymptom(grave, bulgingEyes).
+hasSymptom(grave, doubleVision).
+hasSymptom(grave, eyeSwelling).
+
+hasSymptom(myastheniaGravis, droopingEyelid).
+hasSymptom(myastheniaGravis, doubleVision).
+hasSymptom(myastheniaGravis, difficultyFacialExpression).
+hasSymptom(myastheniaGravis, difficultyChewing).
+hasSymptom(myastheniaGravis, difficultySwallowing).
+hasSymptom(myastheniaGravis, slurredSpeech).
+hasSymptom(myastheniaGravis, muscleWeakness).
+hasSymptom(myastheniaGravis, difficultyBreathing).
+
+hasSymptom(celiac, abdominalBloating).
+hasSymptom(celiac, abdominalPain).
+hasSymptom(celiac, constipation).
+hasSymptom(celiac, diarrhea).
+hasSymptom(celiac, weightLoss).
+hasSymptom(celiac, paleStool).
+hasSymptom(celiac, skinRashBlister).
+hasSymptom(celiac, mouthSores).
+hasSymptom(celiac, jointPain).
+hasSymptom(celiac, failureToThrive).
+hasSymptom(celiac, legTingling).
+hasSymptom(celiac, irregularMenstruation).
+
+hasSymptom(reactiveArthritis, jointPain).
+hasSymptom(reactiveArthritis, heelPain).
+hasSymptom(reactiveArthritis, backPain).
+hasSymptom(reactiveArthritis, conjunctivitis).
+hasSymptom(reactiveArthritis, eyePain).
+hasSymptom(reactiveArthritis, blurredVision).
+hasSymptom(reactiveArthritis, painfulUrination).
+hasSymptom(reactiveArthritis, frequentUrination).
+hasSymptom(reactiveArthritis, fever).
+hasSymptom(reactiveArthritis, fatigue).
+hasSymptom(reactiveArthritis, hairLoss).
+hasSymptom(reactiveArthritis, mucocutaneousLesion).
+hasSymptom(reactiveArthritis, keratomadermaBlennorrhagicum).
+
+hasSymptom(sjogren, dryEyes).
+hasSymptom(sjogren, dryMouth).
+hasSymptom(sjogren, difficultyChewing).
+hasSymptom(sjogren, difficultySwallowing).
+hasSymptom(sjogren, raynaud).
+hasSymptom(sjogren, fatigue).
+hasSymptom(sjogren, vaginalDryness).
+hasSymptom(sjogren, musclePain).
+hasSymptom(sjogren, jointPain).
+hasSymptom(sjogren, swollenSalivaryGland).
+hasSymptom(sjogren, rashes).
+
+hasSymptom(perniciousAnemia, fatigue).
+hasSymptom(perniciousAnemia, shortnessOfBreath).
+hasSymptom(perniciousAnemia, dizziness).
+hasSymptom(perniciousAnemia, headache).
+hasSymptom(perniciousAnemia, chestPain).
+hasSymptom(perniciousAnemia, legTingling).
+hasSymptom(perniciousAnemia, muscleWeakness).
+hasSymptom(perniciousAnemia, balanceLoss).
+hasSymptom(perniciousAnemia, nausea).
+hasSymptom(perniciousAnemia, vomiting).
+hasSymptom(perniciousAnemia, constipation).
+hasSymptom(perniciousAnemia, diarrhea).
+hasSymptom(perniciousAnemia, appetiteLoss).
+hasSymptom(perniciousAnemia, weightLoss).
+hasSymptom(perniciousAnemia, redTongue).
+
+hasSymptom(rheumatoidArthritis, jointPain).
+hasSymptom(rheumatoidArthritis, jointStiffness).
+hasSymptom(rheumatoidArthritis, jointSwelling).
+hasSymptom(rheumatoidArthritis, bilateralJointProblem).
+hasSymptom(rheumatoidArthritis, weightLoss).
+hasSymptom(rheumatoidArthritis, fever).
+hasSymptom(rheumatoidArthritis, fatigue).
+hasSymptom(rheumatoidArthritis, muscleWeakness).
+
+hasSymptom(diabetes, thirst).
+hasSymptom(diabetes, frequentUrination).
+hasSymptom(diabetes, fatigue).
+hasSymptom(diabetes, weightLoss).
+hasSymptom(diabetes, oralThrush).
+hasSymptom(diabetes, blurredVision).
+hasSymptom(diabetes, persistentCut).
+
+hasSymptom(crohns, abdominalPain).
+hasSymptom(crohns, diarrhea).
+hasSymptom(crohns, fever).
+hasSymptom(crohns, appetiteLoss).
+hasSymptom(crohns, weightLoss).
+hasSymptom(crohns, skinTag).
+hasSymptom(crohns, rectalBleeding).
+hasSymptom(crohns, analFissure).
+
+hasSymptom(alopeciaAreata, baldPatches).
+hasSymptom(alopeciaAreata, baldAreaItching).
+hasSymptom(alopeciaAreata, fingerNailIssue).
+hasSymptom(alopeciaAreata, hairLoss).
+
+/* The femaleSymptom/1 and pediatricSymptom/1 predicates list the symptoms that are removed beforehand
+ * if the patient is male or an adult, respectively, to make probing more targeted.
  */
-addisonSymptoms([muscleWeakness, fatigue, orthoHypotension, hyperpigmentation, blackFreckles, discoloration, nausea, vomiting, diarrhea, coldSensitivity, weightLoss, dehydration]).
-dermatomyositisSymptoms([rashes, redVioletBumps, gottron, muscleWeakness, jointPain, jointSwelling, discoloredSkin, thickenedSkin]).
-hashimotoSymptoms([goiter, tiredness, weightGain, coldSensitivity, jointPain, musclePain, constipation, thinningHair, memoryProblem, slowHeartRate, irregularMenstruation]).
-multipleSclerosisSymptoms([paresthesia, clumsiness, visionLoss, muscleWeakness, vertigo, fatigue, decreasedBladderControl, shortAttentionSpan, difficultyProcessing, anxiety, constipation, difficultyChewing]).
-lupusSymptoms([fatigue, jointSwelling, jointPain, headache, fever, lightSensitivity, chestPain, butterflyRash, hairLoss, mouthSores, raynaud, abdominalPain]).
-graveSymptoms([irregularHeartbeat, diarrhea, goiter, heatSensitivity, irritable, muscleWeakness, fatigue, tremblingHands, difficultySleeping, weightLoss, bulgingEyes, doubleVision, eyeSwelling]).
-myastheniaGravisSymptoms([droopingEyelid, doubleVision, difficultyFacialExpression, difficultyChewing, difficultySwallowing, slurredSpeech, muscleWeakness, difficultyBreathing]).
-celiacSymptoms([abdominalBloating, abdominalPain, constipation, diarrhea, weightLoss, paleStool, skinRashBlister, mouthSores, jointPain, failureToThrive, legTingling, irregularMenstruation]).
-reactiveArthritisSymptoms([jointPain, heelPain, backPain, conjunctivitis, eyePain, blurredVision, painfulUrination, frequentUrination, fever, fatigue, hairLoss, mucocutaneousLesion, keratomadermaBlennorrhagicum]).
-sjogrenSymptoms([dryEyes, dryMouth, difficultyChewing, difficultySwallowing, raynaud, fatigue, vaginalDryness, musclePain, jointPain,swollenSalivaryGland, rashes]).
-perniciousAnemiaSymptoms([fatigue, shortnessOfBreath, dizziness, headache, chestPain, legTingling, muscleWeakness, balanceLoss, nausea, vomiting, constipation, diarrhea, appetiteLoss, weightLoss, redTongue]).
-rheumatoidArthritisSymptoms([jointPain, jointStiffness, jointSwelling, bilateralJointProblem, weightLoss, fever, fatigue, muscleWeakness]).
-diabetesSymptoms([thirst, frequentUrination, fatigue, weightLoss, oralThrush, blurredVision, persistentCut]).
-crohnsSymptoms([abdominalPain, diarrhea, fever, appetiteLoss, weightLoss, skinTag, rectalBleeding, analFissure]).
-alopeciaAreataSymptoms([baldPatches, baldAreaItching, fingerNailIssue, hairLoss]).
+femaleSymptom(irregularMenstruation).
+femaleSymptom(vaginalDryness).
+pediatricSymptom(failureToThrive).
 
 /* The mapping/2 predicate associates an integer (used as an "index" in this case) with one of the
  * diseases in the system; this predicate is used to systematically process each of the diseases.
@@ -297,293 +441,173 @@ display(vomiting, "PATIENT: Do you experience vomiting? Nakararanas ka ba ng pag
 display(weightGain, "PATIENT: Have you noticed undergoing a sudden weight gain? Mayroon ka bang napapansing biglang pagtaas sa iyong timbang?").
 display(weightLoss, "PATIENT: Have you noticed undergoing a sudden weight loss? Mayroon ka bang napapansing biglang pagbaba sa iyong timbang?").
 
-/* The list of confidence factors, one for each of the fifteen diseases
- * in the knowledge base, is stored using the predicate cf/1.
+/* The vitalSign/3 predicate marks the symptoms that are asked as open-ended questions (the vital signs),
+ * together with the range of valid readings (inclusive).
  */
-cf([0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0]).
-
-/**
- * deleteOne(+X : string).
- *
- * Succeeds if L1 is a list present in the knowledge base
- * (specifically, the list of symptoms of alopecia areata).
- *
- * @param X the symptom to be deleted from L1.
+vitalSign(fever, 25, 45).
+vitalSign(slowHeartRate, 0, 300).
+
+/* The diagnosisBand/6 and emergencyBand/6 predicates give the readings of a vital sign that count as an
+ * affirmation of the symptom and as an emergency, respectively:
+ *    diagnosisBand(Symptom, MinAge, MaxAge, Sex, Low, High)
+ * A band applies to patients whose age is at least MinAge and less than MaxAge and whose sex is Sex
+ * (male, female, or any), and covers the readings that are at least Low and less than High. The atom inf
+ * stands for an unbounded upper limit, and the atom adult for the age given by adultAge/1, so that the
+ * bands that tell children from adults follow it. Adding a vital sign (such as the respiratory rate) only
+ * requires adding its weight/2, display/2, vitalSign/3, and band facts.
  */
-deleteOne(X) :-
-     /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-      * new list is asserted to the knowledge base.
-      */
-    alopeciaAreataSymptoms(L1),
-    delete(L1, X, NL1),
-    retract(alopeciaAreataSymptoms(L1)),
-    asserta(alopeciaAreataSymptoms(NL1)).
+diagnosisBand(fever, 0, inf, any, 39.5, inf).
+diagnosisBand(slowHeartRate, 0, adult, any, 0, 70).
+diagnosisBand(slowHeartRate, adult, inf, any, 0, 60).
 
-/**
- * deleteTwo(+X : string).
- *
- * Succeeds if L2 is a list present in the knowledge base (specifically, the list of symptoms of
- * Crohn's disease).
- *
- * @param X the symptom to be deleted from L2.
- */
-deleteTwo(X) :-
-     /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-      * new list is asserted to the knowledge base.
-      */
-    crohnsSymptoms(L2),
-    delete(L2, X, NL2),
-    retract(crohnsSymptoms(L2)),
-    asserta(crohnsSymptoms(NL2)).
+emergencyBand(fever, 0, inf, any, 40, inf).
+emergencyBand(slowHeartRate, 0, inf, any, 0, 30).
 
-/**
- * deleteThree(+X : string).
- *
- * Succeeds if L3 is a list present in the knowledge base (specifically, the list of symptoms of
- * type I diabetes).
- *
- * @param X the symptom to be deleted from L3.
+/* The emergencyAnswer/1 predicate lists the dichotomous symptoms whose affirmation is indicative of an
+ * emergency.
  */
-deleteThree(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    diabetesSymptoms(L3),
-    delete(L3, X, NL3),
-    retract(diabetesSymptoms(L3)),
-    asserta(diabetesSymptoms(NL3)).
+emergencyAnswer(chestPain).
 
 /**
- * deleteFour(+X : string).
+ * numberOfDiseases(-N : integer).
  *
- * Succeeds if L4 is a list present in the knowledge base (specifically, the list of symptoms of
- * rheumatoid arthritis).
+ * Always succeeds.
  *
- * @param X the symptom to be deleted from L4.
+ * @param N the number of diseases in the knowledge base (that is, the number of mapping/2 facts).
  */
-deleteFour(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    rheumatoidArthritisSymptoms(L4),
-    delete(L4, X, NL4),
-    retract(rheumatoidArthritisSymptoms(L4)),
-    asserta(rheumatoidArthritisSymptoms(NL4)).
+numberOfDiseases(N) :-
+    aggregate_all(count, mapping(_, _), N).
 
 /**
- * deleteFive(+X : string).
+ * remainingSymptoms(+Index : integer, -Symptoms : list).
  *
- * Succeeds if L5 is a list present in the knowledge base (specifically, the list of symptoms of
- * pernicious anemia).
+ * Succeeds if a mapping exists from the passed index to one of the diseases in the
+ * knowledge base.
  *
- * @param X the symptom to be deleted from L5.
+ * @param Index the index of the disease.
+ * @param Symptoms the symptoms of the disease that have not yet been removed, in the order in
+ *        which they are probed.
  */
-deleteFive(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    perniciousAnemiaSymptoms(L5),
-    delete(L5, X, NL5),
-    retract(perniciousAnemiaSymptoms(L5)),
-    asserta(perniciousAnemiaSymptoms(NL5)).
+remainingSymptoms(Index, Symptoms) :-
+    mapping(Index, Disease),
+    findall(Symptom, (hasSymptom(Disease, Symptom), \+ removed(Symptom)), Symptoms).
 
 /**
- * deleteSix(+X : string).
+ * affectedDiseases(+Symptom : string, -Indices : list).
  *
- * Succeeds if L6 is a list present in the knowledge base (specifically, the list of symptoms of
- * Sjogren syndrome).
- *
- * @param X the symptom to be deleted from L6.
- */
-deleteSix(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    sjogrenSymptoms(L6),
-    delete(L6, X, NL6),
-    retract(sjogrenSymptoms(L6)),
-    asserta(sjogrenSymptoms(NL6)).
-
-/**
- * deleteSeven(+X : string).
+ * Always succeeds.
  *
- * Succeeds if L7 is a list present in the knowledge base (specifically, the list of symptoms of
- * reactive arthritis).
+ * Used to find the diseases whose certainty factors are updated when the patient responds to the
+ * inquiry about Symptom. Both hasSymptom/2 and mapping/2 are called with their second argument bound,
+ * which SWI-Prolog serves through just-in-time indexing on that argument.
  *
- * @param X the symptom to be deleted from L7.
+ * @param Symptom the symptom being considered.
+ * @param Indices the indices of the diseases associated with the symptom, in ascending order.
  */
-deleteSeven(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    reactiveArthritisSymptoms(L7),
-    delete(L7, X, NL7),
-    retract(reactiveArthritisSymptoms(L7)),
-    asserta(reactiveArthritisSymptoms(NL7)).
+affectedDiseases(Symptom, Indices) :-
+    findall(Index, (hasSymptom(Disease, Symptom), mapping(Index, Disease)), Unsorted),
+    sort(Unsorted, Indices).
 
 /**
- * deleteEight(+X : string).
+ * cfValues(-CFs : list).
  *
- * Succeeds if L8 is a list present in the knowledge base (specifically, the list of symptoms of
- * celiac disease).
+ * Always succeeds.
  *
- * @param X the symptom to be deleted from L8.
+ * @param CFs the certainty factors of all the diseases, ordered by their indices in mapping/2.
  */
-deleteEight(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    celiacSymptoms(L8),
-    delete(L8, X, NL8),
-    retract(celiacSymptoms(L8)),
-    asserta(celiacSymptoms(NL8)).
+cfValues(CFs) :-
+    numberOfDiseases(N),
+    Last is N - 1,
+    findall(CF, (between(0, Last, Index), cf(Index, CF)), CFs).
 
 /**
- * deleteNine(+X : string).
+ * updateCF(+Symptom : string, +Answer : integer).
  *
- * Succeeds if L9 is a list present in the knowledge base (specifically, the list of symptoms of
- * myasthenia gravis).
+ * Succeeds if Symptom has a weight in the knowledge base.
  *
- * @param X the symptom to be deleted from L9.
- */
-deleteNine(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    myastheniaGravisSymptoms(L9),
-    delete(L9, X, NL9),
-    retract(myastheniaGravisSymptoms(L9)),
-    asserta(myastheniaGravisSymptoms(NL9)).
-
-/**
- * deleteTen(+X : string).
+ * Used to update the certainty factors of all the diseases associated with Symptom following the
+ * patient's response, in a single call.
  *
- * Succeeds if L10 is a list present in the knowledge base (specifically, the list of symptoms of
- * Grave's disease).
- *
- * @param X the symptom to be deleted from L10.
+ * @param Symptom the symptom being considered.
+ * @param Answer signifies whether the user response is positive(1) or negative(0).
  */
-deleteTen(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
+updateCF(Symptom, Answer) :-
+    /* The signed weight of the symptom is computed once, after which the certainty factor of each
+     * associated disease is replaced with its updated value.
      */
-    graveSymptoms(L10),
-    delete(L10, X, NL10),
-    retract(graveSymptoms(L10)),
-    asserta(graveSymptoms(NL10)).
+    weight(Symptom, Weight),
+    adjustedWeight(Weight, Answer, TrueWeight),
+    affectedDiseases(Symptom, Indices),
+    forall(member(Index, Indices),
+           (   cf(Index, CF),
+               confidenceFactor(CF, TrueWeight, NewCF),
+               retract(cf(Index, CF)),
+               assertz(cf(Index, NewCF))
+           )).
 
 /**
- * deleteEleven(+X : string).
- *
- * Succeeds if L11 is a list present in the knowledge base (specifically, the list of symptoms of
- * lupus).
+ * deleteAll(+Symptom : string).
  *
- * @param X the symptom to be deleted from L11.
- */
-deleteEleven(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    lupusSymptoms(L11),
-    delete(L11, X, NL11),
-    retract(lupusSymptoms(L11)),
-    asserta(lupusSymptoms(NL11)).
-
-/**
- * deleteTwelve(+X : string).
+ * Always succeeds.
  *
- * Succeeds if L12 is a list present in the knowledge base (specifically, the list of symptoms of
- * multiple sclerosis).
+ * Used to remove a symptom from the symptoms of every disease, in order to prevent asking the
+ * patient duplicate inquiries.
  *
- * @param X the symptom to be deleted from L12.
+ * @param Symptom the symptom to be removed.
  */
-deleteTwelve(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    multipleSclerosisSymptoms(L12),
-    delete(L12, X, NL12),
-    retract(multipleSclerosisSymptoms(L12)),
-    asserta(multipleSclerosisSymptoms(NL12)).
+deleteAll(Symptom) :-
+    /* The symptom has already been removed. */
+    removed(Symptom),
+    !.
+
+deleteAll(Symptom) :-
+    assertz(removed(Symptom)).
 
 /**
- * deleteThirteen(+X : string).
+ * removedSymptoms(-Symptoms : list).
  *
- * Succeeds if L13 is a list present in the knowledge base (specifically, the list of symptoms of
- * Hashimoto thyroiditis).
+ * Always succeeds.
  *
- * @param X the symptom to be deleted from L13.
+ * @param Symptoms the symptoms that have already been asked or ruled out.
  */
-deleteThirteen(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    hashimotoSymptoms(L13),
-    delete(L13, X, NL13),
-    retract(hashimotoSymptoms(L13)),
-    asserta(hashimotoSymptoms(NL13)).
+removedSymptoms(Symptoms) :-
+    findall(Symptom, removed(Symptom), Symptoms).
 
 /**
- * deleteFourteen(+X : string).
+ * setState(+CFs : list, +Symptoms : list).
+ *
+ * Always succeeds.
  *
- * Succeeds if L14 is a list present in the knowledge base (specifically, the list of symptoms of
- * dermatomyositis).
+ * Used to apply a whole form of answers in a single call: the certainty factors of all the diseases
+ * are replaced at once, and the answered symptoms are removed.
  *
- * @param X the symptom to be deleted from L14.
+ * @param CFs the certainty factors of all the diseases, ordered by their indices in mapping/2.
+ * @param Symptoms the symptoms to be removed.
  */
-deleteFourteen(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    dermatomyositisSymptoms(L14),
-    delete(L14, X, NL14),
-    retract(dermatomyositisSymptoms(L14)),
-    asserta(dermatomyositisSymptoms(NL14)).
+setState(CFs, Symptoms) :-
+    retractall(cf(_, _)),
+    forall(nth0(Index, CFs, CF), assertz(cf(Index, CF))),
+    forall(member(Symptom, Symptoms), deleteAll(Symptom)).
 
 /**
- * deleteFifteen(+X : string).
+ * removeFemaleSymptoms.
  *
- * Succeeds if L15 is a list present in the knowledge base (specifically, the list of symptoms of
- * Addison disease).
+ * Always succeeds.
  *
- * @param X the symptom to be deleted from L15.
+ * Used to remove the female-specific symptoms if the patient is male.
  */
-deleteFifteen(X) :-
-    /* The passed symptom is deleted from the list. Afterwards, the original list is retracted and the
-     * new list is asserted to the knowledge base.
-     */
-    addisonSymptoms(L15),
-    delete(L15, X, NL15),
-    retract(addisonSymptoms(L15)),
-    asserta(addisonSymptoms(NL15)).
+removeFemaleSymptoms :-
+    forall(femaleSymptom(Symptom), deleteAll(Symptom)).
 
 /**
- * deleteAll(+Symptom : string).
+ * removeChildSymptoms.
  *
- * Succeeds if the deletion rules for each of the diseases (deleteOne/1 through deleteFifteen/1)
- * are defined in the knowledge base.
+ * Always succeeds.
  *
- * @param Symptom the symptom to be deleted from the lists of symptoms of each disease.
+ * Used to remove the pediatric symptoms if the patient is an adult.
  */
-deleteAll(Symptom) :-
-    /* The passed symptom is deleted from the list of symptoms of each of the fifteen diseases
-     * in the knowledge base.
-     */
-    deleteOne(Symptom),
-    deleteTwo(Symptom),
-    deleteThree(Symptom),
-    deleteFour(Symptom),
-    deleteFive(Symptom),
-    deleteSix(Symptom),
-    deleteSeven(Symptom),
-    deleteEight(Symptom),
-    deleteNine(Symptom),
-    deleteTen(Symptom),
-    deleteEleven(Symptom),
-    deleteTwelve(Symptom),
-    deleteThirteen(Symptom),
-    deleteFourteen(Symptom),
-    deleteFifteen(Symptom).
+removeChildSymptoms :-
+    forall(pediatricSymptom(Symptom), deleteAll(Symptom)).
 
 /**
  * getDiagnosis(+CF : float, +Index : integer, +Emergency : string,
@@ -750,38 +774,12 @@ adjustedWeight(Weight, Answer, NewWeight) :-
  * Used to restore the original state of the knowledge base when the diagnosis system is reset.
  */
 restore :-
-	/* The lists of symptoms for each of the diseases and the list of confidence factors are retracted.
-	 * Afterwards, lists holding the original values are asserted to the knowledge base.
+	/* The removed symptoms and the certainty factors are retracted. Afterwards, a certainty factor
+	 * of 0 is asserted for each of the diseases in the knowledge base.
 	 */
-	retractall(addisonSymptoms(_)),
-	retractall(dermatomyositisSymptoms(_)),
-	retractall(hashimotoSymptoms(_)),
-	retractall(multipleSclerosisSymptoms(_)),
-	retractall(lupusSymptoms(_)),
-	retractall(graveSymptoms(_)),
-	retractall(myastheniaGravisSymptoms(_)),
-	retractall(celiacSymptoms(_)),
-	retractall(reactiveArthritisSymptoms(_)),
-	retractall(sjogrenSymptoms(_)),
-	retractall(perniciousAnemiaSymptoms(_)),
-	retractall(rheumatoidArthritisSymptoms(_)),
-	retractall(diabetesSymptoms(_)),
-	retractall(crohnsSymptoms(_)),
-	retractall(alopeciaAreataSymptoms(_)),
-	retractall(cf(_)),
-	asserta(addisonSymptoms([muscleWeakness, fatigue, orthoHypotension, hyperpigmentation, blackFreckles, discoloration, nausea, vomiting, diarrhea, coldSensitivity, weightLoss, dehydration])),
-	asserta(dermatomyositisSymptoms([rashes, redVioletBumps, gottron, muscleWeakness, jointPain, jointSwelling, discoloredSkin, thickenedSkin])),
-	asserta(hashimotoSymptoms([goiter, tiredness, weightGain, coldSensitivity, jointPain, musclePain, constipation, thinningHair, memoryProblem, slowHeartRate, irregularMenstruation])),
-	asserta(multipleSclerosisSymptoms([paresthesia, clumsiness, visionLoss, muscleWeakness, vertigo, fatigue, decreasedBladderControl, shortAttentionSpan, difficultyProcessing, anxiety, constipation, difficultyChewing])),
-	asserta(lupusSymptoms([fatigue, jointSwelling, jointPain, headache, fever, lightSensitivity, chestPain, butterflyRash, hairLoss, mouthSores, raynaud, abdominalPain])),
-	asserta(graveSymptoms([irregularHeartbeat, diarrhea, goiter, heatSensitivity, irritable, muscleWeakness, fatigue, tremblingHands, difficultySleeping, weightLoss, bulgingEyes, doubleVision, eyeSwelling])),
-	asserta(myastheniaGravisSymptoms([droopingEyelid, doubleVision, difficultyFacialExpression, difficultyChewing, difficultySwallowing, slurredSpeech, muscleWeakness, difficultyBreathing])),
-	asserta(celiacSymptoms([abdominalBloating, abdominalPain, constipation, diarrhea, weightLoss, paleStool, skinRashBlister, mouthSores, jointPain, failureToThrive, legTingling, irregularMenstruation])),
-	asserta(reactiveArthritisSymptoms([jointPain, heelPain, backPain, conjunctivitis, eyePain, blurredVision, painfulUrination, frequentUrination, fever, fatigue, hairLoss, mucocutaneousLesion, keratomadermaBlennorrhagicum])),
-	asserta(sjogrenSymptoms([dryEyes, dryMouth, difficultyChewing, difficultySwallowing, raynaud, fatigue, vaginalDryness, musclePain, jointPain,swollenSalivaryGland, rashes])),
-	asserta(perniciousAnemiaSymptoms([fatigue, shortnessOfBreath, dizziness, headache, chestPain, legTingling, muscleWeakness, balanceLoss, nausea, vomiting, constipation, diarrhea, appetiteLoss, weightLoss, redTongue])),
-	asserta(rheumatoidArthritisSymptoms([jointPain, jointStiffness, jointSwelling, bilateralJointProblem, weightLoss, fever, fatigue, muscleWeakness])),
-	asserta(diabetesSymptoms([thirst, frequentUrination, fatigue, weightLoss, oralThrush, blurredVision, persistentCut])),
-	asserta(crohnsSymptoms([abdominalPain, diarrhea, fever, appetiteLoss, weightLoss, skinTag, rectalBleeding, analFissure])),
-	asserta(alopeciaAreataSymptoms([baldPatches, baldAreaItching, fingerNailIssue, hairLoss])),
-	asserta(cf([0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0])).
+	retractall(removed(_)),
+	retractall(cf(_, _)),
+	forall(mapping(Index, _), assertz(cf(Index, 0))).
+
+/* The per-session state is initialized once the knowledge base has been consulted. */
+:- initialization(restore).
@@ -8,6 +8,10 @@
  *
  * <p><a href = "https://jpl7.org/">JPL</a> is bundled with SWI Prolog since version 5.4. It is used in this
  * machine project in accordance with the terms in its Simplified BSD License. </p>
+ *
+ * <p>The knowledge base can also run on an embedded interpreter written in pure Java (see
+ * {@link expert.prolog}), without native libraries; the backends are described in {@link expert.PrologBackend}.
+ * </p>
  */
 
 package expert;
\ No newline at end of file
@@ -0,0 +1,242 @@
+package expert.prolog;
+
+/**
+ * Evaluator of arithmetic expressions (<code>is/2</code> and the arithmetic comparisons) over 64-bit integers
+ * and floats
+ *
+ * <p>As in SWI-Prolog, integer operations stay integers, <code>/</code> gives an integer when the division is
+ * exact and a float otherwise, and mixed operations give floats. Integers do not overflow into big integers:
+ * an overflow raises <code>evaluation_error(int_overflow)</code> instead.</p>
+ */
+final class Arithmetic {
+    private Arithmetic() {
+    }
+
+    /**
+     * Evaluates an arithmetic expression
+     *
+     * @param t expression
+     * @return value of the expression (an integer or a float)
+     * @throws IllegalStateException if the expression is not evaluable
+     */
+    static Term eval(Term t) {
+        t = t.deref();
+        if (t instanceof Term.Int || t instanceof Term.Real) {
+            return t;
+        } else if (t instanceof Term.Var) {
+            throw new IllegalStateException("instantiation_error");
+        } else if (t instanceof Term.Atom) {
+            switch (((Term.Atom) t).name) {
+                case "pi":
+                    return Term.real(Math.PI);
+                case "e":
+                    return Term.real(Math.E);
+                case "inf":
+                case "infinite":
+                    return Term.real(Double.POSITIVE_INFINITY);
+                case "nan":
+                    return Term.real(Double.NaN);
+                case "epsilon":
+                    return Term.real(Math.ulp(1.0));
+                case "max_tagged_integer":
+                    return Term.integer((1L << 60) - 1);
+                default:
+                    throw notEvaluable(((Term.Atom) t).name, 0);
+            }
+        } else if (!(t instanceof Term.Struct)) {
+            throw new IllegalStateException("type_error(evaluable, " + t + ")");
+        }
+
+        Term.Struct s = (Term.Struct) t;
+        if (s.args.length == 1) {
+            return unary(s.name, eval(s.args[0]));
+        } else if (s.args.length == 2) {
+            return binary(s.name, eval(s.args[0]), eval(s.args[1]));
+        }
+        throw notEvaluable(s.name, s.args.length);
+    }
+
+    /**
+     * Compares two numbers by value
+     *
+     * @param a number
+     * @param b number
+     * @return negative, zero, or positive if the first number is less than, equal to, or greater than the second
+     */
+    static int compare(Term a, Term b) {
+        if (a instanceof Term.Int && b instanceof Term.Int) {
+            return Long.compare(((Term.Int) a).value, ((Term.Int) b).value);
+        }
+        double x = a.doubleValue();
+        double y = b.doubleValue();
+        return x < y ? -1 : (x > y ? 1 : 0);
+    }
+
+    private static Term unary(String name, Term x) {
+        boolean isInt = x instanceof Term.Int;
+        long i = isInt ? ((Term.Int) x).value : 0;
+        double d = x.doubleValue();
+
+        switch (name) {
+            case "-":
+                return isInt ? integer(Math.negateExact(i)) : real(-d);
+            case "+":
+                return x;
+            case "abs":
+                return isInt ? integer(Math.absExact(i)) : real(Math.abs(d));
+            case "sign":
+                return isInt ? Term.integer(Long.signum(i)) : real(Math.signum(d));
+            case "float":
+                return real(d);
+            case "integer":
+                return isInt ? x : Term.integer(toLong(d < 0 ? -Math.floor(-d + 0.5) : Math.floor(d + 0.5)));
+            case "truncate":
+            case "float_integer_part":
+                return isInt ? x : Term.integer(toLong(d < 0 ? Math.ceil(d) : Math.floor(d)));
+            case "round":
+                return isInt ? x : Term.integer(toLong(d < 0 ? -Math.floor(-d + 0.5) : Math.floor(d + 0.5)));
+            case "ceiling":
+                return isInt ? x : Term.integer(toLong(Math.ceil(d)));
+            case "floor":
+                return isInt ? x : Term.integer(toLong(Math.floor(d)));
+            case "sqrt":
+                return real(Math.sqrt(d));
+            case "exp":
+                return real(Math.exp(d));
+            case "log":
+                if (d <= 0) {
+                    throw new IllegalStateException("evaluation_error(undefined)");
+                }
+                return real(Math.log(d));
+            case "sin":
+                return real(Math.sin(d));
+            case "cos":
+                return real(Math.cos(d));
+            case "tan":
+                return real(Math.tan(d));
+            case "atan":
+                return real(Math.atan(d));
+            case "\\":
+                return Term.integer(~integerOf(x));
+            default:
+                throw notEvaluable(name, 1);
+        }
+    }
+
+    private static Term binary(String name, Term x, Term y) {
+        boolean ints = x instanceof Term.Int && y instanceof Term.Int;
+        try {
+            switch (name) {
+                case "+":
+                    return ints ? integer(Math.addExact(((Term.Int) x).value, ((Term.Int) y).value))
+                            : real(x.doubleValue() + y.doubleValue());
+                case "-":
+                    return ints ? integer(Math.subtractExact(((Term.Int) x).value, ((Term.Int) y).value))
+                            : real(x.doubleValue() - y.doubleValue());
+                case "*":
+                    return ints ? integer(Math.multiplyExact(((Term.Int) x).value, ((Term.Int) y).value))
+                            : real(x.doubleValue() * y.doubleValue());
+                case "/":
+                    if (y.doubleValue() == 0) {
+                        throw new IllegalStateException("evaluation_error(zero_divisor)");
+                    }
+                    if (ints && ((Term.Int) x).value % ((Term.Int) y).value == 0) {
+                        return integer(Math.divideExact(((Term.Int) x).value, ((Term.Int) y).value));
+                    }
+                    return real(x.doubleValue() / y.doubleValue());
+                case "//":
+                    return integer(Math.divideExact(integerOf(x), nonZero(integerOf(y))));
+                case "mod":
+                    return integer(Math.floorMod(integerOf(x), nonZero(integerOf(y))));
+                case "rem":
+                    return integer(integerOf(x) % nonZero(integerOf(y)));
+                case "div":
+                    return integer(Math.floorDiv(integerOf(x), nonZero(integerOf(y))));
+                case "min":
+                    return compare(x, y) <= 0 ? x : y;
+                case "max":
+                    return compare(x, y) >= 0 ? x : y;
+                case "**":
+                case "^":
+                    if (ints) {
+                        return power(((Term.Int) x).value, ((Term.Int) y).value);
+                    }
+                    return real(Math.pow(x.doubleValue(), y.doubleValue()));
+                case "atan2":
+                case "atan":
+                    return real(Math.atan2(x.doubleValue(), y.doubleValue()));
+                case ">>":
+                    return integer(integerOf(x) >> integerOf(y));
+                case "<<":
+                    return integer(integerOf(x) << integerOf(y));
+                case "/\\":
+                    return integer(integerOf(x) & integerOf(y));
+                case "\\/":
+                    return integer(integerOf(x) | integerOf(y));
+                case "xor":
+                    return integer(integerOf(x) ^ integerOf(y));
+                default:
+                    throw notEvaluable(name, 2);
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalStateException("evaluation_error(int_overflow)");
+        }
+    }
+
+    private static Term power(long base, long exponent) {
+        if (exponent < 0) {
+            if (base == 1) {
+                return Term.integer(1);
+            } else if (base == -1) {
+                return Term.integer(exponent % 2 == 0 ? 1 : -1);
+            } else if (base == 0) {
+                throw new IllegalStateException("evaluation_error(zero_divisor)");
+            }
+            return real(Math.pow(base, exponent));
+        }
+
+        long result = 1;
+        for (long k = 0; k < exponent; k++) {
+            result = Math.multiplyExact(result, base);
+        }
+        return Term.integer(result);
+    }
+
+    private static Term integer(long value) {
+        return Term.integer(value);
+    }
+
+    private static Term real(double value) {
+        if (Double.isNaN(value)) {
+            throw new IllegalStateException("evaluation_error(undefined)");
+        } else if (Double.isInfinite(value)) {
+            throw new IllegalStateException("evaluation_error(float_overflow)");
+        }
+        return Term.real(value);
+    }
+
+    private static long integerOf(Term t) {
+        if (!(t instanceof Term.Int)) {
+            throw new IllegalStateException("type_error(integer, " + t + ")");
+        }
+        return ((Term.Int) t).value;
+    }
+
+    private static long nonZero(long value) {
+        if (value == 0) {
+            throw new IllegalStateException("evaluation_error(zero_divisor)");
+        }
+        return value;
+    }
+
+    private static long toLong(double value) {
+        if (Double.isNaN(value) || value < Long.MIN_VALUE || value >= 0x1p63) {
+            throw new IllegalStateException("evaluation_error(int_overflow)");
+        }
+        return (long) value;
+    }
+
+    private static IllegalStateException notEvaluable(String name, int arity) {
+        return new IllegalStateException("type_error(evaluable, " + Writer.atom(name) + "/" + arity + ")");
+    }
+}
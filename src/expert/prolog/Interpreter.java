@@ -0,0 +1,1408 @@
+package expert.prolog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embedded <b>Prolog interpreter</b> written in pure Java, able to consult and run the knowledge base without
+ * SWI-Prolog
+ *
+ * <p>The interpreter covers the part of SWI-Prolog used by the knowledge base: facts and rules with cut,
+ * conjunction, disjunction, if-then-else, and negation as failure; the <code>dynamic/1</code> and
+ * <code>initialization/1</code> directives; <code>assertz/1</code>, <code>retract/1</code>, and
+ * <code>retractall/1</code> under the logical update view; <code>findall/3</code>, <code>forall/2</code>,
+ * <code>aggregate_all(count, Goal, N)</code>, <code>between/3</code>, <code>member/2</code>,
+ * <code>nth0/3</code>, <code>sort/2</code>, <code>string_concat/3</code>, and arithmetic over 64-bit integers
+ * and floats. Unknown predicates raise an existence error, and errors are raised as an
+ * {@link IllegalStateException} whose message is the formal part of the ISO error term.</p>
+ *
+ * <p>The static clauses of a consulted program are shared, read-only, by all the interpreters copied from it
+ * (see {@link #copy()}); only the clauses of the dynamic predicates belong to each interpreter, and they are
+ * stored in arrays that are replaced rather than modified, so a copy costs one small array. An interpreter is
+ * not thread-safe, but copies can run in parallel.</p>
+ */
+public final class Interpreter {
+    /* Outcomes of solving, other than a cut to the call at a given depth (zero or more): backtrack into the
+    remaining alternatives, or stop because the solution has been accepted */
+    private static final int FAIL = -1;
+    private static final int HALT = -2;
+
+    /* Builtin predicates: control constructs, then nondeterministic builtins, then deterministic ones */
+    private static final int B_CONJ = 0;
+    private static final int B_DISJ = 1;
+    private static final int B_IF = 2;
+    private static final int B_NOT = 3;
+    private static final int B_CALL = 4;
+    private static final int B_CUT = 5;
+    private static final int B_TRUE = 6;
+    private static final int B_FAIL = 7;
+    private static final int B_FINDALL = 8;
+    private static final int B_FORALL = 9;
+    private static final int B_AGGREGATE = 10;
+    private static final int B_BETWEEN = 11;
+    private static final int B_MEMBER = 12;
+    private static final int B_NTH0 = 13;
+    private static final int B_NTH1 = 14;
+    private static final int B_RETRACT = 15;
+    private static final int B_UNIFY = 16;
+    private static final int B_NOT_UNIFY = 17;
+    private static final int B_IDENTICAL = 18;
+    private static final int B_NOT_IDENTICAL = 19;
+    private static final int B_VARIANT = 20;
+    private static final int B_NOT_VARIANT = 21;
+    private static final int B_BEFORE = 22;
+    private static final int B_AFTER = 23;
+    private static final int B_NOT_AFTER = 24;
+    private static final int B_NOT_BEFORE = 25;
+    private static final int B_IS = 26;
+    private static final int B_EQ = 27;
+    private static final int B_NE = 28;
+    private static final int B_LT = 29;
+    private static final int B_GT = 30;
+    private static final int B_LE = 31;
+    private static final int B_GE = 32;
+    private static final int B_VAR = 33;
+    private static final int B_NONVAR = 34;
+    private static final int B_ATOM = 35;
+    private static final int B_NUMBER = 36;
+    private static final int B_INTEGER = 37;
+    private static final int B_FLOAT = 38;
+    private static final int B_STRING = 39;
+    private static final int B_ATOMIC = 40;
+    private static final int B_COMPOUND = 41;
+    private static final int B_IS_LIST = 42;
+    private static final int B_GROUND = 43;
+    private static final int B_ASSERTA = 44;
+    private static final int B_ASSERTZ = 45;
+    private static final int B_RETRACTALL = 46;
+    private static final int B_SORT = 47;
+    private static final int B_MSORT = 48;
+    private static final int B_LENGTH = 49;
+    private static final int B_STRING_CONCAT = 50;
+    private static final int B_DYNAMIC = 51;
+
+    /* Names and arities of the builtin predicates, indexed by their numbers */
+    private static final Object[][] BUILTINS = {
+            {",", 2}, {";", 2}, {"->", 2}, {"\\+", 1}, {"call", 1}, {"!", 0}, {"true", 0}, {"fail", 0},
+            {"findall", 3}, {"forall", 2}, {"aggregate_all", 3}, {"between", 3}, {"member", 2}, {"nth0", 3},
+            {"nth1", 3}, {"retract", 1}, {"=", 2}, {"\\=", 2}, {"==", 2}, {"\\==", 2}, {"=@=", 2}, {"\\=@=", 2},
+            {"@<", 2}, {"@>", 2}, {"@=<", 2}, {"@>=", 2}, {"is", 2}, {"=:=", 2}, {"=\\=", 2}, {"<", 2}, {">", 2},
+            {"=<", 2}, {">=", 2}, {"var", 1}, {"nonvar", 1}, {"atom", 1}, {"number", 1}, {"integer", 1},
+            {"float", 1}, {"string", 1}, {"atomic", 1}, {"compound", 1}, {"is_list", 1}, {"ground", 1},
+            {"asserta", 1}, {"assertz", 1}, {"retractall", 1}, {"sort", 2}, {"msort", 2}, {"length", 2},
+            {"string_concat", 3}, {"dynamic", 1}
+    };
+
+    /* Continuation whose only goal accepts the first solution */
+    private static final Frame HALT_FRAME = new Frame(new Callback() {
+        @Override
+        int run(int depth) {
+            return HALT;
+        }
+    }, 0, null);
+
+    /* Predicates of the consulted program, shared by the copies of this interpreter */
+    private final Program program;
+    /* Clauses of the dynamic predicates, indexed by slot (each array is replaced, never modified) */
+    private Clause[][] dynamic;
+    /* Dynamic predicates created by assertions at run time, by name (null if none) */
+    private Map<String, Predicate> local;
+
+    /* Variables bound since the start of the query, so that they can be unbound on backtracking */
+    private Term.Var[] trail = new Term.Var[256];
+    private int trailTop;
+
+    private Interpreter(Program program, Clause[][] dynamic, Map<String, Predicate> local) {
+        this.program = program;
+        this.dynamic = dynamic;
+        this.local = local;
+    }
+
+    /**
+     * Consults a program: reads its clauses, runs its directives, and then runs its initialization goals
+     *
+     * @param fileName name of the file of the program (used in error messages)
+     * @param src source code of the program
+     * @return interpreter holding the program
+     * @throws IllegalArgumentException if the program cannot be parsed, defines a clause of a builtin
+     *                                  predicate, or has a directive or an initialization goal that fails or
+     *                                  raises an error
+     */
+    public static Interpreter consult(String fileName, String src) {
+        Interpreter interpreter = new Interpreter(new Program(), new Clause[0][], null);
+        Reader reader = new Reader(fileName, src);
+        List<Term> initialization = new ArrayList<>();
+        List<String> initializationWhere = new ArrayList<>();
+
+        Term t;
+        while ((t = reader.next()) != null) {
+            if (t instanceof Term.Struct && ((Term.Struct) t).args.length == 1
+                    && (((Term.Struct) t).name.equals(":-") || ((Term.Struct) t).name.equals("?-"))) {
+                Term directive = ((Term.Struct) t).args[0];
+                if (directive instanceof Term.Struct && ((Term.Struct) directive).name.equals("initialization")
+                        && ((Term.Struct) directive).args.length <= 2) {
+                    initialization.add(((Term.Struct) directive).args[0]);
+                    initializationWhere.add(reader.where());
+                } else {
+                    interpreter.directive(directive, reader.where());
+                }
+            } else {
+                interpreter.addClause(t, reader.where());
+            }
+        }
+
+        interpreter.program.freeze();
+        for (int k = 0; k < initialization.size(); k++) {
+            interpreter.directive(initialization.get(k), initializationWhere.get(k));
+        }
+        return interpreter;
+    }
+
+    /**
+     * Returns a copy of this interpreter, sharing its static clauses and holding a copy of its dynamic ones
+     *
+     * @return independent interpreter in the current state of this one
+     */
+    public Interpreter copy() {
+        return new Interpreter(program, dynamic.clone(), local == null ? null : new HashMap<>(local));
+    }
+
+    /**
+     * Solves a goal and keeps the bindings of its first solution
+     *
+     * @param goal goal, whose variables are bound to the values of the first solution
+     * @return <code>true</code> if the goal has a solution; <code>false</code>, otherwise
+     * @throws IllegalStateException if an error is raised while solving the goal
+     */
+    public boolean once(Term goal) {
+        trailTop = 0;
+        boolean solved = false;
+        try {
+            solved = solve(new Frame(goal, 0, HALT_FRAME), 0) == HALT;
+        } catch (StackOverflowError e) {
+            throw new IllegalStateException("resource_error(stack)");
+        } finally {
+            if (!solved) {
+                undo(0);
+            }
+            trailTop = 0;
+        }
+        return solved;
+    }
+
+    /**
+     * Returns the number of clauses of the dynamic predicates of this interpreter
+     *
+     * @return number of dynamic clauses
+     */
+    public int getNumDynamicClauses() {
+        int n = 0;
+        for (Clause[] clauses : dynamic) {
+            n += clauses.length;
+        }
+        return n;
+    }
+
+    /* ---- Consultation ---- */
+
+    private void directive(Term goal, String where) {
+        boolean solved;
+        try {
+            solved = once(goal);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException(where + ": directive raised " + e.getMessage());
+        }
+        if (!solved) {
+            throw new IllegalArgumentException(where + ": directive failed: " + goal);
+        }
+    }
+
+    private void addClause(Term t, String where) {
+        Term head = t;
+        Term body = Term.TRUE;
+        if (t instanceof Term.Struct && ((Term.Struct) t).name.equals(":-") && ((Term.Struct) t).args.length == 2) {
+            head = ((Term.Struct) t).args[0];
+            body = ((Term.Struct) t).args[1];
+        }
+        if (!(head instanceof Term.Atom) && !(head instanceof Term.Struct)) {
+            throw new IllegalArgumentException(where + ": clause head is not callable: " + head);
+        }
+
+        String name = head.name();
+        int arity = head instanceof Term.Struct ? ((Term.Struct) head).args.length : 0;
+        Predicate p = program.define(name, arity);
+        if (p.builtin >= 0) {
+            throw new IllegalArgumentException(where + ": cannot redefine builtin predicate " + name + "/" + arity);
+        }
+
+        Clause clause = Clause.compile(head, body);
+        if (p.dynamic) {
+            dynamic[p.slot] = append(dynamic[p.slot], clause);
+        } else {
+            p.add(clause);
+        }
+    }
+
+    /**
+     * Declares a predicate as dynamic
+     *
+     * @param spec predicate indicator (<code>Name/Arity</code>), or a conjunction or list of them
+     */
+    private void declareDynamic(Term spec) {
+        spec = spec.deref();
+        if (spec instanceof Term.Struct && (((Term.Struct) spec).name.equals(",")
+                || ((Term.Struct) spec).isCons())) {
+            declareDynamic(((Term.Struct) spec).args[0]);
+            declareDynamic(((Term.Struct) spec).args[1]);
+            return;
+        } else if (spec instanceof Term.Atom && ((Term.Atom) spec).name.equals("[]")) {
+            return;
+        }
+
+        if (!(spec instanceof Term.Struct) || !((Term.Struct) spec).name.equals("/")
+                || ((Term.Struct) spec).args.length != 2) {
+            throw new IllegalStateException("type_error(predicate_indicator, " + spec + ")");
+        }
+        String name = ((Term.Struct) spec).arg(1).name();
+        int arity = (int) ((Term.Struct) spec).arg(2).longValue();
+
+        Predicate p = lookup(name, arity);
+        if (p == null) {
+            createDynamic(name, arity);
+        } else if (!p.dynamic) {
+            throw new IllegalStateException("permission_error(modify, static_procedure, " + Writer.atom(name) + "/"
+                    + arity + ")");
+        }
+    }
+
+    /**
+     * Creates a dynamic predicate with no clauses: in the program while it is being consulted, and in this
+     * interpreter only afterwards
+     *
+     * @param name name of the predicate
+     * @param arity arity of the predicate
+     * @return predicate
+     */
+    private Predicate createDynamic(String name, int arity) {
+        Predicate p;
+        if (!program.frozen) {
+            p = program.define(name, arity);
+        } else {
+            p = new Predicate(name, arity, -1);
+            if (local == null) {
+                local = new HashMap<>();
+            }
+            p.nextArity = local.get(name);
+            local.put(name, p);
+        }
+
+        p.dynamic = true;
+        p.slot = dynamic.length;
+        dynamic = Arrays.copyOf(dynamic, dynamic.length + 1);
+        dynamic[p.slot] = Clause.NONE;
+        return p;
+    }
+
+    /* ---- Solving ---- */
+
+    /**
+     * Solves a list of goals, calling the callback at its end for every solution
+     *
+     * @param f goals to be solved, each with the depth of the call it cuts to
+     * @param depth depth of the innermost call in progress
+     * @return <code>FAIL</code> to backtrack, <code>HALT</code> to stop, or the depth of the call to cut to
+     */
+    private int solve(Frame f, int depth) {
+        Term goal = f.goal.deref();
+        Frame next = f.next;
+
+        String name;
+        Term[] args;
+        if (goal instanceof Term.Struct) {
+            name = ((Term.Struct) goal).name;
+            args = ((Term.Struct) goal).args;
+        } else if (goal instanceof Term.Atom) {
+            name = ((Term.Atom) goal).name;
+            args = Term.NO_ARGS;
+        } else if (goal instanceof Callback) {
+            return ((Callback) goal).run(depth);
+        } else if (goal instanceof CutTo) {
+            int r = solve(next, depth);
+            return r == FAIL ? ((CutTo) goal).depth : r;
+        } else if (goal instanceof Term.Var) {
+            throw new IllegalStateException("instantiation_error");
+        } else {
+            throw new IllegalStateException("type_error(callable, " + goal + ")");
+        }
+
+        Predicate p = lookup(name, args.length);
+        if (p == null) {
+            if (name.equals("call") && args.length > 1) {
+                return builtin(B_CALL, new Term[]{addArgs(args)}, f, depth);
+            }
+            throw new IllegalStateException("existence_error(procedure, " + Writer.atom(name) + "/" + args.length
+                    + ")");
+        }
+        if (p.builtin >= 0) {
+            return builtin(p.builtin, args, f, depth);
+        }
+        return call(p, args, next, depth);
+    }
+
+    /**
+     * Calls a user-defined predicate, trying its clauses in order
+     */
+    private int call(Predicate p, Term[] args, Frame next, int depth) {
+        Clause[] clauses = p.dynamic ? dynamic[p.slot] : p.clauses(args);
+        Object key = args.length > 0 ? Clause.keyOf(args[0].deref()) : null;
+        int cutTo = depth + 1;
+        int mark = trailTop;
+
+        for (Clause c : clauses) {
+            if (key != null && c.key != null && !key.equals(c.key)) {
+                continue;
+            }
+
+            Term[] frame = c.numVars == 0 ? Term.NO_ARGS : new Term[c.numVars];
+            if (unifyHead(c.args, args, frame)) {
+                int r;
+                if (c.body == Term.TRUE) {
+                    r = solve(next, depth);
+                } else {
+                    r = solve(new Frame(instantiate(c.body, frame), cutTo, next), cutTo);
+                }
+
+                if (r == cutTo) {
+                    undo(mark);
+                    return FAIL;
+                } else if (r != FAIL) {
+                    return r;
+                }
+            }
+            undo(mark);
+        }
+        return FAIL;
+    }
+
+    /**
+     * Solves a call to a builtin predicate
+     */
+    private int builtin(int id, Term[] args, Frame f, int depth) {
+        Frame next = f.next;
+        int mark = trailTop;
+
+        switch (id) {
+            case B_CONJ:
+                return solve(new Frame(args[0], f.cutTo, new Frame(args[1], f.cutTo, next)), depth);
+            case B_TRUE:
+                return solve(next, depth);
+            case B_FAIL:
+                return FAIL;
+            case B_CUT: {
+                int r = solve(next, depth);
+                return r == FAIL ? f.cutTo : r;
+            }
+            case B_DISJ: {
+                Term left = args[0].deref();
+                if (left instanceof Term.Struct && ((Term.Struct) left).name.equals("->")
+                        && ((Term.Struct) left).args.length == 2) {
+                    Term[] ite = ((Term.Struct) left).args;
+                    return ifThenElse(ite[0], ite[1], args[1], f, depth);
+                }
+
+                int r = solve(new Frame(left, f.cutTo, next), depth);
+                if (r != FAIL) {
+                    return r;
+                }
+                undo(mark);
+                return solve(new Frame(args[1], f.cutTo, next), depth);
+            }
+            case B_IF:
+                return ifThenElse(args[0], args[1], null, f, depth);
+            case B_NOT: {
+                int cutTo = depth + 1;
+                int r = solve(new Frame(args[0], cutTo, HALT_FRAME), cutTo);
+                undo(mark);
+                return r == HALT ? FAIL : solve(next, depth);
+            }
+            case B_CALL: {
+                int cutTo = depth + 1;
+                int r = solve(new Frame(args[0], cutTo, next), cutTo);
+                return r == cutTo ? FAIL : r;
+            }
+            case B_FINDALL: {
+                List<Term> results = new ArrayList<>();
+                Term template = args[0];
+                int cutTo = depth + 1;
+                solve(new Frame(args[1], cutTo, new Frame(new Callback() {
+                    @Override
+                    int run(int d) {
+                        results.add(resolve(template, new IdentityHashMap<>()));
+                        return FAIL;
+                    }
+                }, 0, null)), cutTo);
+                undo(mark);
+                return unify(args[2], Term.list(results)) ? solve(next, depth) : FAIL;
+            }
+            case B_FORALL: {
+                Term action = args[1];
+                int cutTo = depth + 1;
+                int r = solve(new Frame(args[0], cutTo, new Frame(new Callback() {
+                    @Override
+                    int run(int d) {
+                        /* A solution of the condition for which the action fails is a counterexample. */
+                        int m = trailTop;
+                        boolean holds = solveOnce(action, d);
+                        undo(m);
+                        return holds ? FAIL : HALT;
+                    }
+                }, 0, null)), cutTo);
+                undo(mark);
+                return r == HALT ? FAIL : solve(next, depth);
+            }
+            case B_AGGREGATE: {
+                Term spec = args[0].deref();
+                if (!(spec instanceof Term.Atom) || !((Term.Atom) spec).name.equals("count")) {
+                    throw new IllegalStateException("domain_error(aggregate_spec, " + spec + ")");
+                }
+                long[] count = new long[1];
+                int cutTo = depth + 1;
+                solve(new Frame(args[1], cutTo, new Frame(new Callback() {
+                    @Override
+                    int run(int d) {
+                        count[0]++;
+                        return FAIL;
+                    }
+                }, 0, null)), cutTo);
+                undo(mark);
+                return unify(args[2], Term.integer(count[0])) ? solve(next, depth) : FAIL;
+            }
+            case B_BETWEEN:
+                return between(args, next, depth);
+            case B_MEMBER:
+                return member(args, next, depth);
+            case B_NTH0:
+            case B_NTH1:
+                return nth(id == B_NTH0 ? 0 : 1, args, next, depth);
+            case B_RETRACT:
+                return retract(args[0], next, depth);
+            default:
+                return test(id, args) ? solve(next, depth) : FAIL;
+        }
+    }
+
+    private int ifThenElse(Term condition, Term then, Term otherwise, Frame f, int depth) {
+        int mark = trailTop;
+        int cutTo = depth + 1;
+
+        /* The condition is committed to its first solution by cutting back to this call once it succeeds. */
+        int r = solve(new Frame(condition, cutTo, new Frame(new CutTo(cutTo), 0, new Frame(then, f.cutTo, f.next))),
+                cutTo);
+        if (r == cutTo) {
+            undo(mark);
+            return FAIL;
+        } else if (r != FAIL) {
+            return r;
+        }
+
+        undo(mark);
+        return otherwise == null ? FAIL : solve(new Frame(otherwise, f.cutTo, f.next), depth);
+    }
+
+    /**
+     * Returns <code>true</code> if a goal has a solution, keeping its bindings
+     */
+    private boolean solveOnce(Term goal, int depth) {
+        int cutTo = depth + 1;
+        return solve(new Frame(goal, cutTo, HALT_FRAME), cutTo) == HALT;
+    }
+
+    private int between(Term[] args, Frame next, int depth) {
+        long low = integer(args[0]);
+        Term h = args[1].deref();
+        long high;
+        if (h instanceof Term.Atom && (((Term.Atom) h).name.equals("inf")
+                || ((Term.Atom) h).name.equals("infinite"))) {
+            high = Long.MAX_VALUE;
+        } else {
+            high = integer(h);
+        }
+
+        Term x = args[2].deref();
+        if (!(x instanceof Term.Var)) {
+            long value = integer(x);
+            return value >= low && value <= high ? solve(next, depth) : FAIL;
+        }
+
+        int mark = trailTop;
+        for (long k = low; k <= high; k++) {
+            bind((Term.Var) x, Term.integer(k));
+            int r = solve(next, depth);
+            if (r != FAIL) {
+                return r;
+            }
+            undo(mark);
+            if (k == Long.MAX_VALUE) {
+                break;
+            }
+        }
+        return FAIL;
+    }
+
+    private int member(Term[] args, Frame next, int depth) {
+        int mark = trailTop;
+        Term list = args[1].deref();
+        while (list instanceof Term.Struct && ((Term.Struct) list).isCons()) {
+            if (unify(args[0], ((Term.Struct) list).args[0])) {
+                int r = solve(next, depth);
+                if (r != FAIL) {
+                    return r;
+                }
+            }
+            undo(mark);
+            list = ((Term.Struct) list).args[1].deref();
+        }
+        return FAIL;
+    }
+
+    private int nth(int base, Term[] args, Frame next, int depth) {
+        int mark = trailTop;
+        Term index = args[0].deref();
+        Term list = args[1].deref();
+
+        if (!(index instanceof Term.Var)) {
+            long k = integer(index) - base;
+            while (k > 0 && list instanceof Term.Struct && ((Term.Struct) list).isCons()) {
+                list = ((Term.Struct) list).args[1].deref();
+                k--;
+            }
+            if (k == 0 && list instanceof Term.Struct && ((Term.Struct) list).isCons()
+                    && unify(args[2], ((Term.Struct) list).args[0])) {
+                return solve(next, depth);
+            }
+            return FAIL;
+        }
+
+        for (long k = base; list instanceof Term.Struct && ((Term.Struct) list).isCons(); k++) {
+            bind((Term.Var) index, Term.integer(k));
+            if (unify(args[2], ((Term.Struct) list).args[0])) {
+                int r = solve(next, depth);
+                if (r != FAIL) {
+                    return r;
+                }
+            }
+            undo(mark);
+            list = ((Term.Struct) list).args[1].deref();
+        }
+        return FAIL;
+    }
+
+    private int retract(Term clause, Frame next, int depth) {
+        Term head = clause.deref();
+        Term body = Term.TRUE;
+        if (head instanceof Term.Struct && ((Term.Struct) head).name.equals(":-")
+                && ((Term.Struct) head).args.length == 2) {
+            body = ((Term.Struct) head).args[1];
+            head = ((Term.Struct) head).args[0].deref();
+        }
+
+        Predicate p = lookup(callableName(head), arity(head));
+        if (p == null) {
+            return FAIL;
+        }
+        if (!p.dynamic) {
+            throw new IllegalStateException("permission_error(modify, static_procedure, " + Writer.atom(p.name)
+                    + "/" + p.arity + ")");
+        }
+
+        int mark = trailTop;
+        Term[] args = head instanceof Term.Struct ? ((Term.Struct) head).args : Term.NO_ARGS;
+        for (Clause c : dynamic[p.slot]) {
+            Term[] frame = c.numVars == 0 ? Term.NO_ARGS : new Term[c.numVars];
+            if (unifyHead(c.args, args, frame) && unify(body, instantiate(c.body, frame))) {
+                /* Under the logical update view, a clause already retracted since the call started is skipped. */
+                Clause[] clauses = dynamic[p.slot];
+                int k = indexOf(clauses, c);
+                if (k >= 0) {
+                    dynamic[p.slot] = remove(clauses, k);
+                    int r = solve(next, depth);
+                    if (r != FAIL) {
+                        return r;
+                    }
+                }
+            }
+            undo(mark);
+        }
+        return FAIL;
+    }
+
+    /**
+     * Runs a deterministic builtin predicate
+     */
+    private boolean test(int id, Term[] args) {
+        switch (id) {
+            case B_UNIFY:
+                return unify(args[0], args[1]);
+            case B_NOT_UNIFY: {
+                int mark = trailTop;
+                boolean unifiable = unify(args[0], args[1]);
+                undo(mark);
+                return !unifiable;
+            }
+            case B_IDENTICAL:
+                return compare(args[0], args[1]) == 0;
+            case B_NOT_IDENTICAL:
+                return compare(args[0], args[1]) != 0;
+            case B_VARIANT:
+                return variant(args[0], args[1], new IdentityHashMap<>(), new IdentityHashMap<>());
+            case B_NOT_VARIANT:
+                return !variant(args[0], args[1], new IdentityHashMap<>(), new IdentityHashMap<>());
+            case B_BEFORE:
+                return compare(args[0], args[1]) < 0;
+            case B_AFTER:
+                return compare(args[0], args[1]) > 0;
+            case B_NOT_AFTER:
+                return compare(args[0], args[1]) <= 0;
+            case B_NOT_BEFORE:
+                return compare(args[0], args[1]) >= 0;
+            case B_IS:
+                return unify(args[0], Arithmetic.eval(args[1]));
+            case B_EQ:
+                return Arithmetic.compare(Arithmetic.eval(args[0]), Arithmetic.eval(args[1])) == 0;
+            case B_NE:
+                return Arithmetic.compare(Arithmetic.eval(args[0]), Arithmetic.eval(args[1])) != 0;
+            case B_LT:
+                return Arithmetic.compare(Arithmetic.eval(args[0]), Arithmetic.eval(args[1])) < 0;
+            case B_GT:
+                return Arithmetic.compare(Arithmetic.eval(args[0]), Arithmetic.eval(args[1])) > 0;
+            case B_LE:
+                return Arithmetic.compare(Arithmetic.eval(args[0]), Arithmetic.eval(args[1])) <= 0;
+            case B_GE:
+                return Arithmetic.compare(Arithmetic.eval(args[0]), Arithmetic.eval(args[1])) >= 0;
+            case B_VAR:
+                return args[0].deref() instanceof Term.Var;
+            case B_NONVAR:
+                return !(args[0].deref() instanceof Term.Var);
+            case B_ATOM:
+                return args[0].deref() instanceof Term.Atom;
+            case B_NUMBER:
+                return args[0].deref() instanceof Term.Int || args[0].deref() instanceof Term.Real;
+            case B_INTEGER:
+                return args[0].deref() instanceof Term.Int;
+            case B_FLOAT:
+                return args[0].deref() instanceof Term.Real;
+            case B_STRING:
+                return args[0].deref() instanceof Term.Str;
+            case B_ATOMIC:
+                return !(args[0].deref() instanceof Term.Var) && !(args[0].deref() instanceof Term.Struct);
+            case B_COMPOUND:
+                return args[0].deref() instanceof Term.Struct;
+            case B_IS_LIST: {
+                Term list = args[0].deref();
+                while (list instanceof Term.Struct && ((Term.Struct) list).isCons()) {
+                    list = ((Term.Struct) list).args[1].deref();
+                }
+                return list instanceof Term.Atom && ((Term.Atom) list).name.equals("[]");
+            }
+            case B_GROUND:
+                return isGround(args[0]);
+            case B_ASSERTA:
+            case B_ASSERTZ:
+                assertClause(args[0], id == B_ASSERTA);
+                return true;
+            case B_RETRACTALL:
+                retractAll(args[0]);
+                return true;
+            case B_SORT:
+            case B_MSORT:
+                return sort(args, id == B_SORT);
+            case B_LENGTH:
+                return length(args);
+            case B_STRING_CONCAT:
+                return stringConcat(args);
+            case B_DYNAMIC:
+                declareDynamic(args[0]);
+                return true;
+            default:
+                throw new IllegalStateException("Unknown builtin " + id);
+        }
+    }
+
+    /* ---- Database ---- */
+
+    private void assertClause(Term t, boolean first) {
+        Term term = t.deref();
+        Term head = term;
+        Term body = Term.TRUE;
+        if (term instanceof Term.Struct && ((Term.Struct) term).name.equals(":-")
+                && ((Term.Struct) term).args.length == 2) {
+            head = ((Term.Struct) term).args[0].deref();
+            body = ((Term.Struct) term).args[1].deref();
+        }
+
+        String name = callableName(head);
+        int arity = arity(head);
+        Predicate p = lookup(name, arity);
+        if (p == null) {
+            /* Asserting a clause of an unknown predicate makes it dynamic. */
+            p = createDynamic(name, arity);
+        } else if (!p.dynamic) {
+            throw new IllegalStateException("permission_error(modify, static_procedure, " + Writer.atom(name)
+                    + "/" + arity + ")");
+        }
+
+        Clause clause = Clause.compile(resolve(head, new IdentityHashMap<>()), resolve(body, new IdentityHashMap<>()));
+        Clause[] clauses = dynamic[p.slot];
+        if (first) {
+            Clause[] grown = new Clause[clauses.length + 1];
+            grown[0] = clause;
+            System.arraycopy(clauses, 0, grown, 1, clauses.length);
+            dynamic[p.slot] = grown;
+        } else {
+            dynamic[p.slot] = append(clauses, clause);
+        }
+    }
+
+    private void retractAll(Term t) {
+        Term head = t.deref();
+        String name = callableName(head);
+        int arity = arity(head);
+        Predicate p = lookup(name, arity);
+        if (p == null) {
+            /* As in SWI-Prolog, the predicate is created as a dynamic one. */
+            createDynamic(name, arity);
+            return;
+        } else if (!p.dynamic) {
+            throw new IllegalStateException("permission_error(modify, static_procedure, " + Writer.atom(name)
+                    + "/" + arity + ")");
+        }
+
+        Term[] args = head instanceof Term.Struct ? ((Term.Struct) head).args : Term.NO_ARGS;
+        Clause[] clauses = dynamic[p.slot];
+        Clause[] kept = new Clause[clauses.length];
+        int numKept = 0;
+        int mark = trailTop;
+        for (Clause c : clauses) {
+            Term[] frame = c.numVars == 0 ? Term.NO_ARGS : new Term[c.numVars];
+            if (!unifyHead(c.args, args, frame)) {
+                kept[numKept++] = c;
+            }
+            undo(mark);
+        }
+        dynamic[p.slot] = numKept == clauses.length ? clauses : Arrays.copyOf(kept, numKept);
+    }
+
+    private Predicate lookup(String name, int arity) {
+        Predicate p = program.lookup(name, arity);
+        if (p == null && local != null) {
+            p = local.get(name);
+            while (p != null && p.arity != arity) {
+                p = p.nextArity;
+            }
+        }
+        return p;
+    }
+
+    private static Clause[] append(Clause[] clauses, Clause clause) {
+        Clause[] grown = Arrays.copyOf(clauses, clauses.length + 1);
+        grown[clauses.length] = clause;
+        return grown;
+    }
+
+    private static Clause[] remove(Clause[] clauses, int k) {
+        Clause[] shrunk = new Clause[clauses.length - 1];
+        System.arraycopy(clauses, 0, shrunk, 0, k);
+        System.arraycopy(clauses, k + 1, shrunk, k, clauses.length - k - 1);
+        return shrunk;
+    }
+
+    private static int indexOf(Clause[] clauses, Clause c) {
+        for (int k = 0; k < clauses.length; k++) {
+            if (clauses[k] == c) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /* ---- Terms ---- */
+
+    /**
+     * Unifies the arguments of a stored clause head with those of a goal, binding the clause variables in the
+     * frame to the terms they first meet
+     */
+    private boolean unifyHead(Term[] patterns, Term[] args, Term[] frame) {
+        for (int k = 0; k < patterns.length; k++) {
+            if (!unifyHead(patterns[k], args[k], frame)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean unifyHead(Term pattern, Term actual, Term[] frame) {
+        if (pattern instanceof Term.Local) {
+            int k = ((Term.Local) pattern).index;
+            if (frame[k] == null) {
+                frame[k] = actual;
+                return true;
+            }
+            return unify(frame[k], actual);
+        }
+        if (pattern.isGround()) {
+            return unify(pattern, actual);
+        }
+
+        Term.Struct s = (Term.Struct) pattern;
+        Term a = actual.deref();
+        if (a instanceof Term.Var) {
+            bind((Term.Var) a, instantiate(s, frame));
+            return true;
+        } else if (!(a instanceof Term.Struct)) {
+            return false;
+        }
+
+        Term.Struct t = (Term.Struct) a;
+        if (t.args.length != s.args.length || !t.name.equals(s.name)) {
+            return false;
+        }
+        return unifyHead(s.args, t.args, frame);
+    }
+
+    /**
+     * Returns a stored term with its clause variables replaced by the terms of the frame (fresh variables for
+     * those not yet bound)
+     */
+    private static Term instantiate(Term t, Term[] frame) {
+        if (t instanceof Term.Local) {
+            int k = ((Term.Local) t).index;
+            if (frame[k] == null) {
+                frame[k] = new Term.Var();
+            }
+            return frame[k];
+        }
+        if (t.isGround()) {
+            return t;
+        }
+
+        Term.Struct s = (Term.Struct) t;
+        Term[] args = new Term[s.args.length];
+        for (int k = 0; k < args.length; k++) {
+            args[k] = instantiate(s.args[k], frame);
+        }
+        return new Term.Struct(s.name, args);
+    }
+
+    /**
+     * Returns a copy of a term with the bindings of its variables applied and fresh variables for the unbound
+     * ones
+     */
+    private static Term resolve(Term t, Map<Term.Var, Term.Var> vars) {
+        t = t.deref();
+        if (t instanceof Term.Var) {
+            return vars.computeIfAbsent((Term.Var) t, v -> new Term.Var());
+        } else if (!(t instanceof Term.Struct) || t.isGround()) {
+            return t;
+        }
+
+        Term.Struct s = (Term.Struct) t;
+        Term[] args = new Term[s.args.length];
+        for (int k = 0; k < args.length; k++) {
+            args[k] = resolve(s.args[k], vars);
+        }
+        return new Term.Struct(s.name, args);
+    }
+
+    private boolean unify(Term a, Term b) {
+        a = a.deref();
+        b = b.deref();
+        if (a == b) {
+            return true;
+        } else if (a instanceof Term.Var) {
+            bind((Term.Var) a, b);
+            return true;
+        } else if (b instanceof Term.Var) {
+            bind((Term.Var) b, a);
+            return true;
+        } else if (a instanceof Term.Atom) {
+            return b instanceof Term.Atom && ((Term.Atom) a).name.equals(((Term.Atom) b).name);
+        } else if (a instanceof Term.Int) {
+            return b instanceof Term.Int && ((Term.Int) a).value == ((Term.Int) b).value;
+        } else if (a instanceof Term.Real) {
+            return b instanceof Term.Real && ((Term.Real) a).value == ((Term.Real) b).value;
+        } else if (a instanceof Term.Str) {
+            return b instanceof Term.Str && ((Term.Str) a).value.equals(((Term.Str) b).value);
+        } else if (a instanceof Term.Struct && b instanceof Term.Struct) {
+            Term.Struct s = (Term.Struct) a;
+            Term.Struct t = (Term.Struct) b;
+            if (s.args.length != t.args.length || !s.name.equals(t.name)) {
+                return false;
+            }
+            for (int k = 0; k < s.args.length; k++) {
+                if (!unify(s.args[k], t.args[k])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void bind(Term.Var v, Term value) {
+        if (trailTop == trail.length) {
+            trail = Arrays.copyOf(trail, trail.length * 2);
+        }
+        v.ref = value;
+        trail[trailTop++] = v;
+    }
+
+    private void undo(int mark) {
+        while (trailTop > mark) {
+            trail[--trailTop].ref = null;
+        }
+    }
+
+    /**
+     * Compares two terms in the standard order of terms: variables, numbers (by value), atoms, strings, and
+     * then compound terms (by arity, name, and arguments)
+     */
+    static int compare(Term a, Term b) {
+        a = a.deref();
+        b = b.deref();
+        if (a == b) {
+            return 0;
+        }
+
+        int rank = Integer.compare(rank(a), rank(b));
+        if (rank != 0) {
+            return rank;
+        }
+        if (a instanceof Term.Var) {
+            return Integer.compare(System.identityHashCode(a), System.identityHashCode(b));
+        } else if (a instanceof Term.Int || a instanceof Term.Real) {
+            int c = Arithmetic.compare(a, b);
+            if (c != 0 || a.getClass() == b.getClass()) {
+                return c;
+            }
+            /* A float comes before an integer of the same value. */
+            return a instanceof Term.Real ? -1 : 1;
+        } else if (a instanceof Term.Atom) {
+            return ((Term.Atom) a).name.compareTo(((Term.Atom) b).name);
+        } else if (a instanceof Term.Str) {
+            return ((Term.Str) a).value.compareTo(((Term.Str) b).value);
+        }
+
+        Term.Struct s = (Term.Struct) a;
+        Term.Struct t = (Term.Struct) b;
+        if (s.args.length != t.args.length) {
+            return Integer.compare(s.args.length, t.args.length);
+        }
+        int c = s.name.compareTo(t.name);
+        for (int k = 0; c == 0 && k < s.args.length; k++) {
+            c = compare(s.args[k], t.args[k]);
+        }
+        return c;
+    }
+
+    private static int rank(Term t) {
+        if (t instanceof Term.Var) {
+            return 0;
+        } else if (t instanceof Term.Int || t instanceof Term.Real) {
+            return 1;
+        } else if (t instanceof Term.Atom) {
+            return 2;
+        } else if (t instanceof Term.Str) {
+            return 3;
+        }
+        return 4;
+    }
+
+    /**
+     * Returns <code>true</code> if two terms are equal up to a consistent renaming of their variables
+     */
+    private static boolean variant(Term a, Term b, Map<Term, Term> left, Map<Term, Term> right) {
+        a = a.deref();
+        b = b.deref();
+        if (a instanceof Term.Var && b instanceof Term.Var) {
+            Term x = left.putIfAbsent(a, b);
+            Term y = right.putIfAbsent(b, a);
+            return (x == null || x == b) && (y == null || y == a);
+        } else if (a instanceof Term.Struct && b instanceof Term.Struct) {
+            Term.Struct s = (Term.Struct) a;
+            Term.Struct t = (Term.Struct) b;
+            if (s.args.length != t.args.length || !s.name.equals(t.name)) {
+                return false;
+            }
+            for (int k = 0; k < s.args.length; k++) {
+                if (!variant(s.args[k], t.args[k], left, right)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return !(a instanceof Term.Var) && !(b instanceof Term.Var) && compare(a, b) == 0
+                && a.getClass() == b.getClass();
+    }
+
+    private static boolean isGround(Term t) {
+        t = t.deref();
+        if (t instanceof Term.Var) {
+            return false;
+        } else if (t instanceof Term.Struct && !t.isGround()) {
+            for (Term arg : ((Term.Struct) t).args) {
+                if (!isGround(arg)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean sort(Term[] args, boolean dedup) {
+        List<Term> elements = properList(args[0]);
+        elements.sort(Interpreter::compare);
+
+        List<Term> sorted = new ArrayList<>(elements.size());
+        for (Term t : elements) {
+            if (!dedup || sorted.isEmpty() || compare(sorted.get(sorted.size() - 1), t) != 0) {
+                sorted.add(t);
+            }
+        }
+        return unify(args[1], Term.list(sorted));
+    }
+
+    private boolean length(Term[] args) {
+        Term list = args[0].deref();
+        long n = 0;
+        while (list instanceof Term.Struct && ((Term.Struct) list).isCons()) {
+            list = ((Term.Struct) list).args[1].deref();
+            n++;
+        }
+        if (list instanceof Term.Atom && ((Term.Atom) list).name.equals("[]")) {
+            return unify(args[1], Term.integer(n));
+        } else if (!(list instanceof Term.Var)) {
+            return false;
+        }
+
+        /* A partial list is completed with fresh variables. */
+        long total = integer(args[1]);
+        if (total < n) {
+            return false;
+        }
+        List<Term> rest = new ArrayList<>();
+        for (long k = n; k < total; k++) {
+            rest.add(new Term.Var());
+        }
+        return unify(list, Term.list(rest));
+    }
+
+    private boolean stringConcat(Term[] args) {
+        Term a = args[0].deref();
+        Term b = args[1].deref();
+        if (!(a instanceof Term.Var) && !(b instanceof Term.Var)) {
+            return unify(args[2], Term.string(text(a) + text(b)));
+        }
+
+        Term c = args[2].deref();
+        if (c instanceof Term.Var || (a instanceof Term.Var && b instanceof Term.Var)) {
+            throw new IllegalStateException("instantiation_error");
+        }
+        String whole = text(c);
+        if (a instanceof Term.Var) {
+            String suffix = text(b);
+            return whole.endsWith(suffix)
+                    && unify(a, Term.string(whole.substring(0, whole.length() - suffix.length())));
+        }
+        String prefix = text(a);
+        return whole.startsWith(prefix) && unify(b, Term.string(whole.substring(prefix.length())));
+    }
+
+    private static String text(Term t) {
+        if (t instanceof Term.Struct) {
+            throw new IllegalStateException("type_error(atomic, " + t + ")");
+        }
+        return t.text();
+    }
+
+    private static List<Term> properList(Term t) {
+        Term list = t.deref();
+        List<Term> elements = new ArrayList<>();
+        while (list instanceof Term.Struct && ((Term.Struct) list).isCons()) {
+            elements.add(((Term.Struct) list).args[0]);
+            list = ((Term.Struct) list).args[1].deref();
+        }
+        if (list instanceof Term.Var) {
+            throw new IllegalStateException("instantiation_error");
+        } else if (!(list instanceof Term.Atom) || !((Term.Atom) list).name.equals("[]")) {
+            throw new IllegalStateException("type_error(list, " + t + ")");
+        }
+        return elements;
+    }
+
+    private static long integer(Term t) {
+        t = t.deref();
+        if (t instanceof Term.Int) {
+            return ((Term.Int) t).value;
+        } else if (t instanceof Term.Var) {
+            throw new IllegalStateException("instantiation_error");
+        }
+        throw new IllegalStateException("type_error(integer, " + t + ")");
+    }
+
+    private static String callableName(Term t) {
+        if (t instanceof Term.Var) {
+            throw new IllegalStateException("instantiation_error");
+        } else if (!(t instanceof Term.Atom) && !(t instanceof Term.Struct)) {
+            throw new IllegalStateException("type_error(callable, " + t + ")");
+        }
+        return t.name();
+    }
+
+    private static int arity(Term t) {
+        return t instanceof Term.Struct ? ((Term.Struct) t).args.length : 0;
+    }
+
+    /**
+     * Returns the goal of <code>call/N</code> with the extra arguments appended
+     */
+    private static Term addArgs(Term[] args) {
+        Term goal = args[0].deref();
+        String name = callableName(goal);
+        Term[] base = goal instanceof Term.Struct ? ((Term.Struct) goal).args : Term.NO_ARGS;
+        Term[] all = Arrays.copyOf(base, base.length + args.length - 1);
+        System.arraycopy(args, 1, all, base.length, args.length - 1);
+        return new Term.Struct(name, all);
+    }
+
+    /* ---- Data structures ---- */
+
+    /**
+     * Goal to be solved, with the depth of the call its cuts go back to, followed by the rest of the goals
+     */
+    private static final class Frame {
+        final Term goal;
+        final int cutTo;
+        final Frame next;
+
+        Frame(Term goal, int cutTo, Frame next) {
+            this.goal = goal;
+            this.cutTo = cutTo;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Pseudo-goal that runs Java code, placed at the end of the goals of a nested query
+     */
+    private abstract static class Callback extends Term {
+        abstract int run(int depth);
+    }
+
+    /**
+     * Pseudo-goal that cuts back to the call at a given depth (committing the condition of an if-then-else)
+     */
+    private static final class CutTo extends Term {
+        final int depth;
+
+        CutTo(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Clause stored in the database, with its variables numbered
+     */
+    static final class Clause {
+        static final Clause[] NONE = new Clause[0];
+
+        /* Arguments of the head, and the body (true for a fact) */
+        final Term[] args;
+        final Term body;
+        /* Number of distinct variables */
+        final int numVars;
+        /* Key of the first argument if it is an atom or an integer (see keyOf); null, otherwise */
+        final Object key;
+
+        private Clause(Term[] args, Term body, int numVars) {
+            this.args = args;
+            this.body = body;
+            this.numVars = numVars;
+            this.key = args.length > 0 ? keyOf(args[0]) : null;
+        }
+
+        /**
+         * Stores a clause, replacing its variables with clause variables
+         */
+        static Clause compile(Term head, Term body) {
+            Map<Term.Var, Term.Local> vars = new IdentityHashMap<>();
+            Term[] args = head instanceof Term.Struct ? ((Term.Struct) head).args.clone() : Term.NO_ARGS;
+            for (int k = 0; k < args.length; k++) {
+                args[k] = number(args[k], vars);
+            }
+            Term b = number(body, vars);
+            return new Clause(args, b instanceof Term.Atom && ((Term.Atom) b).name.equals("true") ? Term.TRUE : b,
+                    vars.size());
+        }
+
+        private static Term number(Term t, Map<Term.Var, Term.Local> vars) {
+            t = t.deref();
+            if (t instanceof Term.Var) {
+                return vars.computeIfAbsent((Term.Var) t, v -> new Term.Local(vars.size()));
+            } else if (!(t instanceof Term.Struct)) {
+                return t;
+            }
+
+            Term.Struct s = (Term.Struct) t;
+            Term[] args = new Term[s.args.length];
+            for (int k = 0; k < args.length; k++) {
+                args[k] = number(s.args[k], vars);
+            }
+            return new Term.Struct(s.name, args);
+        }
+
+        /**
+         * Returns the key under which a first argument is indexed: the name of an atom or the value of an
+         * integer, or <code>null</code> for other terms
+         */
+        static Object keyOf(Term t) {
+            if (t instanceof Term.Atom) {
+                return ((Term.Atom) t).name;
+            } else if (t instanceof Term.Int) {
+                return ((Term.Int) t).value;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Predicate of the program: a builtin, a static predicate with its clauses, or a dynamic predicate whose
+     * clauses are held by each interpreter
+     */
+    static final class Predicate {
+        /* Smallest number of static clauses for which the first argument is indexed */
+        private static final int MIN_INDEXED = 8;
+
+        final String name;
+        final int arity;
+        /* Number of the builtin, or -1 */
+        final int builtin;
+        /* Next predicate with the same name and another arity */
+        Predicate nextArity;
+
+        boolean dynamic;
+        /* Position of the clauses in the table of dynamic clauses of every interpreter */
+        int slot = -1;
+
+        /* Static clauses, while they are being read and then once the program is frozen */
+        private List<Clause> loading = new ArrayList<>();
+        private Clause[] clauses;
+        /* Static clauses by the key of their first argument (null if not indexed) */
+        private Map<Object, Clause[]> index;
+
+        Predicate(String name, int arity, int builtin) {
+            this.name = name;
+            this.arity = arity;
+            this.builtin = builtin;
+        }
+
+        void add(Clause clause) {
+            loading.add(clause);
+            clauses = null;
+        }
+
+        /**
+         * Returns the static clauses that may match a goal
+         */
+        Clause[] clauses(Term[] args) {
+            if (clauses == null) {
+                clauses = loading.toArray(Clause.NONE);
+            }
+            if (index != null) {
+                Term first = args[0].deref();
+                if (!(first instanceof Term.Var)) {
+                    Object key = Clause.keyOf(first);
+                    Clause[] matching = key == null ? null : index.get(key);
+                    return matching == null ? Clause.NONE : matching;
+                }
+            }
+            return clauses;
+        }
+
+        /**
+         * Makes the static clauses read-only and indexes them by their first argument if they all have an atom
+         * or an integer there
+         */
+        void freeze() {
+            clauses = loading.toArray(Clause.NONE);
+            loading = null;
+            if (clauses.length < MIN_INDEXED || arity == 0) {
+                return;
+            }
+
+            Map<Object, List<Clause>> groups = new HashMap<>();
+            for (Clause c : clauses) {
+                if (c.key == null) {
+                    return;
+                }
+                groups.computeIfAbsent(c.key, k -> new ArrayList<>()).add(c);
+            }
+            index = new HashMap<>();
+            for (Map.Entry<Object, List<Clause>> e : groups.entrySet()) {
+                index.put(e.getKey(), e.getValue().toArray(Clause.NONE));
+            }
+        }
+    }
+
+    /**
+     * Predicates of a consulted program, by name (predicates with the same name are chained by arity)
+     */
+    static final class Program {
+        private final Map<String, Predicate> predicates = new HashMap<>();
+        /* Set once the program has been read, after which it is shared and never modified */
+        boolean frozen;
+
+        Program() {
+            for (int id = 0; id < BUILTINS.length; id++) {
+                define((String) BUILTINS[id][0], (Integer) BUILTINS[id][1], id);
+            }
+            define("false", 0, B_FAIL);
+            define("not", 1, B_NOT);
+            define("assert", 1, B_ASSERTZ);
+        }
+
+        Predicate lookup(String name, int arity) {
+            Predicate p = predicates.get(name);
+            while (p != null && p.arity != arity) {
+                p = p.nextArity;
+            }
+            return p;
+        }
+
+        Predicate define(String name, int arity) {
+            Predicate p = lookup(name, arity);
+            return p != null ? p : define(name, arity, -1);
+        }
+
+        private Predicate define(String name, int arity, int builtin) {
+            Predicate p = new Predicate(name, arity, builtin);
+            p.nextArity = predicates.get(name);
+            predicates.put(name, p);
+            return p;
+        }
+
+        void freeze() {
+            frozen = true;
+            for (Predicate head : predicates.values()) {
+                for (Predicate p = head; p != null; p = p.nextArity) {
+                    if (p.builtin < 0 && !p.dynamic) {
+                        p.freeze();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package expert.prolog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader of Prolog clauses: a tokenizer and an operator-precedence parser over the standard operator table of
+ * SWI-Prolog (without user-defined operators)
+ *
+ * <p>Both kinds of comments, quoted atoms, double-quoted strings (read as strings), integers, floats, negative
+ * numeric literals, lists, and functional and operator notation are read. Errors are reported as an
+ * {@link IllegalArgumentException} giving the file and the line.</p>
+ */
+final class Reader {
+    /* Token types */
+    private static final int ATOM = 0;
+    private static final int VAR = 1;
+    private static final int INT = 2;
+    private static final int FLOAT = 3;
+    private static final int STRING = 4;
+    private static final int PUNCT = 5;
+    private static final int END = 6;
+    private static final int EOF = 7;
+
+    /* Operator types, by position of the arguments (x: lower priority, y: lower or equal priority) */
+    private static final int XFX = 0;
+    private static final int XFY = 1;
+    private static final int YFX = 2;
+    private static final int FY = 3;
+    private static final int FX = 4;
+
+    /* Infix and prefix operators, as pairs of the priority and the type */
+    private static final Map<String, int[]> INFIX = new HashMap<>();
+    private static final Map<String, int[]> PREFIX = new HashMap<>();
+
+    static {
+        infix(1200, XFX, ":-", "-->");
+        infix(1100, XFY, ";", "|");
+        infix(1050, XFY, "->", "*->");
+        infix(1000, XFY, ",");
+        infix(700, XFX, "=", "\\=", "==", "\\==", "@<", "@>", "@=<", "@>=", "=..", "is", "=:=", "=\\=", "<", ">",
+                "=<", ">=", "=@=", "\\=@=", "as");
+        infix(600, XFY, ":");
+        infix(500, YFX, "+", "-", "/\\", "\\/", "xor");
+        infix(400, YFX, "*", "/", "//", "mod", "rem", "<<", ">>", "div", "rdiv", "divmod");
+        infix(200, XFX, "**");
+        infix(200, XFY, "^");
+
+        prefix(1200, FX, ":-", "?-");
+        prefix(1150, FX, "dynamic", "discontiguous", "initialization", "module_transparent", "multifile",
+                "public", "table");
+        prefix(900, FY, "\\+");
+        prefix(200, FY, "-", "+", "\\");
+    }
+
+    /* Name of the file being read (used in error messages) */
+    private final String fileName;
+    /* Source code */
+    private final String src;
+    /* Position of the next character to be read */
+    private int pos;
+    /* Line number of the next character to be read */
+    private int line;
+
+    /* Current token: its type, its text, whether layout precedes it, and whether it is directly followed by an
+    opening parenthesis */
+    private int type;
+    private String text;
+    private boolean layoutBefore;
+    private boolean functional;
+    /* Line on which the current clause starts */
+    private int clauseLine;
+
+    /* Variables of the clause being read, by name */
+    private final Map<String, Term.Var> varNames = new LinkedHashMap<>();
+
+    /**
+     * Creates a reader of the given source code
+     *
+     * @param fileName name of the file being read (used in error messages)
+     * @param src source code
+     */
+    Reader(String fileName, String src) {
+        this.fileName = fileName;
+        this.src = src;
+        this.pos = 0;
+        this.line = 1;
+    }
+
+    private static void infix(int priority, int type, String... names) {
+        for (String name : names) {
+            INFIX.put(name, new int[]{priority, type});
+        }
+    }
+
+    private static void prefix(int priority, int type, String... names) {
+        for (String name : names) {
+            PREFIX.put(name, new int[]{priority, type});
+        }
+    }
+
+    /**
+     * Reads the next clause (or directive, or query) ending with a full stop
+     *
+     * @return clause, or <code>null</code> at the end of the source code
+     * @throws IllegalArgumentException if the clause cannot be parsed
+     */
+    Term next() {
+        varNames.clear();
+        advance();
+        clauseLine = line;
+        if (type == EOF) {
+            return null;
+        }
+
+        Term t = parse(1200);
+        if (type != END) {
+            throw error("operator expected, found " + describe());
+        }
+        return t;
+    }
+
+    /**
+     * Returns the variables of the clause most recently read, by name (excluding anonymous variables)
+     *
+     * @return variables, in the order of their first occurrence
+     */
+    Map<String, Term.Var> getVarNames() {
+        return varNames;
+    }
+
+    /**
+     * Returns the location of the clause most recently read, for messages
+     *
+     * @return file name and line of the clause
+     */
+    String where() {
+        return fileName + ":" + clauseLine;
+    }
+
+    /* ---- Parser ---- */
+
+    /**
+     * Parses a term whose priority is at most the given one; the current token is its first token
+     *
+     * @param max maximum priority
+     * @return term
+     */
+    private Term parse(int max) {
+        int[] priority = new int[1];
+        Term left = parsePrimary(max, priority);
+        return parseInfix(left, priority[0], max);
+    }
+
+    private Term parsePrimary(int max, int[] priority) {
+        priority[0] = 0;
+        switch (type) {
+            case INT: {
+                Term t = Term.integer(parseLong(text));
+                advance();
+                return t;
+            }
+            case FLOAT: {
+                Term t = Term.real(Double.parseDouble(text));
+                advance();
+                return t;
+            }
+            case STRING: {
+                Term t = Term.string(text);
+                advance();
+                return t;
+            }
+            case VAR: {
+                Term.Var v;
+                if (text.equals("_")) {
+                    v = Term.var();
+                } else {
+                    v = varNames.computeIfAbsent(text, name -> Term.var());
+                }
+                advance();
+                return v;
+            }
+            case PUNCT:
+                if (text.equals("(")) {
+                    advance();
+                    Term t = parse(1200);
+                    expect(")");
+                    return t;
+                } else if (text.equals("[")) {
+                    advance();
+                    if (type == PUNCT && text.equals("]")) {
+                        advance();
+                        return atomOrCompound("[]", max, priority);
+                    }
+                    return parseList();
+                } else if (text.equals("{")) {
+                    advance();
+                    if (type == PUNCT && text.equals("}")) {
+                        advance();
+                        return atomOrCompound("{}", max, priority);
+                    }
+                    Term t = parse(1200);
+                    expect("}");
+                    return Term.compound("{}", t);
+                }
+                throw error("unexpected " + describe());
+            case ATOM: {
+                String name = text;
+                advance();
+                return atomOrCompound(name, max, priority);
+            }
+            default:
+                throw error("unexpected " + describe());
+        }
+    }
+
+    /**
+     * Parses what follows an atom: the arguments of a compound term in functional notation, the argument of a
+     * prefix operator, or nothing
+     */
+    private Term atomOrCompound(String name, int max, int[] priority) {
+        /* Functional notation: the name is directly followed by an opening parenthesis. */
+        if (type == PUNCT && text.equals("(") && !layoutBefore) {
+            advance();
+            List<Term> args = new ArrayList<>();
+            args.add(parse(999));
+            while (type == PUNCT && text.equals(",")) {
+                advance();
+                args.add(parse(999));
+            }
+            expect(")");
+            return Term.compound(name, args.toArray(new Term[0]));
+        }
+
+        /* Negative numeric literal */
+        if (name.equals("-") && !layoutBefore && (type == INT || type == FLOAT)) {
+            Term t = type == INT ? Term.integer(parseLong("-" + text)) : Term.real(-Double.parseDouble(text));
+            advance();
+            return t;
+        }
+
+        int[] op = PREFIX.get(name);
+        if (op != null && op[0] <= max && startsTerm()) {
+            int p = op[0];
+            int argMax = op[1] == FY ? p : p - 1;
+            Term arg = parse(argMax);
+            priority[0] = p;
+            return Term.compound(name, arg);
+        }
+
+        /* An operator as an atom */
+        if (op != null || INFIX.containsKey(name)) {
+            int p = Math.max(op != null ? op[0] : 0, INFIX.containsKey(name) ? INFIX.get(name)[0] : 0);
+            priority[0] = p <= max ? p : 0;
+        }
+        return Term.atom(name);
+    }
+
+    private Term parseInfix(Term left, int leftPriority, int max) {
+        while (true) {
+            String name;
+            if (type == ATOM) {
+                name = text;
+            } else if (type == PUNCT && (text.equals(",") || text.equals("|"))) {
+                name = text;
+            } else {
+                return left;
+            }
+
+            int[] op = INFIX.get(name);
+            if (op == null) {
+                return left;
+            }
+
+            int p = op[0];
+            int leftMax = op[1] == YFX ? p : p - 1;
+            int rightMax = op[1] == XFY ? p : p - 1;
+            if (p > max || leftPriority > leftMax) {
+                return left;
+            }
+
+            advance();
+            Term right = parse(rightMax);
+            left = Term.compound(name.equals("|") ? ";" : name, left, right);
+            leftPriority = p;
+        }
+    }
+
+    private Term parseList() {
+        List<Term> elements = new ArrayList<>();
+        elements.add(parse(999));
+        while (type == PUNCT && text.equals(",")) {
+            advance();
+            elements.add(parse(999));
+        }
+
+        Term tail = Term.NIL;
+        if (type == PUNCT && text.equals("|")) {
+            advance();
+            tail = parse(999);
+        }
+        expect("]");
+
+        for (int k = elements.size() - 1; k >= 0; k--) {
+            tail = Term.compound(Term.CONS, elements.get(k), tail);
+        }
+        return tail;
+    }
+
+    /**
+     * Returns <code>true</code> if the current token can start a term (so that a preceding prefix operator
+     * applies to it)
+     */
+    private boolean startsTerm() {
+        switch (type) {
+            case END:
+            case EOF:
+                return false;
+            case PUNCT:
+                return text.equals("(") || text.equals("[") || text.equals("{");
+            case ATOM:
+                /* An infix operator that is not also a prefix operator ends the term instead. */
+                return !INFIX.containsKey(text) || PREFIX.containsKey(text) || functional;
+            default:
+                return true;
+        }
+    }
+
+    private void expect(String punct) {
+        if (type != PUNCT || !text.equals(punct)) {
+            throw error("expected " + punct + ", found " + describe());
+        }
+        advance();
+    }
+
+    private String describe() {
+        switch (type) {
+            case END:
+                return "end of clause";
+            case EOF:
+                return "end of file";
+            case STRING:
+                return "string";
+            default:
+                return "'" + text + "'";
+        }
+    }
+
+    private long parseLong(String digits) {
+        try {
+            return Long.parseLong(digits);
+        } catch (NumberFormatException e) {
+            throw error("integer out of range: " + digits);
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(fileName + ":" + line + ": syntax error: " + message);
+    }
+
+    /* ---- Tokenizer ---- */
+
+    /**
+     * Reads the next token into the fields of the current token
+     */
+    private void advance() {
+        int start = pos;
+        skipLayout();
+        layoutBefore = pos > start;
+        functional = false;
+
+        if (pos >= src.length()) {
+            type = EOF;
+            text = "";
+            return;
+        }
+
+        char c = src.charAt(pos);
+        if (Character.isLetter(c) && Character.isLowerCase(c)) {
+            type = ATOM;
+            text = readName();
+        } else if (Character.isLetter(c) || c == '_') {
+            type = VAR;
+            text = readName();
+        } else if (Character.isDigit(c)) {
+            readNumber();
+        } else if (c == '\'') {
+            type = ATOM;
+            text = readQuoted('\'').intern();
+        } else if (c == '"') {
+            type = STRING;
+            text = readQuoted('"');
+        } else if ("()[]{},|".indexOf(c) >= 0) {
+            type = PUNCT;
+            text = String.valueOf(c);
+            pos++;
+        } else if (c == '!' || c == ';') {
+            type = ATOM;
+            text = String.valueOf(c);
+            pos++;
+        } else if (isSymbol(c)) {
+            int begin = pos;
+            while (pos < src.length() && isSymbol(src.charAt(pos))) {
+                pos++;
+            }
+            text = src.substring(begin, pos).intern();
+
+            /* A lone full stop followed by layout (or the end of the file) ends the clause. */
+            if (text.equals(".") && (pos >= src.length() || Character.isWhitespace(src.charAt(pos))
+                    || src.charAt(pos) == '%')) {
+                type = END;
+                return;
+            }
+            type = ATOM;
+        } else {
+            throw error("illegal character '" + c + "'");
+        }
+
+        functional = type == ATOM && pos < src.length() && src.charAt(pos) == '(';
+    }
+
+    private void skipLayout() {
+        while (pos < src.length()) {
+            char c = src.charAt(pos);
+            if (c == '\n') {
+                line++;
+                pos++;
+            } else if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '%') {
+                while (pos < src.length() && src.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (c == '/' && pos + 1 < src.length() && src.charAt(pos + 1) == '*') {
+                int end = src.indexOf("*/", pos + 2);
+                if (end < 0) {
+                    throw error("unterminated block comment");
+                }
+                for (int k = pos; k < end; k++) {
+                    if (src.charAt(k) == '\n') {
+                        line++;
+                    }
+                }
+                pos = end + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private String readName() {
+        int begin = pos;
+        while (pos < src.length() && isAlphanumeric(src.charAt(pos))) {
+            pos++;
+        }
+        /* Names are interned, so that the interpreter mostly compares them by identity. */
+        return src.substring(begin, pos).intern();
+    }
+
+    private void readNumber() {
+        int begin = pos;
+        while (pos < src.length() && (Character.isDigit(src.charAt(pos)) || src.charAt(pos) == '_')) {
+            pos++;
+        }
+        type = INT;
+
+        /* A fraction needs a digit after the point; otherwise, the point is a full stop. */
+        if (pos + 1 < src.length() && src.charAt(pos) == '.' && Character.isDigit(src.charAt(pos + 1))) {
+            type = FLOAT;
+            pos++;
+            while (pos < src.length() && Character.isDigit(src.charAt(pos))) {
+                pos++;
+            }
+        }
+        if (pos < src.length() && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+            int mark = pos;
+            pos++;
+            if (pos < src.length() && (src.charAt(pos) == '+' || src.charAt(pos) == '-')) {
+                pos++;
+            }
+            if (pos < src.length() && Character.isDigit(src.charAt(pos))) {
+                type = FLOAT;
+                while (pos < src.length() && Character.isDigit(src.charAt(pos))) {
+                    pos++;
+                }
+            } else {
+                pos = mark;
+            }
+        }
+        text = src.substring(begin, pos).replace("_", "");
+    }
+
+    private String readQuoted(char quote) {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= src.length()) {
+                throw error("unterminated quoted text");
+            }
+
+            char c = src.charAt(pos++);
+            if (c == quote) {
+                /* A doubled quote stands for the quote itself. */
+                if (pos < src.length() && src.charAt(pos) == quote) {
+                    sb.append(quote);
+                    pos++;
+                    continue;
+                }
+                return sb.toString();
+            } else if (c == '\\') {
+                if (pos >= src.length()) {
+                    throw error("unterminated quoted text");
+                }
+                char e = src.charAt(pos++);
+                switch (e) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case '\n':
+                        /* Continuation line */
+                        line++;
+                        break;
+                    default:
+                        sb.append(e);
+                }
+            } else {
+                if (c == '\n') {
+                    line++;
+                }
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the character may appear in an unquoted name or variable
+     *
+     * @param c character
+     * @return <code>true</code> if the character is a letter, a digit, or an underscore; <code>false</code>,
+     * otherwise
+     */
+    static boolean isAlphanumeric(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * Returns <code>true</code> if the character may appear in a symbolic atom (such as <code>=..</code>)
+     *
+     * @param c character
+     * @return <code>true</code> if the character is a symbol character; <code>false</code>, otherwise
+     */
+    static boolean isSymbol(char c) {
+        return "+-*/\\^<>=~:.?@#&$".indexOf(c) >= 0;
+    }
+}
@@ -0,0 +1,399 @@
+package expert.prolog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Term of the embedded Prolog interpreter: an atom, an integer, a float, a string, a compound term, or a
+ * variable
+ *
+ * <p>Lists are compound terms <code>'[|]'(Head, Tail)</code> ending in the atom <code>[]</code>, and
+ * double-quoted text is read as a string, as in SWI-Prolog 7. Variables are bound in place by the
+ * interpreter, so the accessors below dereference them first.</p>
+ */
+public abstract class Term {
+    /**
+     * Empty list
+     */
+    public static final Atom NIL = new Atom("[]");
+    /**
+     * Atom <code>true</code>
+     */
+    public static final Atom TRUE = new Atom("true");
+    /**
+     * Atom <code>false</code>
+     */
+    public static final Atom FALSE = new Atom("false");
+
+    /* Name of the list constructor */
+    static final String CONS = "[|]";
+    /* Arguments of an atom */
+    static final Term[] NO_ARGS = new Term[0];
+
+    Term() {
+    }
+
+    /**
+     * Returns an atom
+     *
+     * @param name name of the atom
+     * @return atom
+     */
+    public static Atom atom(String name) {
+        return new Atom(name);
+    }
+
+    /**
+     * Returns an integer
+     *
+     * @param value value of the integer
+     * @return integer
+     */
+    public static Int integer(long value) {
+        return new Int(value);
+    }
+
+    /**
+     * Returns a float
+     *
+     * @param value value of the float
+     * @return float
+     */
+    public static Real real(double value) {
+        return new Real(value);
+    }
+
+    /**
+     * Returns a string
+     *
+     * @param value text of the string
+     * @return string
+     */
+    public static Str string(String value) {
+        return new Str(value);
+    }
+
+    /**
+     * Returns a compound term
+     *
+     * @param name name of the functor
+     * @param args arguments (at least one)
+     * @return compound term
+     */
+    public static Struct compound(String name, Term... args) {
+        return new Struct(name, args);
+    }
+
+    /**
+     * Returns a fresh variable
+     *
+     * @return unbound variable
+     */
+    public static Var var() {
+        return new Var();
+    }
+
+    /**
+     * Returns a proper list of the given elements
+     *
+     * @param elements elements of the list
+     * @return list
+     */
+    public static Term list(List<? extends Term> elements) {
+        Term list = NIL;
+        for (int k = elements.size() - 1; k >= 0; k--) {
+            list = new Struct(CONS, elements.get(k), list);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the term this term is bound to, following the bindings of variables
+     *
+     * @return this term, or the value of this variable
+     */
+    public Term deref() {
+        return this;
+    }
+
+    /**
+     * Returns the name of this atom or of the functor of this compound term
+     *
+     * @return name of the atom or functor
+     * @throws IllegalStateException if this term is neither an atom nor a compound term
+     */
+    public String name() {
+        Term t = deref();
+        if (t instanceof Atom) {
+            return ((Atom) t).name;
+        } else if (t instanceof Struct) {
+            return ((Struct) t).name;
+        }
+        throw new IllegalStateException("Not an atom or compound term: " + t);
+    }
+
+    /**
+     * Returns the value of this number as a <code>long</code>
+     *
+     * @return value of the number, truncated if it is a float
+     * @throws IllegalStateException if this term is not a number
+     */
+    public long longValue() {
+        Term t = deref();
+        if (t instanceof Int) {
+            return ((Int) t).value;
+        } else if (t instanceof Real) {
+            return (long) ((Real) t).value;
+        }
+        throw new IllegalStateException("Not a number: " + t);
+    }
+
+    /**
+     * Returns the value of this number as a <code>double</code>
+     *
+     * @return value of the number
+     * @throws IllegalStateException if this term is not a number
+     */
+    public double doubleValue() {
+        Term t = deref();
+        if (t instanceof Int) {
+            return ((Int) t).value;
+        } else if (t instanceof Real) {
+            return ((Real) t).value;
+        }
+        throw new IllegalStateException("Not a number: " + t);
+    }
+
+    /**
+     * Returns the text of this atom, string, or number, as used by <code>string_concat/3</code>
+     *
+     * @return text of the term
+     * @throws IllegalStateException if this term is a variable or a compound term
+     */
+    public String text() {
+        Term t = deref();
+        if (t instanceof Atom) {
+            return ((Atom) t).name;
+        } else if (t instanceof Str) {
+            return ((Str) t).value;
+        } else if (t instanceof Int || t instanceof Real) {
+            return t.toString();
+        }
+        throw new IllegalStateException("Not text: " + t);
+    }
+
+    /**
+     * Returns the elements of this proper list
+     *
+     * @return elements of the list
+     * @throws IllegalStateException if this term is not a proper list
+     */
+    public List<Term> toList() {
+        List<Term> elements = new ArrayList<>();
+        Term t = deref();
+        while (t instanceof Struct && ((Struct) t).isCons()) {
+            elements.add(((Struct) t).args[0].deref());
+            t = ((Struct) t).args[1].deref();
+        }
+        if (!(t instanceof Atom && ((Atom) t).name.equals("[]"))) {
+            throw new IllegalStateException("Not a proper list: " + this);
+        }
+        return elements;
+    }
+
+    /**
+     * Returns <code>true</code> if this term contains no variables (nor clause variables)
+     *
+     * @return <code>true</code> if this term is ground; <code>false</code>, otherwise
+     */
+    boolean isGround() {
+        return true;
+    }
+
+    /**
+     * Atom, such as <code>addison</code> or <code>[]</code>
+     */
+    public static final class Atom extends Term {
+        final String name;
+
+        Atom(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return Writer.atom(name);
+        }
+    }
+
+    /**
+     * Integer (limited to 64 bits)
+     */
+    public static final class Int extends Term {
+        final long value;
+
+        Int(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(value);
+        }
+    }
+
+    /**
+     * Float (64 bits)
+     */
+    public static final class Real extends Term {
+        final double value;
+
+        Real(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return Writer.real(value);
+        }
+    }
+
+    /**
+     * String (double-quoted text)
+     */
+    public static final class Str extends Term {
+        final String value;
+
+        Str(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return Writer.quote(value, '"');
+        }
+    }
+
+    /**
+     * Compound term, such as <code>cf(0, 0.2)</code>
+     */
+    public static final class Struct extends Term {
+        final String name;
+        final Term[] args;
+        /* Set if no argument contains a variable or a clause variable */
+        private final boolean ground;
+
+        Struct(String name, Term... args) {
+            this.name = name;
+            this.args = args;
+
+            boolean g = true;
+            for (Term arg : args) {
+                if (!arg.isGround()) {
+                    g = false;
+                    break;
+                }
+            }
+            this.ground = g;
+        }
+
+        /**
+         * Returns the number of arguments
+         *
+         * @return arity of the functor
+         */
+        public int arity() {
+            return args.length;
+        }
+
+        /**
+         * Returns an argument
+         *
+         * @param k position of the argument, starting from 1
+         * @return argument
+         */
+        public Term arg(int k) {
+            return args[k - 1].deref();
+        }
+
+        boolean isCons() {
+            return args.length == 2 && name.equals(CONS);
+        }
+
+        @Override
+        boolean isGround() {
+            return ground;
+        }
+
+        @Override
+        public String toString() {
+            return Writer.write(this);
+        }
+    }
+
+    /**
+     * Variable, bound in place by unification and unbound on backtracking
+     */
+    public static final class Var extends Term {
+        /* Value of the variable, or null if it is unbound */
+        Term ref;
+
+        Var() {
+        }
+
+        /**
+         * Returns <code>true</code> if this variable is unbound
+         *
+         * @return <code>true</code> if this variable is unbound; <code>false</code>, otherwise
+         */
+        public boolean isUnbound() {
+            return deref() instanceof Var;
+        }
+
+        @Override
+        public Term deref() {
+            Term t = this;
+            while (t instanceof Var) {
+                Term next = ((Var) t).ref;
+                if (next == null) {
+                    return t;
+                }
+                t = next;
+            }
+            return t;
+        }
+
+        @Override
+        boolean isGround() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            Term t = deref();
+            return t == this ? "_G" + Integer.toHexString(System.identityHashCode(this)) : t.toString();
+        }
+    }
+
+    /**
+     * Variable of a stored clause, replaced by a fresh variable (or by the term it first meets) each time the
+     * clause is used
+     */
+    static final class Local extends Term {
+        final int index;
+
+        Local(int index) {
+            this.index = index;
+        }
+
+        @Override
+        boolean isGround() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "_L" + index;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package expert.prolog;
+
+/**
+ * Writer of terms in canonical Prolog syntax (quoted where needed, with lists in bracket notation), used for
+ * messages and debugging
+ */
+final class Writer {
+    private Writer() {
+    }
+
+    /**
+     * Returns a term in canonical syntax
+     *
+     * @param t term
+     * @return text of the term
+     */
+    static String write(Term t) {
+        StringBuilder sb = new StringBuilder();
+        write(sb, t);
+        return sb.toString();
+    }
+
+    private static void write(StringBuilder sb, Term t) {
+        t = t.deref();
+        if (!(t instanceof Term.Struct)) {
+            sb.append(t);
+            return;
+        }
+
+        Term.Struct s = (Term.Struct) t;
+        if (s.isCons()) {
+            sb.append('[');
+            write(sb, s.args[0]);
+            Term tail = s.args[1].deref();
+            while (tail instanceof Term.Struct && ((Term.Struct) tail).isCons()) {
+                sb.append(',');
+                write(sb, ((Term.Struct) tail).args[0]);
+                tail = ((Term.Struct) tail).args[1].deref();
+            }
+            if (!(tail instanceof Term.Atom && ((Term.Atom) tail).name.equals("[]"))) {
+                sb.append('|');
+                write(sb, tail);
+            }
+            sb.append(']');
+            return;
+        }
+
+        sb.append(atom(s.name)).append('(');
+        for (int k = 0; k < s.args.length; k++) {
+            if (k > 0) {
+                sb.append(',');
+            }
+            write(sb, s.args[k]);
+        }
+        sb.append(')');
+    }
+
+    /**
+     * Returns the name of an atom, quoted if it is not a plain, symbolic, or solo atom
+     *
+     * @param name name of the atom
+     * @return name of the atom, quoted if needed
+     */
+    static String atom(String name) {
+        if (name.equals("[]") || name.equals("!") || name.equals(";") || name.equals("{}")) {
+            return name;
+        }
+        if (!name.isEmpty() && Character.isLowerCase(name.charAt(0))) {
+            boolean plain = true;
+            for (int k = 1; k < name.length() && plain; k++) {
+                plain = Reader.isAlphanumeric(name.charAt(k));
+            }
+            if (plain) {
+                return name;
+            }
+        }
+        if (!name.isEmpty()) {
+            boolean symbolic = true;
+            for (int k = 0; k < name.length() && symbolic; k++) {
+                symbolic = Reader.isSymbol(name.charAt(k));
+            }
+            if (symbolic) {
+                return name;
+            }
+        }
+        return quote(name, '\'');
+    }
+
+    /**
+     * Returns a float in the syntax of SWI-Prolog (always with a fractional part or an exponent)
+     *
+     * @param value float
+     * @return text of the float
+     */
+    static String real(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        } else if (Double.isNaN(value)) {
+            return "nan";
+        }
+        return Double.toString(value).replace('E', 'e');
+    }
+
+    /**
+     * Returns text enclosed in quotes, with the quotes and backslashes in it escaped
+     *
+     * @param text text
+     * @param quote quote character
+     * @return quoted text
+     */
+    static String quote(String text, char quote) {
+        StringBuilder sb = new StringBuilder().append(quote);
+        for (int k = 0; k < text.length(); k++) {
+            char c = text.charAt(k);
+            if (c == quote || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append(quote).toString();
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * Provides an <b>embedded Prolog interpreter</b> written in pure Java, which runs the knowledge base without
+ * SWI-Prolog or native libraries
+ *
+ * <p>Programs are consulted into an {@link expert.prolog.Interpreter}, and goals and results are exchanged as
+ * {@link expert.prolog.Term}s. The interpreter is used by {@link expert.EmbeddedPrologBackend}.</p>
+ */
+
+package expert.prolog;
@@ -20,6 +20,8 @@ public class InitScreen extends JFrame {
     private JLabel lblInputAge;
     /* Prompt asking for the patient's sex */
     private JLabel lblInputSex;
+    /* Status of the loading of the knowledge base */
+    private JLabel lblStatus;
 
     /* Text field for the patient's name */
     private JTextField tfInputName;
@@ -85,6 +87,10 @@ public class InitScreen extends JFrame {
         /* The button is added to pSouth */
         pSouth.add(btnConfirm);
 
+        /* The status of the knowledge base, which is loaded in the background, is added to pBuffer */
+        lblStatus = new JLabel("Loading knowledge base...");
+        pBuffer.add(lblStatus);
+
         /* The patient prompts are initialized */
         lblInputName = new JLabel("Enter your name: ");
         lblInputName.setBorder(new EmptyBorder(0, 0, 15, 0));
@@ -183,6 +189,25 @@ public class InitScreen extends JFrame {
         btnConfirm.setEnabled(true);
     }
 
+    /**
+     * Disables the confirmatory button
+     */
+    public void disableStart() {
+        /* Set the confirmatory button to disabled */
+        btnConfirm.setEnabled(false);
+    }
+
+    /**
+     * Displays the status of the loading of the knowledge base
+     *
+     * @param status status of the loading of the knowledge base
+     * @param error <code>true</code> if the status is an error; <code>false</code>, otherwise
+     */
+    public void setStatus(String status, boolean error) {
+        lblStatus.setText(status);
+        lblStatus.setForeground(error ? Color.red.darker() : Color.black);
+    }
+
     /**
      * Clears the contents of the text field for age
      */
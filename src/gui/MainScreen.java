@@ -21,10 +21,11 @@ public class MainScreen extends JFrame {
     private JScrollPane scrInquiry;
     private JTextField tfResponse;
 
-    /* Buttons for user response and for restarting the diagnosis process */
+    /* Buttons for user response, for explaining the diagnosis, and for restarting the diagnosis process */
     private JButton btnSubmit;
     private JButton btnYes;
     private JButton btnNo;
+    private JButton btnWhy;
     private JButton btnRestart;
 
     /* Labels used to display the patient details and the logo of the diagnosis system */
@@ -217,14 +218,17 @@ public class MainScreen extends JFrame {
 
         /* The pRestart panel is initialized */
         pRestart = new JPanel();
-        pRestart.setLayout(new GridLayout(1, 1));
+        pRestart.setLayout(new GridLayout(1, 2));
         pRestart.setBorder(new EmptyBorder(10, 0, 0, 0));
         pRestart.setBackground(Color.pink);
 
-        /* The RESTART button is initialized */
+        /* The WHY? button (enabled once the diagnosis is given) and the RESTART button are initialized */
+        btnWhy = new JButton("Why?");
+        btnWhy.setEnabled(false);
         btnRestart = new JButton("Restart");
 
-        /* The button is added to pRestart, and pRestart is in turn added to pRight */
+        /* The buttons are added to pRestart, and pRestart is in turn added to pRight */
+        pRestart.add(btnWhy);
         pRestart.add(btnRestart);
         pRight.add(pRestart);
 
@@ -326,6 +330,16 @@ public class MainScreen extends JFrame {
         btnNo.setEnabled(enabled);
     }
 
+    /**
+     * Enables the WHY? button for explaining the diagnosis
+     *
+     * @param enabled whether or not the button is to be enabled
+     */
+    public void setBtnWhyEnabled(boolean enabled) {
+        /* The button is either enabled or disabled depending on the passed parameter */
+        btnWhy.setEnabled(enabled);
+    }
+
     /**
      * Enables the SUBMIT button for the user's text-based response
      *
@@ -352,10 +366,11 @@ public class MainScreen extends JFrame {
      * @param listener action listener receiving action events
      */
     public void setActionListener(ActionListener listener) {
-        /* Action listeners are added for the NO, YES, SUBMIT, and RESTART buttons */
+        /* Action listeners are added for the NO, YES, SUBMIT, WHY?, and RESTART buttons */
         btnNo.addActionListener(listener);
         btnYes.addActionListener(listener);
         btnSubmit.addActionListener(listener);
+        btnWhy.addActionListener(listener);
         btnRestart.addActionListener(listener);
     }
 
@@ -0,0 +1,524 @@
+package server;
+
+import expert.VitalSignRules;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Class implementing a <b>client of {@link DiagnosisServer}</b> over a Unix domain socket
+ *
+ * <p>Requests are queued with the <code>send</code> methods and written when the output buffer is full or
+ * when {@link #flush()} or {@link #receive()} is called, so any number of requests, for any number of
+ * sessions, can be pipelined. The responses are read in the order of the requests into a single
+ * {@link Response}, which is overwritten by the next call to {@link #receive()}. The buffers are allocated
+ * once, so a steady stream of answers does not allocate.</p>
+ *
+ * <p>The server stops reading the requests of a client that does not read its responses, so a client should
+ * not queue more than a few thousand requests before reading their responses. A client is not thread-safe;
+ * threads should use their own clients.</p>
+ */
+public class DiagnosisClient implements AutoCloseable {
+    /* Channel of the connection */
+    private final SocketChannel channel;
+    /* Requests not written yet (in write mode) */
+    private final ByteBuffer out = ByteBuffer.allocateDirect(Protocol.MAX_FRAME);
+    /* Responses read but not returned yet (in read mode) */
+    private final ByteBuffer in = ByteBuffer.allocateDirect(2 * Protocol.MAX_FRAME);
+    /* Last response read */
+    private final Response response = new Response();
+
+    /**
+     * Connects to a server
+     *
+     * @param socket path of the socket of the server
+     * @throws IOException if the server cannot be reached
+     */
+    public DiagnosisClient(Path socket) throws IOException {
+        channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(UnixDomainSocketAddress.of(socket));
+        in.flip();
+    }
+
+    /**
+     * Queues a request to start a consultation
+     *
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @throws IOException if the request cannot be written
+     * @throws IllegalArgumentException if the name is too long
+     */
+    public void sendStart(String name, double age, String sex) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Protocol.MAX_FRAME - Protocol.REQUEST_HEADER - 11) {
+            throw new IllegalArgumentException("The name is too long");
+        }
+
+        begin(Protocol.OP_START, 0, 8 + 1 + 2 + bytes.length);
+        out.putDouble(age);
+        out.put((byte) VitalSignRules.sexCode(sex));
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    /**
+     * Queues a request to start a consultation over the knowledge base of a tenant
+     *
+     * @param tenant name of the tenant
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient (either <code>"male"</code> or <code>"female"</code>, case-insensitive)
+     * @throws IOException if the request cannot be written
+     * @throws IllegalArgumentException if the name of the tenant or of the patient is too long
+     */
+    public void sendStart(String tenant, String name, double age, String sex) throws IOException {
+        byte[] tenantBytes = tenant.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (tenantBytes.length + bytes.length > Protocol.MAX_FRAME - Protocol.REQUEST_HEADER - 13) {
+            throw new IllegalArgumentException("The name is too long");
+        }
+
+        begin(Protocol.OP_START_TENANT, 0, 2 + tenantBytes.length + 8 + 1 + 2 + bytes.length);
+        out.putShort((short) tenantBytes.length);
+        out.put(tenantBytes);
+        out.putDouble(age);
+        out.put((byte) VitalSignRules.sexCode(sex));
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    /**
+     * Queues a request to answer the current question of a consultation
+     *
+     * @param session ID of the session
+     * @param symptom ID of the symptom answered (which must be the current one)
+     * @param value reading of a vital sign, or for the other symptoms, <code>1</code> for <i>yes</i> and
+     *              <code>0</code> for <i>no</i>
+     * @throws IOException if the request cannot be written
+     */
+    public void sendAnswer(long session, int symptom, double value) throws IOException {
+        begin(Protocol.OP_ANSWER, session, 4 + 8);
+        out.putInt(symptom);
+        out.putDouble(value);
+    }
+
+    /**
+     * Queues a request to answer a whole form at once, up to the first question the form does not answer
+     *
+     * @param session ID of the session
+     * @param symptoms IDs of the symptoms answered, in any order
+     * @param values readings of the vital signs, or for the other symptoms, <code>1</code> for <i>yes</i> and
+     *               <code>0</code> for <i>no</i>
+     * @param n number of answers
+     * @throws IOException if the request cannot be written
+     * @throws IllegalArgumentException if the form is too large for a frame
+     */
+    public void sendAnswers(long session, int[] symptoms, double[] values, int n) throws IOException {
+        if (n > (Protocol.MAX_FRAME - Protocol.REQUEST_HEADER - 4) / 12) {
+            throw new IllegalArgumentException("The form is too large");
+        }
+
+        begin(Protocol.OP_ANSWER_ALL, session, 4 + 12 * n);
+        out.putInt(n);
+        for (int k = 0; k < n; k++) {
+            out.putInt(symptoms[k]);
+            out.putDouble(values[k]);
+        }
+    }
+
+    /**
+     * Queues a request for the current question of a consultation
+     *
+     * @param session ID of the session
+     * @throws IOException if the request cannot be written
+     */
+    public void sendQuestion(long session) throws IOException {
+        begin(Protocol.OP_QUESTION, session, 0);
+    }
+
+    /**
+     * Queues a request for the diseases of a consultation with the highest certainty factors
+     *
+     * @param session ID of the session
+     * @param k number of diseases wanted
+     * @throws IOException if the request cannot be written
+     */
+    public void sendRanked(long session, int k) throws IOException {
+        begin(Protocol.OP_RANKED, session, 4);
+        out.putInt(k);
+    }
+
+    /**
+     * Queues a request for the final diagnosis of a consultation
+     *
+     * @param session ID of the session
+     * @throws IOException if the request cannot be written
+     */
+    public void sendDiagnosis(long session) throws IOException {
+        begin(Protocol.OP_DIAGNOSIS, session, 0);
+    }
+
+    /**
+     * Queues a request to end a consultation
+     *
+     * @param session ID of the session
+     * @throws IOException if the request cannot be written
+     */
+    public void sendEnd(long session) throws IOException {
+        begin(Protocol.OP_END, session, 0);
+    }
+
+    /**
+     * Queues a request to end a consultation and return its state as a token (see
+     * {@link Response#getToken()})
+     *
+     * @param session ID of the session
+     * @throws IOException if the request cannot be written
+     */
+    public void sendSuspend(long session) throws IOException {
+        begin(Protocol.OP_SUSPEND, session, 0);
+    }
+
+    /**
+     * Queues a request to resume a consultation from a token, possibly suspended on another server
+     *
+     * @param token token of the consultation
+     * @throws IOException if the request cannot be written
+     * @throws IllegalArgumentException if the token is too long
+     */
+    public void sendResume(byte[] token) throws IOException {
+        if (token.length > Protocol.MAX_FRAME - Protocol.REQUEST_HEADER - 2) {
+            throw new IllegalArgumentException("The token is too long");
+        }
+
+        begin(Protocol.OP_RESUME, 0, 2 + token.length);
+        out.putShort((short) token.length);
+        out.put(token);
+    }
+
+    /**
+     * Begins a request, first writing the queued ones if it does not fit
+     *
+     * @param op operation
+     * @param session ID of the session
+     * @param length length of the payload
+     * @throws IOException if the queued requests cannot be written
+     */
+    private void begin(byte op, long session, int length) throws IOException {
+        if (out.remaining() < Protocol.REQUEST_HEADER + length) {
+            flush();
+        }
+
+        out.putInt(Protocol.REQUEST_HEADER - 4 + length);
+        out.put(op);
+        out.putLong(session);
+    }
+
+    /**
+     * Writes the queued requests
+     *
+     * @throws IOException if the requests cannot be written
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Writes the queued requests, then reads the next response
+     *
+     * @return next response (overwritten by the next call)
+     * @throws IOException if the connection fails
+     */
+    public Response receive() throws IOException {
+        flush();
+
+        fill(4);
+        int length = in.getInt();
+        fill(length);
+
+        int end = in.position() + length;
+        response.read(in);
+        in.position(end);
+
+        return response;
+    }
+
+    /**
+     * Reads from the connection until the given number of bytes is available
+     *
+     * @param n number of bytes needed
+     * @throws IOException if the connection fails or is closed
+     */
+    private void fill(int n) throws IOException {
+        if (n > in.capacity()) {
+            throw new IOException("Invalid frame length: " + n);
+        }
+
+        while (in.remaining() < n) {
+            in.compact();
+            int read = channel.read(in);
+            in.flip();
+            if (read < 0) {
+                throw new EOFException("The server closed the connection");
+            }
+        }
+    }
+
+    /**
+     * Closes the connection (the server ends all its sessions)
+     *
+     * @throws IOException if the connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Class representing a <b>response of the server</b>, reused for every response read by a client
+     */
+    public static final class Response {
+        /* Status of the response */
+        private byte status;
+        /* Operation of the request */
+        private byte op;
+        /* ID of the session */
+        private long session;
+        /* Flags of the question or diagnosis */
+        private byte flags;
+        /* ID of the current symptom */
+        private int symptom;
+        /* Number of answers given */
+        private int numAnswers;
+        /* Number of ranked diseases */
+        private int numRanked;
+        /* Indices of the ranked diseases */
+        private int[] rankedDiseases = new int[16];
+        /* Certainty factors of the ranked diseases */
+        private double[] rankedCFs = new double[16];
+        /* Index of the diagnosed disease */
+        private int disease;
+        /* Certainty factor of the diagnosed disease */
+        private double cf;
+        /* UTF-8 bytes of the diagnosis or the error message, or the bytes of a token */
+        private byte[] text = new byte[256];
+        /* Number of bytes of the diagnosis, the error message, or the token */
+        private int textLength;
+
+        /**
+         * Reads a response (after its length)
+         *
+         * @param buffer buffer holding the response
+         */
+        private void read(ByteBuffer buffer) {
+            status = buffer.get();
+            op = buffer.get();
+            session = buffer.getLong();
+            textLength = 0;
+
+            if (status != Protocol.STATUS_OK) {
+                readText(buffer);
+                return;
+            }
+
+            switch (op) {
+                case Protocol.OP_START:
+                case Protocol.OP_START_TENANT:
+                case Protocol.OP_RESUME:
+                case Protocol.OP_ANSWER:
+                case Protocol.OP_ANSWER_ALL:
+                case Protocol.OP_QUESTION:
+                    flags = buffer.get();
+                    symptom = buffer.getInt();
+                    numAnswers = buffer.getInt();
+                    break;
+                case Protocol.OP_RANKED:
+                    numRanked = buffer.getInt();
+                    if (numRanked > rankedDiseases.length) {
+                        rankedDiseases = new int[numRanked];
+                        rankedCFs = new double[numRanked];
+                    }
+                    for (int k = 0; k < numRanked; k++) {
+                        rankedDiseases[k] = buffer.getInt();
+                        rankedCFs[k] = buffer.getDouble();
+                    }
+                    break;
+                case Protocol.OP_DIAGNOSIS:
+                    flags = buffer.get();
+                    disease = buffer.getInt();
+                    cf = buffer.getDouble();
+                    readText(buffer);
+                    break;
+                case Protocol.OP_SUSPEND:
+                    readText(buffer);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Reads a string preceded by its length
+         *
+         * @param buffer buffer holding the string
+         */
+        private void readText(ByteBuffer buffer) {
+            textLength = buffer.getShort() & 0xFFFF;
+            if (textLength > text.length) {
+                text = Arrays.copyOf(text, textLength);
+            }
+            buffer.get(text, 0, textLength);
+        }
+
+        /**
+         * Returns <code>true</code> if the request succeeded; <code>false</code>, otherwise
+         *
+         * @return <code>true</code> if the request succeeded; <code>false</code>, otherwise
+         */
+        public boolean isOk() {
+            return status == Protocol.STATUS_OK;
+        }
+
+        /**
+         * Returns the status of the response (see {@link Protocol})
+         *
+         * @return status of the response
+         */
+        public byte getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the operation of the request (see {@link Protocol})
+         *
+         * @return operation of the request
+         */
+        public byte getOp() {
+            return op;
+        }
+
+        /**
+         * Returns the ID of the session (for a started consultation, the ID to use in its next requests)
+         *
+         * @return ID of the session
+         */
+        public long getSession() {
+            return session;
+        }
+
+        /**
+         * Returns <code>true</code> if the consultation has ended; <code>false</code>, otherwise
+         *
+         * @return <code>true</code> if the consultation has ended; <code>false</code>, otherwise
+         */
+        public boolean isFinished() {
+            return (flags & Protocol.FLAG_FINISHED) != 0;
+        }
+
+        /**
+         * Returns <code>true</code> if a symptom indicative of an emergency has been reported;
+         * <code>false</code>, otherwise
+         *
+         * @return <code>true</code> if a symptom indicative of an emergency has been reported;
+         * <code>false</code>, otherwise
+         */
+        public boolean getEmergency() {
+            return (flags & Protocol.FLAG_EMERGENCY) != 0;
+        }
+
+        /**
+         * Returns the ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+         *
+         * @return ID of the current symptom being asked, or <code>-1</code> if the consultation has ended
+         */
+        public int getSymptomId() {
+            return symptom;
+        }
+
+        /**
+         * Returns the number of answers given
+         *
+         * @return number of answers given
+         */
+        public int getNumAnswers() {
+            return numAnswers;
+        }
+
+        /**
+         * Returns the number of ranked diseases
+         *
+         * @return number of ranked diseases
+         */
+        public int getNumRanked() {
+            return numRanked;
+        }
+
+        /**
+         * Returns the index of a ranked disease
+         *
+         * @param rank rank of the disease, from 0
+         * @return index of the disease, as in <code>mapping/2</code>
+         */
+        public int getRankedDisease(int rank) {
+            return rankedDiseases[rank];
+        }
+
+        /**
+         * Returns the certainty factor of a ranked disease
+         *
+         * @param rank rank of the disease, from 0
+         * @return certainty factor of the disease
+         */
+        public double getRankedCF(int rank) {
+            return rankedCFs[rank];
+        }
+
+        /**
+         * Returns the index of the diagnosed disease
+         *
+         * @return index of the diagnosed disease, as in <code>mapping/2</code>
+         */
+        public int getDiagnosedDisease() {
+            return disease;
+        }
+
+        /**
+         * Returns the certainty factor of the diagnosed disease
+         *
+         * @return certainty factor of the diagnosed disease
+         */
+        public double getFinalCF() {
+            return cf;
+        }
+
+        /**
+         * Returns a copy of the token of a suspended consultation
+         *
+         * @return token of the consultation
+         */
+        public byte[] getToken() {
+            return Arrays.copyOf(text, textLength);
+        }
+
+        /**
+         * Returns the final diagnosis, or the error message if the request failed
+         *
+         * @return final diagnosis or error message
+         */
+        public String getText() {
+            return new String(text, 0, textLength, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,1191 @@
+package server;
+
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.KnowledgeBaseRegistry;
+import expert.SessionToken;
+import expert.Tenant;
+import expert.VitalSignRules;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Class implementing a <b>diagnosis server for co-located clients</b>, speaking the binary {@link Protocol}
+ * over a Unix domain socket
+ *
+ * <p>The server runs consultations on {@link DiagnosisSession}s, so no Prolog engine is needed. It hosts the
+ * knowledge bases of a {@link KnowledgeBaseRegistry} side by side: every session is bound to the tenant it was
+ * started with, and the requests of its sessions are counted in the metrics of the tenant. A single
+ * thread serves all the connections through a selector. Every connection owns the sessions it started (any
+ * number of them), its own direct buffers for reading requests and writing responses, and a scratch area for
+ * ranking the diseases, so answering a question does not allocate. The responses to all the requests handled
+ * at once are written together. When a client does not read its responses, the server stops reading its
+ * requests until it does.</p>
+ *
+ * <p>Emergencies are served ahead of routine traffic. The connections with complete requests wait in one of two
+ * lanes: the priority lane if their next request is for a consultation in which an emergency has been reported,
+ * or is an answer (or a form with an answer) reporting one; the routine lane, otherwise. The priority lane is
+ * always emptied first, and its connections are served for as long as their requests are urgent. The routine
+ * connections are served in turn, a few requests at a time, and the sockets are polled again after each batch,
+ * so that an emergency never waits for more than one batch of routine requests. When an answer reports an
+ * emergency, an alert is handed to an {@link EmergencyNotifier}, which delivers it on its own thread.</p>
+ *
+ * <p>With a {@link SessionToken} codec, a consultation can be suspended into a signed token and resumed from it
+ * by any server sharing the key and the knowledge base, so that the servers need no sticky sessions and a
+ * consultation survives the loss of the server that started it.</p>
+ *
+ * <p>Usage: <code>java server.DiagnosisServer [--kb FILE] [--tenant NAME=FILE]... [--socket PATH]
+ * [--token-key FILE] [--alert-queue N]</code></p>
+ */
+public class DiagnosisServer implements Runnable, AutoCloseable {
+    /**
+     * Name of the tenant of the sessions started without a tenant
+     */
+    public static final String DEFAULT_TENANT = "default";
+
+    /* Maximum number of sessions per connection */
+    private static final int MAX_SESSIONS = 1 << 16;
+    /* Maximum length of a diagnosis or an error message, in bytes */
+    private static final int MAX_TEXT = 4096;
+    /* Maximum length of a session token, in bytes */
+    private static final int MAX_TOKEN = 16384;
+    /* Maximum number of routine requests of a connection served in turn */
+    private static final int ROUTINE_BATCH = 16;
+    /* Shortest interval between two logs of dropped emergency alerts, in nanoseconds */
+    private static final long DROP_LOG_INTERVAL = 1_000_000_000L;
+
+    /* Knowledge bases hosted */
+    private final KnowledgeBaseRegistry registry;
+    /* Tenant of the sessions started without a tenant, or null if they are rejected */
+    private final Tenant defaultTenant;
+    /* Path of the socket */
+    private final Path socket;
+    /* Channel accepting the connections */
+    private final ServerSocketChannel server;
+    /* Selector of the connections */
+    private final Selector selector;
+    /* Handler of the selected keys, created once */
+    private final Consumer<SelectionKey> handler = this::handle;
+    /* Largest response, in bytes */
+    private final int maxResponse;
+    /* Largest number of diseases in a ranking */
+    private final int maxRanked;
+    /* Codec of the session tokens, or null if the sessions cannot be suspended */
+    private SessionToken tokens;
+    /* Notifier of the emergencies, or null if they are not notified */
+    private EmergencyNotifier notifier;
+    /* Number of emergency alerts the notifier dropped, and the time of the last log of one, as per
+    System.nanoTime() (only used by the serving thread) */
+    private long droppedAlerts;
+    private long lastDropLog;
+
+    /* Connections whose next request is urgent, and those whose next request is routine */
+    private final ArrayDeque<Connection> priority = new ArrayDeque<>();
+    private final ArrayDeque<Connection> routine = new ArrayDeque<>();
+
+    /* Set to true once the server is closed */
+    private volatile boolean closed;
+
+    /**
+     * Creates a server listening on the given socket (replacing a stale socket file, if any), hosting a single
+     * knowledge base as the default tenant
+     *
+     * @param kb static tables of the knowledge base
+     * @param socket path of the socket
+     * @throws IOException if the socket cannot be bound
+     */
+    public DiagnosisServer(KnowledgeBase kb, Path socket) throws IOException {
+        this(singleTenant(kb), DEFAULT_TENANT, socket);
+    }
+
+    /**
+     * Creates a server listening on the given socket (replacing a stale socket file, if any), hosting the
+     * knowledge bases of a registry
+     *
+     * <p>The rankings are limited to the largest number of diseases of the tenants registered so far.</p>
+     *
+     * @param registry knowledge bases hosted
+     * @param defaultTenant name of the tenant of the sessions started without a tenant, or <code>null</code>
+     *                      if they are rejected
+     * @param socket path of the socket
+     * @throws IOException if the socket cannot be bound
+     * @throws IllegalArgumentException if the default tenant is not registered
+     */
+    public DiagnosisServer(KnowledgeBaseRegistry registry, String defaultTenant, Path socket) throws IOException {
+        this.registry = registry;
+        this.defaultTenant = defaultTenant == null ? null : registry.get(defaultTenant);
+        if (defaultTenant != null && this.defaultTenant == null) {
+            throw new IllegalArgumentException("Unknown tenant: " + defaultTenant);
+        }
+
+        this.socket = socket;
+        this.maxRanked = registry.getMaxNumDiseases();
+        this.maxResponse = Protocol.RESPONSE_HEADER + Math.max(4 + 12 * maxRanked,
+                Math.max(1 + 4 + 8 + 2 + MAX_TEXT, 2 + MAX_TOKEN));
+
+        if (Files.exists(socket) && !Files.isRegularFile(socket) && !Files.isDirectory(socket)) {
+            Files.delete(socket);
+        }
+
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        server.configureBlocking(false);
+
+        selector = Selector.open();
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Returns a registry hosting a single knowledge base as the default tenant
+     *
+     * @param kb static tables of the knowledge base
+     * @return registry
+     */
+    private static KnowledgeBaseRegistry singleTenant(KnowledgeBase kb) {
+        KnowledgeBaseRegistry registry = new KnowledgeBaseRegistry();
+        registry.register(DEFAULT_TENANT, kb);
+        return registry;
+    }
+
+    /**
+     * Returns the knowledge bases hosted
+     *
+     * @return registry of the knowledge bases
+     */
+    public KnowledgeBaseRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Enables suspending and resuming the consultations with the given codec of session tokens (to be called
+     * before the server runs)
+     *
+     * @param tokens codec of the session tokens, or <code>null</code> to disable them
+     */
+    public void setSessionTokens(SessionToken tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Hands the emergencies reported in the consultations to the given notifier (to be called before the server
+     * runs)
+     *
+     * @param notifier notifier of the emergencies, or <code>null</code> if they are not notified
+     */
+    public void setEmergencyNotifier(EmergencyNotifier notifier) {
+        this.notifier = notifier;
+    }
+
+    /**
+     * Starts the server according to the command-line arguments, and serves until the process is stopped
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = null;
+        Map<String, Path> tenantFiles = new LinkedHashMap<>();
+        Path socket = Paths.get(Protocol.DEFAULT_SOCKET);
+        Path tokenKey = null;
+        int alertQueue = EmergencyNotifier.DEFAULT_CAPACITY;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--tenant":
+                        String[] parts = args[++k].split("=", 2);
+                        if (parts.length != 2 || parts[0].isEmpty() || tenantFiles.containsKey(parts[0])) {
+                            throw new IllegalArgumentException("Invalid tenant: " + args[k]);
+                        }
+                        tenantFiles.put(parts[0], Paths.get(parts[1]));
+                        break;
+                    case "--socket":
+                        socket = Paths.get(args[++k]);
+                        break;
+                    case "--token-key":
+                        tokenKey = Paths.get(args[++k]);
+                        break;
+                    case "--alert-queue":
+                        alertQueue = Integer.parseInt(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            /* The default tenant is hosted unless only named tenants are given. */
+            KnowledgeBaseRegistry registry = new KnowledgeBaseRegistry();
+            if (kbFile != null || tenantFiles.isEmpty()) {
+                registry.register(DEFAULT_TENANT,
+                        kbFile != null ? kbFile : Paths.get("src", "expert", "knowledgebase.pl"));
+            }
+            for (Map.Entry<String, Path> tenant : tenantFiles.entrySet()) {
+                registry.register(tenant.getKey(), tenant.getValue());
+            }
+
+            DiagnosisServer server;
+            server = new DiagnosisServer(registry, registry.get(DEFAULT_TENANT) != null ? DEFAULT_TENANT : null,
+                    socket);
+            if (tokenKey != null) {
+                server.setSessionTokens(new SessionToken(Files.readAllBytes(tokenKey)));
+            }
+            EmergencyNotifier notifier = new EmergencyNotifier(System.err::println, alertQueue);
+            server.setEmergencyNotifier(notifier);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                notifier.close();
+                System.err.println(registry);
+                System.err.println(notifier);
+                if (notifier.getDropped() > 0) {
+                    System.err.println("WARNING: " + notifier.getDropped() + " emergency alerts were dropped");
+                }
+            }));
+            System.err.println("Serving on " + socket.toAbsolutePath() + System.lineSeparator() + registry);
+            server.run();
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java server.DiagnosisServer [--kb FILE] [--tenant NAME=FILE]... "
+                    + "[--socket PATH] [--token-key FILE] [--alert-queue N]");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Server failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Serves the connections until the server is closed
+     */
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select(handler);
+                serve();
+            }
+        } catch (IOException e) {
+            System.err.println("Server failed: " + e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    /* Already closing */
+                }
+            }
+
+            try {
+                selector.close();
+                Files.deleteIfExists(socket);
+            } catch (IOException e) {
+                System.err.println("Server failed to clean up: " + e);
+            }
+        }
+    }
+
+    /**
+     * Stops serving (the connections are closed by the serving thread)
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Serves the connections with complete requests, emptying the priority lane before each batch of routine
+     * requests, until both lanes are empty
+     *
+     * @throws IOException if the selector fails
+     */
+    private void serve() throws IOException {
+        while (!priority.isEmpty() || !routine.isEmpty()) {
+            Connection connection;
+            while ((connection = priority.poll()) != null) {
+                connection.serve(true);
+            }
+
+            connection = routine.poll();
+            if (connection != null) {
+                connection.serve(false);
+
+                /* Read the requests that arrived meanwhile, in case some of them are urgent. */
+                if (!routine.isEmpty()) {
+                    selector.selectNow(handler);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles a selected key: accepts a connection, or reads the requests of an existing one
+     *
+     * @param key selected key
+     */
+    private void handle(SelectionKey key) {
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isWritable()) {
+                connection.writable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.readable();
+            }
+        } catch (IOException | RuntimeException e) {
+            /* A broken or misbehaving client only loses its own connection. */
+            connection.close();
+        }
+    }
+
+    /**
+     * Accepts a pending connection
+     */
+    private void accept() {
+        try {
+            SocketChannel channel = server.accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(channel, key));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to accept a connection: " + e);
+        }
+    }
+
+    /**
+     * Connection with a client, with the sessions it started
+     */
+    private final class Connection {
+        /* Channel of the connection */
+        private final SocketChannel channel;
+        /* Key of the channel */
+        private final SelectionKey key;
+        /* Requests read but not handled yet (in write mode) */
+        private final ByteBuffer in = ByteBuffer.allocateDirect(2 * Protocol.MAX_FRAME);
+        /* Responses not written yet (in write mode) */
+        private final ByteBuffer out = ByteBuffer.allocateDirect(Math.max(Protocol.MAX_FRAME, 2 * maxResponse));
+        /* Scratch area for the names and the messages */
+        private final byte[] text = new byte[Protocol.MAX_FRAME];
+        /* Scratch area for ranking the diseases, grown to the largest knowledge base used */
+        private int[] order = new int[0];
+        /* Scratch area for the answer codes of a form (-1 for the symptoms not answered), grown likewise */
+        private int[] codes = new int[0];
+
+        /* Sessions, indexed by slot (null for the free slots) */
+        private DiagnosisSession[] sessions = new DiagnosisSession[16];
+        /* Tenant of every session */
+        private Tenant[] tenants = new Tenant[16];
+        /* Code of the sex of the patient of every session */
+        private int[] sexCodes = new int[16];
+        /* Generation of every slot, incremented when its session ends, so that stale IDs are rejected */
+        private int[] generations = new int[16];
+        /* Free slots */
+        private int[] free = new int[16];
+        /* Number of free slots */
+        private int numFree;
+        /* Number of slots ever used */
+        private int numSlots;
+        /* Position of the response being written */
+        private int response;
+        /* Set to true while the connection waits in a lane */
+        private boolean queued;
+        /* Time at which the requests waiting to be handled started to be read, as per System.nanoTime() */
+        private long readNanos;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Reads the available requests, and queues the connection in the lane of its next request
+         *
+         * @throws IOException if the connection fails
+         */
+        void readable() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+
+            if (!queued) {
+                readNanos = System.nanoTime();
+            }
+            schedule();
+        }
+
+        /**
+         * Writes the pending responses, and resumes reading the requests once they are all written
+         *
+         * @throws IOException if the connection fails
+         */
+        void writable() throws IOException {
+            if (flush()) {
+                key.interestOps(SelectionKey.OP_READ);
+                schedule();
+            }
+        }
+
+        /**
+         * Queues the connection in the lane of its next request, unless it is already queued or has no complete
+         * request
+         */
+        private void schedule() {
+            if (queued || in.position() < 4) {
+                return;
+            }
+
+            /* A malformed frame is served at once, so that the connection is closed. */
+            int length = in.getInt(0);
+            boolean valid = length >= Protocol.REQUEST_HEADER - 4 && length <= Protocol.MAX_FRAME - 4;
+            if (valid && in.position() < 4 + length) {
+                return;
+            }
+
+            queued = true;
+            if (valid && isUrgent(0)) {
+                priority.add(this);
+            } else {
+                routine.add(this);
+            }
+        }
+
+        /**
+         * Serves the requests of the connection once it leaves its lane, closing it if it fails
+         *
+         * @param urgent <code>true</code> to serve the requests for as long as they are urgent;
+         *               <code>false</code> to serve a batch of requests
+         */
+        void serve(boolean urgent) {
+            queued = false;
+            if (!key.isValid()) {
+                return;
+            }
+
+            try {
+                process(urgent);
+            } catch (IOException | RuntimeException e) {
+                /* A broken or misbehaving client only loses its own connection. */
+                close();
+            }
+        }
+
+        /**
+         * Handles the complete requests read so far (the urgent ones, or a batch of them), writes their
+         * responses, and queues the connection again if it has more requests
+         *
+         * @param urgent <code>true</code> to handle the requests for as long as they are urgent;
+         *               <code>false</code> to handle a batch of requests
+         * @throws IOException if the connection fails
+         */
+        private void process(boolean urgent) throws IOException {
+            in.flip();
+
+            try {
+                int handled = 0;
+                while (in.remaining() >= 4) {
+                    int start = in.position();
+                    int length = in.getInt(start);
+                    if (length < Protocol.REQUEST_HEADER - 4 || length > Protocol.MAX_FRAME - 4) {
+                        throw new IOException("Invalid frame length: " + length);
+                    }
+                    if (in.remaining() < 4 + length || (urgent ? !isUrgent(start) : handled == ROUTINE_BATCH)) {
+                        break;
+                    }
+
+                    /* Make room for the response; if the client is not reading, wait until it does. */
+                    if (out.remaining() < maxResponse && !flush()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        break;
+                    }
+
+                    int end = start + 4 + length;
+                    byte op = in.get(start + 4);
+                    long id = in.getLong(start + 5);
+                    in.position(start + Protocol.REQUEST_HEADER);
+                    handle(op, id, end - in.position());
+                    in.position(end);
+                    handled++;
+                }
+            } finally {
+                in.compact();
+            }
+
+            if (!flush()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            schedule();
+        }
+
+        /**
+         * Returns <code>true</code> if a complete request is urgent: it is for a consultation in which an
+         * emergency has been reported, or it is an answer or a form with an answer reporting one;
+         * <code>false</code>, otherwise
+         *
+         * @param start position of the request in the input buffer
+         * @return <code>true</code> if the request is urgent; <code>false</code>, otherwise
+         */
+        private boolean isUrgent(int start) {
+            byte op = in.get(start + 4);
+            if (op == Protocol.OP_START || op == Protocol.OP_START_TENANT || op == Protocol.OP_RESUME) {
+                return false;
+            }
+
+            int slot = slotOf(in.getLong(start + 5));
+            if (slot < 0) {
+                return false;
+            }
+            DiagnosisSession session = sessions[slot];
+            if (session.getEmergency()) {
+                return true;
+            }
+
+            int length = in.getInt(start) - (Protocol.REQUEST_HEADER - 4);
+            int payload = start + Protocol.REQUEST_HEADER;
+            if (op == Protocol.OP_ANSWER && length >= 12) {
+                int symptom = in.getInt(payload);
+                double value = in.getDouble(payload + 4);
+                int code = codeOf(session, sexCodes[slot], symptom, value);
+                return code >= 0 && (code & VitalSignRules.EMERGENCY) != 0;
+            } else if (op == Protocol.OP_ANSWER_ALL && length >= 4 && !session.isFinished()) {
+                /* A form is urgent if any of its answers reports an emergency (a malformed form is not). */
+                int n = in.getInt(payload);
+                if (n < 0 || n > (length - 4) / 12) {
+                    return false;
+                }
+                for (int k = 0; k < n; k++) {
+                    int symptom = in.getInt(payload + 4 + 12 * k);
+                    double value = in.getDouble(payload + 8 + 12 * k);
+                    int code = evaluate(session, sexCodes[slot], symptom, value);
+                    if (code >= 0 && (code & VitalSignRules.EMERGENCY) != 0) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Writes the pending responses
+         *
+         * @return <code>true</code> if all the responses were written; <code>false</code>, otherwise
+         * @throws IOException if the connection fails
+         */
+        private boolean flush() throws IOException {
+            out.flip();
+            try {
+                while (out.hasRemaining()) {
+                    if (channel.write(out) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                out.compact();
+            }
+        }
+
+        /**
+         * Handles a request, whose payload is at the position of the input buffer
+         *
+         * @param op operation
+         * @param id ID of the session
+         * @param length length of the payload
+         */
+        private void handle(byte op, long id, int length) {
+            if (op == Protocol.OP_START) {
+                start(defaultTenant, op, length);
+                return;
+            } else if (op == Protocol.OP_START_TENANT) {
+                int n = length < 2 ? -1 : in.getShort() & 0xFFFF;
+                if (n < 0 || n > length - 2) {
+                    error(Protocol.STATUS_BAD_REQUEST, op, 0, "Malformed request");
+                    return;
+                }
+                in.get(text, 0, n);
+                start(registry.get(new String(text, 0, n, StandardCharsets.UTF_8)), op, length - 2 - n);
+                return;
+            } else if (op == Protocol.OP_RESUME) {
+                resume(length);
+                return;
+            }
+
+            int slot = slotOf(id);
+            if (slot < 0) {
+                error(Protocol.STATUS_UNKNOWN_SESSION, op, id, "Unknown session");
+                return;
+            }
+
+            DiagnosisSession session = sessions[slot];
+            Tenant tenant = tenants[slot];
+            long begin = System.nanoTime();
+            int numAnswers = session.getNumAnswers();
+            boolean emergency = session.getEmergency();
+            switch (op) {
+                case Protocol.OP_ANSWER:
+                    if (length < 12) {
+                        error(Protocol.STATUS_BAD_REQUEST, op, id, "Truncated request");
+                    } else {
+                        answer(session, sexCodes[slot], id, in.getInt(), in.getDouble());
+                    }
+                    break;
+                case Protocol.OP_ANSWER_ALL:
+                    answerAll(session, sexCodes[slot], id, length);
+                    break;
+                case Protocol.OP_QUESTION:
+                    begin(Protocol.STATUS_OK, op, id);
+                    question(session);
+                    end();
+                    break;
+                case Protocol.OP_RANKED:
+                    if (length < 4) {
+                        error(Protocol.STATUS_BAD_REQUEST, op, id, "Truncated request");
+                    } else {
+                        ranked(session, id, in.getInt());
+                    }
+                    break;
+                case Protocol.OP_DIAGNOSIS:
+                    begin(Protocol.STATUS_OK, op, id);
+                    out.put(flags(session));
+                    out.putInt(session.getDiagnosedDisease());
+                    out.putDouble(session.getCF(session.getDiagnosedDisease()));
+                    putText(session.getFinalDiagnosis());
+                    end();
+                    break;
+                case Protocol.OP_END:
+                    release(slot);
+                    begin(Protocol.STATUS_OK, op, id);
+                    end();
+                    break;
+                case Protocol.OP_SUSPEND:
+                    suspend(slot, id);
+                    break;
+                default:
+                    error(Protocol.STATUS_BAD_REQUEST, op, id, "Unknown operation");
+            }
+            tenant.recordRequest(session.getNumAnswers() - numAnswers, System.nanoTime() - begin);
+
+            if (!emergency && session.getEmergency() && notifier != null) {
+                EmergencyNotifier.Alert alert = new EmergencyNotifier.Alert(tenant.getName(), id, session.getName(),
+                        session.getAge(), session.getSex(), session.getNumAnswers(), readNanos);
+                if (!notifier.offer(alert)) {
+                    logDropped(alert);
+                }
+            }
+        }
+
+        /**
+         * Logs an emergency alert the notifier dropped, so that a lost emergency is never silent: the first one
+         * is always logged, and then at most one per second, with the number dropped so far
+         *
+         * @param alert alert dropped
+         */
+        private void logDropped(EmergencyNotifier.Alert alert) {
+            droppedAlerts++;
+            long now = System.nanoTime();
+            if (droppedAlerts == 1 || now - lastDropLog >= DROP_LOG_INTERVAL) {
+                lastDropLog = now;
+                System.err.println("Emergency alert dropped (" + droppedAlerts + " so far): session "
+                        + alert.getSession() + " of " + alert.getTenant());
+            }
+        }
+
+        /**
+         * Starts a session, whose patient is at the position of the input buffer
+         *
+         * @param tenant tenant of the session, or <code>null</code> if it is unknown
+         * @param op operation of the request
+         * @param length length of the rest of the payload
+         */
+        private void start(Tenant tenant, byte op, int length) {
+            if (length < 8 + 1 + 2) {
+                error(Protocol.STATUS_BAD_REQUEST, op, 0, "Truncated request");
+                return;
+            }
+
+            double age = in.getDouble();
+            int sexCode = in.get();
+            int n = in.getShort() & 0xFFFF;
+            if (n > length - 11 || Double.isNaN(age)) {
+                error(Protocol.STATUS_BAD_REQUEST, op, 0, "Malformed request");
+                return;
+            }
+            in.get(text, 0, n);
+
+            if (tenant == null) {
+                error(Protocol.STATUS_UNKNOWN_TENANT, op, 0, "Unknown tenant");
+                return;
+            }
+
+            int slot = allocate();
+            if (slot < 0) {
+                error(Protocol.STATUS_BAD_REQUEST, op, 0, "Too many sessions");
+                return;
+            }
+
+            String sex;
+            if (sexCode == VitalSignRules.MALE) {
+                sex = "male";
+            } else if (sexCode == VitalSignRules.FEMALE) {
+                sex = "female";
+            } else {
+                sex = "";
+            }
+
+            long begin = System.nanoTime();
+            DiagnosisSession session;
+            session = tenant.newSession(new String(text, 0, n, StandardCharsets.UTF_8), age, sex);
+            bind(slot, tenant, session);
+
+            begin(Protocol.STATUS_OK, op, idOf(slot));
+            question(session);
+            end();
+            tenant.recordRequest(0, System.nanoTime() - begin);
+        }
+
+        /**
+         * Resumes a session from a token, which is at the position of the input buffer
+         *
+         * @param length length of the payload
+         */
+        private void resume(int length) {
+            byte op = Protocol.OP_RESUME;
+            int n = length < 2 ? -1 : in.getShort() & 0xFFFF;
+            if (n < 0 || n > length - 2) {
+                error(Protocol.STATUS_BAD_REQUEST, op, 0, "Malformed request");
+                return;
+            }
+            byte[] token = new byte[n];
+            in.get(token);
+
+            if (tokens == null) {
+                error(Protocol.STATUS_BAD_REQUEST, op, 0, "Session tokens are disabled");
+                return;
+            }
+
+            /* The token is bound to a version of a knowledge base, hence to the tenant hosting it. */
+            Tenant tenant = null;
+            try {
+                long version = SessionToken.versionOf(token);
+                for (Tenant t : registry.getTenants()) {
+                    if (t.getKnowledgeBase().getVersion() == version) {
+                        tenant = t;
+                        break;
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                error(Protocol.STATUS_BAD_REQUEST, op, 0, e.getMessage());
+                return;
+            }
+            if (tenant == null) {
+                error(Protocol.STATUS_UNKNOWN_TENANT, op, 0, "No tenant has the knowledge base of the token");
+                return;
+            }
+
+            int slot = allocate();
+            if (slot < 0) {
+                error(Protocol.STATUS_BAD_REQUEST, op, 0, "Too many sessions");
+                return;
+            }
+
+            long begin = System.nanoTime();
+            DiagnosisSession session;
+            try {
+                session = tokens.decode(token, tenant);
+            } catch (IllegalArgumentException e) {
+                free[numFree++] = slot;
+                error(Protocol.STATUS_BAD_REQUEST, op, 0, e.getMessage());
+                return;
+            }
+            bind(slot, tenant, session);
+
+            begin(Protocol.STATUS_OK, op, idOf(slot));
+            question(session);
+            end();
+            tenant.recordRequest(0, System.nanoTime() - begin);
+        }
+
+        /**
+         * Ends a session and writes its state as a token
+         *
+         * @param slot slot of the session
+         * @param id ID of the session
+         */
+        private void suspend(int slot, long id) {
+            if (tokens == null) {
+                error(Protocol.STATUS_BAD_REQUEST, Protocol.OP_SUSPEND, id, "Session tokens are disabled");
+                return;
+            }
+
+            byte[] token = tokens.encode(sessions[slot], false);
+            if (token.length > MAX_TOKEN) {
+                error(Protocol.STATUS_BAD_REQUEST, Protocol.OP_SUSPEND, id, "The state is too large for a token");
+                return;
+            }
+
+            release(slot);
+            begin(Protocol.STATUS_OK, Protocol.OP_SUSPEND, id);
+            out.putShort((short) token.length);
+            out.put(token);
+            end();
+        }
+
+        /**
+         * Binds a session to a slot, and grows the scratch areas to its knowledge base
+         *
+         * @param slot slot of the session
+         * @param tenant tenant of the session
+         * @param session session
+         */
+        private void bind(int slot, Tenant tenant, DiagnosisSession session) {
+            sessions[slot] = session;
+            tenants[slot] = tenant;
+            sexCodes[slot] = VitalSignRules.sexCode(session.getSex());
+
+            KnowledgeBase kb = tenant.getKnowledgeBase();
+            if (order.length < kb.getNumDiseases()) {
+                order = new int[kb.getNumDiseases()];
+            }
+            if (codes.length < kb.getNumSymptoms()) {
+                codes = new int[kb.getNumSymptoms()];
+                Arrays.fill(codes, -1);
+            }
+        }
+
+        /**
+         * Answers the current question of a session
+         *
+         * @param session session
+         * @param sexCode code of the sex of the patient
+         * @param id ID of the session
+         * @param symptom ID of the symptom answered
+         * @param value reading of a vital sign, or nonzero for <i>yes</i>
+         */
+        private void answer(DiagnosisSession session, int sexCode, long id, int symptom, double value) {
+            if (session.isFinished() || symptom != session.getSymptomId()) {
+                error(Protocol.STATUS_INVALID_ANSWER, Protocol.OP_ANSWER, id, "Not the current question");
+                return;
+            }
+
+            int code = codeOf(session, sexCode, symptom, value);
+            if (code < 0) {
+                error(Protocol.STATUS_INVALID_ANSWER, Protocol.OP_ANSWER, id, "Reading out of range");
+                return;
+            }
+
+            session.answerCode(code);
+            begin(Protocol.STATUS_OK, Protocol.OP_ANSWER, id);
+            question(session);
+            end();
+        }
+
+        /**
+         * Returns the answer code of an answer to the current question of a session
+         *
+         * @param session session
+         * @param sexCode code of the sex of the patient
+         * @param symptom ID of the symptom answered
+         * @param value reading of a vital sign, or nonzero for <i>yes</i>
+         * @return answer code (see {@link VitalSignRules}), or <code>-1</code> if the symptom is not the current
+         * question or the reading is out of range
+         */
+        private int codeOf(DiagnosisSession session, int sexCode, int symptom, double value) {
+            if (session.isFinished() || symptom != session.getSymptomId()) {
+                return -1;
+            }
+            return evaluate(session, sexCode, symptom, value);
+        }
+
+        /**
+         * Returns the answer code of an answer to any symptom of a session, following the rules of
+         * {@link VitalSignRules}
+         *
+         * @param session session
+         * @param sexCode code of the sex of the patient
+         * @param symptom ID of the symptom answered
+         * @param value reading of a vital sign, or nonzero for <i>yes</i>
+         * @return answer code (see {@link VitalSignRules}), or <code>-1</code> if the symptom is unknown or the
+         * reading is out of range
+         */
+        private int evaluate(DiagnosisSession session, int sexCode, int symptom, double value) {
+            if (symptom < 0 || symptom >= session.getKnowledgeBase().getNumSymptoms()) {
+                return -1;
+            }
+
+            VitalSignRules rules = session.getKnowledgeBase().getVitalSignRules();
+            if (!rules.isNumeric(symptom)) {
+                return rules.evaluate(symptom, value != 0);
+            } else if (rules.isValidReading(symptom, value)) {
+                return rules.evaluate(symptom, value, session.getAge(), sexCode);
+            }
+            return -1;
+        }
+
+        /**
+         * Answers a whole form for a session, up to the first question the form does not answer
+         *
+         * @param session session
+         * @param sexCode code of the sex of the patient
+         * @param id ID of the session
+         * @param length length of the payload
+         */
+        private void answerAll(DiagnosisSession session, int sexCode, long id, int length) {
+            int n = length < 4 ? -1 : in.getInt();
+            if (n < 0 || n > (length - 4) / 12) {
+                error(Protocol.STATUS_BAD_REQUEST, Protocol.OP_ANSWER_ALL, id, "Malformed request");
+                return;
+            }
+            if (session.isFinished()) {
+                error(Protocol.STATUS_INVALID_ANSWER, Protocol.OP_ANSWER_ALL, id, "The consultation has ended");
+                return;
+            }
+
+            /* Evaluate the whole form before applying any answer. */
+            int numSymptoms = session.getKnowledgeBase().getNumSymptoms();
+            VitalSignRules rules = session.getKnowledgeBase().getVitalSignRules();
+            int start = in.position();
+            String problem = null;
+            for (int k = 0; k < n && problem == null; k++) {
+                int symptom = in.getInt();
+                double value = in.getDouble();
+
+                if (symptom < 0 || symptom >= numSymptoms) {
+                    problem = "Unknown symptom";
+                } else if (!rules.isNumeric(symptom)) {
+                    codes[symptom] = rules.evaluate(symptom, value != 0);
+                } else if (rules.isValidReading(symptom, value)) {
+                    codes[symptom] = rules.evaluate(symptom, value, session.getAge(), sexCode);
+                } else {
+                    problem = "Reading out of range";
+                }
+            }
+
+            if (problem == null) {
+                session.answerCodes(codes);
+                begin(Protocol.STATUS_OK, Protocol.OP_ANSWER_ALL, id);
+                question(session);
+                end();
+            } else {
+                error(Protocol.STATUS_INVALID_ANSWER, Protocol.OP_ANSWER_ALL, id, problem);
+            }
+
+            /* Clear the scratch area for the next form. */
+            in.position(start);
+            for (int k = 0; k < n; k++) {
+                int symptom = in.getInt();
+                in.getDouble();
+                if (symptom >= 0 && symptom < numSymptoms) {
+                    codes[symptom] = -1;
+                }
+            }
+        }
+
+        /**
+         * Writes the diseases of a session with the highest certainty factors
+         *
+         * @param session session
+         * @param id ID of the session
+         * @param k number of diseases wanted
+         */
+        private void ranked(DiagnosisSession session, long id, int k) {
+            int numDiseases = session.getKnowledgeBase().getNumDiseases();
+            int n = Math.max(0, Math.min(k, Math.min(numDiseases, maxRanked)));
+            for (int d = 0; d < numDiseases; d++) {
+                order[d] = d;
+            }
+
+            /* Partial selection sort: only the first k diseases are ordered. */
+            begin(Protocol.STATUS_OK, Protocol.OP_RANKED, id);
+            out.putInt(n);
+            for (int j = 0; j < n; j++) {
+                int best = j;
+                for (int d = j + 1; d < numDiseases; d++) {
+                    if (session.getCF(order[d]) > session.getCF(order[best])) {
+                        best = d;
+                    }
+                }
+
+                int disease = order[best];
+                order[best] = order[j];
+                order[j] = disease;
+
+                out.putInt(disease);
+                out.putDouble(session.getCF(disease));
+            }
+            end();
+        }
+
+        /**
+         * Writes the current question of a session
+         *
+         * @param session session
+         */
+        private void question(DiagnosisSession session) {
+            out.put(flags(session));
+            out.putInt(session.getSymptomId());
+            out.putInt(session.getNumAnswers());
+        }
+
+        /**
+         * Returns the flags of a session
+         *
+         * @param session session
+         * @return flags of the session
+         */
+        private byte flags(DiagnosisSession session) {
+            int flags = session.isFinished() ? Protocol.FLAG_FINISHED : 0;
+            if (session.getEmergency()) {
+                flags |= Protocol.FLAG_EMERGENCY;
+            }
+            return (byte) flags;
+        }
+
+        /**
+         * Writes an error response
+         *
+         * @param status status of the response
+         * @param op operation of the request
+         * @param id ID of the session
+         * @param message error message
+         */
+        private void error(byte status, byte op, long id, String message) {
+            begin(status, op, id);
+            putText(message);
+            end();
+        }
+
+        /**
+         * Writes a string, truncated if needed, preceded by its length
+         *
+         * @param string string to be written
+         */
+        private void putText(String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            int n = Math.min(bytes.length, MAX_TEXT);
+            out.putShort((short) n);
+            out.put(bytes, 0, n);
+        }
+
+        /**
+         * Begins writing a response
+         *
+         * @param status status of the response
+         * @param op operation of the request
+         * @param id ID of the session
+         */
+        private void begin(byte status, byte op, long id) {
+            response = out.position();
+            out.putInt(0);
+            out.put(status);
+            out.put(op);
+            out.putLong(id);
+        }
+
+        /**
+         * Ends writing a response, filling in its length
+         */
+        private void end() {
+            out.putInt(response, out.position() - response - 4);
+        }
+
+        /**
+         * Returns the ID of the session in a slot
+         *
+         * @param slot slot of the session
+         * @return ID of the session
+         */
+        private long idOf(int slot) {
+            return ((long) generations[slot] << 32) | slot;
+        }
+
+        /**
+         * Returns the slot of a session, or <code>-1</code> if it does not exist
+         *
+         * @param id ID of the session
+         * @return slot of the session, or <code>-1</code>
+         */
+        private int slotOf(long id) {
+            int slot = (int) id;
+            if (slot < 0 || slot >= numSlots || sessions[slot] == null || generations[slot] != (int) (id >>> 32)) {
+                return -1;
+            }
+            return slot;
+        }
+
+        /**
+         * Returns a free slot, or <code>-1</code> if the connection has too many sessions
+         *
+         * @return free slot, or <code>-1</code>
+         */
+        private int allocate() {
+            if (numFree > 0) {
+                return free[--numFree];
+            }
+            if (numSlots == MAX_SESSIONS) {
+                return -1;
+            }
+
+            if (numSlots == sessions.length) {
+                sessions = Arrays.copyOf(sessions, 2 * numSlots);
+                tenants = Arrays.copyOf(tenants, 2 * numSlots);
+                sexCodes = Arrays.copyOf(sexCodes, 2 * numSlots);
+                generations = Arrays.copyOf(generations, 2 * numSlots);
+                free = Arrays.copyOf(free, 2 * numSlots);
+            }
+            return numSlots++;
+        }
+
+        /**
+         * Ends the session in a slot and frees the slot
+         *
+         * @param slot slot of the session
+         */
+        private void release(int slot) {
+            sessions[slot] = null;
+            tenants[slot] = null;
+            generations[slot]++;
+            free[numFree++] = slot;
+        }
+
+        /**
+         * Closes the connection, ending all its sessions
+         */
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                /* Already closed */
+            }
+            Arrays.fill(sessions, null);
+            Arrays.fill(tenants, null);
+        }
+    }
+}
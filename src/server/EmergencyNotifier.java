@@ -0,0 +1,283 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class implementing a <b>dedicated notifier of emergencies</b>, which delivers the alerts raised by the
+ * consultations of a {@link DiagnosisServer} out of band, on a thread of its own
+ *
+ * <p>The serving thread only offers an alert to a bounded queue, which never blocks: if the queue is full, the
+ * alert is dropped and counted in {@link #getDropped()}, so a slow listener never holds up the consultations.
+ * Only emergencies are queued, so routine traffic never takes the place of an alert; a dropped alert is logged
+ * by the server that offered it, and the number dropped is part of {@link #toString()}.
+ * The notifier thread runs at the highest priority, wakes up as soon as an alert is queued, and delivers the
+ * alerts to the listener one at a time, in the order in which they were raised. A listener that throws only
+ * loses its own alert. This class is thread-safe.</p>
+ */
+public class EmergencyNotifier implements AutoCloseable {
+    /**
+     * Default capacity of the queue of alerts
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /* Alerts raised but not delivered yet */
+    private final BlockingQueue<Alert> queue;
+    /* Listener to which the alerts are delivered */
+    private final Listener listener;
+    /* Thread delivering the alerts */
+    private final Thread thread;
+
+    /* Number of alerts delivered */
+    private final LongAdder delivered = new LongAdder();
+    /* Number of alerts dropped because the queue was full */
+    private final LongAdder dropped = new LongAdder();
+    /* Number of alerts whose delivery failed */
+    private final LongAdder failed = new LongAdder();
+
+    /* Set to true once the notifier is closed */
+    private volatile boolean closed;
+
+    /**
+     * Creates a notifier delivering the alerts to the given listener, with the default queue capacity
+     *
+     * @param listener listener to which the alerts are delivered
+     */
+    public EmergencyNotifier(Listener listener) {
+        this(listener, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a notifier delivering the alerts to the given listener
+     *
+     * @param listener listener to which the alerts are delivered
+     * @param capacity maximum number of alerts waiting to be delivered
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public EmergencyNotifier(Listener listener, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.listener = listener;
+        this.thread = new Thread(this::deliver, "emergency-notifier");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Queues an alert for delivery, without blocking
+     *
+     * @param alert alert
+     * @return <code>true</code> if the alert was queued; <code>false</code> if it was dropped because the queue
+     * is full or the notifier is closed
+     */
+    public boolean offer(Alert alert) {
+        if (closed || !queue.offer(alert)) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Delivers the alerts until the notifier is closed and the queue is empty
+     */
+    private void deliver() {
+        while (!closed || !queue.isEmpty()) {
+            Alert alert;
+            try {
+                alert = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                /* Closing: deliver what is left */
+                continue;
+            }
+            if (alert == null) {
+                continue;
+            }
+
+            try {
+                listener.alert(alert);
+                delivered.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of alerts delivered
+     *
+     * @return number of alerts delivered
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * Returns the number of alerts dropped because the queue was full or the notifier was closed
+     *
+     * @return number of alerts dropped
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of alerts whose delivery failed (the listener threw an exception)
+     *
+     * @return number of alerts whose delivery failed
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Stops accepting alerts, and waits until those already queued are delivered
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "emergency alerts: " + getDelivered() + " delivered, " + getDropped() + " dropped, " + getFailed()
+                + " failed";
+    }
+
+    /**
+     * Interface for the <b>receivers of emergency alerts</b> (such as a pager or the triage desk)
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Receives an alert, on the thread of the notifier
+         *
+         * @param alert alert
+         */
+        void alert(Alert alert);
+    }
+
+    /**
+     * Class representing an <b>emergency alert</b>: a consultation in which a symptom indicative of an
+     * emergency has just been reported
+     */
+    public static final class Alert {
+        /* Name of the tenant of the session */
+        private final String tenant;
+        /* ID of the session, as known to its client */
+        private final long session;
+        /* Details of the patient */
+        private final String name;
+        private final double age;
+        private final String sex;
+        /* Number of answers given, including the one reporting the emergency */
+        private final int numAnswers;
+        /* Time at which the answer reporting the emergency was received, as per System.nanoTime() */
+        private final long receivedNanos;
+
+        /**
+         * Creates an alert
+         *
+         * @param tenant name of the tenant of the session
+         * @param session ID of the session, as known to its client
+         * @param name name of the patient
+         * @param age age of the patient
+         * @param sex sex of the patient
+         * @param numAnswers number of answers given, including the one reporting the emergency
+         * @param receivedNanos time at which the answer reporting the emergency was received, as per
+         *                      {@link System#nanoTime()}
+         */
+        public Alert(String tenant, long session, String name, double age, String sex, int numAnswers,
+                     long receivedNanos) {
+            this.tenant = tenant;
+            this.session = session;
+            this.name = name;
+            this.age = age;
+            this.sex = sex;
+            this.numAnswers = numAnswers;
+            this.receivedNanos = receivedNanos;
+        }
+
+        /**
+         * Returns the name of the tenant of the session
+         *
+         * @return name of the tenant of the session
+         */
+        public String getTenant() {
+            return tenant;
+        }
+
+        /**
+         * Returns the ID of the session, as known to its client
+         *
+         * @return ID of the session
+         */
+        public long getSession() {
+            return session;
+        }
+
+        /**
+         * Returns the name of the patient
+         *
+         * @return name of the patient
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the age of the patient
+         *
+         * @return age of the patient
+         */
+        public double getAge() {
+            return age;
+        }
+
+        /**
+         * Returns the sex of the patient
+         *
+         * @return sex of the patient
+         */
+        public String getSex() {
+            return sex;
+        }
+
+        /**
+         * Returns the number of answers given, including the one reporting the emergency
+         *
+         * @return number of answers given
+         */
+        public int getNumAnswers() {
+            return numAnswers;
+        }
+
+        /**
+         * Returns the time at which the answer reporting the emergency was received, as per
+         * {@link System#nanoTime()}
+         *
+         * @return time at which the answer reporting the emergency was received
+         */
+        public long getReceivedNanos() {
+            return receivedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Emergency: " + name + " (" + age + ", " + sex + "), session " + session + " of " + tenant
+                    + ", after " + numAnswers + " answers";
+        }
+    }
+}
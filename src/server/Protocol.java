@@ -0,0 +1,155 @@
+package server;
+
+/**
+ * Constants of the <b>binary protocol</b> spoken by {@link DiagnosisServer} over Unix domain sockets
+ *
+ * <p>All numbers are big-endian. Every request is a frame <code>int length, byte op, long session,
+ * payload</code>, where the length counts the bytes after itself. Every response is a frame
+ * <code>int length, byte status, byte op, long session, payload</code>. Responses are sent in the order of
+ * the requests, so a client can pipeline any number of requests, for any number of sessions, before reading
+ * the responses.</p>
+ *
+ * <table>
+ *     <caption>Operations</caption>
+ *     <tr><th>Operation</th><th>Request payload</th><th>Response payload</th></tr>
+ *     <tr><td>{@link #OP_START}</td><td><code>double age, byte sex, short n, n bytes of UTF-8 name</code>
+ *     (the session of the request is ignored)</td><td>question</td></tr>
+ *     <tr><td>{@link #OP_ANSWER}</td><td><code>int symptom, double value</code> (a reading for the vital
+ *     signs; nonzero for <i>yes</i> otherwise)</td><td>question</td></tr>
+ *     <tr><td>{@link #OP_QUESTION}</td><td>none</td><td>question</td></tr>
+ *     <tr><td>{@link #OP_RANKED}</td><td><code>int k</code></td><td><code>int n</code>, then <code>n</code>
+ *     times <code>int disease, double cf</code>, by decreasing certainty factor</td></tr>
+ *     <tr><td>{@link #OP_DIAGNOSIS}</td><td>none</td><td><code>byte flags, int disease, double cf, short n,
+ *     n bytes of UTF-8 diagnosis</code></td></tr>
+ *     <tr><td>{@link #OP_END}</td><td>none</td><td>none</td></tr>
+ *     <tr><td>{@link #OP_ANSWER_ALL}</td><td><code>int n</code>, then <code>n</code> times <code>int symptom,
+ *     double value</code>, in any order</td><td>question</td></tr>
+ *     <tr><td>{@link #OP_START_TENANT}</td><td><code>short t, t bytes of UTF-8 tenant</code>, then as for
+ *     {@link #OP_START}</td><td>question</td></tr>
+ *     <tr><td>{@link #OP_SUSPEND}</td><td>none</td><td><code>short n, n bytes of token</code></td></tr>
+ *     <tr><td>{@link #OP_RESUME}</td><td><code>short n, n bytes of token</code> (the session of the request is
+ *     ignored)</td><td>question</td></tr>
+ * </table>
+ *
+ * <p>A question is <code>byte flags, int symptom, int numAnswers</code>, where the symptom is
+ * <code>-1</code> once the consultation has ended. If the status is not {@link #STATUS_OK}, the payload is
+ * <code>short n, n bytes of UTF-8 message</code>.</p>
+ */
+public final class Protocol {
+    /**
+     * Default path of the socket
+     */
+    public static final String DEFAULT_SOCKET = "ehrlich.sock";
+
+    /**
+     * Largest frame accepted, in bytes (including the length)
+     */
+    public static final int MAX_FRAME = 1 << 16;
+
+    /**
+     * Size of the header of a request, in bytes (including the length)
+     */
+    public static final int REQUEST_HEADER = 4 + 1 + 8;
+
+    /**
+     * Size of the header of a response, in bytes (including the length)
+     */
+    public static final int RESPONSE_HEADER = 4 + 1 + 1 + 8;
+
+    /**
+     * Starts a consultation
+     */
+    public static final byte OP_START = 1;
+
+    /**
+     * Answers the current question of a consultation
+     */
+    public static final byte OP_ANSWER = 2;
+
+    /**
+     * Fetches the current question of a consultation
+     */
+    public static final byte OP_QUESTION = 3;
+
+    /**
+     * Fetches the diseases with the highest certainty factors
+     */
+    public static final byte OP_RANKED = 4;
+
+    /**
+     * Fetches the final diagnosis
+     */
+    public static final byte OP_DIAGNOSIS = 5;
+
+    /**
+     * Ends a consultation and releases its state
+     */
+    public static final byte OP_END = 6;
+
+    /**
+     * Answers a whole form at once: the answers are applied in the order in which the symptoms are asked,
+     * up to the first question the form does not answer
+     */
+    public static final byte OP_ANSWER_ALL = 7;
+
+    /**
+     * Starts a consultation over the knowledge base of a named tenant ({@link #OP_START} uses the default
+     * tenant of the server)
+     */
+    public static final byte OP_START_TENANT = 8;
+
+    /**
+     * Ends a consultation and returns its state as a signed token (see {@link expert.SessionToken}), from which
+     * any server sharing the key and the knowledge base can resume it
+     */
+    public static final byte OP_SUSPEND = 9;
+
+    /**
+     * Resumes a consultation from a token, as a new session of the tenant whose knowledge base has the version
+     * of the token
+     */
+    public static final byte OP_RESUME = 10;
+
+    /**
+     * The request succeeded
+     */
+    public static final byte STATUS_OK = 0;
+
+    /**
+     * The session does not exist (or has ended)
+     */
+    public static final byte STATUS_UNKNOWN_SESSION = 1;
+
+    /**
+     * The request is malformed
+     */
+    public static final byte STATUS_BAD_REQUEST = 2;
+
+    /**
+     * The answer is not for the current question, or is not a valid reading (for a form, no answer is
+     * applied)
+     */
+    public static final byte STATUS_INVALID_ANSWER = 3;
+
+    /**
+     * The tenant is not hosted by the server
+     */
+    public static final byte STATUS_UNKNOWN_TENANT = 4;
+
+    /**
+     * Flag of a question set once the consultation has ended
+     */
+    public static final byte FLAG_FINISHED = 1;
+
+    /**
+     * Flag of a question set if a symptom indicative of an emergency has been reported
+     */
+    public static final byte FLAG_EMERGENCY = 2;
+
+    /**
+     * Does not allow instances of this class to be created
+     */
+    private Protocol() {
+
+    }
+}
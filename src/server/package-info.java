@@ -0,0 +1,6 @@
+/**
+ * Provides the <b>binary protocol endpoint</b> of the medical expert system, for clients running on the same
+ * host (such as an electronic health record integration)
+ */
+
+package server;
@@ -0,0 +1,188 @@
+package tools;
+
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.VitalSignRules;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Command-line tool that <b>checks the allocation budget of the steady-state answer path</b>: answering a
+ * question on a {@link DiagnosisSession} and rendering the table of certainty factors shown after it
+ *
+ * <p>The sessions are created up front, then answered to completion with seeded random answers (readings for
+ * the vital signs), first to warm up the compiler and then <code>--rounds</code> times, on fresh sessions, while
+ * the bytes allocated by the thread are measured through the <code>ThreadMXBean</code> of the JVM. The
+ * compiler may still allocate on the thread during the first measured rounds (when it replaces a method being
+ * run, for instance), so the round that allocates the least per answer is compared with the budget. The tool
+ * exits with status 1 if it exceeds the budget, so it can guard against regressions in a build. With
+ * <code>--trace N</code>, every session also records its last <code>N</code> answers for explanations (see
+ * {@link DiagnosisSession#enableTrace(int)}).</p>
+ *
+ * <p>Only the answer path of {@link DiagnosisSession} (the Java engine used by the server and the tools) is
+ * measured. The answer path of the GUI goes through {@link expert.PrologJavaRunner}, whose queries to SWI
+ * Prolog through JPL build terms and solutions for every answer, so it is not covered by the budget.</p>
+ *
+ * <p>Usage: <code>java tools.AllocationBudget [--kb FILE] [--sessions N] [--rounds N] [--budget BYTES]
+ * [--trace N] [--seed N]</code></p>
+ */
+public class AllocationBudget {
+    /**
+     * Measures the allocations according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        int numSessions = 20_000;
+        int rounds = 5;
+        double budget = 0;
+        int trace = 0;
+        long seed = 1;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--sessions":
+                        numSessions = Integer.parseInt(args[++k]);
+                        break;
+                    case "--rounds":
+                        rounds = Integer.parseInt(args[++k]);
+                        break;
+                    case "--budget":
+                        budget = Double.parseDouble(args[++k]);
+                        break;
+                    case "--trace":
+                        trace = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (numSessions <= 0 || rounds <= 0) {
+                throw new IllegalArgumentException("The numbers of sessions and rounds must be positive");
+            }
+            if (budget < 0 || trace < 0) {
+                throw new IllegalArgumentException("The budget and the trace capacity must not be negative");
+            }
+
+            com.sun.management.ThreadMXBean threads;
+            threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (!threads.isThreadAllocatedMemorySupported()) {
+                System.err.println("This JVM does not measure the memory allocated by threads");
+                System.exit(1);
+            }
+            threads.setThreadAllocatedMemoryEnabled(true);
+
+            KnowledgeBase kb = KnowledgeBaseLoader.load(kbFile);
+            long thread = Thread.currentThread().threadId();
+
+            /* Warm up the compiler on the same path. */
+            run(kb, createSessions(kb, numSessions, trace, seed + 1), new Random(seed + 1));
+
+            /* Measure several rounds on fresh sessions, and keep the one that allocates the least per answer. */
+            double perAnswer = Double.POSITIVE_INFINITY;
+            for (int r = 0; r < rounds; r++) {
+                long before = threads.getThreadAllocatedBytes(thread);
+                DiagnosisSession[] sessions = createSessions(kb, numSessions, trace, seed + 2 * r);
+                Random random = new Random(seed + 2 * r);
+                long created = threads.getThreadAllocatedBytes(thread);
+                long answers = run(kb, sessions, random);
+                long after = threads.getThreadAllocatedBytes(thread);
+
+                double roundPerAnswer = (double) (after - created) / answers;
+                perAnswer = Math.min(perAnswer, roundPerAnswer);
+                System.err.printf(Locale.ROOT, "round %d: %d sessions, %.0f bytes per session created, %d answers, "
+                                + "%d bytes allocated (%.3f bytes per answer)%n", r + 1, numSessions,
+                        (double) (created - before) / numSessions, answers, after - created, roundPerAnswer);
+            }
+            System.err.printf(Locale.ROOT, "least over %d rounds: %.3f bytes per answer, budget %.3f%n", rounds,
+                    perAnswer, budget);
+
+            if (perAnswer > budget) {
+                System.err.println("Allocation budget exceeded");
+                System.exit(1);
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.AllocationBudget [--kb FILE] [--sessions N] [--rounds N] "
+                    + "[--budget BYTES] [--trace N] [--seed N]");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Failed to load the knowledge base: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates the sessions to be answered, with random patients
+     *
+     * @param kb static tables of the knowledge base
+     * @param numSessions number of sessions
+     * @param trace number of answers recorded by each session, or 0 if the answers are not recorded
+     * @param seed seed of the patients
+     * @return sessions
+     */
+    private static DiagnosisSession[] createSessions(KnowledgeBase kb, int numSessions, int trace, long seed) {
+        Random random = new Random(seed);
+        DiagnosisSession[] sessions = new DiagnosisSession[numSessions];
+
+        for (int k = 0; k < numSessions; k++) {
+            sessions[k] = new DiagnosisSession(kb, "Patient " + k, random.nextInt(90),
+                    random.nextBoolean() ? "male" : "female");
+            sessions[k].formatCFTable("");
+            if (trace > 0) {
+                sessions[k].enableTrace(trace);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Answers the sessions to completion, rendering the table of certainty factors after every answer
+     *
+     * @param kb static tables of the knowledge base
+     * @param sessions sessions
+     * @param random source of the answers
+     * @return number of answers given
+     */
+    private static long run(KnowledgeBase kb, DiagnosisSession[] sessions, Random random) {
+        VitalSignRules rules = kb.getVitalSignRules();
+        long answers = 0;
+        long checksum = 0;
+
+        for (DiagnosisSession session : sessions) {
+            while (!session.isFinished()) {
+                int symptom = session.getSymptomId();
+                if (rules.isNumeric(symptom)) {
+                    double min = rules.getMin(symptom);
+                    session.answerReading(min + random.nextDouble() * (rules.getMax(symptom) - min));
+                } else {
+                    session.answer(random.nextInt(3) == 0 ? "yes" : "no");
+                }
+
+                checksum += session.formatCFTable(kb.getSymptomKey(symptom)).length();
+                answers++;
+            }
+        }
+
+        /* Keep the tables alive, so that their rendering is not optimized away. */
+        if (checksum < 0) {
+            System.err.println(checksum);
+        }
+        return answers;
+    }
+}
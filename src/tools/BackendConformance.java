@@ -0,0 +1,296 @@
+package tools;
+
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.PrologBackend;
+import expert.PrologJavaRunner;
+import expert.VitalSignRules;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Conformance suite and benchmark of the <b>Prolog backends</b> (see {@link PrologBackend})
+ *
+ * <p>Each backend runs the same scripted consultations through {@link PrologJavaRunner}, exactly as the GUI
+ * drives it, in lockstep with a {@link DiagnosisSession} used as the oracle. After every answer, the question
+ * asked and the table of certainty factors are compared with the oracle, and so are the final diagnosis and
+ * the final certainty factor at the end. Each simulated patient has one of the diseases and reports each of its
+ * symptoms with a probability of 0.8, and any other symptom with a probability of 0.1; vital signs are answered
+ * with readings, which are emergencies with a probability of 0.02.</p>
+ *
+ * <p>The time taken to consult the knowledge base, to create an engine for a consultation, and to process an
+ * answer (from <code>updateCF</code> to the next question) is reported per backend. The tool exits with status
+ * 1 if a backend departs from the oracle. A backend that cannot be initialized (such as JPL without SWI-Prolog
+ * on the library path) is reported and skipped.</p>
+ *
+ * <p>Usage: <code>java tools.BackendConformance [--kb FILE] [--backends embedded,jpl] [--sessions N]
+ * [--seed N]</code></p>
+ */
+public class BackendConformance {
+    /* Maximum number of mismatches printed per backend */
+    private static final int MAX_REPORTED = 10;
+
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+    /* Number of scripted consultations per backend */
+    private final int numSessions;
+    /* Seed of the scripted consultations, the same for every backend */
+    private final long seed;
+
+    /* Latencies of the creation of the engines and of the answers of the backend being run */
+    private LatencyHistogram engines;
+    private LatencyHistogram answers;
+    /* Mismatches with the oracle found for the backend being run */
+    private List<String> mismatches;
+
+    /**
+     * Creates a conformance suite for the given knowledge base
+     *
+     * @param kb static tables of the knowledge base
+     * @param numSessions number of scripted consultations per backend
+     * @param seed seed of the scripted consultations
+     */
+    public BackendConformance(KnowledgeBase kb, int numSessions, long seed) {
+        this.kb = kb;
+        this.numSessions = numSessions;
+        this.seed = seed;
+    }
+
+    /**
+     * Runs the conformance suite according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        List<String> backends = Arrays.asList("embedded");
+        int numSessions = 200;
+        long seed = 1;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--backends":
+                        backends = Arrays.asList(args[++k].split(","));
+                        break;
+                    case "--sessions":
+                        numSessions = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (numSessions <= 0) {
+                throw new IllegalArgumentException("The number of sessions must be positive");
+            }
+
+            /* Fail on an unknown backend before running any. */
+            for (String name : backends) {
+                PrologBackend.forName(name);
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.BackendConformance [--kb FILE] [--backends embedded,jpl] "
+                    + "[--sessions N] [--seed N]");
+            System.exit(2);
+        }
+
+        boolean conforms = true;
+        try {
+            BackendConformance suite;
+            suite = new BackendConformance(KnowledgeBaseLoader.load(kbFile), numSessions, seed);
+
+            for (String name : backends) {
+                try {
+                    conforms &= suite.run(PrologBackend.forName(name), kbFile, System.out);
+                } catch (IOException e) {
+                    System.out.println("failed: " + e.getMessage());
+                    conforms = false;
+                } catch (LinkageError e) {
+                    System.out.println("skipped: the backend cannot be initialized (" + e + ")");
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to load the knowledge base: " + e);
+            System.exit(1);
+        }
+
+        if (!conforms) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Consults the knowledge base on a backend, runs the scripted consultations on it, and prints the results
+     *
+     * @param backend backend
+     * @param kbFile Prolog knowledge base
+     * @param out stream to which the results are printed
+     * @return <code>true</code> if the backend agrees with the oracle on every consultation; <code>false</code>,
+     * otherwise
+     * @throws IOException if the backend fails to consult the knowledge base
+     */
+    public boolean run(PrologBackend backend, Path kbFile, PrintStream out) throws IOException {
+        out.println("== " + backend.getName());
+
+        long start = System.nanoTime();
+        backend.consult(kbFile);
+        out.printf(Locale.ROOT, "consult: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        engines = new LatencyHistogram();
+        answers = new LatencyHistogram();
+        mismatches = new ArrayList<>();
+
+        Random random = new Random(seed);
+        for (int n = 0; n < numSessions; n++) {
+            runSession(backend, n, random);
+        }
+
+        out.printf("%-10s %s%n", "newEngine", engines);
+        out.printf("%-10s %s%n", "answer", answers);
+
+        for (int k = 0; k < Math.min(MAX_REPORTED, mismatches.size()); k++) {
+            out.println("mismatch: " + mismatches.get(k));
+        }
+        out.printf("%d sessions, %d answers, %d mismatches%n", numSessions, answers.getCount(), mismatches.size());
+
+        return mismatches.isEmpty();
+    }
+
+    /**
+     * Runs one scripted consultation on a backend in lockstep with the oracle, recording the mismatches
+     *
+     * @param backend backend
+     * @param n number of the consultation
+     * @param random source of the patient and of the answers
+     */
+    private void runSession(PrologBackend backend, int n, Random random) {
+        /* The patient has one of the diseases. */
+        boolean[] hasSymptom = new boolean[kb.getNumSymptoms()];
+        for (int s : kb.getDiseaseSymptoms(random.nextInt(kb.getNumDiseases()))) {
+            hasSymptom[s] = random.nextDouble() < 0.8;
+        }
+
+        String name = "Patient " + n;
+        double age = random.nextInt(90);
+        String sex = random.nextBoolean() ? "Male" : "Female";
+
+        long start = System.nanoTime();
+        PrologJavaRunner expert;
+        expert = new PrologJavaRunner(backend);
+        expert.setKnowledgeBase(kb);
+        expert.loadConstantsFromKB();
+        engines.record(System.nanoTime() - start);
+
+        expert.setName(name);
+        expert.setAge(age);
+        expert.setSex(sex);
+        expert.removeFemaleSymptoms();
+        expert.removeChildSymptoms();
+
+        DiagnosisSession oracle;
+        oracle = new DiagnosisSession(kb, name, age, sex);
+
+        String inquiry = inquiry(expert);
+        int step = 0;
+        while (inquiry != null) {
+            if (!check(n, step, "inquiry", oracle.getInquiry(), inquiry)) {
+                return;
+            }
+
+            String symptom = expert.getSymptom();
+            int id = kb.getSymptomId(symptom);
+            boolean yes = hasSymptom[id] || random.nextDouble() < 0.1;
+            String answer = LoadGenerator.answer(kb.getVitalSignRules(), id, yes, random.nextDouble() < 0.02,
+                    expert.getAge(), VitalSignRules.sexCode(expert.getSex()), random);
+
+            start = System.nanoTime();
+            expert.setAns(answer);
+            expert.updateCF(symptom, expert.getAns(), expert.getAge(), expert.getI());
+            expert.deleteSymptom();
+            String table = expert.displayCFvals(symptom);
+
+            /* Same control flow as MainScreenController */
+            if (expert.isLowConfidence()) {
+                expert.moveToNextDisease();
+                inquiry = inquiry(expert);
+            } else {
+                inquiry = inquiry(expert);
+                if (inquiry == null && !expert.isHighConfidence()) {
+                    expert.moveToNextDisease();
+                    inquiry = inquiry(expert);
+                }
+            }
+            answers.record(System.nanoTime() - start);
+
+            oracle.answer(answer);
+            if (!check(n, step, "certainty factors", oracle.formatCFTable(symptom).toString(), table)) {
+                return;
+            }
+            step++;
+        }
+
+        if (check(n, step, "end of the consultation", "", oracle.isFinished() ? "" : oracle.getSymptom())
+                && check(n, step, "final diagnosis", oracle.getFinalDiagnosis(), expert.getFinalDiagnosis())) {
+            check(n, step, "final certainty factor", String.valueOf(oracle.getFinalCF()),
+                    String.valueOf(expert.getFinalCF()));
+        }
+    }
+
+    /**
+     * Returns the next question asked by the expert system, or <code>null</code> if there is none
+     *
+     * @param expert expert system
+     * @return next question, or <code>null</code> if there is none
+     */
+    private static String inquiry(PrologJavaRunner expert) {
+        try {
+            return expert.displayInquiry();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the backend agrees with the oracle; otherwise, records the mismatch and
+     * returns <code>false</code>
+     *
+     * @param n number of the consultation
+     * @param step number of answers given so far
+     * @param what what is being compared
+     * @param expected value given by the oracle
+     * @param actual value given by the backend
+     * @return <code>true</code> if the values are equal; <code>false</code>, otherwise
+     */
+    private boolean check(int n, int step, String what, String expected, String actual) {
+        if (Objects.equals(expected, actual)) {
+            return true;
+        }
+
+        mismatches.add(String.format("session %d, after %d answers, %s: expected %s but got %s", n, step, what,
+                quote(expected), quote(actual)));
+        return false;
+    }
+
+    private static String quote(String text) {
+        return text == null ? "null" : "\"" + text.replace("\n", "\\n") + "\"";
+    }
+}
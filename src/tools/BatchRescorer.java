@@ -0,0 +1,333 @@
+package tools;
+
+import expert.DiagnosisCache;
+import expert.DiagnosisResult;
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.VitalSignRules;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command-line tool that <b>re-scores a batch of patient records</b> without the GUI, through a
+ * {@link DiagnosisCache} so that records with the same demographics and answers are only diagnosed once
+ *
+ * <p>Every input line is a record <code>name,age,sex,answers</code>, where the answers are space-separated
+ * <code>symptom=answer</code> pairs (for example, <code>Ana,30,Female,fatigue=yes fever=38.2</code>); blank
+ * lines and lines starting with <code>#</code> are skipped. Every output line is
+ * <code>name,disease,finalCF,emergency,diagnosis</code>; malformed records are reported and skipped.
+ * Alternatively, <code>--synthetic N:DISTINCT</code> re-scores <code>N</code> records drawn from
+ * <code>DISTINCT</code> random profiles, as in a screening camp where many records repeat. The throughput
+ * and the metrics of the cache are printed at the end.</p>
+ *
+ * <p>With <code>--format html|csv|ndjson</code>, full per-patient reports are written instead, by a
+ * {@link ReportExporter} rendering on <code>--threads</code> workers. The records file is read as a stream, so
+ * memory does not grow with the size of the batch.</p>
+ *
+ * <p>Usage: <code>java tools.BatchRescorer [--kb FILE] [--cache N] [--ttl SECONDS] [--out FILE]
+ * [--format html|csv|ndjson] [--threads N] [--seed N] (--synthetic N:DISTINCT | &lt;records file&gt;)</code></p>
+ */
+public class BatchRescorer {
+    /**
+     * Re-scores the records according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        Path input = null;
+        Path output = null;
+        int cacheSize = 10_000;
+        long ttlMillis = 0;
+        long seed = 1;
+        String synthetic = null;
+        ReportExporter.Format format = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--cache":
+                        cacheSize = Integer.parseInt(args[++k]);
+                        break;
+                    case "--ttl":
+                        ttlMillis = (long) (Double.parseDouble(args[++k]) * 1000);
+                        break;
+                    case "--out":
+                        output = Paths.get(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    case "--synthetic":
+                        synthetic = args[++k];
+                        break;
+                    case "--format":
+                        format = ReportExporter.Format.of(args[++k]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++k]);
+                        break;
+                    default:
+                        if (args[k].startsWith("--") || input != null) {
+                            throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                        }
+                        input = Paths.get(args[k]);
+                }
+            }
+
+            if ((input == null) == (synthetic == null)) {
+                throw new IllegalArgumentException("Give either a records file or --synthetic");
+            }
+            if (threads <= 0) {
+                throw new IllegalArgumentException("The number of threads must be positive");
+            }
+
+            KnowledgeBase kb = KnowledgeBaseLoader.load(kbFile);
+            DiagnosisCache cache = cacheSize > 0 ? new DiagnosisCache(cacheSize, ttlMillis) : null;
+
+            BufferedReader reader = null;
+            Iterator<String> records;
+            if (input != null) {
+                reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+                records = reader.lines().iterator();
+            } else {
+                String[] parts = synthetic.split(":");
+                records = synthesize(kb, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), seed).iterator();
+            }
+
+            if (format != null) {
+                try {
+                    export(kb, cache, format, threads, records, output);
+                } finally {
+                    close(reader);
+                }
+                System.err.println("cache: " + (cache == null ? "disabled" : cache.toString()));
+                return;
+            }
+
+            Writer out = output == null
+                    ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                    : Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+
+            long start = System.nanoTime();
+            int scored = 0;
+            int rejected = 0;
+            try (out) {
+                for (int line = 0; records.hasNext(); line++) {
+                    String record = records.next();
+                    if (record.isBlank() || record.startsWith("#")) {
+                        continue;
+                    }
+
+                    /* A malformed record is reported and skipped, so it does not abort the whole batch. */
+                    try {
+                        out.write(rescore(kb, cache, record));
+                        out.write(System.lineSeparator());
+                        scored++;
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Line " + (line + 1) + " rejected: " + e.getMessage());
+                        rejected++;
+                    }
+                }
+            } finally {
+                close(reader);
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            System.err.printf(Locale.ROOT, "%d records in %.3f s (%.0f records/s), %d rejected%n", scored,
+                    elapsed, scored / elapsed, rejected);
+            System.err.println("cache: " + (cache == null ? "disabled" : cache.toString()));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.BatchRescorer [--kb FILE] [--cache N] [--ttl SECONDS] "
+                    + "[--out FILE] [--format html|csv|ndjson] [--threads N] [--seed N] "
+                    + "(--synthetic N:DISTINCT | <records file>)");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Re-scoring failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    private static void close(BufferedReader reader) throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes the reports of the records in the given format
+     *
+     * @param kb static tables of the knowledge base
+     * @param cache cache of final diagnoses, or <code>null</code> to run every consultation
+     * @param format format of the reports
+     * @param threads number of threads rendering the reports
+     * @param records records <code>name,age,sex,answers</code>
+     * @param output file to which the reports are written, or <code>null</code> for the standard output
+     * @throws IOException if the reports cannot be written
+     */
+    private static void export(KnowledgeBase kb, DiagnosisCache cache, ReportExporter.Format format, int threads,
+                               Iterator<String> records, Path output) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ReportExporter exporter = new ReportExporter(kb, cache, format, pool, 2 * threads);
+
+        long start = System.nanoTime();
+        try (WritableByteChannel channel = output == null ? Channels.newChannel(System.out)
+                : FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            exporter.export(records, channel,
+                    (line, message) -> System.err.println("Line " + line + " rejected: " + message));
+        } finally {
+            pool.shutdown();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.err.printf(Locale.ROOT, "%d reports in %.3f s (%.0f reports/s), %d rejected%n",
+                exporter.getExported(), elapsed, exporter.getExported() / elapsed, exporter.getRejected());
+    }
+
+    /**
+     * Re-scores one record
+     *
+     * @param kb static tables of the knowledge base
+     * @param cache cache of final diagnoses, or <code>null</code> to run every consultation
+     * @param record record <code>name,age,sex,answers</code>
+     * @return output line <code>name,disease,finalCF,emergency,diagnosis</code>
+     * @throws IllegalArgumentException if the record is malformed
+     */
+    static String rescore(KnowledgeBase kb, DiagnosisCache cache, String record) {
+        String[] fields = split(record);
+        String name = fields[0].trim();
+        DiagnosisResult result = diagnose(kb, cache, fields);
+
+        return String.format(Locale.ROOT, "%s,%s,%.2f,%b,\"%s\"", name,
+                kb.getDiseaseKey(result.getDiagnosedDisease()), result.getFinalCF(), result.getEmergency(),
+                result.getFinalDiagnosis(name));
+    }
+
+    /**
+     * Splits a record into its name, age, sex, and answers (the last field is absent if there are no answers)
+     *
+     * @param record record <code>name,age,sex,answers</code>
+     * @return fields of the record
+     * @throws IllegalArgumentException if the record is malformed
+     */
+    static String[] split(String record) {
+        String[] fields = record.split(",", 4);
+        if (fields.length < 3) {
+            throw new IllegalArgumentException("Malformed record: " + record);
+        }
+        return fields;
+    }
+
+    /**
+     * Diagnoses the patient of a record, answering <code>no</code> to the symptoms not listed
+     *
+     * @param kb static tables of the knowledge base
+     * @param cache cache of final diagnoses, or <code>null</code> to run every consultation
+     * @param fields fields of the record (see {@link #split(String)})
+     * @return outcome of the consultation
+     * @throws IllegalArgumentException if the record is malformed
+     */
+    static DiagnosisResult diagnose(KnowledgeBase kb, DiagnosisCache cache, String[] fields) {
+        String name = fields[0].trim();
+        double age = Double.parseDouble(fields[1].trim());
+        String sex = fields[2].trim();
+
+        Map<String, String> answers = new LinkedHashMap<>();
+        if (fields.length == 4) {
+            for (String pair : fields[3].trim().split("\\s+")) {
+                int eq = pair.indexOf('=');
+                if (eq <= 0) {
+                    if (pair.isEmpty()) {
+                        continue;
+                    }
+                    throw new IllegalArgumentException("Malformed answer in record " + name + ": " + pair);
+                }
+                answers.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+
+        if (cache != null) {
+            return cache.diagnose(kb, age, sex, answers);
+        }
+
+        DiagnosisSession session;
+        session = new DiagnosisSession(kb, name, age, sex);
+        while (!session.isFinished()) {
+            session.answer(answers.getOrDefault(session.getSymptom(), "no"));
+        }
+        return new DiagnosisResult(session);
+    }
+
+    /**
+     * Returns synthetic records drawn from a number of random profiles; every profile answers the questions
+     * of its own consultation
+     *
+     * @param kb static tables of the knowledge base
+     * @param n number of records
+     * @param distinct number of distinct profiles
+     * @param seed seed of the random number generator
+     * @return synthetic records
+     */
+    private static List<String> synthesize(KnowledgeBase kb, int n, int distinct, long seed) {
+        Random random = new Random(seed);
+        String[] profiles = new String[distinct];
+
+        for (int p = 0; p < distinct; p++) {
+            double age = random.nextInt(90);
+            String sex = random.nextBoolean() ? "Male" : "Female";
+            boolean[] hasSymptom = new boolean[kb.getNumSymptoms()];
+            for (int s : kb.getDiseaseSymptoms(random.nextInt(kb.getNumDiseases()))) {
+                hasSymptom[s] = random.nextDouble() < 0.8;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append((int) age).append(',').append(sex).append(',');
+
+            DiagnosisSession session;
+            session = new DiagnosisSession(kb, "", age, sex);
+            while (!session.isFinished()) {
+                int id = session.getSymptomId();
+                String answer = LoadGenerator.answer(kb.getVitalSignRules(), id, hasSymptom[id], false, age,
+                        VitalSignRules.sexCode(sex), random);
+                sb.append(session.getSymptom()).append('=').append(answer).append(' ');
+                session.answer(answer);
+            }
+
+            profiles[p] = sb.toString().trim();
+        }
+
+        List<String> records = new ArrayList<>(n);
+        for (int r = 0; r < n; r++) {
+            records.add("Patient " + r + "," + profiles[random.nextInt(distinct)]);
+        }
+
+        return records;
+    }
+}
@@ -0,0 +1,77 @@
+package tools;
+
+import expert.DecisionDag;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Command-line tool that <b>compiles the whole questionnaire of a knowledge base into a decision DAG</b> (see
+ * {@link DecisionDag}), to be memory-mapped by the serving processes
+ *
+ * <p>At most <code>--max-nodes</code> nodes are expanded; if the questionnaire does not fit, the consultations
+ * reaching the unexpanded nodes are served by the live engine. The DAG is checked by mapping it back, and its
+ * size is printed at the end.</p>
+ *
+ * <p>Usage: <code>java tools.DecisionDagCompiler [--kb FILE] [--max-nodes N] --out FILE</code></p>
+ */
+public class DecisionDagCompiler {
+    /**
+     * Compiles the decision DAG according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        Path output = null;
+        int maxNodes = 1_000_000;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--max-nodes":
+                        maxNodes = Integer.parseInt(args[++k]);
+                        break;
+                    case "--out":
+                        output = Paths.get(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (output == null) {
+                throw new IllegalArgumentException("Give the output file with --out");
+            }
+
+            KnowledgeBase kb = KnowledgeBaseLoader.load(kbFile);
+
+            long start = System.nanoTime();
+            DecisionDag.compile(output, kb, maxNodes);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            DecisionDag dag = DecisionDag.load(output, kb);
+            System.err.printf(Locale.ROOT, "Compiled %s in %.3f s: %s (%d bytes)%n", output, elapsed, dag,
+                    Files.size(output));
+            if (dag.getNumFrontier() > 0) {
+                System.err.println("The questionnaire did not fit: the consultations reaching the "
+                        + dag.getNumFrontier() + " frontier nodes will be served by the live engine");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.DecisionDagCompiler [--kb FILE] [--max-nodes N] --out FILE");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Compilation failed: " + e);
+            System.exit(1);
+        }
+    }
+}
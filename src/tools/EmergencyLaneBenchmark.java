@@ -0,0 +1,352 @@
+package tools;
+
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.VitalSignRules;
+import server.DiagnosisClient;
+import server.DiagnosisServer;
+import server.EmergencyNotifier;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark that measures <b>how fast emergencies are served and notified</b> by a {@link DiagnosisServer}
+ * under routine load
+ *
+ * <p>An in-process server is started on a temporary socket, with an {@link EmergencyNotifier} whose listener
+ * records the time from the receipt of each answer reporting an emergency to the delivery of its alert. Each of
+ * <code>--connections</code> routine clients keeps <code>--pipeline</code> consultations busy, answering all of
+ * their questions in one write and reading all the responses, without ever reporting an emergency. Meanwhile, a
+ * probe client runs consultations one answer at a time with patients who have a disease with one of the symptoms
+ * with which a patient may present as an emergency. The probe affirms the symptoms of the disease and denies the
+ * others until that symptom is asked, which it reports as an emergency; it then fetches the ranking of the
+ * consultation, which is served in the priority lane. This is repeated until <code>--emergencies</code> alerts
+ * have been raised.</p>
+ *
+ * <p>The round-trip times of the probe's routine answers, of its emergency answers, and of its requests in
+ * emergency consultations are reported, with the latency of the alerts and the number of alerts dropped.</p>
+ *
+ * <p>Usage: <code>java tools.EmergencyLaneBenchmark [--kb FILE] [--connections N] [--pipeline N]
+ * [--emergencies N] [--alert-queue N] [--seed N]</code></p>
+ */
+public class EmergencyLaneBenchmark {
+    /* Set to true once the routine clients must stop */
+    private static volatile boolean stopped;
+
+    /**
+     * Runs the benchmark according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        int connections = 4;
+        int pipeline = 64;
+        int emergencies = 2000;
+        int alertQueue = EmergencyNotifier.DEFAULT_CAPACITY;
+        long seed = 1;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--connections":
+                        connections = Integer.parseInt(args[++k]);
+                        break;
+                    case "--pipeline":
+                        pipeline = Integer.parseInt(args[++k]);
+                        break;
+                    case "--emergencies":
+                        emergencies = Integer.parseInt(args[++k]);
+                        break;
+                    case "--alert-queue":
+                        alertQueue = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (connections < 0 || pipeline <= 0 || emergencies <= 0 || alertQueue <= 0) {
+                throw new IllegalArgumentException("The numbers of requests and alerts must be positive");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.EmergencyLaneBenchmark [--kb FILE] [--connections N] "
+                    + "[--pipeline N] [--emergencies N] [--alert-queue N] [--seed N]");
+            System.exit(2);
+        }
+
+        try {
+            run(KnowledgeBaseLoader.load(kbFile), connections, pipeline, emergencies, alertQueue, seed);
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Benchmark failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the benchmark and prints the results
+     *
+     * @param kb static tables of the knowledge base
+     * @param connections number of routine clients
+     * @param pipeline number of consultations kept busy by every routine client
+     * @param emergencies number of emergencies raised by the probe
+     * @param alertQueue capacity of the queue of alerts
+     * @param seed seed of the random number generators
+     * @throws IOException if the server cannot be started or a client fails
+     * @throws InterruptedException if interrupted while waiting for the routine clients
+     */
+    private static void run(KnowledgeBase kb, int connections, int pipeline, int emergencies, int alertQueue,
+                            long seed) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("ehrlich-");
+        Path socket = dir.resolve("lane.sock");
+
+        LatencyHistogram alerts = new LatencyHistogram();
+        EmergencyNotifier notifier = new EmergencyNotifier(alert ->
+                alerts.record(System.nanoTime() - alert.getReceivedNanos()), alertQueue);
+        DiagnosisServer server = new DiagnosisServer(kb, socket);
+        server.setEmergencyNotifier(notifier);
+        Thread serving = new Thread(server, "server");
+        serving.start();
+
+        List<Thread> threads = new ArrayList<>();
+        long[] routineAnswers = new long[connections];
+        for (int c = 0; c < connections; c++) {
+            int index = c;
+            Random random = new Random(seed + 1 + c);
+            Thread thread = new Thread(() -> {
+                try (DiagnosisClient client = new DiagnosisClient(socket)) {
+                    routineAnswers[index] = routine(kb, client, pipeline, random);
+                } catch (IOException e) {
+                    System.err.println("Routine client failed: " + e);
+                }
+            }, "routine-" + c);
+            thread.start();
+            threads.add(thread);
+        }
+
+        LatencyHistogram routine = new LatencyHistogram();
+        LatencyHistogram emergency = new LatencyHistogram();
+        LatencyHistogram urgent = new LatencyHistogram();
+        long start = System.nanoTime();
+        try (DiagnosisClient client = new DiagnosisClient(socket)) {
+            probe(kb, client, emergencies, new Random(seed), routine, emergency, urgent);
+        } finally {
+            stopped = true;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            notifier.close();
+            server.close();
+            serving.join();
+            Files.deleteIfExists(dir);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long total = 0;
+        for (long answers : routineAnswers) {
+            total += answers;
+        }
+        System.out.printf(Locale.ROOT, "%d routine connections x %d consultations: %.0f answers/s in %.1f s%n",
+                connections, pipeline, total / seconds, seconds);
+        System.out.printf("%-17s %s%n", "routine answer", routine);
+        System.out.printf("%-17s %s%n", "emergency answer", emergency);
+        System.out.printf("%-17s %s%n", "emergency request", urgent);
+        System.out.printf("%-17s %s%n", "alert delivery", alerts);
+        System.out.println(notifier);
+        if (notifier.getDropped() > 0) {
+            System.out.println("WARNING: " + notifier.getDropped() + " emergency alerts were dropped");
+        }
+    }
+
+    /**
+     * Keeps consultations busy until the benchmark stops, never reporting an emergency
+     *
+     * @param kb static tables of the knowledge base
+     * @param client connection to the server
+     * @param pipeline number of consultations kept busy
+     * @param random source of the patients and of the answers
+     * @return number of answers given
+     * @throws IOException if a request fails
+     */
+    private static long routine(KnowledgeBase kb, DiagnosisClient client, int pipeline, Random random)
+            throws IOException {
+        long[] sessions = new long[pipeline];
+        int[] symptoms = new int[pipeline];
+        double[] ages = new double[pipeline];
+        int[] sexCodes = new int[pipeline];
+        boolean[] restarting = new boolean[pipeline];
+
+        /* The symptoms that are an emergency when affirmed are always denied. */
+        boolean[] denied = new boolean[kb.getNumSymptoms()];
+        for (int s : kb.getVitalSignRules().getEmergencyAnswers()) {
+            denied[s] = true;
+        }
+
+        for (int k = 0; k < pipeline; k++) {
+            ages[k] = random.nextInt(90);
+            sexCodes[k] = random.nextBoolean() ? VitalSignRules.MALE : VitalSignRules.FEMALE;
+            client.sendStart("Routine", ages[k], sexCodes[k] == VitalSignRules.MALE ? "male" : "female");
+        }
+        for (int k = 0; k < pipeline; k++) {
+            DiagnosisClient.Response response = check(client.receive());
+            sessions[k] = response.getSession();
+            symptoms[k] = response.getSymptomId();
+        }
+
+        long answers = 0;
+        while (!stopped) {
+            for (int k = 0; k < pipeline; k++) {
+                restarting[k] = symptoms[k] < 0;
+                if (restarting[k]) {
+                    client.sendEnd(sessions[k]);
+                    client.sendStart("Routine", ages[k], sexCodes[k] == VitalSignRules.MALE ? "male" : "female");
+                } else {
+                    client.sendAnswer(sessions[k], symptoms[k], value(kb, symptoms[k],
+                            !denied[symptoms[k]] && random.nextBoolean(), false, ages[k], sexCodes[k], random));
+                }
+            }
+
+            for (int k = 0; k < pipeline; k++) {
+                if (restarting[k]) {
+                    check(client.receive());
+                } else {
+                    answers++;
+                }
+                DiagnosisClient.Response response = check(client.receive());
+                sessions[k] = response.getSession();
+                symptoms[k] = response.getSymptomId();
+            }
+        }
+        return answers;
+    }
+
+    /**
+     * Runs consultations one answer at a time until the given number of emergencies have been reported,
+     * recording the round-trip times
+     *
+     * @param kb static tables of the knowledge base
+     * @param client connection to the server
+     * @param emergencies number of emergencies to be reported
+     * @param random source of the patients and of the answers
+     * @param routine round-trip times of the answers not reporting an emergency
+     * @param emergency round-trip times of the answers reporting an emergency
+     * @param urgent round-trip times of the requests in consultations with an emergency
+     * @throws IOException if a request fails
+     */
+    private static void probe(KnowledgeBase kb, DiagnosisClient client, int emergencies, Random random,
+                              LatencyHistogram routine, LatencyHistogram emergency, LatencyHistogram urgent)
+            throws IOException {
+        boolean[] presenting = new boolean[kb.getNumSymptoms()];
+        for (int s : LoadGenerator.emergencySymptoms(kb.getVitalSignRules())) {
+            presenting[s] = true;
+        }
+
+        /* The patients have one of the diseases with a symptom with which they may present as an emergency. */
+        List<Integer> diseases = new ArrayList<>();
+        for (int d = 0; d < kb.getNumDiseases(); d++) {
+            for (int s : kb.getDiseaseSymptoms(d)) {
+                if (presenting[s]) {
+                    diseases.add(d);
+                    break;
+                }
+            }
+        }
+        if (diseases.isEmpty()) {
+            throw new IOException("No disease has a symptom with which a patient may present as an emergency");
+        }
+
+        boolean[] hasSymptom = new boolean[kb.getNumSymptoms()];
+        int raised = 0;
+        while (raised < emergencies) {
+            Arrays.fill(hasSymptom, false);
+            for (int s : kb.getDiseaseSymptoms(diseases.get(random.nextInt(diseases.size())))) {
+                hasSymptom[s] = true;
+            }
+
+            double age = random.nextInt(90);
+            int sexCode = random.nextBoolean() ? VitalSignRules.MALE : VitalSignRules.FEMALE;
+            client.sendStart("Probe", age, sexCode == VitalSignRules.MALE ? "male" : "female");
+            DiagnosisClient.Response response = check(client.receive());
+            long session = response.getSession();
+            int symptom = response.getSymptomId();
+
+            while (symptom >= 0) {
+                boolean present = hasSymptom[symptom] && presenting[symptom];
+                long start = System.nanoTime();
+                client.sendAnswer(session, symptom, value(kb, symptom, hasSymptom[symptom], present, age, sexCode,
+                        random));
+                response = check(client.receive());
+                long nanos = System.nanoTime() - start;
+                symptom = response.getSymptomId();
+
+                if (!present) {
+                    routine.record(nanos);
+                    continue;
+                }
+
+                emergency.record(nanos);
+                start = System.nanoTime();
+                client.sendRanked(session, 3);
+                check(client.receive());
+                urgent.record(System.nanoTime() - start);
+                raised++;
+                break;
+            }
+
+            client.sendEnd(session);
+            check(client.receive());
+        }
+    }
+
+    /**
+     * Returns the value of an answer: a reading for the vital signs, or <code>1</code> for <i>yes</i> and
+     * <code>0</code> for <i>no</i>
+     *
+     * @param kb static tables of the knowledge base
+     * @param symptom ID of the symptom
+     * @param yes <code>true</code> if the patient has the symptom; <code>false</code>, otherwise
+     * @param emergency <code>true</code> to report an emergency; <code>false</code>, otherwise
+     * @param age age of the patient
+     * @param sexCode code of the sex of the patient
+     * @param random random number generator
+     * @return value of the answer
+     */
+    private static double value(KnowledgeBase kb, int symptom, boolean yes, boolean emergency, double age,
+                                int sexCode, Random random) {
+        String answer = LoadGenerator.answer(kb.getVitalSignRules(), symptom, yes, emergency, age, sexCode, random);
+        if (kb.getVitalSignRules().isNumeric(symptom)) {
+            return Double.parseDouble(answer);
+        }
+        return answer.equals("yes") ? 1 : 0;
+    }
+
+    /**
+     * Returns a response, unless the request failed
+     *
+     * @param response response of the server
+     * @return response of the server
+     * @throws IOException if the request failed
+     */
+    private static DiagnosisClient.Response check(DiagnosisClient.Response response) throws IOException {
+        if (!response.isOk()) {
+            throw new IOException("Request failed with status " + response.getStatus() + ": "
+                    + response.getText());
+        }
+        return response;
+    }
+}
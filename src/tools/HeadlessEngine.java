@@ -0,0 +1,201 @@
+package tools;
+
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.VitalSignRules;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Smoke-test entry point of the <b>headless diagnosis engine</b>: loads the knowledge base and completes a
+ * scripted consultation on a {@link DiagnosisSession}, without the GUI or SWI-Prolog
+ *
+ * <p>Only the Java engine is reachable from this class, so it is the main class of the native image built
+ * with GraalVM <code>native-image</code> (see {@link NativeImageConfig}). The knowledge base is read from
+ * <code>--kb FILE</code>, or else from the resource {@link #RESOURCE} embedded in the image, or else from the
+ * source tree. The script has one <code>symptom=answer</code> line per answer (blank lines and lines starting
+ * with <code>#</code> are skipped), and the symptoms it does not mention are answered <i>no</i>. Without a
+ * script, every symptom of the first disease is affirmed and the first disease is expected to rank first
+ * (<code>--expect</code> names the disease expected otherwise). The time from the start of the process to the
+ * diagnosis and the resident set size are printed at the end; the exit status is 1 if the expected disease
+ * does not rank first.</p>
+ *
+ * <p>Usage: <code>java tools.HeadlessEngine [--kb FILE] [--script FILE] [--patient NAME,AGE,SEX]
+ * [--expect DISEASE]</code></p>
+ */
+public class HeadlessEngine {
+    /**
+     * Name of the resource holding the knowledge base embedded in the native image
+     */
+    public static final String RESOURCE = "/expert/knowledgebase.pl";
+
+    /**
+     * Runs the smoke test according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = null;
+        Path script = null;
+        String name = "Smoke Test";
+        double age = 30;
+        String sex = "female";
+        String expected = null;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--script":
+                        script = Paths.get(args[++k]);
+                        break;
+                    case "--patient":
+                        String[] fields = args[++k].split(",");
+                        if (fields.length != 3) {
+                            throw new IllegalArgumentException("Invalid patient: " + args[k]);
+                        }
+                        name = fields[0];
+                        age = Double.parseDouble(fields[1]);
+                        sex = fields[2];
+                        break;
+                    case "--expect":
+                        expected = args[++k];
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            long start = System.nanoTime();
+            KnowledgeBase kb;
+            String source;
+            if (kbFile != null) {
+                kb = KnowledgeBaseLoader.load(kbFile);
+                source = kbFile.toString();
+            } else if (HeadlessEngine.class.getResource(RESOURCE) != null) {
+                kb = KnowledgeBaseLoader.loadResource(RESOURCE);
+                source = "resource " + RESOURCE;
+            } else {
+                kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+                kb = KnowledgeBaseLoader.load(kbFile);
+                source = kbFile.toString();
+            }
+            long loaded = System.nanoTime();
+
+            /* Read the script (the answers are checked against the knowledge base as they are given). */
+            Map<String, String> answers = new LinkedHashMap<>();
+            if (script != null) {
+                for (String line : Files.readAllLines(script, StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+
+                    int eq = line.indexOf('=');
+                    if (eq <= 0) {
+                        throw new IllegalArgumentException("Invalid script line: " + line);
+                    }
+                    answers.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+                }
+            } else if (expected == null) {
+                expected = kb.getDiseaseKey(0);
+            }
+
+            DiagnosisSession session;
+            session = new DiagnosisSession(kb, name, age, sex);
+            while (!session.isFinished()) {
+                String answer = answers.get(session.getSymptom());
+                if (answer != null) {
+                    session.answer(answer);
+                } else if (script == null && contains(kb.getDiseaseSymptoms(0), session.getSymptomId())) {
+                    session.answerCode(VitalSignRules.POSITIVE);
+                } else {
+                    session.answerCode(0);
+                }
+            }
+            String diagnosis = session.getFinalDiagnosis();
+            long diagnosed = System.nanoTime();
+
+            System.out.printf(Locale.ROOT, "Loaded %d diseases and %d symptoms from %s in %.2f ms%n",
+                    kb.getNumDiseases(), kb.getNumSymptoms(), source, (loaded - start) / 1e6);
+            System.out.printf(Locale.ROOT, "Asked %d questions in %.1f us%n", session.getNumAnswers(),
+                    (diagnosed - loaded) / 1e3);
+            System.out.println(diagnosis);
+            System.out.println("Process start to diagnosis: " + sinceStart() + ", resident set size: "
+                    + residentSetSize());
+
+            String disease = kb.getDiseaseKey(session.getDiagnosedDisease());
+            if (expected != null && !expected.equals(disease)) {
+                System.err.println("Expected " + expected + " but the top-ranked disease is " + disease);
+                System.exit(1);
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.HeadlessEngine [--kb FILE] [--script FILE] "
+                    + "[--patient NAME,AGE,SEX] [--expect DISEASE]");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Smoke test failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if an array contains a value; <code>false</code>, otherwise
+     *
+     * @param array array
+     * @param value value
+     * @return <code>true</code> if the array contains the value; <code>false</code>, otherwise
+     */
+    private static boolean contains(int[] array, int value) {
+        for (int element : array) {
+            if (element == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time elapsed since the start of the process, as reported by the operating system
+     *
+     * @return time elapsed since the start of the process, or <code>"n/a"</code> if it is unknown
+     */
+    private static String sinceStart() {
+        Optional<Instant> start = ProcessHandle.current().info().startInstant();
+        return start.map(s -> Duration.between(s, Instant.now()).toMillis() + " ms").orElse("n/a");
+    }
+
+    /**
+     * Returns the resident set size of the process, as reported by <code>/proc/self/status</code> on Linux
+     *
+     * @return resident set size of the process, or <code>"n/a"</code> if it is unknown
+     */
+    private static String residentSetSize() {
+        try {
+            List<String> lines = Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8);
+            for (String line : lines) {
+                if (line.startsWith("VmRSS:")) {
+                    return line.substring("VmRSS:".length()).trim();
+                }
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            /* Not on Linux */
+        }
+        return "n/a";
+    }
+}
@@ -0,0 +1,185 @@
+package tools;
+
+import expert.DecisionDag;
+import expert.DecisionDagSession;
+import expert.DiagnosisEventPublisher;
+import expert.DiagnosisSession;
+import expert.DiagnosisTrie;
+import expert.KnowledgeBase;
+import expert.SharedDiagnosisSession;
+
+/**
+ * Load target running {@link DiagnosisSession}s <b>in the same process</b> as the load generator
+ */
+public class InProcessTarget implements LoadTarget {
+    /* Static tables of the knowledge base, shared by all the sessions */
+    private final KnowledgeBase kb;
+    /* Stream to which the events of the sessions are published, or null */
+    private final DiagnosisEventPublisher events;
+    /* Trie of the states shared across sessions, or null if every session owns its state */
+    private final DiagnosisTrie trie;
+    /* Compiled decision DAG walked by the sessions, or null */
+    private final DecisionDag dag;
+
+    /**
+     * Creates a target running sessions over the given knowledge base
+     *
+     * @param kb static tables of the knowledge base
+     */
+    public InProcessTarget(KnowledgeBase kb) {
+        this(kb, null);
+    }
+
+    /**
+     * Creates a target running sessions over the given knowledge base, publishing their events to the given
+     * stream
+     *
+     * @param kb static tables of the knowledge base
+     * @param events stream to which the events of the sessions are published, or <code>null</code>
+     */
+    public InProcessTarget(KnowledgeBase kb, DiagnosisEventPublisher events) {
+        this.kb = kb;
+        this.events = events;
+        this.trie = null;
+        this.dag = null;
+    }
+
+    /**
+     * Creates a target running sessions that share their states through the given trie
+     *
+     * @param trie trie of the states shared across sessions
+     */
+    public InProcessTarget(DiagnosisTrie trie) {
+        this.kb = trie.getKnowledgeBase();
+        this.events = null;
+        this.trie = trie;
+        this.dag = null;
+    }
+
+    /**
+     * Creates a target running sessions that walk the given decision DAG
+     *
+     * @param dag compiled decision DAG
+     */
+    public InProcessTarget(DecisionDag dag) {
+        this.kb = dag.getKnowledgeBase();
+        this.events = null;
+        this.trie = null;
+        this.dag = dag;
+    }
+
+    @Override
+    public String getName() {
+        String mode = trie != null ? ", shared trie" : dag != null ? ", decision DAG" : "";
+        return "in-process (" + kb.getNumDiseases() + " diseases" + mode + ")";
+    }
+
+    @Override
+    public Interview start(String name, double age, String sex) {
+        if (trie != null) {
+            return startShared(name, age, sex);
+        } else if (dag != null) {
+            return startCompiled(name, age, sex);
+        }
+
+        DiagnosisSession session;
+        session = new DiagnosisSession(kb, name, age, sex, events);
+
+        return new Interview() {
+            @Override
+            public String getSymptom() {
+                return session.getSymptom();
+            }
+
+            @Override
+            public void answer(String answer) {
+                session.answer(answer);
+            }
+
+            @Override
+            public boolean getEmergency() {
+                return session.getEmergency();
+            }
+
+            @Override
+            public String getFinalDiagnosis() {
+                return session.getFinalDiagnosis();
+            }
+        };
+    }
+
+    /**
+     * Starts a consultation over the shared trie
+     *
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @return consultation over the shared trie
+     */
+    private Interview startShared(String name, double age, String sex) {
+        SharedDiagnosisSession session;
+        session = new SharedDiagnosisSession(trie, name, age, sex);
+
+        return new Interview() {
+            @Override
+            public String getSymptom() {
+                return session.getSymptom();
+            }
+
+            @Override
+            public void answer(String answer) {
+                session.answer(answer);
+            }
+
+            @Override
+            public boolean getEmergency() {
+                return session.getEmergency();
+            }
+
+            @Override
+            public String getFinalDiagnosis() {
+                return session.getFinalDiagnosis();
+            }
+        };
+    }
+
+    /**
+     * Starts a consultation over the decision DAG
+     *
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @return consultation over the decision DAG
+     */
+    private Interview startCompiled(String name, double age, String sex) {
+        DecisionDagSession session;
+        session = new DecisionDagSession(dag, name, age, sex);
+
+        return new Interview() {
+            @Override
+            public String getSymptom() {
+                return session.getSymptom();
+            }
+
+            @Override
+            public void answer(String answer) {
+                session.answer(answer);
+            }
+
+            @Override
+            public boolean getEmergency() {
+                return session.getEmergency();
+            }
+
+            @Override
+            public String getFinalDiagnosis() {
+                return session.getFinalDiagnosis();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
@@ -0,0 +1,513 @@
+package tools;
+
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.KnowledgeBaseParser;
+import expert.VitalSignRules;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Build-time tool that <b>compiles the Prolog knowledge base into Java source code</b>
+ *
+ * <p>Two files are generated in the package <code>expert.generated</code>:</p>
+ * <ul>
+ *     <li><code>CompiledKnowledgeBase</code>, an implementation of {@link KnowledgeBase} whose tables are
+ *     constant arrays and whose symptom lookup is a <code>switch</code> on the name of the symptom</li>
+ *     <li><code>Disease</code>, an enumeration of the diseases in the knowledge base</li>
+ * </ul>
+ *
+ * <p>The knowledge base is validated before any source is written, so inconsistencies (such as a symptom
+ * without a <code>display/2</code> or <code>weight/2</code> entry) make this tool exit with a nonzero status
+ * and fail the build instead of surfacing at runtime.</p>
+ *
+ * <p>Usage: <code>java tools.KnowledgeBaseCompiler &lt;knowledge base&gt; &lt;output source directory&gt;</code></p>
+ */
+public class KnowledgeBaseCompiler {
+    /* Package of the generated classes */
+    private static final String PACKAGE = KnowledgeBaseLoader.COMPILED_CLASS.substring(0,
+            KnowledgeBaseLoader.COMPILED_CLASS.lastIndexOf('.'));
+
+    /* Static tables of the knowledge base being compiled */
+    private final KnowledgeBase kb;
+    /* Name of the Prolog file being compiled (mentioned in the generated headers) */
+    private final String source;
+
+    /**
+     * Creates a compiler for the given knowledge base
+     *
+     * @param kb static tables of the knowledge base
+     * @param source name of the Prolog file being compiled
+     */
+    public KnowledgeBaseCompiler(KnowledgeBase kb, String source) {
+        this.kb = kb;
+        this.source = source;
+    }
+
+    /**
+     * Compiles the knowledge base given as the first argument into the source directory given as the second
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java tools.KnowledgeBaseCompiler <knowledge base> <output source directory>");
+            System.exit(2);
+        }
+
+        Path kbFile = Paths.get(args[0]);
+        Path outDir = Paths.get(args[1]);
+
+        try {
+            KnowledgeBaseCompiler compiler;
+            compiler = new KnowledgeBaseCompiler(KnowledgeBaseParser.parse(kbFile), kbFile.getFileName().toString());
+
+            compiler.writeTo(outDir);
+        } catch (IllegalArgumentException e) {
+            /* The knowledge base is inconsistent: fail the build. */
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Failed to compile knowledge base: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes the generated sources under the given source directory
+     *
+     * @param outDir root of the output source directory
+     * @throws IOException if the sources cannot be written
+     */
+    public void writeTo(Path outDir) throws IOException {
+        Path pkgDir = outDir.resolve(PACKAGE.replace('.', '/'));
+        Files.createDirectories(pkgDir);
+
+        Files.write(pkgDir.resolve("CompiledKnowledgeBase.java"),
+                generateKnowledgeBase().getBytes(StandardCharsets.UTF_8));
+        Files.write(pkgDir.resolve("Disease.java"), generateDiseaseEnum().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the source of the generated implementation of {@link KnowledgeBase}
+     *
+     * @return source of the generated implementation of {@link KnowledgeBase}
+     */
+    public String generateKnowledgeBase() {
+        StringBuilder sb = new StringBuilder();
+        int numDiseases = kb.getNumDiseases();
+        int numSymptoms = kb.getNumSymptoms();
+
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("import expert.KnowledgeBase;\n");
+        sb.append("import expert.VitalSignRules;\n\n");
+        sb.append("/**\n");
+        sb.append(" * Static tables of the knowledge base, compiled from <code>").append(source).append("</code>\n");
+        sb.append(" *\n");
+        sb.append(" * <p>Generated by <code>tools.KnowledgeBaseCompiler</code>; do not edit.</p>\n");
+        sb.append(" */\n");
+        sb.append("public final class CompiledKnowledgeBase implements KnowledgeBase {\n");
+
+        sb.append("    /**\n     * Fingerprint of the Prolog source this class was generated from\n     */\n");
+        sb.append("    public static final long VERSION = ").append(hexLiteral(kb.getVersion())).append(";\n\n");
+
+        /* Constants */
+        sb.append("    /* Constants */\n");
+        sb.append("    public static final int ADULT_AGE = ").append(kb.getAdultAge()).append(";\n");
+        appendConstant(sb, "CF_VALUE_REMOVE", kb.getCFValueRemove());
+        appendConstant(sb, "CF_VALUE_CONCLUDE", kb.getCFValueConclude());
+        sb.append("\n");
+
+        /* Disease tables */
+        String[] diseaseKeys = new String[numDiseases];
+        String[] diseaseNames = new String[numDiseases];
+        int[][] diseaseSymptoms = new int[numDiseases][];
+        for (int d = 0; d < numDiseases; d++) {
+            diseaseKeys[d] = kb.getDiseaseKey(d);
+            diseaseNames[d] = kb.getDiseaseName(d);
+            diseaseSymptoms[d] = kb.getDiseaseSymptoms(d);
+        }
+
+        /* Symptom tables */
+        String[] symptomKeys = new String[numSymptoms];
+        String[] inquiries = new String[numSymptoms];
+        double[] weights = new double[numSymptoms];
+        int[][] diseasesWithSymptom = new int[numSymptoms][];
+        for (int s = 0; s < numSymptoms; s++) {
+            symptomKeys[s] = kb.getSymptomKey(s);
+            inquiries[s] = kb.getInquiry(s);
+            weights[s] = kb.getWeight(s);
+            diseasesWithSymptom[s] = kb.getDiseasesWithSymptom(s);
+        }
+
+        sb.append("    /* Prolog atoms naming the diseases, indexed as in mapping/2 */\n");
+        appendStrings(sb, "DISEASE_KEYS", diseaseKeys);
+        sb.append("    /* Full names of the diseases, indexed as in mapping/2 */\n");
+        appendStrings(sb, "DISEASE_NAMES", diseaseNames);
+        sb.append("    /* IDs of the symptoms of each disease, in the order in which they are probed */\n");
+        appendInts(sb, "DISEASE_SYMPTOMS", diseaseSymptoms);
+        sb.append("    /* Prolog atoms naming the symptoms, indexed by symptom ID */\n");
+        appendStrings(sb, "SYMPTOM_KEYS", symptomKeys);
+        sb.append("    /* Weights of the symptoms, indexed by symptom ID */\n");
+        sb.append("    private static final double[] WEIGHTS = {");
+        for (int s = 0; s < numSymptoms; s++) {
+            sb.append(s % 8 == 0 ? "\n            " : " ").append(doubleLiteral(weights[s])).append(",");
+        }
+        sb.append("\n    };\n");
+        sb.append("    /* Inquiries of the symptoms, indexed by symptom ID */\n");
+        appendStrings(sb, "INQUIRIES", inquiries);
+        sb.append("    /* Indices of the diseases associated with each symptom, indexed by symptom ID */\n");
+        appendInts(sb, "DISEASES_WITH_SYMPTOM", diseasesWithSymptom);
+        sb.append("    /* IDs of the symptoms removed beforehand if the patient is male */\n");
+        appendInts(sb, "FEMALE_SYMPTOMS", kb.getFemaleSymptoms());
+        sb.append("    /* IDs of the symptoms removed beforehand if the patient is an adult */\n");
+        appendInts(sb, "PEDIATRIC_SYMPTOMS", kb.getPediatricSymptoms());
+        sb.append("    /* Table of rules for the vital signs and the emergency answers */\n");
+        appendVitalSignRules(sb, kb.getVitalSignRules(), numSymptoms);
+        sb.append("\n");
+
+        /* Methods */
+        appendGetter(sb, "long", "getVersion", "", "VERSION");
+        appendGetter(sb, "int", "getNumDiseases", "", String.valueOf(numDiseases));
+        appendGetter(sb, "String", "getDiseaseKey", "int disease", "DISEASE_KEYS[disease]");
+        appendGetter(sb, "String", "getDiseaseName", "int disease", "DISEASE_NAMES[disease]");
+        appendGetter(sb, "int[]", "getDiseaseSymptoms", "int disease", "DISEASE_SYMPTOMS[disease]");
+        appendGetter(sb, "int", "getNumSymptoms", "", String.valueOf(numSymptoms));
+
+        sb.append("    @Override\n");
+        sb.append("    public int getSymptomId(String symptom) {\n");
+        sb.append("        switch (symptom) {\n");
+        for (int s = 0; s < numSymptoms; s++) {
+            sb.append("            case ").append(stringLiteral(symptomKeys[s])).append(":\n");
+            sb.append("                return ").append(s).append(";\n");
+        }
+        sb.append("            default:\n");
+        sb.append("                return -1;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+
+        appendGetter(sb, "String", "getSymptomKey", "int symptom", "SYMPTOM_KEYS[symptom]");
+        appendGetter(sb, "double", "getWeight", "int symptom", "WEIGHTS[symptom]");
+        appendGetter(sb, "String", "getInquiry", "int symptom", "INQUIRIES[symptom]");
+        appendGetter(sb, "int[]", "getDiseasesWithSymptom", "int symptom", "DISEASES_WITH_SYMPTOM[symptom]");
+        appendGetter(sb, "int[]", "getFemaleSymptoms", "", "FEMALE_SYMPTOMS");
+        appendGetter(sb, "int[]", "getPediatricSymptoms", "", "PEDIATRIC_SYMPTOMS");
+        appendGetter(sb, "VitalSignRules", "getVitalSignRules", "", "VITAL_SIGN_RULES");
+        appendGetter(sb, "int", "getAdultAge", "", "ADULT_AGE");
+        appendGetter(sb, "double", "getCFValueRemove", "", "CF_VALUE_REMOVE");
+        appendGetter(sb, "double", "getCFValueConclude", "", "CF_VALUE_CONCLUDE");
+
+        /* Remove the blank line after the last method. */
+        sb.setLength(sb.length() - 1);
+        sb.append("}\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the source of the generated enumeration of the diseases
+     *
+     * @return source of the generated enumeration of the diseases
+     */
+    public String generateDiseaseEnum() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("/**\n");
+        sb.append(" * Diseases in the knowledge base, compiled from <code>").append(source).append("</code>\n");
+        sb.append(" *\n");
+        sb.append(" * <p>Generated by <code>tools.KnowledgeBaseCompiler</code>; do not edit.</p>\n");
+        sb.append(" */\n");
+        sb.append("public enum Disease {\n");
+
+        for (int d = 0; d < kb.getNumDiseases(); d++) {
+            sb.append("    ").append(constantName(kb.getDiseaseKey(d)))
+                    .append("(").append(d).append(", ").append(stringLiteral(kb.getDiseaseKey(d)))
+                    .append(", ").append(stringLiteral(kb.getDiseaseName(d))).append(")")
+                    .append(d < kb.getNumDiseases() - 1 ? ",\n" : ";\n");
+        }
+
+        sb.append("\n");
+        sb.append("    /* Diseases, indexed as in mapping/2 */\n");
+        sb.append("    private static final Disease[] BY_INDEX = values();\n\n");
+        sb.append("    /* Index of the disease in mapping/2 */\n");
+        sb.append("    private final int index;\n");
+        sb.append("    /* Prolog atom naming the disease */\n");
+        sb.append("    private final String key;\n");
+        sb.append("    /* Full name of the disease */\n");
+        sb.append("    private final String fullName;\n\n");
+        sb.append("    Disease(int index, String key, String fullName) {\n");
+        sb.append("        this.index = index;\n");
+        sb.append("        this.key = key;\n");
+        sb.append("        this.fullName = fullName;\n");
+        sb.append("    }\n\n");
+        sb.append("    /**\n     * Returns the disease with the given index in mapping/2\n     *\n");
+        sb.append("     * @param index index of the disease in mapping/2\n");
+        sb.append("     * @return disease with the given index\n     */\n");
+        sb.append("    public static Disease fromIndex(int index) {\n");
+        sb.append("        return BY_INDEX[index];\n");
+        sb.append("    }\n\n");
+        sb.append("    /**\n     * Returns the index of this disease in mapping/2\n     *\n");
+        sb.append("     * @return index of this disease in mapping/2\n     */\n");
+        sb.append("    public int getIndex() {\n");
+        sb.append("        return index;\n");
+        sb.append("    }\n\n");
+        sb.append("    /**\n     * Returns the Prolog atom naming this disease\n     *\n");
+        sb.append("     * @return Prolog atom naming this disease\n     */\n");
+        sb.append("    public String getKey() {\n");
+        sb.append("        return key;\n");
+        sb.append("    }\n\n");
+        sb.append("    /**\n     * Returns the full name of this disease\n     *\n");
+        sb.append("     * @return full name of this disease\n     */\n");
+        sb.append("    public String getFullName() {\n");
+        sb.append("        return fullName;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends the declaration of a constant of type <code>double</code>
+     *
+     * @param sb builder of the generated source
+     * @param name name of the constant
+     * @param value value of the constant
+     */
+    private static void appendConstant(StringBuilder sb, String name, double value) {
+        sb.append("    public static final double ").append(name).append(" = ")
+                .append(doubleLiteral(value)).append(";\n");
+    }
+
+    /**
+     * Appends the declaration of a constant array of strings
+     *
+     * @param sb builder of the generated source
+     * @param name name of the array
+     * @param values elements of the array
+     */
+    private static void appendStrings(StringBuilder sb, String name, String[] values) {
+        sb.append("    private static final String[] ").append(name).append(" = {\n");
+        for (String value : values) {
+            sb.append("            ").append(value == null ? "null" : stringLiteral(value)).append(",\n");
+        }
+        sb.append("    };\n");
+    }
+
+    /**
+     * Appends the declaration of a constant jagged array of integers
+     *
+     * @param sb builder of the generated source
+     * @param name name of the array
+     * @param values rows of the array
+     */
+    private static void appendInts(StringBuilder sb, String name, int[][] values) {
+        sb.append("    private static final int[][] ").append(name).append(" = {\n");
+        for (int[] row : values) {
+            sb.append("            {");
+            for (int k = 0; k < row.length; k++) {
+                sb.append(k == 0 ? "" : ", ").append(row[k]);
+            }
+            sb.append("},\n");
+        }
+        sb.append("    };\n");
+    }
+
+    /**
+     * Appends the declaration of the table of rules for the vital signs, as a call to the constructor of
+     * {@link VitalSignRules}
+     *
+     * @param sb builder of the generated source
+     * @param rules table of rules
+     * @param numSymptoms number of unique symptoms in the knowledge base
+     */
+    private static void appendVitalSignRules(StringBuilder sb, VitalSignRules rules, int numSymptoms) {
+        int[] vitalSigns = rules.getVitalSigns();
+        double[] mins = new double[vitalSigns.length];
+        double[] maxs = new double[vitalSigns.length];
+        for (int k = 0; k < vitalSigns.length; k++) {
+            mins[k] = rules.getMin(vitalSigns[k]);
+            maxs[k] = rules.getMax(vitalSigns[k]);
+        }
+
+        int numBands = rules.getNumBands();
+        int[] symptoms = new int[numBands];
+        int[] codes = new int[numBands];
+        double[] minAges = new double[numBands];
+        double[] maxAges = new double[numBands];
+        int[] sexes = new int[numBands];
+        double[] lows = new double[numBands];
+        double[] highs = new double[numBands];
+        for (int b = 0; b < numBands; b++) {
+            symptoms[b] = rules.getBandSymptom(b);
+            codes[b] = rules.getBandCode(b);
+            minAges[b] = rules.getBandMinAgeBound(b);
+            maxAges[b] = rules.getBandMaxAgeBound(b);
+            sexes[b] = rules.getBandSex(b);
+            lows[b] = rules.getBandLow(b);
+            highs[b] = rules.getBandHigh(b);
+        }
+
+        sb.append("    private static final VitalSignRules VITAL_SIGN_RULES = new VitalSignRules(")
+                .append(numSymptoms).append(",\n");
+        sb.append("            ").append(intArray(vitalSigns)).append(", ").append(doubleArray(mins)).append(", ")
+                .append(doubleArray(maxs)).append(",\n");
+        sb.append("            ").append(intArray(symptoms)).append(", ").append(intArray(codes)).append(",\n");
+        sb.append("            ").append(ageArray(minAges)).append(", ").append(ageArray(maxAges))
+                .append(", ADULT_AGE,\n");
+        sb.append("            ").append(intArray(sexes)).append(",\n");
+        sb.append("            ").append(doubleArray(lows)).append(", ").append(doubleArray(highs)).append(",\n");
+        sb.append("            ").append(intArray(rules.getEmergencyAnswers())).append(");\n");
+    }
+
+    /**
+     * Returns the Java array creation expression for an array of integers
+     *
+     * @param values elements of the array
+     * @return array creation expression
+     */
+    private static String intArray(int[] values) {
+        StringBuilder sb = new StringBuilder("new int[]{");
+        for (int k = 0; k < values.length; k++) {
+            sb.append(k == 0 ? "" : ", ").append(values[k]);
+        }
+        return sb.append("}").toString();
+    }
+
+    /**
+     * Returns the Java array creation expression for an array of <code>double</code>s
+     *
+     * @param values elements of the array
+     * @return array creation expression
+     */
+    private static String doubleArray(double[] values) {
+        StringBuilder sb = new StringBuilder("new double[]{");
+        for (int k = 0; k < values.length; k++) {
+            sb.append(k == 0 ? "" : ", ").append(doubleLiteral(values[k]));
+        }
+        return sb.append("}").toString();
+    }
+
+    /**
+     * Returns the Java array creation expression for an array of age bounds, where {@link VitalSignRules#ADULT}
+     * is kept symbolic
+     *
+     * @param values age bounds
+     * @return array creation expression
+     */
+    private static String ageArray(double[] values) {
+        StringBuilder sb = new StringBuilder("new double[]{");
+        for (int k = 0; k < values.length; k++) {
+            sb.append(k == 0 ? "" : ", ")
+                    .append(values[k] == VitalSignRules.ADULT ? "VitalSignRules.ADULT" : doubleLiteral(values[k]));
+        }
+        return sb.append("}").toString();
+    }
+
+    /**
+     * Appends the declaration of a constant array of integers
+     *
+     * @param sb builder of the generated source
+     * @param name name of the array
+     * @param values elements of the array
+     */
+    private static void appendInts(StringBuilder sb, String name, int[] values) {
+        sb.append("    private static final int[] ").append(name).append(" = {");
+        for (int k = 0; k < values.length; k++) {
+            sb.append(k == 0 ? "" : ", ").append(values[k]);
+        }
+        sb.append("};\n");
+    }
+
+    /**
+     * Appends an implementation of a method of {@link KnowledgeBase} that returns a single expression
+     *
+     * @param sb builder of the generated source
+     * @param type return type of the method
+     * @param name name of the method
+     * @param param parameter list of the method
+     * @param expr expression returned by the method
+     */
+    private static void appendGetter(StringBuilder sb, String type, String name, String param, String expr) {
+        sb.append("    @Override\n");
+        sb.append("    public ").append(type).append(" ").append(name).append("(").append(param).append(") {\n");
+        sb.append("        return ").append(expr).append(";\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * Returns the Java literal for a string, escaping non-ASCII characters
+     *
+     * @param s string
+     * @return Java literal for the string
+     */
+    static String stringLiteral(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c < 0x20 || c > 0x7E) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Returns the Java literal for a <code>double</code>
+     *
+     * @param value number
+     * @return Java literal for the number
+     */
+    static String doubleLiteral(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+
+        return Double.toString(value);
+    }
+
+    /**
+     * Returns the Java literal for a <code>long</code>, in hexadecimal
+     *
+     * @param value number
+     * @return Java literal for the number
+     */
+    static String hexLiteral(long value) {
+        return "0x" + Long.toHexString(value).toUpperCase() + "L";
+    }
+
+    /**
+     * Returns the name of an enumeration constant given a Prolog atom in camel case
+     * (for example, <code>multipleSclerosis</code> becomes <code>MULTIPLE_SCLEROSIS</code>)
+     *
+     * @param key Prolog atom in camel case
+     * @return name of the enumeration constant
+     */
+    static String constantName(String key) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int k = 0; k < key.length(); k++) {
+            char c = key.charAt(k);
+
+            if (Character.isUpperCase(c) && k > 0) {
+                sb.append('_');
+            }
+            sb.append(Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : '_');
+        }
+
+        return sb.toString();
+    }
+}
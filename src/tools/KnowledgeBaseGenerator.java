@@ -0,0 +1,353 @@
+package tools;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tool that <b>generates synthetic knowledge bases</b> in the schema of <code>knowledgebase.pl</code>, for
+ * measuring how the expert system scales with the number of diseases and symptoms
+ *
+ * <p>The generated file consists of three parts:</p>
+ * <ul>
+ *     <li>the dynamic declarations and the constants, copied from a template knowledge base;</li>
+ *     <li>synthetic <code>hasSymptom/2</code>, <code>femaleSymptom/1</code>, <code>pediatricSymptom/1</code>,
+ *     <code>mapping/2</code>, <code>fullName/2</code>, <code>weight/2</code>, and <code>display/2</code>
+ *     facts; and</li>
+ *     <li>the rules, copied verbatim from the template (so that the benchmarks always exercise the rules
+ *     actually shipped).</li>
+ * </ul>
+ *
+ * <p>Each disease is given about <code>fanout</code> symptoms (uniformly between half and one and a half
+ * times the fan-out). Symptoms are drawn from a Zipf distribution with exponent <code>skew</code>, so that
+ * a few symptoms (like fatigue or fever in the real knowledge base) are shared by many diseases while most
+ * belong to only a few; a skew of 0 draws the symptoms uniformly. The weights are drawn from either a
+ * uniform distribution (<code>uniform:LO:HI</code>) or a normal distribution (<code>normal:MEAN:SD</code>),
+ * clamped to [0.01, 1] and rounded to two decimal places as in the real knowledge base.</p>
+ *
+ * <p>Usage: <code>java tools.KnowledgeBaseGenerator [options] &lt;output file&gt;</code>, where the options
+ * are <code>--diseases N</code> (default 1000), <code>--symptoms N</code> (default 10000),
+ * <code>--fanout N</code> (default 8), <code>--skew S</code> (default 1.0), <code>--weights SPEC</code>
+ * (default <code>uniform:0.1:0.9</code>), <code>--seed N</code> (default 1), and <code>--template FILE</code>
+ * (default <code>src/expert/knowledgebase.pl</code>).</p>
+ */
+public class KnowledgeBaseGenerator {
+    /* Start of the comment introducing the hasSymptom/2 facts (the end of the copied header) */
+    private static final String FACTS_MARKER = "/* The hasSymptom/2 predicate";
+    /* Start of the documentation of the first rule (the start of the copied rules) */
+    private static final String RULES_MARKER = "/**\n * numberOfDiseases(";
+
+    /* Number of diseases */
+    private int numDiseases = 1000;
+    /* Number of unique symptoms */
+    private int numSymptoms = 10000;
+    /* Average number of symptoms per disease */
+    private int fanout = 8;
+    /* Exponent of the Zipf distribution from which symptoms are drawn (0 for uniform) */
+    private double skew = 1.0;
+    /* Distribution of the weights */
+    private String weights = "uniform:0.1:0.9";
+    /* Seed of the random number generator */
+    private long seed = 1;
+    /* Knowledge base from which the header and the rules are copied */
+    private Path template = Paths.get("src", "expert", "knowledgebase.pl");
+
+    /**
+     * Creates a generator with the default parameters
+     */
+    public KnowledgeBaseGenerator() {
+
+    }
+
+    /**
+     * Generates a synthetic knowledge base according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        KnowledgeBaseGenerator generator;
+        generator = new KnowledgeBaseGenerator();
+
+        Path out = null;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--diseases":
+                        generator.setNumDiseases(Integer.parseInt(args[++k]));
+                        break;
+                    case "--symptoms":
+                        generator.setNumSymptoms(Integer.parseInt(args[++k]));
+                        break;
+                    case "--fanout":
+                        generator.setFanout(Integer.parseInt(args[++k]));
+                        break;
+                    case "--skew":
+                        generator.setSkew(Double.parseDouble(args[++k]));
+                        break;
+                    case "--weights":
+                        generator.setWeights(args[++k]);
+                        break;
+                    case "--seed":
+                        generator.setSeed(Long.parseLong(args[++k]));
+                        break;
+                    case "--template":
+                        generator.setTemplate(Paths.get(args[++k]));
+                        break;
+                    default:
+                        if (args[k].startsWith("--") || out != null) {
+                            throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                        }
+                        out = Paths.get(args[k]);
+                }
+            }
+
+            if (out == null) {
+                throw new IllegalArgumentException("No output file given");
+            }
+
+            generator.writeTo(out);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.KnowledgeBaseGenerator [--diseases N] [--symptoms N] "
+                    + "[--fanout N] [--skew S] [--weights uniform:LO:HI|normal:MEAN:SD] [--seed N] "
+                    + "[--template FILE] <output file>");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Failed to generate knowledge base: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Sets the number of diseases to the given value
+     *
+     * @param numDiseases number of diseases
+     */
+    public void setNumDiseases(int numDiseases) {
+        this.numDiseases = numDiseases;
+    }
+
+    /**
+     * Sets the number of unique symptoms to the given value
+     *
+     * @param numSymptoms number of unique symptoms
+     */
+    public void setNumSymptoms(int numSymptoms) {
+        this.numSymptoms = numSymptoms;
+    }
+
+    /**
+     * Sets the average number of symptoms per disease to the given value
+     *
+     * @param fanout average number of symptoms per disease
+     */
+    public void setFanout(int fanout) {
+        this.fanout = fanout;
+    }
+
+    /**
+     * Sets the exponent of the Zipf distribution from which the symptoms of each disease are drawn
+     *
+     * @param skew exponent of the Zipf distribution (0 for a uniform distribution)
+     */
+    public void setSkew(double skew) {
+        this.skew = skew;
+    }
+
+    /**
+     * Sets the distribution of the weights (either <code>uniform:LO:HI</code> or <code>normal:MEAN:SD</code>)
+     *
+     * @param weights distribution of the weights
+     */
+    public void setWeights(String weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Sets the seed of the random number generator
+     *
+     * @param seed seed of the random number generator
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the knowledge base from which the header and the rules are copied
+     *
+     * @param template knowledge base from which the header and the rules are copied
+     */
+    public void setTemplate(Path template) {
+        this.template = template;
+    }
+
+    /**
+     * Writes a synthetic knowledge base to the given file
+     *
+     * @param out file to which the knowledge base is written
+     * @throws IOException if the template cannot be read or the file cannot be written
+     * @throws IllegalArgumentException if the parameters are invalid
+     */
+    public void writeTo(Path out) throws IOException {
+        if (numDiseases < 1 || numSymptoms < 1 || fanout < 1 || fanout > numSymptoms || skew < 0) {
+            throw new IllegalArgumentException("Invalid parameters: " + numDiseases + " diseases, " + numSymptoms
+                    + " symptoms, fan-out " + fanout + ", skew " + skew);
+        }
+
+        String src = new String(Files.readAllBytes(template), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        int factsStart = src.indexOf(FACTS_MARKER);
+        int rulesStart = src.indexOf(RULES_MARKER);
+
+        if (factsStart < 0 || rulesStart < factsStart) {
+            throw new IllegalArgumentException(template + " does not have the layout of knowledgebase.pl");
+        }
+
+        /* Fail on an unknown weight distribution before anything is written. */
+        drawWeight(new Random(seed));
+
+        Random random = new Random(seed);
+        double[] cumulative = zipfCumulative();
+
+        try (BufferedWriter w = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            w.write(src, 0, factsStart);
+
+            w.write(String.format(Locale.ROOT, "/* Synthetic knowledge base: %d diseases, %d symptoms, fan-out %d, "
+                    + "skew %s, weights %s, seed %d.%n */%n", numDiseases, numSymptoms, fanout, skew, weights, seed));
+
+            /* Symptoms of each disease, grouped by disease in mapping order */
+            int[] chosen = new int[Math.min(numSymptoms, fanout + fanout / 2)];
+            for (int d = 0; d < numDiseases; d++) {
+                int count = Math.min(numSymptoms, fanout - fanout / 2 + random.nextInt(fanout / 2 * 2 + 1));
+                count = Math.min(count, chosen.length);
+
+                for (int k = 0; k < count; k++) {
+                    int s;
+                    do {
+                        s = drawSymptom(cumulative, random);
+                    } while (contains(chosen, k, s));
+
+                    chosen[k] = s;
+                    w.write("hasSymptom(disease" + d + ", symptom" + s + ").\n");
+                }
+                w.write("\n");
+            }
+
+            /* A few symptoms are exclusive to female or pediatric patients. */
+            int numFemale = Math.max(1, numSymptoms / 50);
+            int numPediatric = Math.max(1, numSymptoms / 100);
+            for (int k = 0; k < numFemale; k++) {
+                w.write("femaleSymptom(symptom" + (numSymptoms - 1 - k) + ").\n");
+            }
+            for (int k = 0; k < numPediatric && numSymptoms - 1 - numFemale - k >= 0; k++) {
+                w.write("pediatricSymptom(symptom" + (numSymptoms - 1 - numFemale - k) + ").\n");
+            }
+            w.write("\n");
+
+            for (int d = 0; d < numDiseases; d++) {
+                w.write("mapping(" + d + ", disease" + d + ").\n");
+            }
+            w.write("\n");
+
+            for (int d = 0; d < numDiseases; d++) {
+                w.write("fullName(" + d + ", \"Synthetic Disease " + d + ".\").\n");
+            }
+            w.write("\n");
+
+            for (int s = 0; s < numSymptoms; s++) {
+                w.write(String.format(Locale.ROOT, "weight(symptom%d, %.2f).%n", s, drawWeight(random)));
+            }
+            w.write("\n");
+
+            for (int s = 0; s < numSymptoms; s++) {
+                w.write("display(symptom" + s + ", \"PATIENT: Do you experience synthetic symptom " + s
+                        + "? Nakararanas ka ba ng sintomas " + s + "?\").\n");
+            }
+            w.write("\n");
+
+            w.write(src, rulesStart, src.length() - rulesStart);
+        }
+    }
+
+    /**
+     * Returns the cumulative distribution function of the Zipf distribution over the symptoms
+     *
+     * @return cumulative probabilities, indexed by symptom
+     */
+    private double[] zipfCumulative() {
+        double[] cumulative = new double[numSymptoms];
+        double sum = 0;
+
+        for (int s = 0; s < numSymptoms; s++) {
+            sum += 1 / Math.pow(s + 1, skew);
+            cumulative[s] = sum;
+        }
+
+        for (int s = 0; s < numSymptoms; s++) {
+            cumulative[s] /= sum;
+        }
+
+        return cumulative;
+    }
+
+    /**
+     * Returns a symptom drawn from the given cumulative distribution
+     *
+     * @param cumulative cumulative probabilities, indexed by symptom
+     * @param random random number generator
+     * @return symptom drawn from the distribution
+     */
+    private static int drawSymptom(double[] cumulative, Random random) {
+        int s = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(s < 0 ? -s - 1 : s, cumulative.length - 1);
+    }
+
+    /**
+     * Returns a weight drawn from the configured distribution, clamped to [0.01, 1]
+     *
+     * @param random random number generator
+     * @return weight drawn from the distribution
+     */
+    private double drawWeight(Random random) {
+        String[] parts = weights.split(":");
+        double weight;
+
+        if (parts.length == 3 && parts[0].equals("uniform")) {
+            double lo = Double.parseDouble(parts[1]);
+            double hi = Double.parseDouble(parts[2]);
+            weight = lo + (hi - lo) * random.nextDouble();
+        } else if (parts.length == 3 && parts[0].equals("normal")) {
+            weight = Double.parseDouble(parts[1]) + Double.parseDouble(parts[2]) * random.nextGaussian();
+        } else {
+            throw new IllegalArgumentException("Unknown weight distribution: " + weights);
+        }
+
+        return Math.max(0.01, Math.min(1, weight));
+    }
+
+    /**
+     * Returns <code>true</code> if the first elements of the given array contain the given value;
+     * <code>false</code>, otherwise
+     *
+     * @param values array to be searched
+     * @param length number of elements to be searched
+     * @param value value to be searched for
+     * @return <code>true</code> if the first elements of the array contain the value; <code>false</code>,
+     * otherwise
+     */
+    private static boolean contains(int[] values, int length, int value) {
+        for (int k = 0; k < length; k++) {
+            if (values[k] == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
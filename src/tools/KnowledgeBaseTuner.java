@@ -0,0 +1,642 @@
+package tools;
+
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.KnowledgeBaseParser;
+import expert.TunedKnowledgeBase;
+import expert.VitalSignRules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Command-line tool that <b>tunes the constants and weights of the knowledge base</b>: <code>cfValueRemove/1</code>,
+ * <code>cfValueConclude/1</code>, <code>adultAge/1</code>, and selected <code>weight/2</code> entries
+ *
+ * <p>The goal is to ask as few questions as possible on average while holding the accuracy of the diagnoses. The
+ * cases are either labelled records (<code>--cases FILE</code>, one <code>disease,age,sex,symptom=answer ...</code>
+ * line per case, the symptoms not listed being answered with <code>no</code>) or patients drawn by
+ * {@link PopulationSimulator}. The answer code of every case to every symptom is computed once (drawing the
+ * answers and evaluating the readings), and the table of codes is shared by all the candidate configurations,
+ * each of which only replays the question flow on a {@link TunedKnowledgeBase}. The readings of the vital signs
+ * are kept as well: a candidate with another adult age evaluates them against its own bands, since the bands
+ * that follow <code>adultAge/1</code> move with it.</p>
+ *
+ * <p>The candidates are the grid of the given values: <code>--remove</code>, <code>--conclude</code>, and
+ * <code>--adult-age</code> are comma-separated lists of values, and each of the symptoms in <code>--weights</code>
+ * has its weight multiplied by each of the factors in <code>--scales</code> (rounded to four decimal places and
+ * capped at 1). They are evaluated concurrently on a fork-join pool. The best candidate is the one asking the
+ * fewest questions on average among those whose accuracy is at most <code>--tolerance</code> percentage points
+ * below that of the knowledge base as is. With <code>--out FILE</code>, the knowledge base is written with the
+ * values of the best candidate, and read back to check them.</p>
+ *
+ * <p>Usage: <code>java tools.KnowledgeBaseTuner [--kb FILE] [--cases FILE | --patients N] [--seed N]
+ * [--threads N] [--remove LIST] [--conclude LIST] [--adult-age LIST] [--weights SYMPTOMS --scales LIST]
+ * [--tolerance PP] [--top N] [--out FILE]</code></p>
+ */
+public class KnowledgeBaseTuner {
+    /* Largest number of candidates in the grid */
+    private static final int MAX_CANDIDATES = 100_000;
+
+    /* Knowledge base as is */
+    private final KnowledgeBase kb;
+    /* Disease, presentation, age, and sex of each case */
+    private final int[] diseases;
+    private final boolean[] emergencies;
+    private final double[] ages;
+    private final String[] sexes;
+    /* Answer code of each case to each symptom, indexed by case and then by symptom ID */
+    private final byte[][] codes;
+    /* Reading of each case for each vital sign (NaN if there is none), indexed by case and then in the order of
+    VitalSignRules.getVitalSigns() */
+    private final double[][] readings;
+
+    /**
+     * Creates a tuner for the given cases
+     *
+     * @param kb static tables of the knowledge base as is
+     * @param diseases index of the disease of each case
+     * @param emergencies whether each case presents as an emergency
+     * @param ages age of each case
+     * @param sexes sex of each case
+     * @param codes answer code of each case to each symptom, indexed by case and then by symptom ID
+     * @param readings reading of each case for each vital sign (<code>NaN</code> if there is none), indexed by
+     *                 case and then in the order of {@link VitalSignRules#getVitalSigns()}
+     */
+    public KnowledgeBaseTuner(KnowledgeBase kb, int[] diseases, boolean[] emergencies, double[] ages,
+                              String[] sexes, byte[][] codes, double[][] readings) {
+        this.kb = kb;
+        this.diseases = diseases;
+        this.emergencies = emergencies;
+        this.ages = ages;
+        this.sexes = sexes;
+        this.codes = codes;
+        this.readings = readings;
+    }
+
+    /**
+     * Runs the tuning according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        Path casesFile = null;
+        Path outFile = null;
+        int numPatients = 20_000;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String removes = null;
+        String concludes = null;
+        String adultAges = null;
+        String weighted = null;
+        String scales = "1";
+        double tolerance = 0;
+        int top = 10;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--cases":
+                        casesFile = Paths.get(args[++k]);
+                        break;
+                    case "--patients":
+                        numPatients = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++k]);
+                        break;
+                    case "--remove":
+                        removes = args[++k];
+                        break;
+                    case "--conclude":
+                        concludes = args[++k];
+                        break;
+                    case "--adult-age":
+                        adultAges = args[++k];
+                        break;
+                    case "--weights":
+                        weighted = args[++k];
+                        break;
+                    case "--scales":
+                        scales = args[++k];
+                        break;
+                    case "--tolerance":
+                        tolerance = Double.parseDouble(args[++k]);
+                        break;
+                    case "--top":
+                        top = Integer.parseInt(args[++k]);
+                        break;
+                    case "--out":
+                        outFile = Paths.get(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (numPatients <= 0 || threads <= 0 || tolerance < 0) {
+                throw new IllegalArgumentException("The number of patients and of threads must be positive, and "
+                        + "the tolerance must not be negative");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+
+        KnowledgeBase kb = null;
+        KnowledgeBaseTuner tuner = null;
+        try {
+            kb = KnowledgeBaseLoader.load(kbFile);
+            tuner = casesFile != null ? fromRecords(kb, casesFile) : simulated(kb, numPatients, seed);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Failed to load the knowledge base or the cases: " + e);
+            System.exit(1);
+        }
+
+        List<Candidate> candidates = null;
+        try {
+            candidates = grid(kb, removes == null ? new double[]{kb.getCFValueRemove()} : parseList(removes),
+                    concludes == null ? new double[]{kb.getCFValueConclude()} : parseList(concludes),
+                    adultAges == null ? new double[]{kb.getAdultAge()} : parseList(adultAges),
+                    weighted == null ? new int[0] : symptomIds(kb, weighted), parseList(scales));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        tuner.evaluate(candidates, pool);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        /* The first candidate is the knowledge base as is. */
+        Candidate baseline = candidates.get(0);
+        double minAccuracy = baseline.result.getAccuracy() - tolerance / 100;
+
+        List<Candidate> feasible = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (candidate.result.getAccuracy() >= minAccuracy - 1e-12) {
+                feasible.add(candidate);
+            }
+        }
+        feasible.sort((a, b) -> a.result.getMeanQuestions() != b.result.getMeanQuestions()
+                ? Double.compare(a.result.getMeanQuestions(), b.result.getMeanQuestions())
+                : Double.compare(b.result.getAccuracy(), a.result.getAccuracy()));
+
+        System.out.printf(Locale.ROOT, "%d cases, %d candidates on %d threads in %.1f s%n", tuner.codes.length,
+                candidates.size(), threads, seconds);
+        System.out.println("baseline: " + baseline.describe(kb));
+        System.out.printf(Locale.ROOT, "candidates with an accuracy of at least %.2f%%, fewest questions first:%n",
+                100 * minAccuracy);
+        for (int k = 0; k < Math.min(top, feasible.size()); k++) {
+            System.out.println("  " + feasible.get(k).describe(kb));
+        }
+
+        Candidate best = feasible.get(0);
+        System.out.println("best: " + best.describe(kb));
+
+        if (outFile != null) {
+            try {
+                String source = new String(Files.readAllBytes(kbFile), StandardCharsets.UTF_8);
+                byte[] patched = best.kb.patch(source).getBytes(StandardCharsets.UTF_8);
+                best.check(KnowledgeBaseParser.parse(outFile.toString(), patched));
+                Files.write(outFile, patched);
+                System.out.println("wrote " + outFile);
+            } catch (IOException e) {
+                System.err.println("Failed to write the knowledge base: " + e);
+                System.exit(1);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                System.err.println("The patched knowledge base is invalid: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java tools.KnowledgeBaseTuner [--kb FILE] [--cases FILE | --patients N] "
+                + "[--seed N] [--threads N] [--remove LIST] [--conclude LIST] [--adult-age LIST] "
+                + "[--weights SYMPTOMS --scales LIST] [--tolerance PP] [--top N] [--out FILE]");
+    }
+
+    /**
+     * Creates a tuner for patients drawn by {@link PopulationSimulator} with its default profiles
+     *
+     * @param kb static tables of the knowledge base as is
+     * @param numPatients number of patients
+     * @param seed seed of the patients
+     * @return tuner
+     */
+    public static KnowledgeBaseTuner simulated(KnowledgeBase kb, int numPatients, long seed) {
+        PopulationSimulator simulator = new PopulationSimulator(kb, 0.8, 0.1, 0.02);
+        SplittableRandom random = new SplittableRandom(seed);
+
+        int[] diseases = new int[numPatients];
+        boolean[] emergencies = new boolean[numPatients];
+        double[] ages = new double[numPatients];
+        String[] sexes = new String[numPatients];
+        byte[][] codes = new byte[numPatients][kb.getNumSymptoms()];
+        VitalSignRules rules = kb.getVitalSignRules();
+        int[] vitalSigns = rules.getVitalSigns();
+        double[][] readings = new double[numPatients][vitalSigns.length];
+
+        for (int n = 0; n < numPatients; n++) {
+            PopulationSimulator.Patient patient = simulator.drawPatient(random);
+            diseases[n] = patient.getDisease();
+            emergencies[n] = patient.isEmergency();
+            ages[n] = patient.getAge();
+            sexes[n] = patient.getSex();
+
+            /* Every symptom is answered, whether or not it ends up asked. */
+            for (int s = 0; s < kb.getNumSymptoms(); s++) {
+                if (rules.isNumeric(s)) {
+                    double value = simulator.answerReading(patient, s, random);
+                    readings[n][indexOf(vitalSigns, s)] = value;
+                    codes[n][s] = (byte) rules.evaluate(s, value, ages[n], VitalSignRules.sexCode(sexes[n]));
+                } else {
+                    codes[n][s] = (byte) simulator.answer(patient, s, random);
+                }
+            }
+        }
+
+        return new KnowledgeBaseTuner(kb, diseases, emergencies, ages, sexes, codes, readings);
+    }
+
+    /**
+     * Creates a tuner for labelled records, one <code>disease,age,sex,symptom=answer ...</code> line per case
+     * (with the Prolog atoms naming the disease and the symptoms); a case presents as an emergency if one of
+     * its answers is indicative of an emergency
+     *
+     * @param kb static tables of the knowledge base as is
+     * @param file file of labelled records
+     * @return tuner
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a record is malformed or names an unknown disease or symptom
+     */
+    public static KnowledgeBaseTuner fromRecords(KnowledgeBase kb, Path file) throws IOException {
+        List<Integer> diseases = new ArrayList<>();
+        List<Double> ages = new ArrayList<>();
+        List<String> sexes = new ArrayList<>();
+        List<byte[]> codes = new ArrayList<>();
+        List<double[]> readings = new ArrayList<>();
+        VitalSignRules rules = kb.getVitalSignRules();
+        int[] vitalSigns = rules.getVitalSigns();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split(",", 4);
+                if (fields.length < 3) {
+                    throw new IllegalArgumentException("Malformed record: " + line);
+                }
+
+                int disease = -1;
+                for (int d = 0; d < kb.getNumDiseases(); d++) {
+                    if (kb.getDiseaseKey(d).equals(fields[0].trim())) {
+                        disease = d;
+                    }
+                }
+                if (disease < 0) {
+                    throw new IllegalArgumentException("Unknown disease: " + fields[0].trim());
+                }
+
+                double age = Double.parseDouble(fields[1].trim());
+                String sex = fields[2].trim();
+                byte[] caseCodes = new byte[kb.getNumSymptoms()];
+                double[] caseReadings = new double[vitalSigns.length];
+                Arrays.fill(caseReadings, Double.NaN);
+
+                if (fields.length == 4) {
+                    for (String pair : fields[3].trim().split("\\s+")) {
+                        int eq = pair.indexOf('=');
+                        if (eq <= 0) {
+                            if (pair.isEmpty()) {
+                                continue;
+                            }
+                            throw new IllegalArgumentException("Malformed answer in record: " + line);
+                        }
+
+                        int symptom = kb.getSymptomId(pair.substring(0, eq));
+                        if (symptom < 0) {
+                            throw new IllegalArgumentException("Unknown symptom: " + pair.substring(0, eq));
+                        }
+                        String answer = pair.substring(eq + 1);
+                        caseCodes[symptom] = (byte) rules.evaluate(symptom, answer, age, VitalSignRules.sexCode(sex));
+                        if (rules.isNumeric(symptom)) {
+                            caseReadings[indexOf(vitalSigns, symptom)] = Double.parseDouble(answer);
+                        }
+                    }
+                }
+
+                diseases.add(disease);
+                ages.add(age);
+                sexes.add(sex);
+                codes.add(caseCodes);
+                readings.add(caseReadings);
+            }
+        }
+
+        if (codes.isEmpty()) {
+            throw new IllegalArgumentException("No case in " + file);
+        }
+
+        int[] diseaseArray = new int[diseases.size()];
+        boolean[] emergencies = new boolean[diseases.size()];
+        double[] ageArray = new double[diseases.size()];
+        for (int n = 0; n < diseaseArray.length; n++) {
+            diseaseArray[n] = diseases.get(n);
+            ageArray[n] = ages.get(n);
+            for (byte code : codes.get(n)) {
+                emergencies[n] |= (code & VitalSignRules.EMERGENCY) != 0;
+            }
+        }
+
+        return new KnowledgeBaseTuner(kb, diseaseArray, emergencies, ageArray, sexes.toArray(new String[0]),
+                codes.toArray(new byte[0][]), readings.toArray(new double[0][]));
+    }
+
+    /**
+     * Returns the position of a vital sign in the order of {@link VitalSignRules#getVitalSigns()}
+     *
+     * @param vitalSigns IDs of the vital signs
+     * @param symptom ID of the vital sign
+     * @return position of the vital sign
+     */
+    private static int indexOf(int[] vitalSigns, int symptom) {
+        int k = 0;
+        while (vitalSigns[k] != symptom) {
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Evaluates candidate configurations concurrently, storing the results in them
+     *
+     * @param candidates candidate configurations
+     * @param pool pool on which the candidates are evaluated
+     */
+    public void evaluate(List<Candidate> candidates, ForkJoinPool pool) {
+        pool.invoke(new Evaluation(candidates, 0, candidates.size()));
+    }
+
+    /**
+     * Replays every case on a candidate configuration
+     *
+     * @param candidate candidate configuration
+     */
+    private void evaluate(Candidate candidate) {
+        PopulationSimulator.Result result;
+        result = new PopulationSimulator.Result(kb.getNumDiseases(), kb.getNumSymptoms());
+
+        /* The readings are evaluated again if the bands of the candidate differ (another adult age). */
+        VitalSignRules rules = candidate.kb.getVitalSignRules();
+        int[] vitalSigns = rules.getVitalSigns();
+        byte[] evaluated = rules != kb.getVitalSignRules() ? new byte[kb.getNumSymptoms()] : null;
+
+        for (int n = 0; n < codes.length; n++) {
+            byte[] caseCodes = codes[n];
+            if (evaluated != null) {
+                System.arraycopy(caseCodes, 0, evaluated, 0, caseCodes.length);
+                for (int k = 0; k < vitalSigns.length; k++) {
+                    evaluated[vitalSigns[k]] = (byte) rules.evaluate(vitalSigns[k], readings[n][k], ages[n],
+                            VitalSignRules.sexCode(sexes[n]));
+                }
+                caseCodes = evaluated;
+            }
+
+            DiagnosisSession session = new DiagnosisSession(candidate.kb, "Patient", ages[n], sexes[n]);
+            while (!session.isFinished()) {
+                session.answerCode(caseCodes[session.getSymptomId()]);
+            }
+
+            result.record(diseases[n], emergencies[n], session);
+        }
+
+        candidate.result = result;
+    }
+
+    /**
+     * Returns the grid of candidate configurations, starting with the knowledge base as is; the
+     * configurations whose <code>cfValueRemove</code> is not below <code>cfValueConclude</code> are left out
+     *
+     * @param kb static tables of the knowledge base as is
+     * @param removes values of <code>cfValueRemove</code>
+     * @param concludes values of <code>cfValueConclude</code>
+     * @param adultAges values of <code>adultAge</code>
+     * @param weighted IDs of the symptoms whose weights are tuned
+     * @param scales factors applied to the weights of these symptoms
+     * @return candidate configurations
+     * @throws IllegalArgumentException if the grid is too large
+     */
+    public static List<Candidate> grid(KnowledgeBase kb, double[] removes, double[] concludes, double[] adultAges,
+                                       int[] weighted, double[] scales) {
+        double size = (double) removes.length * concludes.length * adultAges.length
+                * Math.pow(scales.length, weighted.length);
+        if (size > MAX_CANDIDATES) {
+            throw new IllegalArgumentException("Too many candidates: " + (long) size + " (at most "
+                    + MAX_CANDIDATES + ")");
+        }
+
+        double[] baseWeights = TunedKnowledgeBase.weightsOf(kb);
+        List<Candidate> candidates = new ArrayList<>();
+        candidates.add(new Candidate(new TunedKnowledgeBase(kb, kb.getAdultAge(), kb.getCFValueRemove(),
+                kb.getCFValueConclude(), baseWeights), weighted));
+
+        /* Enumerate the factors of the weights as the digits of a number in base scales.length. */
+        int[] digits = new int[weighted.length];
+        for (double remove : removes) {
+            for (double conclude : concludes) {
+                if (remove >= conclude) {
+                    continue;
+                }
+
+                for (double adultAge : adultAges) {
+                    Arrays.fill(digits, 0);
+                    do {
+                        double[] weights = baseWeights.clone();
+                        for (int k = 0; k < weighted.length; k++) {
+                            weights[weighted[k]] = Math.min(1, Math.round(baseWeights[weighted[k]]
+                                    * scales[digits[k]] * 10_000) / 10_000.0);
+                        }
+
+                        /* The knowledge base as is is already the first candidate. */
+                        TunedKnowledgeBase tuned;
+                        tuned = new TunedKnowledgeBase(kb, (int) adultAge, remove, conclude, weights);
+                        if (tuned.getVersion() != candidates.get(0).kb.getVersion()) {
+                            candidates.add(new Candidate(tuned, weighted));
+                        }
+                    } while (increment(digits, scales.length));
+                }
+            }
+        }
+
+        return candidates;
+    }
+
+    private static boolean increment(int[] digits, int base) {
+        for (int k = 0; k < digits.length; k++) {
+            if (++digits[k] < base) {
+                return true;
+            }
+            digits[k] = 0;
+        }
+        return false;
+    }
+
+    private static double[] parseList(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int k = 0; k < parts.length; k++) {
+            values[k] = Double.parseDouble(parts[k].trim());
+        }
+        return values;
+    }
+
+    private static int[] symptomIds(KnowledgeBase kb, String list) {
+        String[] parts = list.split(",");
+        int[] ids = new int[parts.length];
+        for (int k = 0; k < parts.length; k++) {
+            ids[k] = kb.getSymptomId(parts[k].trim());
+            if (ids[k] < 0) {
+                throw new IllegalArgumentException("Unknown symptom: " + parts[k].trim());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Task evaluating a range of candidates, split in halves until a single one is left
+     */
+    @SuppressWarnings("serial")     /* Tasks are forked within a pool, never serialized. */
+    private final class Evaluation extends RecursiveAction {
+        private final List<Candidate> candidates;
+        private final int from;
+        private final int to;
+
+        Evaluation(List<Candidate> candidates, int from, int to) {
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int k = from; k < to; k++) {
+                    evaluate(candidates.get(k));
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Evaluation(candidates, from, middle), new Evaluation(candidates, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Candidate configuration of the constants and weights, with its results once evaluated
+     */
+    public static final class Candidate {
+        /* View of the knowledge base with the values of the candidate */
+        private final TunedKnowledgeBase kb;
+        /* IDs of the symptoms whose weights are tuned */
+        private final int[] weighted;
+        /* Results of the cases (null until evaluated) */
+        private PopulationSimulator.Result result;
+
+        private Candidate(TunedKnowledgeBase kb, int[] weighted) {
+            this.kb = kb;
+            this.weighted = weighted;
+        }
+
+        /**
+         * Returns the view of the knowledge base with the values of the candidate
+         *
+         * @return view of the knowledge base
+         */
+        public TunedKnowledgeBase getKnowledgeBase() {
+            return kb;
+        }
+
+        /**
+         * Returns the results of the cases, or <code>null</code> if the candidate has not been evaluated
+         *
+         * @return results of the cases
+         */
+        public PopulationSimulator.Result getResult() {
+            return result;
+        }
+
+        /**
+         * Checks that a knowledge base has the values of the candidate
+         *
+         * @param patched knowledge base
+         * @throws IllegalStateException if a value differs
+         */
+        private void check(KnowledgeBase patched) {
+            boolean same = patched.getAdultAge() == kb.getAdultAge()
+                    && patched.getCFValueRemove() == kb.getCFValueRemove()
+                    && patched.getCFValueConclude() == kb.getCFValueConclude();
+            for (int s = 0; s < kb.getNumSymptoms(); s++) {
+                same &= patched.getWeight(s) == kb.getWeight(s);
+            }
+
+            /* The bands that follow the adult age must have moved with it. */
+            VitalSignRules rules = kb.getVitalSignRules();
+            VitalSignRules patchedRules = patched.getVitalSignRules();
+            same &= patchedRules.getNumBands() == rules.getNumBands();
+            for (int b = 0; same && b < rules.getNumBands(); b++) {
+                same = patchedRules.getBandMinAge(b) == rules.getBandMinAge(b)
+                        && patchedRules.getBandMaxAge(b) == rules.getBandMaxAge(b);
+            }
+
+            if (!same) {
+                throw new IllegalStateException("The patched knowledge base does not have the tuned values");
+            }
+        }
+
+        private String describe(KnowledgeBase base) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "remove %s conclude %s adultAge %d", kb.getCFValueRemove(),
+                    kb.getCFValueConclude(), kb.getAdultAge()));
+            for (int k = 0; k < weighted.length; k++) {
+                if (kb.getWeight(weighted[k]) != base.getWeight(weighted[k])) {
+                    sb.append(' ').append(base.getSymptomKey(weighted[k])).append(' ')
+                            .append(kb.getWeight(weighted[k]));
+                }
+            }
+            sb.append(String.format(Locale.ROOT, ": accuracy %.2f%%, questions %.2f, referred %.2f%%",
+                    100 * result.getAccuracy(), result.getMeanQuestions(), 100 * result.getReferralRate()));
+            return sb.toString();
+        }
+    }
+}
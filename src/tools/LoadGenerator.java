@@ -0,0 +1,615 @@
+package tools;
+
+import expert.DecisionDag;
+import expert.DiagnosisEvent;
+import expert.DiagnosisEventPublisher;
+import expert.DiagnosisTrie;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.VitalSignRules;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load-testing tool that <b>simulates concurrent virtual patients</b> consulting the diagnosis engine
+ *
+ * <p>Each virtual patient runs on its own (virtual) thread and repeatedly goes through a full consultation:
+ * it draws a profile (name, age, sex, the disease it actually has, and whether it presents with an
+ * emergency), answers every question the engine asks according to that profile, and waits for a random
+ * think time between answers. Vital signs are answered with numbers (normal, abnormal, or emergency
+ * readings, drawn against the table of rules of the knowledge base), so the emergency paths of the engine
+ * are exercised. The profile of every consultation is derived from the seed, the patient number, and the
+ * consultation number, so runs are reproducible.</p>
+ *
+ * <p>Throughput, answer latency percentiles, errors, and heap usage are reported periodically and at the
+ * end of the run. Only the time spent in the engine counts towards the latency; think time does not.</p>
+ *
+ * <p>With <code>--subscribers N</code>, the sessions publish their events to a {@link DiagnosisEventPublisher}
+ * with <code>N</code> subscribers, each spending <code>--subscriber-delay</code> milliseconds on every batch,
+ * so the cost of the event stream and the batches dropped for slow subscribers can be measured. With
+ * <code>--trie MIB</code>, the sessions share their states through a {@link DiagnosisTrie} of at most
+ * <code>MIB</code> mebibytes instead. With <code>--dag FILE</code>, the sessions walk a {@link DecisionDag}
+ * compiled by {@link DecisionDagCompiler}; if the file cannot be used (missing, or compiled from another version
+ * of the knowledge base), the sessions fall back to the live engine. With <code>--socket PATH</code>, the
+ * consultations run on a {@link server.DiagnosisServer} listening on the given Unix domain socket, one
+ * connection per virtual patient, so the latency includes the round trip.</p>
+ *
+ * <p>Usage: <code>java tools.LoadGenerator [--kb FILE] [--patients N] [--duration SECONDS]
+ * [--interviews N] [--think none|fixed:MS|uniform:LO:HI|exp:MEAN] [--emergency-rate P] [--interval SECONDS]
+ * [--seed N] [--subscribers N] [--subscriber-delay MS] [--trie MIB] [--dag FILE]
+ * [--socket PATH]</code></p>
+ */
+public class LoadGenerator {
+    /* Probability that a patient reports a symptom of the disease they actually have */
+    private static final double P_TRUE_SYMPTOM = 0.8;
+    /* Probability that a patient reports any other symptom */
+    private static final double P_OTHER_SYMPTOM = 0.1;
+
+    /* Engine under load */
+    private final LoadTarget target;
+    /* Static tables of the knowledge base (used to build the answer profiles) */
+    private final KnowledgeBase kb;
+    /* IDs of the symptoms with which a patient may present as an emergency */
+    private final int[] emergencySymptoms;
+
+    /* Number of concurrent virtual patients */
+    private int patients = 100;
+    /* Duration of the run, in milliseconds */
+    private long durationMillis = 30_000;
+    /* Total number of consultations after which the run stops (0 for no limit) */
+    private long maxInterviews = 0;
+    /* Distribution of the think time between answers */
+    private String think = "exp:200";
+    /* Probability that a consultation presents with an emergency */
+    private double emergencyRate = 0.05;
+    /* Interval between progress reports, in milliseconds */
+    private long intervalMillis = 5_000;
+    /* Seed of the random number generators */
+    private long seed = 1;
+
+    /* Latencies of the answers since the last progress report */
+    private final AtomicReference<LatencyHistogram> intervalLatency = new AtomicReference<>(new LatencyHistogram());
+    /* Latencies of all the answers */
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+    /* Number of consultations started (used to enforce the limit) */
+    private final AtomicLong started = new AtomicLong();
+    /* Number of consultations completed */
+    private final LongAdder completed = new LongAdder();
+    /* Number of answers given */
+    private final LongAdder answers = new LongAdder();
+    /* Number of consultations that ended with an emergency */
+    private final LongAdder emergencies = new LongAdder();
+    /* Number of errors, by exception class */
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    /* Largest heap usage observed, in bytes */
+    private final AtomicLong maxHeapUsed = new AtomicLong();
+
+    /* Set to true once the run should stop; false, otherwise */
+    private volatile boolean stopped;
+
+    /**
+     * Creates a load generator for the given target
+     *
+     * @param target engine under load
+     * @param kb static tables of the knowledge base used by the target
+     */
+    public LoadGenerator(LoadTarget target, KnowledgeBase kb) {
+        this.target = target;
+        this.kb = kb;
+        this.emergencySymptoms = emergencySymptoms(kb.getVitalSignRules());
+    }
+
+    /**
+     * Returns the IDs of the symptoms with which a patient may present as an emergency: the vital signs
+     * with at least one emergency band, and the symptoms that are an emergency when affirmed
+     *
+     * @param rules table of rules for the vital signs
+     * @return IDs of the symptoms with which a patient may present as an emergency
+     */
+    static int[] emergencySymptoms(VitalSignRules rules) {
+        List<Integer> ids = new ArrayList<>();
+
+        for (int b = 0; b < rules.getNumBands(); b++) {
+            int symptom = rules.getBandSymptom(b);
+            if ((rules.getBandCode(b) & VitalSignRules.EMERGENCY) != 0 && !ids.contains(symptom)) {
+                ids.add(symptom);
+            }
+        }
+
+        for (int symptom : rules.getEmergencyAnswers()) {
+            ids.add(symptom);
+        }
+
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Runs a load test according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        List<String[]> options = new ArrayList<>();
+        int subscribers = 0;
+        long subscriberDelay = 0;
+        long trieBytes = 0;
+        Path dagFile = null;
+        Path socket = null;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                if (args[k].equals("--kb")) {
+                    kbFile = Paths.get(args[++k]);
+                } else if (args[k].equals("--subscribers")) {
+                    subscribers = Integer.parseInt(args[++k]);
+                } else if (args[k].equals("--subscriber-delay")) {
+                    subscriberDelay = Long.parseLong(args[++k]);
+                } else if (args[k].equals("--trie")) {
+                    trieBytes = (long) (Double.parseDouble(args[++k]) * 1048576);
+                } else if (args[k].equals("--dag")) {
+                    dagFile = Paths.get(args[++k]);
+                } else if (args[k].equals("--socket")) {
+                    socket = Paths.get(args[++k]);
+                } else if (args[k].startsWith("--")) {
+                    options.add(new String[]{args[k], args[++k]});
+                } else {
+                    throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            KnowledgeBase kb = KnowledgeBaseLoader.load(kbFile);
+
+            DiagnosisEventPublisher events = null;
+            EventCounter[] counters = new EventCounter[subscribers];
+            if (subscribers > 0) {
+                events = new DiagnosisEventPublisher();
+                for (int k = 0; k < subscribers; k++) {
+                    counters[k] = new EventCounter(subscriberDelay);
+                    events.subscribe(counters[k]);
+                }
+            }
+
+            if ((trieBytes > 0 ? 1 : 0) + (dagFile != null ? 1 : 0) + (events != null ? 1 : 0)
+                    + (socket != null ? 1 : 0) > 1) {
+                throw new IllegalArgumentException("--trie, --dag, --socket and --subscribers cannot be combined");
+            }
+
+            DecisionDag dag = null;
+            if (dagFile != null) {
+                /* A DAG that cannot be used is not fatal: the sessions are served by the live engine. */
+                try {
+                    dag = DecisionDag.load(dagFile, kb);
+                    System.out.println("decision DAG: " + dag);
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Decision DAG not used, falling back to the live engine: " + e.getMessage());
+                }
+            }
+
+            DiagnosisTrie trie = trieBytes > 0 ? new DiagnosisTrie(kb, trieBytes) : null;
+            LoadTarget selected;
+            if (socket != null) {
+                selected = new SocketTarget(kb, socket);
+            } else if (trie != null) {
+                selected = new InProcessTarget(trie);
+            } else if (dag != null) {
+                selected = new InProcessTarget(dag);
+            } else {
+                selected = new InProcessTarget(kb, events);
+            }
+
+            try (LoadTarget target = selected) {
+                LoadGenerator generator;
+                generator = new LoadGenerator(target, kb);
+
+                for (String[] option : options) {
+                    generator.setOption(option[0], option[1]);
+                }
+
+                generator.run(System.out);
+            }
+
+            if (trie != null) {
+                System.out.println("trie: " + trie);
+            }
+
+            if (events != null) {
+                events.close();
+                System.out.printf(Locale.ROOT, "events: %d published, %d batches dropped%n",
+                        events.getPublished(), events.getDropped());
+                for (int k = 0; k < subscribers; k++) {
+                    counters[k].await();
+                    System.out.printf(Locale.ROOT, "subscriber %d: %s%n", k, counters[k]);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.LoadGenerator [--kb FILE] [--patients N] [--duration SECONDS] "
+                    + "[--interviews N] [--think none|fixed:MS|uniform:LO:HI|exp:MEAN] [--emergency-rate P] "
+                    + "[--interval SECONDS] [--seed N] [--subscribers N] [--subscriber-delay MS] [--trie MIB] "
+                    + "[--dag FILE] [--socket PATH]");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Load test failed: " + e);
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sets a parameter of the run given its command-line option
+     *
+     * @param option command-line option (such as <code>--patients</code>)
+     * @param value value of the option
+     * @throws IllegalArgumentException if the option is unknown or its value is invalid
+     */
+    public void setOption(String option, String value) {
+        switch (option) {
+            case "--patients":
+                patients = Integer.parseInt(value);
+                break;
+            case "--duration":
+                durationMillis = (long) (Double.parseDouble(value) * 1000);
+                break;
+            case "--interviews":
+                maxInterviews = Long.parseLong(value);
+                break;
+            case "--think":
+                thinkTime(value, new Random(0));
+                think = value;
+                break;
+            case "--emergency-rate":
+                emergencyRate = Double.parseDouble(value);
+                break;
+            case "--interval":
+                intervalMillis = (long) (Double.parseDouble(value) * 1000);
+                break;
+            case "--seed":
+                seed = Long.parseLong(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: " + option);
+        }
+    }
+
+    /**
+     * Runs the load test, printing progress reports and a final summary
+     *
+     * @param out stream to which the reports are printed
+     * @throws InterruptedException if interrupted while waiting for the virtual patients
+     */
+    public void run(PrintStream out) throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        out.printf(Locale.ROOT, "Target: %s; %d patients, think time %s, emergency rate %.2f, seed %d%n",
+                target.getName(), patients, think, emergencyRate, seed);
+        out.println("elapsed  interviews  answers/s  p50(us)  p99(us)  errors  heap(MiB)");
+
+        Thread[] threads = new Thread[patients];
+        for (int p = 0; p < patients; p++) {
+            int patient = p;
+            threads[p] = Thread.ofVirtual().name("patient-" + p).start(() -> simulate(patient));
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + durationMillis * 1_000_000;
+        long lastReport = start;
+        long lastAnswers = 0;
+
+        while (!stopped) {
+            long now = System.nanoTime();
+            /* Wake up at least every 100 ms to check whether the limit on consultations has been reached. */
+            long wait = Math.min(deadline - now, lastReport + intervalMillis * 1_000_000 - now);
+            wait = Math.min(wait, 100_000_000);
+
+            if (wait > 0) {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+
+            now = System.nanoTime();
+            if (now >= deadline || (maxInterviews > 0 && completed.sum() + errorCount() >= maxInterviews)) {
+                stopped = true;
+            }
+
+            if (now - lastReport >= intervalMillis * 1_000_000 || stopped) {
+                long heapUsed = memory.getHeapMemoryUsage().getUsed();
+                maxHeapUsed.accumulateAndGet(heapUsed, Math::max);
+
+                LatencyHistogram h = intervalLatency.getAndSet(new LatencyHistogram());
+                long answered = answers.sum();
+
+                out.printf(Locale.ROOT, "%6.1fs  %10d  %9.0f  %7.1f  %7.1f  %6d  %9.1f%n", (now - start) / 1e9,
+                        completed.sum(), (answered - lastAnswers) / ((now - lastReport) / 1e9),
+                        h.getPercentile(50) / 1e3, h.getPercentile(99) / 1e3, errorCount(), heapUsed / 1048576.0);
+
+                lastReport = now;
+                lastAnswers = answered;
+            }
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        out.println("== Summary");
+        out.printf(Locale.ROOT, "interviews: %d completed (%.1f/s), %d with an emergency%n", completed.sum(),
+                completed.sum() / elapsed, emergencies.sum());
+        out.printf(Locale.ROOT, "answers: %d (%.1f/s)%n", answers.sum(), answers.sum() / elapsed);
+        out.println("answer latency: " + totalLatency);
+        out.printf(Locale.ROOT, "max heap used: %.1f MiB%n", maxHeapUsed.get() / 1048576.0);
+        out.println("errors: " + (errors.isEmpty() ? "none" : new TreeMap<>(errors)));
+    }
+
+    /**
+     * Runs consultations for one virtual patient until the run stops
+     *
+     * @param patient number of the virtual patient
+     */
+    private void simulate(int patient) {
+        for (long n = 0; !stopped; n++) {
+            if (maxInterviews > 0 && started.incrementAndGet() > maxInterviews) {
+                return;
+            }
+
+            /* The profile depends only on the seed, the patient number, and the consultation number. */
+            Random random = new Random(seed * 1_000_003L + patient * 65_537L + n);
+
+            try {
+                interview(patient, random);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                errors.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+            }
+        }
+    }
+
+    /**
+     * Goes through one consultation with a randomly drawn profile
+     *
+     * @param patient number of the virtual patient
+     * @param random random number generator for the profile, the answers, and the think times
+     * @throws IOException if the target cannot be reached
+     * @throws InterruptedException if interrupted during a think time
+     */
+    private void interview(int patient, Random random) throws IOException, InterruptedException {
+        double age = random.nextInt(90);
+        String sex = random.nextBoolean() ? "Male" : "Female";
+
+        boolean[] hasSymptom = new boolean[kb.getNumSymptoms()];
+        for (int s : kb.getDiseaseSymptoms(random.nextInt(kb.getNumDiseases()))) {
+            hasSymptom[s] = random.nextDouble() < P_TRUE_SYMPTOM;
+        }
+
+        /* An emergency presents as exactly one of the emergency symptoms. */
+        int emergency = -1;
+        if (emergencySymptoms.length > 0 && random.nextDouble() < emergencyRate) {
+            emergency = emergencySymptoms[random.nextInt(emergencySymptoms.length)];
+        }
+
+        long t = System.nanoTime();
+        LoadTarget.Interview interview = target.start("Patient " + patient, age, sex);
+        record(System.nanoTime() - t);
+
+        String symptom;
+        while ((symptom = interview.getSymptom()) != null) {
+            long pause = thinkTime(think, random);
+            if (pause > 0) {
+                Thread.sleep(pause);
+            }
+
+            int id = kb.getSymptomId(symptom);
+            boolean yes = (id >= 0 && hasSymptom[id]) || random.nextDouble() < P_OTHER_SYMPTOM;
+            String answer = answer(kb.getVitalSignRules(), id, yes, id >= 0 && id == emergency, age,
+                    VitalSignRules.sexCode(sex), random);
+
+            t = System.nanoTime();
+            interview.answer(answer);
+            record(System.nanoTime() - t);
+            answers.increment();
+
+            if (stopped) {
+                return;
+            }
+        }
+
+        interview.getFinalDiagnosis();
+        if (interview.getEmergency()) {
+            emergencies.increment();
+        }
+        completed.increment();
+    }
+
+    /**
+     * Returns the answer of a patient to the inquiry about a symptom
+     *
+     * <p>Vital signs are answered with a reading drawn uniformly from their valid range until the table of
+     * rules evaluates it to the wanted answer code (an emergency, a positive, or a negative reading); any
+     * other symptom is answered with <code>"yes"</code> or <code>"no"</code>.</p>
+     *
+     * @param rules table of rules for the vital signs
+     * @param symptom ID of the symptom
+     * @param yes <code>true</code> if the patient has the symptom; <code>false</code>, otherwise
+     * @param emergency <code>true</code> if the patient presents with this symptom as an emergency;
+     * <code>false</code>, otherwise
+     * @param age age of the patient
+     * @param sex code of the sex of the patient (see {@link VitalSignRules#sexCode(String)})
+     * @param random random number generator
+     * @return answer of the patient
+     */
+    static String answer(VitalSignRules rules, int symptom, boolean yes, boolean emergency, double age, int sex,
+                         Random random) {
+        if (symptom < 0 || !rules.isNumeric(symptom)) {
+            return yes || emergency ? "yes" : "no";
+        }
+
+        int wanted = emergency ? VitalSignRules.EMERGENCY : yes ? VitalSignRules.POSITIVE : 0;
+        int mask = emergency ? VitalSignRules.EMERGENCY : VitalSignRules.POSITIVE | VitalSignRules.EMERGENCY;
+        double min = rules.getMin(symptom);
+        double max = rules.getMax(symptom);
+
+        /* Fall back to the last reading drawn if no reading in the range evaluates to the wanted code. */
+        String answer = null;
+        for (int attempt = 0; attempt < 1000; attempt++) {
+            answer = String.format(Locale.ROOT, "%.1f", min + (max - min) * random.nextDouble());
+            if ((rules.evaluate(symptom, Double.parseDouble(answer), age, sex) & mask) == wanted) {
+                break;
+            }
+        }
+
+        return answer;
+    }
+
+    /**
+     * Returns a think time drawn from the given distribution
+     *
+     * @param spec distribution (<code>none</code>, <code>fixed:MS</code>, <code>uniform:LO:HI</code>, or
+     * <code>exp:MEAN</code>, in milliseconds)
+     * @param random random number generator
+     * @return think time, in milliseconds
+     * @throws IllegalArgumentException if the distribution is unknown
+     */
+    private static long thinkTime(String spec, Random random) {
+        String[] parts = spec.split(":");
+
+        if (parts.length == 1 && parts[0].equals("none")) {
+            return 0;
+        } else if (parts.length == 2 && parts[0].equals("fixed")) {
+            return Long.parseLong(parts[1]);
+        } else if (parts.length == 3 && parts[0].equals("uniform")) {
+            long lo = Long.parseLong(parts[1]);
+            return lo + (long) ((Long.parseLong(parts[2]) - lo) * random.nextDouble());
+        } else if (parts.length == 2 && parts[0].equals("exp")) {
+            return (long) (-Double.parseDouble(parts[1]) * Math.log(1 - random.nextDouble()));
+        }
+
+        throw new IllegalArgumentException("Unknown think time distribution: " + spec);
+    }
+
+    /**
+     * Records the latency of a call to the engine
+     *
+     * @param nanos latency, in nanoseconds
+     */
+    private void record(long nanos) {
+        intervalLatency.get().record(nanos);
+        totalLatency.record(nanos);
+    }
+
+    /**
+     * Returns the total number of errors
+     *
+     * @return total number of errors
+     */
+    private long errorCount() {
+        long count = 0;
+
+        for (LongAdder adder : errors.values()) {
+            count += adder.sum();
+        }
+
+        return count;
+    }
+
+    /**
+     * Subscriber to the event stream that counts the events it receives, optionally spending some time on
+     * every batch to simulate a slow consumer
+     */
+    private static class EventCounter implements Flow.Subscriber<List<DiagnosisEvent>> {
+        /* Time spent on every batch, in milliseconds */
+        private final long delay;
+        /* Released once the stream completes */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /* Subscription to the stream */
+        private Flow.Subscription subscription;
+        /* Number of batches received */
+        private long batches;
+        /* Number of events received, by type */
+        private final long[] counts = new long[DiagnosisEvent.Type.values().length];
+
+        /**
+         * Creates a subscriber spending the given time on every batch
+         *
+         * @param delay time spent on every batch, in milliseconds
+         */
+        EventCounter(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<DiagnosisEvent> batch) {
+            batches++;
+            for (DiagnosisEvent event : batch) {
+                counts[event.getType().ordinal()]++;
+            }
+
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        /**
+         * Waits (for at most 10 seconds) until the stream completes
+         *
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void await() throws InterruptedException {
+            done.await(10, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(batches).append(" batches");
+
+            for (DiagnosisEvent.Type type : DiagnosisEvent.Type.values()) {
+                sb.append(", ").append(counts[type.ordinal()]).append(' ').append(type);
+            }
+
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package tools;
+
+import java.io.IOException;
+
+/**
+ * Interface for the <b>diagnosis engines driven by {@link LoadGenerator}</b>, whether running in the same
+ * process or behind a local endpoint
+ */
+public interface LoadTarget extends AutoCloseable {
+    /**
+     * Returns a short description of the target (used in reports)
+     *
+     * @return short description of the target
+     */
+    String getName();
+
+    /**
+     * Starts a consultation with a patient
+     *
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @return consultation with the patient
+     * @throws IOException if the target cannot be reached
+     */
+    Interview start(String name, double age, String sex) throws IOException;
+
+    /**
+     * Releases the resources held by the target
+     *
+     * @throws IOException if the resources cannot be released
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Interface for a <b>consultation in progress</b> on a target
+     */
+    interface Interview {
+        /**
+         * Returns the Prolog atom naming the current symptom being asked, or <code>null</code> if the
+         * consultation has ended
+         *
+         * @return Prolog atom naming the current symptom, or <code>null</code> if the consultation has ended
+         */
+        String getSymptom();
+
+        /**
+         * Records the patient's response to the current symptom and moves to the next question
+         *
+         * @param answer response of the patient
+         * @throws IOException if the target cannot be reached
+         */
+        void answer(String answer) throws IOException;
+
+        /**
+         * Returns <code>true</code> if a symptom indicative of an emergency has been reported;
+         * <code>false</code>, otherwise
+         *
+         * @return <code>true</code> if a symptom indicative of an emergency has been reported;
+         * <code>false</code>, otherwise
+         */
+        boolean getEmergency();
+
+        /**
+         * Returns the final diagnosis once the consultation has ended
+         *
+         * @return final diagnosis
+         * @throws IOException if the target cannot be reached
+         */
+        String getFinalDiagnosis() throws IOException;
+    }
+}
@@ -0,0 +1,145 @@
+package tools;
+
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.KnowledgeBaseParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Build-time tool that <b>generates the GraalVM native-image configuration</b> of the headless diagnosis
+ * engine (see {@link HeadlessEngine}) into a directory of compiled classes
+ *
+ * <p>Three files are written in <code>META-INF/native-image/ehrlich/headless</code>, where
+ * <code>native-image</code> picks them up from the class path:</p>
+ * <ul>
+ *     <li><code>native-image.properties</code>, with the name of the image, its main class, and
+ *     <code>--no-fallback</code> (the build fails instead of silently producing an image that needs a
+ *     JVM)</li>
+ *     <li><code>resource-config.json</code>, which embeds the knowledge base, copied next to the classes as
+ *     {@link HeadlessEngine#RESOURCE}</li>
+ *     <li><code>reflect-config.json</code>, which registers the constructor of the class generated by
+ *     <code>tools.KnowledgeBaseCompiler</code> (instantiated reflectively by {@link KnowledgeBaseLoader}) if it
+ *     is on the class path and matches the knowledge base, so the image starts without parsing the knowledge
+ *     base</li>
+ * </ul>
+ *
+ * <p>The knowledge base is validated before anything is written, so an inconsistent knowledge base fails the
+ * build. Run this tool with the directory of compiled classes on its class path.</p>
+ *
+ * <p>Usage: <code>java tools.NativeImageConfig [--kb FILE] --out CLASSES_DIR</code></p>
+ */
+public class NativeImageConfig {
+    /* Directory of the configuration, relative to the directory of compiled classes */
+    private static final String CONFIG_DIR = "META-INF/native-image/ehrlich/headless";
+    /* Name of the image */
+    private static final String IMAGE_NAME = "ehrlich-headless";
+
+    /**
+     * Generates the configuration according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        Path output = null;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--out":
+                        output = Paths.get(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (output == null) {
+                throw new IllegalArgumentException("Give the directory of compiled classes with --out");
+            }
+
+            /* Validate the knowledge base, and check whether the generated class matches it. */
+            byte[] bytes = Files.readAllBytes(kbFile);
+            KnowledgeBaseParser.parse(kbFile.getFileName().toString(), bytes);
+            KnowledgeBase compiled = KnowledgeBaseLoader.loadCompiled();
+            boolean useCompiled = compiled != null && compiled.getVersion() == KnowledgeBaseParser.fingerprint(bytes);
+
+            Path resource = output.resolve(HeadlessEngine.RESOURCE.substring(1));
+            Files.createDirectories(resource.getParent());
+            Files.write(resource, bytes);
+
+            Path config = output.resolve(CONFIG_DIR);
+            Files.createDirectories(config);
+            write(config.resolve("native-image.properties"), nativeImageProperties());
+            write(config.resolve("resource-config.json"), resourceConfig());
+            write(config.resolve("reflect-config.json"), reflectConfig(useCompiled));
+
+            System.err.println("Wrote the native-image configuration to " + config);
+            if (!useCompiled) {
+                System.err.println("No up-to-date " + KnowledgeBaseLoader.COMPILED_CLASS + " on the class path: "
+                        + "the image will parse the embedded knowledge base when it starts");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.NativeImageConfig [--kb FILE] --out CLASSES_DIR");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Failed to generate the configuration: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the contents of <code>native-image.properties</code>
+     *
+     * @return contents of the file
+     */
+    private static String nativeImageProperties() {
+        return "ImageName = " + IMAGE_NAME + "\nArgs = --no-fallback -H:Class=" + HeadlessEngine.class.getName()
+                + "\n";
+    }
+
+    /**
+     * Returns the contents of <code>resource-config.json</code>
+     *
+     * @return contents of the file
+     */
+    private static String resourceConfig() {
+        return "{\n  \"resources\": {\n    \"includes\": [\n      {\"pattern\": \"\\\\Q"
+                + HeadlessEngine.RESOURCE.substring(1) + "\\\\E\"}\n    ]\n  }\n}\n";
+    }
+
+    /**
+     * Returns the contents of <code>reflect-config.json</code>
+     *
+     * @param useCompiled <code>true</code> if the generated knowledge base is used; <code>false</code>,
+     *                    otherwise
+     * @return contents of the file
+     */
+    private static String reflectConfig(boolean useCompiled) {
+        if (!useCompiled) {
+            return "[\n]\n";
+        }
+        return "[\n  {\n    \"name\": \"" + KnowledgeBaseLoader.COMPILED_CLASS + "\",\n"
+                + "    \"methods\": [{\"name\": \"<init>\", \"parameterTypes\": []}]\n  }\n]\n";
+    }
+
+    /**
+     * Writes a text file in UTF-8
+     *
+     * @param file path of the file
+     * @param contents contents of the file
+     * @throws IOException if the file cannot be written
+     */
+    private static void write(Path file, String contents) throws IOException {
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,853 @@
+package tools;
+
+import expert.CFBatch;
+import expert.DiagnosisBatch;
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.VitalSignRules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <b>Monte Carlo simulator of a population of patients</b> going through the question flow of the expert
+ * system, used to calibrate the constants of the knowledge base (<code>cfValueRemove/1</code>,
+ * <code>cfValueConclude/1</code>, and the bands of <code>getDiagnosis/4</code>)
+ *
+ * <p>Each virtual patient has one of the diseases, drawn uniformly, and experiences each symptom with the
+ * prevalence given by the profile of that disease: by default, the symptoms of the disease have the same
+ * prevalence, and every other symptom has a background prevalence; a profile file may set the prevalence of
+ * any pair of disease and symptom. Whether the patient experiences a symptom is only drawn when it is asked.
+ * Vital signs are answered with readings drawn in their valid range. A fraction of the patients present as
+ * emergencies: they answer every symptom that can be indicative of an emergency as such.</p>
+ *
+ * <p>The patients are split into blocks of {@value #BLOCK_SIZE}, each with its own {@link SplittableRandom}
+ * split from the seed in order, and the blocks are run in parallel on a fork-join pool. The patients of a block
+ * are drawn first, and then answered in lockstep by a {@link DiagnosisBatch}, which follows the same flow as
+ * the GUI and updates the certainty factors of the patients asked the same symptom together (with the vector
+ * kernel of {@link CFBatch} if it is available). The results only depend on the seed, not on the number of
+ * threads nor on the kernel. With <code>--check</code>, the answers of every patient are recorded and replayed
+ * on the scalar kernel and on {@link DiagnosisSession}; the tool exits with status 1 if any certainty factor,
+ * number of questions, or emergency flag differs.</p>
+ *
+ * <p>Usage: <code>java tools.PopulationSimulator [--kb FILE] [--patients N] [--threads N] [--seed N]
+ * [--profiles FILE] [--prevalence P] [--background P] [--emergency P] [--check]</code></p>
+ */
+public class PopulationSimulator {
+    /**
+     * Number of patients simulated with the same random number generator
+     */
+    public static final int BLOCK_SIZE = 1024;
+
+    /* Number of blocks run by a task before it stops splitting */
+    private static final int BLOCKS_PER_TASK = 4;
+    /* Number of readings drawn before settling for the last one */
+    private static final int MAX_ATTEMPTS = 1000;
+    /* Bands of getDiagnosis/4, from the highest; the last one is the referral to a larger facility */
+    private static final String[] BANDS = {">= 0.99", ">= 0.7", ">= 0.5", "> 0.2", "referred"};
+    /* Number of diseases with the lowest accuracy printed */
+    private static final int WORST_DISEASES = 5;
+
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+    /* Symptoms whose prevalence is set for each disease, sorted by ID, and their prevalence */
+    private final int[][] profileSymptoms;
+    private final double[][] profilePrevalence;
+    /* Prevalence of the symptoms not in the profile of a disease */
+    private final double background;
+    /* Fraction of the patients presenting as emergencies */
+    private final double emergencyRate;
+    /* Set to true to replay every patient on the scalar kernel and on DiagnosisSession */
+    private boolean check;
+
+    /**
+     * Creates a simulator whose profiles give the same prevalence to the symptoms of each disease
+     *
+     * @param kb static tables of the knowledge base
+     * @param prevalence prevalence of the symptoms of each disease among its patients
+     * @param background prevalence of the other symptoms
+     * @param emergencyRate fraction of the patients presenting as emergencies
+     * @throws IllegalArgumentException if a prevalence or the fraction is not between 0 and 1
+     */
+    public PopulationSimulator(KnowledgeBase kb, double prevalence, double background, double emergencyRate) {
+        checkProbability("prevalence", prevalence);
+        checkProbability("background prevalence", background);
+        checkProbability("emergency rate", emergencyRate);
+
+        this.kb = kb;
+        this.background = background;
+        this.emergencyRate = emergencyRate;
+
+        profileSymptoms = new int[kb.getNumDiseases()][];
+        profilePrevalence = new double[kb.getNumDiseases()][];
+        for (int d = 0; d < kb.getNumDiseases(); d++) {
+            profileSymptoms[d] = kb.getDiseaseSymptoms(d).clone();
+            Arrays.sort(profileSymptoms[d]);
+            profilePrevalence[d] = new double[profileSymptoms[d].length];
+            Arrays.fill(profilePrevalence[d], prevalence);
+        }
+    }
+
+    /**
+     * Runs the simulator according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        Path profiles = null;
+        long numPatients = 1_000_000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        double prevalence = 0.8;
+        double background = 0.1;
+        double emergencyRate = 0.02;
+        boolean check = false;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--patients":
+                        numPatients = Long.parseLong(args[++k]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    case "--profiles":
+                        profiles = Paths.get(args[++k]);
+                        break;
+                    case "--prevalence":
+                        prevalence = Double.parseDouble(args[++k]);
+                        break;
+                    case "--background":
+                        background = Double.parseDouble(args[++k]);
+                        break;
+                    case "--emergency":
+                        emergencyRate = Double.parseDouble(args[++k]);
+                        break;
+                    case "--check":
+                        check = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (numPatients <= 0 || threads <= 0) {
+                throw new IllegalArgumentException("The number of patients and of threads must be positive");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.PopulationSimulator [--kb FILE] [--patients N] [--threads N] "
+                    + "[--seed N] [--profiles FILE] [--prevalence P] [--background P] [--emergency P] [--check]");
+            System.exit(2);
+        }
+
+        PopulationSimulator simulator = null;
+        try {
+            KnowledgeBase kb = KnowledgeBaseLoader.load(kbFile);
+            simulator = new PopulationSimulator(kb, prevalence, background, emergencyRate);
+            simulator.setCheck(check);
+            if (profiles != null) {
+                simulator.loadProfiles(profiles);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Failed to load the knowledge base or the profiles: " + e);
+            System.exit(1);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        Result result = simulator.run(numPatients, seed, pool);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        System.out.printf(Locale.ROOT, "%d patients on %d threads in %.1f s (%.0f patients/s, %s kernel), "
+                        + "seed %d%n", numPatients, threads, seconds, numPatients / seconds,
+                new CFBatch(simulator.kb.getNumDiseases(), 0).getKernelName(), seed);
+        System.out.print(result.format(simulator.kb));
+
+        if (result.getMismatches() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Sets whether the answers of every patient are recorded and replayed on the scalar kernel and on
+     * {@link DiagnosisSession}, counting the patients whose outcome differs (see {@link Result#getMismatches()})
+     *
+     * @param check <code>true</code> to replay every patient; <code>false</code>, otherwise
+     */
+    public void setCheck(boolean check) {
+        this.check = check;
+    }
+
+    /**
+     * Sets the prevalence of a symptom among the patients having a disease
+     *
+     * @param disease index of the disease
+     * @param symptom ID of the symptom
+     * @param prevalence prevalence of the symptom
+     * @throws IllegalArgumentException if the prevalence is not between 0 and 1
+     */
+    public void setPrevalence(int disease, int symptom, double prevalence) {
+        checkProbability("prevalence", prevalence);
+
+        int k = Arrays.binarySearch(profileSymptoms[disease], symptom);
+        if (k < 0) {
+            /* Insert the symptom, keeping the profile sorted. */
+            k = -k - 1;
+            int[] symptoms = new int[profileSymptoms[disease].length + 1];
+            double[] prevalences = new double[symptoms.length];
+            System.arraycopy(profileSymptoms[disease], 0, symptoms, 0, k);
+            System.arraycopy(profilePrevalence[disease], 0, prevalences, 0, k);
+            System.arraycopy(profileSymptoms[disease], k, symptoms, k + 1, symptoms.length - k - 1);
+            System.arraycopy(profilePrevalence[disease], k, prevalences, k + 1, symptoms.length - k - 1);
+            symptoms[k] = symptom;
+            profileSymptoms[disease] = symptoms;
+            profilePrevalence[disease] = prevalences;
+        }
+
+        profilePrevalence[disease][k] = prevalence;
+    }
+
+    /**
+     * Sets the prevalences listed in a profile file, one <code>disease,symptom,prevalence</code> line per pair
+     * (with the Prolog atoms naming the disease and the symptom); blank lines and lines starting with
+     * <code>#</code> are skipped
+     *
+     * @param file profile file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line is malformed or names an unknown disease or symptom
+     */
+    public void loadProfiles(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split(",");
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException(file + ":" + lineNumber + ": expected disease,symptom,"
+                            + "prevalence");
+                }
+
+                int disease = diseaseIndex(fields[0].trim());
+                int symptom = kb.getSymptomId(fields[1].trim());
+                if (disease < 0 || symptom < 0) {
+                    throw new IllegalArgumentException(file + ":" + lineNumber + ": unknown "
+                            + (disease < 0 ? "disease " + fields[0].trim() : "symptom " + fields[1].trim()));
+                }
+
+                setPrevalence(disease, symptom, Double.parseDouble(fields[2].trim()));
+            }
+        }
+    }
+
+    /**
+     * Simulates a population of patients
+     *
+     * @param numPatients number of patients
+     * @param seed seed of the population
+     * @param pool pool on which the blocks of patients are run
+     * @return results of the simulation
+     */
+    public Result run(long numPatients, long seed, ForkJoinPool pool) {
+        int numBlocks = (int) ((numPatients + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+        /* Split the generators in order, so that each block draws the same patients on any number of threads. */
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[numBlocks];
+        for (int b = 0; b < numBlocks; b++) {
+            randoms[b] = root.split();
+        }
+
+        Result[] results = new Result[numBlocks];
+        pool.invoke(new Blocks(numPatients, randoms, results, 0, numBlocks));
+
+        Result total = new Result(kb.getNumDiseases(), kb.getNumSymptoms());
+        for (Result result : results) {
+            total.add(result);
+        }
+        return total;
+    }
+
+    /**
+     * Simulates a block of patients
+     *
+     * @param from number of the first patient
+     * @param to number of the last patient (exclusive)
+     * @param random generator of the block
+     * @return results of the block
+     */
+    private Result runBlock(long from, long to, SplittableRandom random) {
+        Result result = new Result(kb.getNumDiseases(), kb.getNumSymptoms());
+        int size = (int) (to - from);
+
+        Patient[] patients = new Patient[size];
+        double[] ages = new double[size];
+        String[] sexes = new String[size];
+        for (int p = 0; p < size; p++) {
+            patients[p] = drawPatient(random);
+            ages[p] = patients[p].age;
+            sexes[p] = patients[p].sex;
+        }
+
+        /* Answers of every patient, in order, if they are replayed */
+        int[][] history = check ? new int[size][kb.getNumSymptoms()] : null;
+
+        DiagnosisBatch batch = new DiagnosisBatch(kb, ages, sexes);
+        int[] codes = new int[size];
+        while (!batch.isFinished()) {
+            for (int p = 0; p < size; p++) {
+                if (!batch.isFinished(p)) {
+                    codes[p] = answer(patients[p], batch.getSymptomId(p), random);
+                    if (history != null) {
+                        history[p][batch.getNumAnswers(p)] = codes[p];
+                    }
+                }
+            }
+            batch.step(codes);
+        }
+
+        for (int p = 0; p < size; p++) {
+            int diagnosed = batch.getDiagnosedDisease(p);
+            result.record(patients[p].disease, patients[p].emergency, diagnosed, batch.getCF(diagnosed, p),
+                    batch.getEmergency(p), batch.getNumAnswers(p));
+        }
+
+        if (history != null) {
+            replay(batch, ages, sexes, history, result);
+        }
+        return result;
+    }
+
+    /**
+     * Replays the answers of a block of patients on the scalar kernel and on {@link DiagnosisSession}, and
+     * counts the patients whose outcome differs from that of the batch
+     *
+     * @param batch finished batch of the block
+     * @param ages age of each patient
+     * @param sexes sex of each patient
+     * @param history answer codes of each patient, in order
+     * @param result results of the block, in which the replayed and mismatched patients are counted
+     */
+    private void replay(DiagnosisBatch batch, double[] ages, String[] sexes, int[][] history, Result result) {
+        DiagnosisBatch scalar = new DiagnosisBatch(kb, ages, sexes, false);
+        int[] codes = new int[ages.length];
+        while (!scalar.isFinished()) {
+            for (int p = 0; p < ages.length; p++) {
+                if (!scalar.isFinished(p)) {
+                    codes[p] = history[p][scalar.getNumAnswers(p)];
+                }
+            }
+            scalar.step(codes);
+        }
+
+        for (int p = 0; p < ages.length; p++) {
+            DiagnosisSession session = new DiagnosisSession(kb, "Patient", ages[p], sexes[p]);
+            while (!session.isFinished()) {
+                session.answerCode(history[p][session.getNumAnswers()]);
+            }
+
+            boolean same = scalar.getNumAnswers(p) == batch.getNumAnswers(p)
+                    && session.getNumAnswers() == batch.getNumAnswers(p)
+                    && scalar.getEmergency(p) == batch.getEmergency(p)
+                    && session.getEmergency() == batch.getEmergency(p);
+            for (int d = 0; d < kb.getNumDiseases() && same; d++) {
+                same = Double.compare(scalar.getCF(d, p), batch.getCF(d, p)) == 0
+                        && Double.compare(session.getCF(d), batch.getCF(d, p)) == 0;
+            }
+
+            result.replayed++;
+            if (!same) {
+                result.mismatches++;
+            }
+        }
+    }
+
+    /**
+     * Draws a patient: the disease, whether the patient presents as an emergency, the age, and the sex
+     *
+     * @param random random number generator
+     * @return patient
+     */
+    public Patient drawPatient(SplittableRandom random) {
+        int disease = random.nextInt(kb.getNumDiseases());
+        boolean emergency = random.nextDouble() < emergencyRate;
+        double age = random.nextInt(90);
+        String sex = random.nextBoolean() ? "male" : "female";
+        return new Patient(disease, emergency, age, sex);
+    }
+
+    /**
+     * Draws the answer code of a patient to a symptom
+     *
+     * @param patient patient
+     * @param symptom ID of the symptom
+     * @param random random number generator
+     * @return answer code
+     */
+    public int answer(Patient patient, int symptom, SplittableRandom random) {
+        VitalSignRules rules = kb.getVitalSignRules();
+
+        if (!rules.isNumeric(symptom)) {
+            boolean yes = random.nextDouble() < prevalence(patient.disease, symptom);
+            if (patient.emergency && (rules.evaluate(symptom, true) & VitalSignRules.EMERGENCY) != 0) {
+                yes = true;
+            }
+            return rules.evaluate(symptom, yes);
+        }
+
+        return rules.evaluate(symptom, answerReading(patient, symptom, random), patient.age, patient.sexCode);
+    }
+
+    /**
+     * Draws the reading of a patient for a vital sign (with the same draws as {@link #answer}, whose code is
+     * that of the reading)
+     *
+     * @param patient patient
+     * @param symptom ID of the vital sign
+     * @param random random number generator
+     * @return reading
+     */
+    public double answerReading(Patient patient, int symptom, SplittableRandom random) {
+        VitalSignRules rules = kb.getVitalSignRules();
+        boolean yes = random.nextDouble() < prevalence(patient.disease, symptom);
+
+        if (patient.emergency) {
+            double value = reading(rules, symptom, VitalSignRules.EMERGENCY, VitalSignRules.EMERGENCY, patient.age,
+                    patient.sexCode, random);
+            if ((rules.evaluate(symptom, value, patient.age, patient.sexCode) & VitalSignRules.EMERGENCY) != 0) {
+                return value;
+            }
+        }
+
+        return reading(rules, symptom, yes ? VitalSignRules.POSITIVE : 0,
+                VitalSignRules.POSITIVE | VitalSignRules.EMERGENCY, patient.age, patient.sexCode, random);
+    }
+
+    /**
+     * Draws readings of a vital sign until one evaluates to the wanted code, and returns it
+     *
+     * @param rules table of rules of the knowledge base
+     * @param symptom ID of the vital sign
+     * @param wanted wanted bits of the answer code
+     * @param mask bits of the answer code compared with the wanted ones
+     * @param age age of the patient
+     * @param sex code of the sex of the patient
+     * @param random generator of the block
+     * @return last reading drawn
+     */
+    private static double reading(VitalSignRules rules, int symptom, int wanted, int mask, double age, int sex,
+                                  SplittableRandom random) {
+        double min = rules.getMin(symptom);
+        double max = rules.getMax(symptom);
+
+        double value = min;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            value = min + (max - min) * random.nextDouble();
+            if ((rules.evaluate(symptom, value, age, sex) & mask) == wanted) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private double prevalence(int disease, int symptom) {
+        int k = Arrays.binarySearch(profileSymptoms[disease], symptom);
+        return k >= 0 ? profilePrevalence[disease][k] : background;
+    }
+
+    private int diseaseIndex(String key) {
+        for (int d = 0; d < kb.getNumDiseases(); d++) {
+            if (kb.getDiseaseKey(d).equals(key)) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkProbability(String what, double p) {
+        if (!(p >= 0 && p <= 1)) {
+            throw new IllegalArgumentException("The " + what + " must be between 0 and 1: " + p);
+        }
+    }
+
+    /**
+     * Task simulating a range of blocks, split in halves until it is small
+     */
+    @SuppressWarnings("serial")     /* Tasks are forked within a pool, never serialized. */
+    private final class Blocks extends RecursiveAction {
+        private final long numPatients;
+        private final SplittableRandom[] randoms;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        Blocks(long numPatients, SplittableRandom[] randoms, Result[] results, int from, int to) {
+            this.numPatients = numPatients;
+            this.randoms = randoms;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BLOCKS_PER_TASK) {
+                for (int b = from; b < to; b++) {
+                    results[b] = runBlock((long) b * BLOCK_SIZE, Math.min(numPatients, (long) (b + 1) * BLOCK_SIZE),
+                            randoms[b]);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Blocks(numPatients, randoms, results, from, middle),
+                        new Blocks(numPatients, randoms, results, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Virtual patient of a simulation
+     */
+    public static final class Patient {
+        private final int disease;
+        private final boolean emergency;
+        private final double age;
+        private final String sex;
+        private final int sexCode;
+
+        private Patient(int disease, boolean emergency, double age, String sex) {
+            this.disease = disease;
+            this.emergency = emergency;
+            this.age = age;
+            this.sex = sex;
+            this.sexCode = VitalSignRules.sexCode(sex);
+        }
+
+        /**
+         * Returns the index of the disease of the patient
+         *
+         * @return index of the disease
+         */
+        public int getDisease() {
+            return disease;
+        }
+
+        /**
+         * Returns <code>true</code> if the patient presents as an emergency; <code>false</code>, otherwise
+         *
+         * @return <code>true</code> if the patient presents as an emergency; <code>false</code>, otherwise
+         */
+        public boolean isEmergency() {
+            return emergency;
+        }
+
+        /**
+         * Returns the age of the patient
+         *
+         * @return age of the patient
+         */
+        public double getAge() {
+            return age;
+        }
+
+        /**
+         * Returns the sex of the patient (<code>"male"</code> or <code>"female"</code>)
+         *
+         * @return sex of the patient
+         */
+        public String getSex() {
+            return sex;
+        }
+    }
+
+    /**
+     * Results of a simulation: accuracy, number of questions asked, emergencies, and outcomes per band of
+     * <code>getDiagnosis/4</code>
+     */
+    public static final class Result {
+        /* Number of patients, and of patients whose disease was ranked first */
+        private long patients;
+        private long correct;
+        /* Number of patients, and of patients whose disease was ranked first, per band of getDiagnosis/4 */
+        private final long[] bandPatients = new long[BANDS.length];
+        private final long[] bandCorrect = new long[BANDS.length];
+        /* Number of patients, and of patients whose disease was ranked first, per disease */
+        private final long[] diseasePatients;
+        private final long[] diseaseCorrect;
+        /* Number of patients per number of questions asked */
+        private final long[] questions;
+        /* Number of patients presenting as emergencies, and how many of them were flagged */
+        private long emergencies;
+        private long flagged;
+        /* Number of patients flagged as emergencies without presenting as such */
+        private long falseEmergencies;
+        /* Number of patients replayed on the scalar kernel and on DiagnosisSession, and of those whose outcome
+        differed */
+        private long replayed;
+        private long mismatches;
+
+        /**
+         * Creates empty results
+         *
+         * @param numDiseases number of diseases in the knowledge base
+         * @param numSymptoms number of symptoms in the knowledge base
+         */
+        Result(int numDiseases, int numSymptoms) {
+            diseasePatients = new long[numDiseases];
+            diseaseCorrect = new long[numDiseases];
+            questions = new long[numSymptoms + 1];
+        }
+
+        /**
+         * Returns the number of patients simulated
+         *
+         * @return number of patients
+         */
+        public long getPatients() {
+            return patients;
+        }
+
+        /**
+         * Returns the fraction of the patients whose disease was ranked first
+         *
+         * @return accuracy of the diagnoses
+         */
+        public double getAccuracy() {
+            return (double) correct / patients;
+        }
+
+        /**
+         * Returns the fraction of the patients referred to a larger facility, without a diagnosis
+         *
+         * @return fraction of the patients referred
+         */
+        public double getReferralRate() {
+            return (double) bandPatients[BANDS.length - 1] / patients;
+        }
+
+        /**
+         * Returns the mean number of questions asked per patient
+         *
+         * @return mean number of questions
+         */
+        public double getMeanQuestions() {
+            long sum = 0;
+            for (int q = 0; q < questions.length; q++) {
+                sum += q * questions[q];
+            }
+            return (double) sum / patients;
+        }
+
+        /**
+         * Returns the smallest number of questions within which the given percentage of the patients were
+         * diagnosed
+         *
+         * @param percentile percentage (between 0 and 100)
+         * @return percentile of the number of questions
+         */
+        public int getQuestionsPercentile(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * patients);
+            long seen = 0;
+            for (int q = 0; q < questions.length; q++) {
+                seen += questions[q];
+                if (seen >= Math.max(1, rank)) {
+                    return q;
+                }
+            }
+            return questions.length - 1;
+        }
+
+        /**
+         * Returns the fraction of the patients not presenting as emergencies who were flagged as such
+         *
+         * @return false-emergency rate
+         */
+        public double getFalseEmergencyRate() {
+            return (double) falseEmergencies / (patients - emergencies);
+        }
+
+        /**
+         * Returns the fraction of the patients presenting as emergencies who were not flagged as such
+         *
+         * @return missed-emergency rate
+         */
+        public double getMissedEmergencyRate() {
+            return (double) (emergencies - flagged) / emergencies;
+        }
+
+        /**
+         * Returns the number of patients replayed on the scalar kernel and on {@link DiagnosisSession} whose
+         * outcome differed from that of the batch (always 0 unless the patients are replayed)
+         *
+         * @return number of mismatched patients
+         */
+        public long getMismatches() {
+            return mismatches;
+        }
+
+        /**
+         * Renders the results as a report
+         *
+         * @param kb static tables of the knowledge base
+         * @return report of the results
+         */
+        public String format(KnowledgeBase kb) {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append(String.format(Locale.ROOT, "cfValueRemove %s, cfValueConclude %s%n", kb.getCFValueRemove(),
+                    kb.getCFValueConclude()));
+            sb.append(String.format(Locale.ROOT, "accuracy: %.2f%% (disease of the patient ranked first)%n",
+                    100 * getAccuracy()));
+            sb.append(String.format(Locale.ROOT, "referred: %.2f%% (no diagnosis)%n", 100 * getReferralRate()));
+            sb.append(String.format(Locale.ROOT, "questions: mean=%.1f p50=%d p90=%d p99=%d max=%d%n",
+                    getMeanQuestions(), getQuestionsPercentile(50), getQuestionsPercentile(90),
+                    getQuestionsPercentile(99), getQuestionsPercentile(100)));
+            sb.append(String.format(Locale.ROOT, "emergencies: %.2f%% of the patients, %.2f%% missed; false "
+                    + "emergencies: %.2f%% of the other patients%n", 100.0 * emergencies / patients,
+                    emergencies == 0 ? 0 : 100 * getMissedEmergencyRate(), 100 * getFalseEmergencyRate()));
+
+            sb.append(String.format("%-12s %10s %9s %9s%n", "band", "patients", "share", "accuracy"));
+            for (int b = 0; b < BANDS.length; b++) {
+                sb.append(String.format(Locale.ROOT, "%-12s %10d %8.2f%% %8.2f%%%n", BANDS[b], bandPatients[b],
+                        100.0 * bandPatients[b] / patients,
+                        bandPatients[b] == 0 ? 0 : 100.0 * bandCorrect[b] / bandPatients[b]));
+            }
+
+            /* Select the diseases with the lowest accuracy. */
+            Integer[] diseases = new Integer[diseasePatients.length];
+            for (int d = 0; d < diseases.length; d++) {
+                diseases[d] = d;
+            }
+            Arrays.sort(diseases, (a, b) -> Double.compare(accuracy(a), accuracy(b)));
+            sb.append("lowest accuracy:");
+            for (int k = 0; k < Math.min(WORST_DISEASES, diseases.length); k++) {
+                sb.append(String.format(Locale.ROOT, " %s %.1f%%", kb.getDiseaseKey(diseases[k]),
+                        100 * accuracy(diseases[k])));
+            }
+            sb.append('\n');
+
+            if (replayed > 0) {
+                sb.append(String.format("check: %d patients replayed on the scalar kernel and DiagnosisSession, "
+                        + "%d mismatches%n", replayed, mismatches));
+            }
+
+            return sb.toString();
+        }
+
+        private double accuracy(int disease) {
+            return diseasePatients[disease] == 0 ? 1 : (double) diseaseCorrect[disease] / diseasePatients[disease];
+        }
+
+        /**
+         * Records the outcome of a finished consultation
+         *
+         * @param disease index of the disease of the patient
+         * @param emergency <code>true</code> if the patient presents as an emergency; <code>false</code>,
+         * otherwise
+         * @param session finished consultation
+         */
+        void record(int disease, boolean emergency, DiagnosisSession session) {
+            int diagnosed = session.getDiagnosedDisease();
+            record(disease, emergency, diagnosed, session.getCF(diagnosed), session.getEmergency(),
+                    session.getNumAnswers());
+        }
+
+        /**
+         * Records the outcome of a finished consultation
+         *
+         * @param disease index of the disease of the patient
+         * @param emergency <code>true</code> if the patient presents as an emergency; <code>false</code>,
+         * otherwise
+         * @param diagnosed index of the disease with the highest certainty factor
+         * @param cf highest certainty factor
+         * @param raised <code>true</code> if the consultation flagged an emergency; <code>false</code>,
+         * otherwise
+         * @param numAnswers number of questions asked
+         */
+        void record(int disease, boolean emergency, int diagnosed, double cf, boolean raised, int numAnswers) {
+            int hit = diagnosed == disease ? 1 : 0;
+
+            /* Same bands as getDiagnosis/4; an emergency is never referred. */
+            int band;
+            if (cf >= 0.99) {
+                band = 0;
+            } else if (cf >= 0.7) {
+                band = 1;
+            } else if (cf >= 0.5) {
+                band = 2;
+            } else if (cf > 0.2 || raised) {
+                band = 3;
+            } else {
+                band = 4;
+            }
+
+            patients++;
+            correct += hit;
+            bandPatients[band]++;
+            bandCorrect[band] += hit;
+            diseasePatients[disease]++;
+            diseaseCorrect[disease] += hit;
+            questions[numAnswers]++;
+
+            if (emergency) {
+                emergencies++;
+                flagged += raised ? 1 : 0;
+            } else if (raised) {
+                falseEmergencies++;
+            }
+        }
+
+        /**
+         * Adds the outcomes recorded in other results
+         *
+         * @param other other results
+         */
+        void add(Result other) {
+            patients += other.patients;
+            correct += other.correct;
+            for (int b = 0; b < bandPatients.length; b++) {
+                bandPatients[b] += other.bandPatients[b];
+                bandCorrect[b] += other.bandCorrect[b];
+            }
+            for (int d = 0; d < diseasePatients.length; d++) {
+                diseasePatients[d] += other.diseasePatients[d];
+                diseaseCorrect[d] += other.diseaseCorrect[d];
+            }
+            for (int q = 0; q < questions.length; q++) {
+                questions[q] += other.questions[q];
+            }
+            emergencies += other.emergencies;
+            flagged += other.flagged;
+            falseEmergencies += other.falseEmergencies;
+            replayed += other.replayed;
+            mismatches += other.mismatches;
+        }
+    }
+}
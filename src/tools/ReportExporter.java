@@ -0,0 +1,461 @@
+package tools;
+
+import expert.DiagnosisCache;
+import expert.DiagnosisResult;
+import expert.KnowledgeBase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * <b>Streaming exporter of per-patient reports</b> for a batch of patient records: the demographics, the final
+ * diagnosis (worded as by <code>finalDiagnosis/5</code>), the emergency flag, and the table of certainty factors
+ *
+ * <p>The records (in the format of {@link BatchRescorer}) are read in chunks of {@value #CHUNK_SIZE}. Each chunk
+ * is diagnosed and rendered on the executor into a single buffer of UTF-8 bytes, and the buffers are written to
+ * the channel in the order of the records. At most a fixed window of chunks is in flight, so memory stays
+ * constant however many records are exported: neither the input nor the document is ever held whole.</p>
+ *
+ * <p>Three formats are supported:</p>
+ * <ul>
+ *     <li>{@link Format#HTML}: a printable document with one section per patient;</li>
+ *     <li>{@link Format#CSV}: a header, then one row per patient, with one column per disease; and</li>
+ *     <li>{@link Format#NDJSON}: one JSON object per line per patient.</li>
+ * </ul>
+ * <p>Malformed records are reported to the given listener, in order, and skipped.</p>
+ */
+public class ReportExporter {
+    /**
+     * Number of records diagnosed and rendered as one task
+     */
+    public static final int CHUNK_SIZE = 256;
+
+    /**
+     * Format of the reports
+     */
+    public enum Format {
+        /**
+         * Printable HTML document, with one section per patient
+         */
+        HTML,
+        /**
+         * Comma-separated values, with a header and one row per patient
+         */
+        CSV,
+        /**
+         * Newline-delimited JSON, with one object per patient
+         */
+        NDJSON;
+
+        /**
+         * Returns the format of the given name, case-insensitive
+         *
+         * @param name name of the format
+         * @return format
+         * @throws IllegalArgumentException if the format is unknown
+         */
+        public static Format of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown format: " + name + " (expected html, csv, or ndjson)");
+            }
+        }
+    }
+
+    /**
+     * Listener of the records that could not be exported
+     */
+    public interface RejectionListener {
+        /**
+         * Called, in the order of the records, for every record that could not be exported
+         *
+         * @param line number of the line of the record (from 1)
+         * @param message reason for the rejection
+         */
+        void rejected(long line, String message);
+    }
+
+    /* Static tables of the knowledge base */
+    private final KnowledgeBase kb;
+    /* Cache of final diagnoses, or null to run every consultation */
+    private final DiagnosisCache cache;
+    /* Format of the reports */
+    private final Format format;
+    /* Executor on which the chunks are rendered, and the number of chunks in flight */
+    private final Executor executor;
+    private final int window;
+
+    /* Labels of the diseases, escaped for the format once: names for HTML, keys for CSV and NDJSON */
+    private final String[] labels;
+
+    /* Number of records exported and rejected */
+    private long exported;
+    private long rejected;
+
+    /**
+     * Creates an exporter
+     *
+     * @param kb static tables of the knowledge base
+     * @param cache cache of final diagnoses, or <code>null</code> to run every consultation
+     * @param format format of the reports
+     * @param executor executor on which the chunks are rendered
+     * @param window largest number of chunks in flight
+     * @throws IllegalArgumentException if the window is not positive
+     */
+    public ReportExporter(KnowledgeBase kb, DiagnosisCache cache, Format format, Executor executor, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Invalid window: " + window);
+        }
+
+        this.kb = kb;
+        this.cache = cache;
+        this.format = format;
+        this.executor = executor;
+        this.window = window;
+
+        labels = new String[kb.getNumDiseases()];
+        for (int d = 0; d < labels.length; d++) {
+            StringBuilder sb = new StringBuilder();
+            if (format == Format.HTML) {
+                String name = kb.getDiseaseName(d);
+                appendHtml(sb, name.endsWith(".") ? name.substring(0, name.length() - 1) : name);
+            } else if (format == Format.CSV) {
+                appendCsv(sb, "cf_" + kb.getDiseaseKey(d));
+            } else {
+                appendJson(sb, kb.getDiseaseKey(d));
+            }
+            labels[d] = sb.toString();
+        }
+    }
+
+    /**
+     * Exports the reports of the records to a channel, from the header to the footer of the document; blank
+     * lines and lines starting with <code>#</code> are skipped
+     *
+     * @param records records <code>name,age,sex,answers</code>, one per line
+     * @param channel channel to which the document is written (not closed)
+     * @param listener listener of the records that could not be exported
+     * @throws IOException if the document cannot be written
+     */
+    public void export(Iterator<String> records, WritableByteChannel channel, RejectionListener listener)
+            throws IOException {
+        write(channel, encode(header()));
+
+        ArrayDeque<CompletableFuture<Chunk>> inFlight = new ArrayDeque<>();
+        long line = 0;
+
+        while (records.hasNext()) {
+            /* Read the next chunk of records on this thread, so that the input is consumed in order. */
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            long first = line + 1;
+            while (chunk.size() < CHUNK_SIZE && records.hasNext()) {
+                chunk.add(records.next());
+                line++;
+            }
+
+            inFlight.add(CompletableFuture.supplyAsync(() -> render(chunk, first), executor));
+            if (inFlight.size() >= window) {
+                drain(inFlight.poll(), channel, listener);
+            }
+        }
+
+        while (!inFlight.isEmpty()) {
+            drain(inFlight.poll(), channel, listener);
+        }
+
+        write(channel, encode(footer()));
+    }
+
+    /**
+     * Returns the number of records exported so far
+     *
+     * @return number of records exported
+     */
+    public long getExported() {
+        return exported;
+    }
+
+    /**
+     * Returns the number of records rejected so far
+     *
+     * @return number of records rejected
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Waits for a rendered chunk, reports its rejected records, and writes it
+     *
+     * @param future chunk being rendered
+     * @param channel channel to which the document is written
+     * @param listener listener of the records that could not be exported
+     * @throws IOException if the chunk cannot be written
+     */
+    private void drain(CompletableFuture<Chunk> future, WritableByteChannel channel, RejectionListener listener)
+            throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Rendering failed", e.getCause());
+        }
+
+        for (int k = 0; k < chunk.rejectedLines.size(); k++) {
+            listener.rejected(chunk.rejectedLines.get(k), chunk.rejectedMessages.get(k));
+        }
+        exported += chunk.exported;
+        rejected += chunk.rejectedLines.size();
+
+        write(channel, chunk.bytes);
+    }
+
+    private static void write(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer encode(CharSequence text) {
+        return StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+    }
+
+    /**
+     * Diagnoses and renders a chunk of records
+     *
+     * @param records records of the chunk
+     * @param first number of the line of the first record
+     * @return rendered chunk
+     */
+    private Chunk render(List<String> records, long first) {
+        Chunk chunk = new Chunk();
+        StringBuilder sb = new StringBuilder(records.size() * (64 + 24 * labels.length));
+
+        for (int k = 0; k < records.size(); k++) {
+            String record = records.get(k);
+            if (record.isBlank() || record.startsWith("#")) {
+                continue;
+            }
+
+            /* A malformed record is reported and skipped, so it does not abort the whole batch. */
+            int mark = sb.length();
+            try {
+                String[] fields = BatchRescorer.split(record);
+                DiagnosisResult result = BatchRescorer.diagnose(kb, cache, fields);
+                append(sb, fields[0].trim(), Double.parseDouble(fields[1].trim()), fields[2].trim(), result);
+                chunk.exported++;
+            } catch (IllegalArgumentException e) {
+                sb.setLength(mark);
+                chunk.rejectedLines.add(first + k);
+                chunk.rejectedMessages.add(e.getMessage());
+            }
+        }
+
+        chunk.bytes = encode(sb);
+        return chunk;
+    }
+
+    /**
+     * Appends the report of a patient
+     *
+     * @param sb buffer to which the report is appended
+     * @param name name of the patient
+     * @param age age of the patient
+     * @param sex sex of the patient
+     * @param result outcome of the consultation
+     */
+    private void append(StringBuilder sb, String name, double age, String sex, DiagnosisResult result) {
+        int disease = result.getDiagnosedDisease();
+        String diagnosis = result.getFinalDiagnosis(name);
+
+        switch (format) {
+            case HTML:
+                sb.append("<section>\n<h2>");
+                appendHtml(sb, name);
+                sb.append("</h2>\n<p>Age: ");
+                appendAge(sb, age);
+                sb.append(" &middot; Sex: ");
+                appendHtml(sb, sex);
+                sb.append(" &middot; Answers: ").append(result.getNumAnswers())
+                        .append("</p>\n<p class=\"diagnosis\">");
+                appendHtml(sb, diagnosis);
+                sb.append("</p>\n");
+                if (result.getEmergency()) {
+                    sb.append("<p class=\"emergency\">Emergency: a symptom indicative of an emergency was reported"
+                            + "</p>\n");
+                }
+                sb.append("<table>\n<tr><th>Disease</th><th>Certainty factor</th></tr>\n");
+                for (int d = 0; d < labels.length; d++) {
+                    sb.append(d == disease ? "<tr class=\"top\"><td>" : "<tr><td>").append(labels[d])
+                            .append("</td><td>");
+                    result.appendCF(sb, d);
+                    sb.append("</td></tr>\n");
+                }
+                sb.append("</table>\n</section>\n");
+                break;
+
+            case CSV:
+                appendCsv(sb, name);
+                sb.append(',');
+                appendAge(sb, age);
+                sb.append(',');
+                appendCsv(sb, sex);
+                sb.append(',').append(kb.getDiseaseKey(disease)).append(',');
+                result.appendCF(sb, disease);
+                sb.append(',').append(result.getEmergency()).append(',').append(result.getNumAnswers()).append(',');
+                appendCsv(sb, diagnosis);
+                for (int d = 0; d < labels.length; d++) {
+                    sb.append(',');
+                    result.appendCF(sb, d);
+                }
+                sb.append("\r\n");
+                break;
+
+            default:
+                sb.append("{\"name\":");
+                appendJson(sb, name);
+                sb.append(",\"age\":");
+                appendAge(sb, age);
+                sb.append(",\"sex\":");
+                appendJson(sb, sex);
+                sb.append(",\"disease\":");
+                appendJson(sb, kb.getDiseaseKey(disease));
+                sb.append(",\"cf\":");
+                result.appendCF(sb, disease);
+                sb.append(",\"emergency\":").append(result.getEmergency()).append(",\"answers\":")
+                        .append(result.getNumAnswers()).append(",\"diagnosis\":");
+                appendJson(sb, diagnosis);
+                sb.append(",\"cfs\":{");
+                for (int d = 0; d < labels.length; d++) {
+                    sb.append(d == 0 ? "" : ",").append(labels[d]).append(':');
+                    result.appendCF(sb, d);
+                }
+                sb.append("}}\n");
+                break;
+        }
+    }
+
+    private CharSequence header() {
+        switch (format) {
+            case HTML:
+                return "<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n<meta charset=\"utf-8\">\n"
+                        + "<title>Diagnosis reports</title>\n<style>\n"
+                        + "body { font-family: sans-serif; }\n"
+                        + "section { page-break-inside: avoid; border-bottom: 1px solid #999; padding: 0.5em 0; }\n"
+                        + ".emergency { color: #b00; font-weight: bold; }\n"
+                        + "td:last-child { text-align: right; }\n"
+                        + "tr.top { font-weight: bold; }\n"
+                        + "</style>\n</head>\n<body>\n<h1>Diagnosis reports</h1>\n";
+            case CSV:
+                StringBuilder sb = new StringBuilder("name,age,sex,disease,cf,emergency,answers,diagnosis");
+                for (String label : labels) {
+                    sb.append(',').append(label);
+                }
+                return sb.append("\r\n");
+            default:
+                return "";
+        }
+    }
+
+    private CharSequence footer() {
+        return format == Format.HTML ? "</body>\n</html>\n" : "";
+    }
+
+    private static void appendAge(StringBuilder sb, double age) {
+        if (age == Math.rint(age) && Math.abs(age) < 1e15) {
+            sb.append((long) age);
+        } else {
+            sb.append(age);
+        }
+    }
+
+    private static void appendHtml(StringBuilder sb, String text) {
+        for (int k = 0; k < text.length(); k++) {
+            char c = text.charAt(k);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                case '\'':
+                    sb.append("&#39;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    private static void appendCsv(StringBuilder sb, String text) {
+        boolean quoted = false;
+        for (int k = 0; k < text.length() && !quoted; k++) {
+            char c = text.charAt(k);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quoted) {
+            sb.append(text);
+            return;
+        }
+
+        sb.append('"');
+        for (int k = 0; k < text.length(); k++) {
+            char c = text.charAt(k);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private static void appendJson(StringBuilder sb, String text) {
+        sb.append('"');
+        for (int k = 0; k < text.length(); k++) {
+            char c = text.charAt(k);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Chunk of records, diagnosed and rendered
+     */
+    private static final class Chunk {
+        /* Rendered reports, encoded in UTF-8 */
+        private ByteBuffer bytes;
+        /* Number of records exported */
+        private int exported;
+        /* Numbers of the lines of the rejected records, and the reasons */
+        private final List<Long> rejectedLines = new ArrayList<>();
+        private final List<String> rejectedMessages = new ArrayList<>();
+    }
+}
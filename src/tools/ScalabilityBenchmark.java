@@ -0,0 +1,334 @@
+package tools;
+
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseParser;
+import expert.PrologJavaRunner;
+import expert.VitalSignRules;
+import org.jpl7.Query;
+import org.jpl7.Term;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Benchmark suite that measures <b>how the expert system scales with the size of the knowledge base</b>
+ *
+ * <p>For each requested size (written as <code>DISEASESxSYMPTOMS</code>), a synthetic knowledge base is
+ * generated by {@link KnowledgeBaseGenerator} and the following are reported:</p>
+ * <ul>
+ *     <li>the time taken to parse the static tables in Java ({@link KnowledgeBaseParser});</li>
+ *     <li>the time taken to consult the knowledge base in SWI-Prolog and read its constants;</li>
+ *     <li>the latency of each step of a consultation (<code>displayInquiry</code>, <code>updateCF</code>,
+ *     <code>deleteAll/1</code>, <code>displayCFvals</code>, <code>getFinalDiagnosis</code>, and
+ *     <code>restore/0</code>), driven through {@link PrologJavaRunner} exactly as the GUI drives it; and</li>
+ *     <li>the memory used per session, that is, the size of the dynamic clauses (<code>cf/2</code> and
+ *     <code>removed/1</code>) at the end of a consultation.</li>
+ * </ul>
+ *
+ * <p>Each simulated patient has one of the diseases and reports each of its symptoms with a probability of
+ * 0.8, and any other symptom with a probability of 0.1. Vital signs, if present, are answered with normal
+ * readings. The Prolog measurements require SWI-Prolog and JPL on the library path; pass
+ * <code>--no-prolog</code> to only measure the Java side.</p>
+ *
+ * <p>Usage: <code>java tools.ScalabilityBenchmark [--sizes 15x96,100x1000,1000x10000] [--fanout N]
+ * [--skew S] [--weights SPEC] [--sessions N] [--seed N] [--csv FILE] [--no-prolog]</code></p>
+ */
+public class ScalabilityBenchmark {
+    /* Names of the measured steps, in the order in which they are reported */
+    private static final String[] STEPS = {"displayInquiry", "updateCF", "deleteAll", "displayCFvals",
+            "getFinalDiagnosis", "restore"};
+
+    /* Sizes of the knowledge bases, as pairs of the number of diseases and the number of symptoms */
+    private final List<int[]> sizes = new ArrayList<>();
+    /* Average number of symptoms per disease */
+    private int fanout = 8;
+    /* Exponent of the Zipf distribution from which the symptoms are drawn */
+    private double skew = 1.0;
+    /* Distribution of the weights */
+    private String weights = "uniform:0.1:0.9";
+    /* Number of simulated consultations per knowledge base */
+    private int sessions = 20;
+    /* Seed of the random number generators */
+    private long seed = 1;
+    /* Set to true if the Prolog measurements are taken; false, otherwise */
+    private boolean prolog = true;
+    /* File to which the results are written as comma-separated values, or null */
+    private Path csv;
+
+    /**
+     * Creates a benchmark with the default parameters
+     */
+    public ScalabilityBenchmark() {
+
+    }
+
+    /**
+     * Runs the benchmark according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        ScalabilityBenchmark benchmark;
+        benchmark = new ScalabilityBenchmark();
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--sizes":
+                        for (String size : args[++k].split(",")) {
+                            String[] parts = size.split("x");
+                            benchmark.sizes.add(new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])});
+                        }
+                        break;
+                    case "--fanout":
+                        benchmark.fanout = Integer.parseInt(args[++k]);
+                        break;
+                    case "--skew":
+                        benchmark.skew = Double.parseDouble(args[++k]);
+                        break;
+                    case "--weights":
+                        benchmark.weights = args[++k];
+                        break;
+                    case "--sessions":
+                        benchmark.sessions = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        benchmark.seed = Long.parseLong(args[++k]);
+                        break;
+                    case "--csv":
+                        benchmark.csv = Paths.get(args[++k]);
+                        break;
+                    case "--no-prolog":
+                        benchmark.prolog = false;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.ScalabilityBenchmark [--sizes 15x96,100x1000,1000x10000] "
+                    + "[--fanout N] [--skew S] [--weights SPEC] [--sessions N] [--seed N] [--csv FILE] [--no-prolog]");
+            System.exit(2);
+        }
+
+        if (benchmark.sizes.isEmpty()) {
+            benchmark.sizes.add(new int[]{15, 96});
+            benchmark.sizes.add(new int[]{100, 1000});
+            benchmark.sizes.add(new int[]{1000, 10000});
+        }
+
+        try {
+            benchmark.run(System.out);
+        } catch (IOException e) {
+            System.err.println("Benchmark failed: " + e);
+            System.exit(1);
+        } catch (LinkageError e) {
+            System.err.println("SWI-Prolog and JPL are required for the Prolog measurements (" + e
+                    + "); rerun with --no-prolog to only measure the Java side.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the benchmark for every size and prints the results
+     *
+     * @param out stream to which the results are printed
+     * @throws IOException if a knowledge base cannot be generated or the results cannot be written
+     */
+    public void run(PrintStream out) throws IOException {
+        List<String> rows = new ArrayList<>();
+        rows.add("diseases,symptoms,parseMs,consultMs,step,count,meanUs,p50Us,p90Us,p99Us,maxUs,sessionBytes");
+
+        for (int[] size : sizes) {
+            Path kbFile = Files.createTempFile("kb-" + size[0] + "x" + size[1] + "-", ".pl");
+
+            try {
+                KnowledgeBaseGenerator generator;
+                generator = new KnowledgeBaseGenerator();
+                generator.setNumDiseases(size[0]);
+                generator.setNumSymptoms(size[1]);
+                generator.setFanout(Math.min(fanout, size[1]));
+                generator.setSkew(skew);
+                generator.setWeights(weights);
+                generator.setSeed(seed);
+                generator.writeTo(kbFile);
+
+                out.printf(Locale.ROOT, "== %d diseases x %d symptoms (%d KiB)%n", size[0], size[1],
+                        Files.size(kbFile) / 1024);
+
+                /* Java-side parsing of the static tables */
+                long start = System.nanoTime();
+                KnowledgeBase kb = KnowledgeBaseParser.parse(kbFile);
+                double parseMs = (System.nanoTime() - start) / 1e6;
+                out.printf(Locale.ROOT, "parse: %.1f ms%n", parseMs);
+
+                if (!prolog) {
+                    rows.add(String.format(Locale.ROOT, "%d,%d,%.3f,,,,,,,,,", size[0], size[1], parseMs));
+                    continue;
+                }
+
+                /* Consultation of the knowledge base in SWI-Prolog */
+                PrologJavaRunner expert;
+                expert = new PrologJavaRunner();
+
+                start = System.nanoTime();
+                if (!expert.loadKnowledgeBase(kbFile.toString())) {
+                    throw new IOException("SWI-Prolog failed to consult " + kbFile);
+                }
+                expert.loadConstantsFromKB();
+                double consultMs = (System.nanoTime() - start) / 1e6;
+                out.printf(Locale.ROOT, "consult: %.1f ms%n", consultMs);
+
+                LatencyHistogram[] histograms = new LatencyHistogram[STEPS.length];
+                for (int k = 0; k < STEPS.length; k++) {
+                    histograms[k] = new LatencyHistogram();
+                }
+
+                Random random = new Random(seed);
+                long sessionBytes = 0;
+                for (int n = 0; n < sessions; n++) {
+                    sessionBytes += runSession(kb, random, histograms);
+                }
+                sessionBytes /= Math.max(1, sessions);
+
+                for (int k = 0; k < STEPS.length; k++) {
+                    LatencyHistogram h = histograms[k];
+                    out.printf("%-18s %s%n", STEPS[k], h);
+                    rows.add(String.format(Locale.ROOT, "%d,%d,%.3f,%.3f,%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%d",
+                            size[0], size[1], parseMs, consultMs, STEPS[k], h.getCount(), h.getMean() / 1e3,
+                            h.getPercentile(50) / 1e3, h.getPercentile(90) / 1e3, h.getPercentile(99) / 1e3,
+                            h.getMax() / 1e3, sessionBytes));
+                }
+                out.printf("memory per session: %d bytes%n", sessionBytes);
+
+                /* Unload the synthetic knowledge base before consulting the next one. */
+                new Query("unload_file('" + kbFile.toAbsolutePath().toString().replace("\\", "/") + "')")
+                        .hasSolution();
+            } finally {
+                Files.deleteIfExists(kbFile);
+            }
+        }
+
+        if (csv != null) {
+            Files.write(csv, rows);
+        }
+    }
+
+    /**
+     * Simulates one consultation, recording the latency of each step, and returns the memory used by the
+     * session (the size of the dynamic clauses at its end)
+     *
+     * @param kb static tables of the knowledge base
+     * @param random random number generator
+     * @param histograms histograms of the latencies, in the order of <code>STEPS</code>
+     * @return memory used by the session, in bytes
+     */
+    private long runSession(KnowledgeBase kb, Random random, LatencyHistogram[] histograms) {
+        /* The patient has one of the diseases. */
+        boolean[] hasSymptom = new boolean[kb.getNumSymptoms()];
+        for (int s : kb.getDiseaseSymptoms(random.nextInt(kb.getNumDiseases()))) {
+            hasSymptom[s] = random.nextDouble() < 0.8;
+        }
+
+        PrologJavaRunner expert;
+        expert = new PrologJavaRunner();
+        expert.setKnowledgeBase(kb);
+        expert.loadConstantsFromKB();
+        expert.setName("Patient");
+        expert.setAge(random.nextInt(80));
+        expert.setSex(random.nextBoolean() ? "Male" : "Female");
+        expert.removeFemaleSymptoms();
+        expert.removeChildSymptoms();
+
+        boolean done = !timedInquiry(expert, histograms[0]);
+        while (!done) {
+            String symptom = expert.getSymptom();
+            int id = kb.getSymptomId(symptom);
+            boolean yes = hasSymptom[id] || random.nextDouble() < 0.1;
+
+            /* Vital signs are answered with readings that agree with the answer, but never emergencies. */
+            String answer = LoadGenerator.answer(kb.getVitalSignRules(), id, yes, false, expert.getAge(),
+                    VitalSignRules.sexCode(expert.getSex()), random);
+
+            long start = System.nanoTime();
+            expert.setAns(answer);
+            expert.updateCF(symptom, expert.getAns(), expert.getAge(), expert.getI());
+            histograms[1].record(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            expert.deleteSymptom();
+            histograms[2].record(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            expert.displayCFvals(symptom);
+            histograms[3].record(System.nanoTime() - start);
+
+            /* Same control flow as MainScreenController */
+            if (expert.isLowConfidence()) {
+                expert.moveToNextDisease();
+                done = !timedInquiry(expert, histograms[0]);
+            } else if (!timedInquiry(expert, histograms[0])) {
+                if (expert.isHighConfidence()) {
+                    done = true;
+                } else {
+                    expert.moveToNextDisease();
+                    done = !timedInquiry(expert, histograms[0]);
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        expert.getFinalDiagnosis();
+        histograms[4].record(System.nanoTime() - start);
+
+        long bytes = clauseBytes("cf(_, _)") + clauseBytes("removed(_)");
+
+        start = System.nanoTime();
+        expert.unloadKnowledgeBase();
+        histograms[5].record(System.nanoTime() - start);
+
+        return bytes;
+    }
+
+    /**
+     * Displays the next inquiry, recording its latency, and returns <code>true</code> if there is one;
+     * <code>false</code>, otherwise
+     *
+     * @param expert expert system
+     * @param histogram histogram of the latencies of <code>displayInquiry</code>
+     * @return <code>true</code> if there is a next inquiry; <code>false</code>, otherwise
+     */
+    private static boolean timedInquiry(PrologJavaRunner expert, LatencyHistogram histogram) {
+        long start = System.nanoTime();
+
+        try {
+            expert.displayInquiry();
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        } finally {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the memory used by the clauses of a dynamic predicate, as reported by SWI-Prolog
+     *
+     * @param head most general head of the predicate
+     * @return memory used by the clauses of the predicate, in bytes
+     */
+    private static long clauseBytes(String head) {
+        Map<String, Term> solution = new Query("predicate_property(" + head + ", size(B))").oneSolution();
+        return solution == null ? 0 : Long.parseLong(String.valueOf(solution.get("B")));
+    }
+}
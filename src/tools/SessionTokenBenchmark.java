@@ -0,0 +1,204 @@
+package tools;
+
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseParser;
+import expert.SessionToken;
+import expert.VitalSignRules;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark that measures the <b>cost and the size of the session-state tokens</b> ({@link SessionToken}) as
+ * the knowledge base grows
+ *
+ * <p>For each requested size (written as <code>DISEASESxSYMPTOMS</code>), a synthetic knowledge base is
+ * generated by {@link KnowledgeBaseGenerator}, and <code>--sessions</code> simulated consultations are suspended
+ * after a random number of answers (one in twenty answers is the last, and some consultations end first). Each
+ * one is encoded into an exact and a quantised token and resumed from both. The distribution of the encoding and
+ * decoding times and the mean and largest sizes of the tokens are reported. The sessions resumed from the exact
+ * tokens must be in the same state as the originals; the tool exits with status 1 otherwise. The first
+ * <code>--warmup</code> sessions of each size are not measured.</p>
+ *
+ * <p>Usage: <code>java tools.SessionTokenBenchmark [--sizes 15x96,100x1000,1000x10000] [--fanout N]
+ * [--sessions N] [--warmup N] [--seed N]</code></p>
+ */
+public class SessionTokenBenchmark {
+    /**
+     * Runs the benchmark according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        List<int[]> sizes = new ArrayList<>();
+        int fanout = 8;
+        int numSessions = 2000;
+        int warmup = 500;
+        long seed = 1;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--sizes":
+                        for (String size : args[++k].split(",")) {
+                            String[] parts = size.split("x");
+                            sizes.add(new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])});
+                        }
+                        break;
+                    case "--fanout":
+                        fanout = Integer.parseInt(args[++k]);
+                        break;
+                    case "--sessions":
+                        numSessions = Integer.parseInt(args[++k]);
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (numSessions <= 0 || warmup < 0 || fanout <= 0) {
+                throw new IllegalArgumentException("The number of sessions and the fanout must be positive");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.SessionTokenBenchmark [--sizes 15x96,100x1000,1000x10000] "
+                    + "[--fanout N] [--sessions N] [--warmup N] [--seed N]");
+            System.exit(2);
+        }
+
+        if (sizes.isEmpty()) {
+            sizes.add(new int[]{15, 96});
+            sizes.add(new int[]{100, 1000});
+            sizes.add(new int[]{1000, 10000});
+        }
+
+        /* The key only has to be shared by the encoder and the decoder. */
+        byte[] key = new byte[32];
+        new Random(seed).nextBytes(key);
+        SessionToken tokens = new SessionToken(key);
+
+        long mismatches = 0;
+        for (int[] size : sizes) {
+            KnowledgeBase kb = null;
+            try {
+                kb = generate(size[0], size[1], Math.min(fanout, size[1]), seed);
+            } catch (IOException e) {
+                System.err.println("Failed to generate the knowledge base: " + e);
+                System.exit(1);
+            }
+            System.out.printf("== %d diseases x %d symptoms%n", size[0], size[1]);
+
+            for (boolean quantised : new boolean[]{false, true}) {
+                LatencyHistogram encode = new LatencyHistogram();
+                LatencyHistogram decode = new LatencyHistogram();
+                long totalBytes = 0;
+                int maxBytes = 0;
+                long numAnswers = 0;
+
+                Random random = new Random(seed);
+                for (int n = -warmup; n < numSessions; n++) {
+                    DiagnosisSession session = consult(kb, random);
+
+                    long start = System.nanoTime();
+                    byte[] token = tokens.encode(session, quantised);
+                    long encoded = System.nanoTime();
+                    DiagnosisSession resumed = tokens.decode(token, kb);
+                    long decoded = System.nanoTime();
+
+                    if (!quantised && (!resumed.snapshot().equals(session.snapshot())
+                            || resumed.getNumAnswers() != session.getNumAnswers()
+                            || resumed.getAge() != session.getAge() || !resumed.getName().equals(session.getName()))) {
+                        mismatches++;
+                    }
+                    if (n < 0) {
+                        continue;
+                    }
+
+                    encode.record(encoded - start);
+                    decode.record(decoded - encoded);
+                    totalBytes += token.length;
+                    maxBytes = Math.max(maxBytes, token.length);
+                    numAnswers += session.getNumAnswers();
+                }
+
+                String mode = quantised ? "quantised" : "exact";
+                System.out.printf("%-9s encode %s%n", mode, encode);
+                System.out.printf("%-9s decode %s%n", mode, decode);
+                System.out.printf(Locale.ROOT, "%-9s size   mean %.0f bytes (%.0f in Base64), max %d bytes, after "
+                                + "%.1f answers on average%n", mode, (double) totalBytes / numSessions,
+                        Math.ceil(totalBytes * 4.0 / 3 / numSessions), maxBytes, (double) numAnswers / numSessions);
+            }
+        }
+
+        if (mismatches > 0) {
+            System.out.printf("%d sessions were not resumed in the same state%n", mismatches);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Generates and parses a synthetic knowledge base
+     *
+     * @param numDiseases number of diseases
+     * @param numSymptoms number of unique symptoms
+     * @param fanout average number of symptoms per disease
+     * @param seed seed of the generator
+     * @return static tables of the knowledge base
+     * @throws IOException if the knowledge base cannot be generated
+     */
+    private static KnowledgeBase generate(int numDiseases, int numSymptoms, int fanout, long seed)
+            throws IOException {
+        Path kbFile = Files.createTempFile("kb-" + numDiseases + "x" + numSymptoms + "-", ".pl");
+        try {
+            KnowledgeBaseGenerator generator;
+            generator = new KnowledgeBaseGenerator();
+            generator.setNumDiseases(numDiseases);
+            generator.setNumSymptoms(numSymptoms);
+            generator.setFanout(fanout);
+            generator.setSeed(seed);
+            generator.writeTo(kbFile);
+            return KnowledgeBaseParser.parse(kbFile);
+        } finally {
+            Files.deleteIfExists(kbFile);
+        }
+    }
+
+    /**
+     * Simulates a consultation up to a random answer, at which it is suspended
+     *
+     * @param kb static tables of the knowledge base
+     * @param random source of the patient and of the answers
+     * @return consultation to be suspended
+     */
+    private static DiagnosisSession consult(KnowledgeBase kb, Random random) {
+        /* The patient has one of the diseases. */
+        boolean[] hasSymptom = new boolean[kb.getNumSymptoms()];
+        for (int s : kb.getDiseaseSymptoms(random.nextInt(kb.getNumDiseases()))) {
+            hasSymptom[s] = random.nextDouble() < 0.8;
+        }
+
+        double age = random.nextInt(90);
+        String sex = random.nextBoolean() ? "male" : "female";
+        DiagnosisSession session = new DiagnosisSession(kb, "Patient", age, sex);
+
+        while (!session.isFinished() && random.nextInt(20) != 0) {
+            int id = session.getSymptomId();
+            boolean yes = hasSymptom[id] || random.nextDouble() < 0.1;
+            session.answer(LoadGenerator.answer(kb.getVitalSignRules(), id, yes, false, age,
+                    VitalSignRules.sexCode(sex), random));
+        }
+        return session;
+    }
+}
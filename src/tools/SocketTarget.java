@@ -0,0 +1,138 @@
+package tools;
+
+import expert.KnowledgeBase;
+import server.DiagnosisClient;
+import server.DiagnosisServer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Load target running consultations on a {@link DiagnosisServer} <b>behind a Unix domain socket</b>
+ *
+ * <p>Every thread of the load generator opens its own connection, on which it runs its consultations one
+ * after the other.</p>
+ */
+public class SocketTarget implements LoadTarget {
+    /* Static tables of the knowledge base, to map the symptoms to their IDs */
+    private final KnowledgeBase kb;
+    /* Path of the socket of the server */
+    private final Path socket;
+    /* Connection of every thread */
+    private final ThreadLocal<DiagnosisClient> clients = new ThreadLocal<>();
+    /* All the connections, to be closed */
+    private final Queue<DiagnosisClient> opened = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a target running consultations on the server listening on the given socket
+     *
+     * @param kb static tables of the knowledge base of the server
+     * @param socket path of the socket of the server
+     */
+    public SocketTarget(KnowledgeBase kb, Path socket) {
+        this.kb = kb;
+        this.socket = socket;
+    }
+
+    @Override
+    public String getName() {
+        return "socket " + socket + " (" + kb.getNumDiseases() + " diseases)";
+    }
+
+    @Override
+    public Interview start(String name, double age, String sex) throws IOException {
+        DiagnosisClient client = clients.get();
+        if (client == null) {
+            client = new DiagnosisClient(socket);
+            clients.set(client);
+            opened.add(client);
+        }
+
+        client.sendStart(name, age, sex);
+        DiagnosisClient.Response response = check(client.receive());
+        return new SocketInterview(client, response.getSession(), response.getSymptomId(),
+                response.getEmergency());
+    }
+
+    /**
+     * Returns a response, unless the request failed
+     *
+     * @param response response of the server
+     * @return response of the server
+     * @throws IOException if the request failed
+     */
+    private static DiagnosisClient.Response check(DiagnosisClient.Response response) throws IOException {
+        if (!response.isOk()) {
+            throw new IOException("Request failed with status " + response.getStatus() + ": "
+                    + response.getText());
+        }
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        DiagnosisClient client;
+        while ((client = opened.poll()) != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * Consultation on the server
+     */
+    private final class SocketInterview implements Interview {
+        /* Connection of the thread running the consultation */
+        private final DiagnosisClient client;
+        /* ID of the session on the server */
+        private final long session;
+        /* ID of the current symptom being asked, or -1 if the consultation has ended */
+        private int symptom;
+        /* Set to true if a symptom indicative of an emergency has been reported; false, otherwise */
+        private boolean emergency;
+
+        SocketInterview(DiagnosisClient client, long session, int symptom, boolean emergency) {
+            this.client = client;
+            this.session = session;
+            this.symptom = symptom;
+            this.emergency = emergency;
+        }
+
+        @Override
+        public String getSymptom() {
+            return symptom < 0 ? null : kb.getSymptomKey(symptom);
+        }
+
+        @Override
+        public void answer(String answer) throws IOException {
+            double value;
+            if (kb.getVitalSignRules().isNumeric(symptom)) {
+                value = Double.parseDouble(answer);
+            } else {
+                value = answer.equalsIgnoreCase("yes") ? 1 : 0;
+            }
+
+            client.sendAnswer(session, symptom, value);
+            DiagnosisClient.Response response = check(client.receive());
+            symptom = response.getSymptomId();
+            emergency = response.getEmergency();
+        }
+
+        @Override
+        public boolean getEmergency() {
+            return emergency;
+        }
+
+        @Override
+        public String getFinalDiagnosis() throws IOException {
+            /* Both requests go in one write. */
+            client.sendDiagnosis(session);
+            client.sendEnd(session);
+
+            String diagnosis = check(client.receive()).getText();
+            check(client.receive());
+            return diagnosis;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package tools;
+
+import expert.DiagnosisSession;
+import expert.KnowledgeBase;
+import expert.KnowledgeBaseLoader;
+import expert.VitalSignRules;
+import expert.WhatIfAnalysis;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command-line tool that runs the <b>what-if sensitivity analysis</b> ({@link WhatIfAnalysis}) on simulated
+ * consultations and measures how long it takes
+ *
+ * <p>Each simulated patient has one of the diseases and reports each of its symptoms with a probability of
+ * 0.8, and any other symptom with a probability of 0.1; vital signs are answered with readings. Once the
+ * consultation has ended, the flip of every answer (and, with <code>--pairs</code>, of every pair of answers) is
+ * evaluated on a fork-join pool of <code>--threads</code> workers. The analysis of the first consultation is
+ * printed, followed by the distribution of the analysis times and the time taken by the longest
+ * consultation.</p>
+ *
+ * <p>Usage: <code>java tools.WhatIfAnalyzer [--kb FILE] [--sessions N] [--threads N] [--pairs]
+ * [--seed N]</code></p>
+ */
+public class WhatIfAnalyzer {
+    /**
+     * Runs the analyses according to the command-line arguments
+     *
+     * @param args array of command-line arguments
+     */
+    public static void main(String[] args) {
+        Path kbFile = Paths.get("src", "expert", "knowledgebase.pl");
+        int numSessions = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean pairs = false;
+        long seed = 1;
+
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--kb":
+                        kbFile = Paths.get(args[++k]);
+                        break;
+                    case "--sessions":
+                        numSessions = Integer.parseInt(args[++k]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++k]);
+                        break;
+                    case "--pairs":
+                        pairs = true;
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[k]);
+                }
+            }
+
+            if (numSessions <= 0 || threads <= 0) {
+                throw new IllegalArgumentException("The number of sessions and of threads must be positive");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java tools.WhatIfAnalyzer [--kb FILE] [--sessions N] [--threads N] [--pairs] "
+                    + "[--seed N]");
+            System.exit(2);
+        }
+
+        KnowledgeBase kb = null;
+        try {
+            kb = KnowledgeBaseLoader.load(kbFile);
+        } catch (IOException e) {
+            System.err.println("Failed to load the knowledge base: " + e);
+            System.exit(1);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        LatencyHistogram singles = new LatencyHistogram();
+        LatencyHistogram pairTimes = new LatencyHistogram();
+        Random random = new Random(seed);
+
+        int longest = 0;
+        long longestNanos = 0;
+        long numFlips = 0;
+        long numMattering = 0;
+
+        for (int n = 0; n < numSessions; n++) {
+            WhatIfAnalysis analysis = consult(kb, random);
+
+            long start = System.nanoTime();
+            List<WhatIfAnalysis.Outcome> outcomes = analysis.flipEach(pool);
+            long singleNanos = System.nanoTime() - start;
+            singles.record(singleNanos);
+
+            numFlips += outcomes.size();
+            for (WhatIfAnalysis.Outcome outcome : outcomes) {
+                numMattering += outcome.matters() ? 1 : 0;
+            }
+
+            List<WhatIfAnalysis.Outcome> pairOutcomes = null;
+            long pairNanos = 0;
+            if (pairs) {
+                start = System.nanoTime();
+                pairOutcomes = analysis.flipPairs(pool);
+                pairNanos = System.nanoTime() - start;
+                pairTimes.record(pairNanos);
+            }
+
+            if (n == 0) {
+                System.out.printf("%d answers; diagnosis: %s%n", analysis.getNumAnswers(),
+                        kb.getDiseaseName(analysis.getActual().getDisease()));
+                System.out.print(analysis.describe(outcomes));
+                if (pairOutcomes != null) {
+                    System.out.print(analysis.describe(pairOutcomes).replace("What if:", "What if (pairs):"));
+                }
+            }
+
+            if (analysis.getNumAnswers() > longest) {
+                longest = analysis.getNumAnswers();
+                longestNanos = singleNanos + pairNanos;
+            }
+        }
+        pool.shutdown();
+
+        System.out.printf(Locale.ROOT, "%d sessions on %d threads: %d single flips, %d change the diagnosis or "
+                + "cross cfValueConclude%n", numSessions, threads, numFlips, numMattering);
+        System.out.printf("%-8s %s%n", "singles", singles);
+        if (pairs) {
+            System.out.printf("%-8s %s%n", "pairs", pairTimes);
+        }
+        System.out.printf(Locale.ROOT, "longest session: %d answers, analyzed in %.1f ms%n", longest,
+                longestNanos / 1e6);
+    }
+
+    /**
+     * Simulates a consultation to its end and returns its what-if analysis
+     *
+     * @param kb static tables of the knowledge base
+     * @param random source of the patient and of the answers
+     * @return what-if analysis of the consultation
+     */
+    private static WhatIfAnalysis consult(KnowledgeBase kb, Random random) {
+        /* The patient has one of the diseases. */
+        boolean[] hasSymptom = new boolean[kb.getNumSymptoms()];
+        for (int s : kb.getDiseaseSymptoms(random.nextInt(kb.getNumDiseases()))) {
+            hasSymptom[s] = random.nextDouble() < 0.8;
+        }
+
+        double age = random.nextInt(90);
+        String sex = random.nextBoolean() ? "male" : "female";
+        DiagnosisSession session = new DiagnosisSession(kb, "Patient", age, sex);
+
+        int[] symptoms = new int[kb.getNumSymptoms()];
+        int[] codes = new int[kb.getNumSymptoms()];
+        int numAnswers = 0;
+        while (!session.isFinished()) {
+            int id = session.getSymptomId();
+            boolean yes = hasSymptom[id] || random.nextDouble() < 0.1;
+            String answer = LoadGenerator.answer(kb.getVitalSignRules(), id, yes, false, age,
+                    VitalSignRules.sexCode(sex), random);
+
+            symptoms[numAnswers] = id;
+            codes[numAnswers] = kb.getVitalSignRules().evaluate(id, answer, age, VitalSignRules.sexCode(sex));
+            numAnswers++;
+            session.answer(answer);
+        }
+
+        return WhatIfAnalysis.of(kb, age, sex, Arrays.copyOf(symptoms, numAnswers), Arrays.copyOf(codes, numAnswers));
+    }
+}
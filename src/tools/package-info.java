@@ -0,0 +1,5 @@
+/**
+ * Provides <b>command-line tools</b> for building, benchmarking, and load-testing the medical expert system
+ */
+
+package tools;